@@ -0,0 +1,26 @@
+#!/usr/bin/env bash
+#
+# Compares two JMH JSON result files, printing ns/op and bytes allocated per op (when run with -prof gc) for each
+# benchmark side by side, with the relative change in time.
+#
+# Usage: compare.sh <baseline.json> <candidate.json>
+#
+set -euo pipefail
+
+if [ $# -ne 2 ]; then
+  echo "Usage: $0 <baseline.json> <candidate.json>" >&2
+  exit 1
+fi
+
+flatten() {
+  jq -r '.[] | [
+      (.benchmark | sub(".*\\."; "")) + (if .params then " " + (.params | to_entries | map(.key + "=" + .value) | join(",")) else "" end),
+      .primaryMetric.score,
+      ((.secondaryMetrics["·gc.alloc.rate.norm"] // .secondaryMetrics["gc.alloc.rate.norm"] // {score: "-"}).score)
+    ] | @tsv' "$1" | sort
+}
+
+join -t $'\t' <(flatten "$1") <(flatten "$2") \
+  | awk -F '\t' 'BEGIN { printf "%-80s %12s %12s %8s %12s %12s\n", "benchmark", "base ns/op", "new ns/op", "change", "base B/op", "new B/op" }
+                 { change = ($2 > 0) ? sprintf("%+.1f%%", ($4 - $2) * 100 / $2) : "-";
+                   printf "%-80s %12.1f %12.1f %8s %12s %12s\n", $1, $2, $4, change, $3, $5 }'
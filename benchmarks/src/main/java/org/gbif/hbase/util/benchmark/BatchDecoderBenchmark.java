@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.gbif.hbase.util.BatchDecoder;
+import org.gbif.hbase.util.Column;
+import org.gbif.hbase.util.DoubleVector;
+import org.gbif.hbase.util.IntVector;
+import org.gbif.hbase.util.LongVector;
+import org.gbif.hbase.util.ResultReader;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares decoding three numeric columns from a batch of rows with {@link BatchDecoder} against one boxed
+ * {@link ResultReader} call per row and column, summing the values as an aggregation would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchDecoderBenchmark {
+
+  @Param({"NARROW", "WIDE"})
+  public Rows.Shape shape;
+
+  @Param({"1000"})
+  public int batchSize;
+
+  private Result[] batch;
+  private Column intColumn;
+  private Column longColumn;
+  private Column doubleColumn;
+  private IntVector ints;
+  private LongVector longs;
+  private DoubleVector doubles;
+  private BatchDecoder decoder;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    batch = new Result[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      batch[i] = Rows.create(shape, 16, i);
+    }
+    intColumn = Column.of(Rows.FAMILY, Rows.qualifierOfType(shape, 0));
+    longColumn = Column.of(Rows.FAMILY, Rows.qualifierOfType(shape, 1));
+    doubleColumn = Column.of(Rows.FAMILY, Rows.qualifierOfType(shape, 2));
+    ints = new IntVector(intColumn, batchSize);
+    longs = new LongVector(longColumn, batchSize);
+    doubles = new DoubleVector(doubleColumn, batchSize);
+    decoder = new BatchDecoder(ints, longs, doubles);
+  }
+
+  @Benchmark
+  public double perRowBoxed() {
+    double sum = 0;
+    for (Result row : batch) {
+      Integer i = ResultReader.getInteger(row, intColumn, null);
+      Long l = ResultReader.getLong(row, longColumn, null);
+      Double d = ResultReader.getDouble(row, doubleColumn, null);
+      sum += (i == null ? 0 : i) + (l == null ? 0 : l) + (d == null ? 0 : d);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double batch() {
+    int size = decoder.decode(batch);
+    int[] i = ints.values();
+    long[] l = longs.values();
+    double[] d = doubles.values();
+    double sum = 0;
+    for (int r = 0; r < size; r++) {
+      sum += i[r] + l[r] + d[r];
+    }
+    return sum;
+  }
+}
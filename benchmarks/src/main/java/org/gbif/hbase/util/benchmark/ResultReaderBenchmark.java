@@ -0,0 +1,283 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.gbif.hbase.util.Column;
+import org.gbif.hbase.util.ResultReader;
+import org.gbif.hbase.util.RowMapper;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of reading single fields from a Result through each of the {@link ResultReader} methods, and of
+ * mapping all of a row's typed fields through {@link RowMapper} versus one {@link ResultReader} call per field.
+ * <p>
+ * Run with {@code -prof gc} to report bytes allocated per operation alongside ns/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultReaderBenchmark {
+
+  private static final String MISSING_QUALIFIER = "zzz";
+
+  @Param({"NARROW", "WIDE"})
+  public Rows.Shape shape;
+
+  /**
+   * Size in bytes of the string and bytes values.
+   */
+  @Param({"16", "4096"})
+  public int valueSize;
+
+  /**
+   * Whether the columns read exist in the row.
+   */
+  @Param({"true", "false"})
+  public boolean hit;
+
+  private Result row;
+  private final String[] names = new String[Rows.TYPES];
+  private final Column[] columns = new Column[Rows.TYPES];
+  private Column[] allColumns;
+  private RowMapper<Holder> mapper;
+  private Holder holder;
+
+  /**
+   * A flat primitive holder for every column of the row.
+   */
+  public static final class Holder {
+    final long[] longs;
+
+    Holder(int width) {
+      longs = new long[width];
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    row = Rows.create(shape, valueSize, 42);
+    for (int type = 0; type < Rows.TYPES; type++) {
+      names[type] = hit ? Rows.qualifierOfType(shape, type) : MISSING_QUALIFIER + type;
+      columns[type] = Column.of(Rows.FAMILY, names[type]);
+    }
+
+    allColumns = new Column[shape.columns];
+    RowMapper.Builder<Holder> builder = RowMapper.builder(() -> new Holder(shape.columns));
+    for (int i = 0; i < shape.columns; i++) {
+      String qualifier = hit ? Rows.qualifier(i) : MISSING_QUALIFIER + Rows.qualifier(i);
+      allColumns[i] = Column.of(Rows.FAMILY, qualifier);
+      final int index = i;
+      switch (i % Rows.TYPES) {
+        case 0:
+          builder.mapInt(allColumns[i], (h, v) -> h.longs[index] = v);
+          break;
+        case 1:
+          builder.mapLong(allColumns[i], (h, v) -> h.longs[index] = v);
+          break;
+        case 2:
+          builder.mapDouble(allColumns[i], (h, v) -> h.longs[index] = Double.doubleToRawLongBits(v));
+          break;
+        case 3:
+          builder.mapBoolean(allColumns[i], (h, v) -> h.longs[index] = v ? 1 : 0);
+          break;
+        case 4:
+          builder.mapString(allColumns[i], (h, v) -> h.longs[index] = v.length());
+          break;
+        case 5:
+          builder.mapCell(allColumns[i], (h, cell) -> h.longs[index] = cell.getValueLength());
+          break;
+        case 6:
+          builder.mapFloat(allColumns[i], (h, v) -> h.longs[index] = Double.doubleToRawLongBits(v));
+          break;
+        default:
+          builder.mapCell(allColumns[i],
+                          (h, cell) -> h.longs[index] = Bytes.toShort(cell.getValueArray(), cell.getValueOffset()));
+      }
+    }
+    mapper = builder.build();
+    holder = new Holder(shape.columns);
+  }
+
+  @Benchmark
+  public Integer getIntegerByName() {
+    return ResultReader.getInteger(row, Rows.FAMILY, names[0], null);
+  }
+
+  @Benchmark
+  public Integer getInteger() {
+    return ResultReader.getInteger(row, columns[0], null);
+  }
+
+  @Benchmark
+  public int getInt() {
+    return ResultReader.getInt(row, columns[0], -1);
+  }
+
+  @Benchmark
+  public Long getLongBoxedByName() {
+    return ResultReader.getLong(row, Rows.FAMILY, names[1], null);
+  }
+
+  @Benchmark
+  public Long getLongBoxed() {
+    return ResultReader.getLong(row, columns[1], null);
+  }
+
+  @Benchmark
+  public long getLong() {
+    return ResultReader.getLong(row, columns[1], -1L);
+  }
+
+  @Benchmark
+  public Double getDoubleBoxedByName() {
+    return ResultReader.getDouble(row, Rows.FAMILY, names[2], null);
+  }
+
+  @Benchmark
+  public Double getDoubleBoxed() {
+    return ResultReader.getDouble(row, columns[2], null);
+  }
+
+  @Benchmark
+  public double getDouble() {
+    return ResultReader.getDouble(row, columns[2], -1d);
+  }
+
+  @Benchmark
+  public Float getFloatBoxedByName() {
+    return ResultReader.getFloat(row, Rows.FAMILY, names[6], null);
+  }
+
+  @Benchmark
+  public Float getFloatBoxed() {
+    return ResultReader.getFloat(row, columns[6], null);
+  }
+
+  @Benchmark
+  public float getFloat() {
+    return ResultReader.getFloat(row, columns[6], -1f);
+  }
+
+  @Benchmark
+  public short getShortByName() {
+    return ResultReader.getShort(row, Rows.FAMILY, names[7], (short) -1);
+  }
+
+  @Benchmark
+  public short getShort() {
+    return ResultReader.getShort(row, columns[7], (short) -1);
+  }
+
+  @Benchmark
+  public boolean getBoolean() {
+    return ResultReader.getBoolean(row, columns[3], false);
+  }
+
+  @Benchmark
+  public String getStringByName() {
+    return ResultReader.getString(row, Rows.FAMILY, names[4], null);
+  }
+
+  @Benchmark
+  public String getString() {
+    return ResultReader.getString(row, columns[4], null);
+  }
+
+  @Benchmark
+  public byte[] getBytesByName() {
+    return ResultReader.getBytes(row, Rows.FAMILY, names[5], null);
+  }
+
+  @Benchmark
+  public byte[] getBytes() {
+    return ResultReader.getBytes(row, columns[5], null);
+  }
+
+  @Benchmark
+  public ByteBuffer getValueBuffer() {
+    return ResultReader.getValueBuffer(row, columns[5]);
+  }
+
+  @Benchmark
+  public Long getTimestampByName() {
+    return ResultReader.getTimestamp(row, Rows.FAMILY, names[5]);
+  }
+
+  @Benchmark
+  public Long getTimestamp() {
+    return ResultReader.getTimestamp(row, columns[5]);
+  }
+
+  /**
+   * Reads every column of the row with one {@link ResultReader} call per column, as a baseline for
+   * {@link #mapRow()}.
+   */
+  @Benchmark
+  public void readRowPerField(Blackhole bh) {
+    for (int i = 0; i < allColumns.length; i++) {
+      switch (i % Rows.TYPES) {
+        case 0:
+          bh.consume(ResultReader.getInt(row, allColumns[i], -1));
+          break;
+        case 1:
+          bh.consume(ResultReader.getLong(row, allColumns[i], -1L));
+          break;
+        case 2:
+          bh.consume(ResultReader.getDouble(row, allColumns[i], -1d));
+          break;
+        case 3:
+          bh.consume(ResultReader.getBoolean(row, allColumns[i], false));
+          break;
+        case 4:
+          bh.consume(ResultReader.getString(row, allColumns[i], null));
+          break;
+        case 5:
+          bh.consume(ResultReader.getValueBuffer(row, allColumns[i]));
+          break;
+        case 6:
+          bh.consume(ResultReader.getFloat(row, allColumns[i], -1f));
+          break;
+        default:
+          bh.consume(ResultReader.getShort(row, allColumns[i], (short) -1));
+      }
+    }
+  }
+
+  @Benchmark
+  public Holder mapRow() {
+    mapper.map(row, holder);
+    return holder;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Builds synthetic Results shaped like occurrence rows: a single family holding a run of typed columns named
+ * {@code q000}, {@code q001}... whose types cycle through int, long, double, boolean, string, bytes, float and short.
+ */
+public final class Rows {
+
+  static final String FAMILY = "o";
+  static final int TYPES = 8;
+
+  /**
+   * Row widths, in number of columns.
+   */
+  public enum Shape {
+    NARROW(TYPES), WIDE(120);
+
+    final int columns;
+
+    Shape(int columns) {
+      this.columns = columns;
+    }
+  }
+
+  private Rows() {
+  }
+
+  static String qualifier(int index) {
+    return String.format("q%03d", index);
+  }
+
+  /**
+   * @return the qualifier of a column of the given type (0 int, 1 long, 2 double, 3 boolean, 4 string, 5 bytes,
+   *         6 float, 7 short) near the middle of a row of the given shape
+   */
+  static String qualifierOfType(Shape shape, int type) {
+    int middle = (shape.columns / 2) / TYPES * TYPES;
+    return qualifier(middle + type);
+  }
+
+  static Result create(Shape shape, int valueSize, long seed) {
+    Random random = new Random(seed);
+    byte[] row = Bytes.toBytes(random.nextInt());
+    byte[] family = Bytes.toBytes(FAMILY);
+    List<Cell> cells = new ArrayList<>(shape.columns);
+    for (int i = 0; i < shape.columns; i++) {
+      cells.add(CellBuilderFactory.create(CellBuilderType.DEEP_COPY)
+                  .setRow(row)
+                  .setFamily(family)
+                  .setQualifier(Bytes.toBytes(qualifier(i)))
+                  .setTimestamp(System.currentTimeMillis())
+                  .setValue(value(i % TYPES, valueSize, random))
+                  .setType(Cell.Type.Put)
+                  .build());
+    }
+    return Result.create(cells);
+  }
+
+  private static byte[] value(int type, int valueSize, Random random) {
+    switch (type) {
+      case 0:
+        return Bytes.toBytes(random.nextInt());
+      case 1:
+        return Bytes.toBytes(random.nextLong());
+      case 2:
+        return Bytes.toBytes(random.nextDouble());
+      case 3:
+        return Bytes.toBytes(random.nextBoolean());
+      case 4:
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, (char) ('a' + random.nextInt(26)));
+        return Bytes.toBytes(new String(chars));
+      case 5:
+        byte[] bytes = new byte[valueSize];
+        random.nextBytes(bytes);
+        return bytes;
+      case 6:
+        return Bytes.toBytes(random.nextFloat());
+      default:
+        return Bytes.toBytes((short) random.nextInt());
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gbif.hbase.util.SplitIndex;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures routing an int row key to its region through a {@link SplitIndex}, against parsing the key back to an
+ * Integer and binary searching a boxed list of int splits as partitioners reading the int splits files do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SplitIndexBenchmark {
+
+  private static final int KEYS = 1024;
+
+  @Param({"1000", "50000"})
+  public int regions;
+
+  private SplitIndex index;
+  private List<Integer> boxedSplits;
+  private byte[][] keys;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    // int splits spread evenly over the non-negative ints, as for the occurrence tables
+    byte[][] splits = new byte[regions - 1][];
+    boxedSplits = new ArrayList<>(regions - 1);
+    long step = (long) Integer.MAX_VALUE / regions;
+    for (int i = 0; i < splits.length; i++) {
+      int split = (int) ((i + 1) * step);
+      splits[i] = Bytes.toBytes(split);
+      boxedSplits.add(split);
+    }
+    index = SplitIndex.of(splits);
+
+    Random random = new Random(42);
+    keys = new byte[KEYS][];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = Bytes.toBytes(random.nextInt(Integer.MAX_VALUE));
+    }
+  }
+
+  private byte[] nextKey() {
+    next = (next + 1) & (KEYS - 1);
+    return keys[next];
+  }
+
+  @Benchmark
+  public int splitIndex() {
+    return index.region(nextKey());
+  }
+
+  @Benchmark
+  public int boxedBinarySearch() {
+    int found = Collections.binarySearch(boxedSplits, Bytes.toInt(nextKey()));
+    return found >= 0 ? found + 1 : -(found + 1);
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util.perf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.gbif.hbase.util.BatchWriter;
+import org.gbif.hbase.util.Column;
+import org.gbif.hbase.util.ColumnAggregates;
+import org.gbif.hbase.util.ColumnAggregationEndpoint;
+import org.gbif.hbase.util.ColumnAggregator;
+import org.gbif.hbase.util.HBaseSplitCounter;
+import org.gbif.hbase.util.ParallelScanner;
+import org.gbif.hbase.util.RowMapper;
+import org.gbif.hbase.util.SplitsFile;
+import org.gbif.hbase.util.TableCloneCreator;
+import org.gbif.hbase.util.TableCopier;
+import org.gbif.hbase.util.TableCreator;
+import org.gbif.hbase.util.TableExporter;
+import org.gbif.hbase.util.TableSplitReader;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times the tools and the scan and write paths of hbase-utils end to end on an in-process mini-cluster holding a
+ * table of {@code perf.regions} pre-split regions loaded with {@code perf.rows} rows. Every timing is checked against
+ * its threshold (see {@link PerfResults}) and written to {@code perf.results} as JSON.
+ * <p>
+ * The results of each tool are checked too, so that a tool can't get faster by doing less.
+ */
+public class MiniClusterPerfTest {
+
+  private static final TableName TABLE = TableName.valueOf("perf");
+  private static final String FAMILY = "o";
+  private static final Column COUNT = Column.of(FAMILY, "count");
+  private static final Column NAME = Column.of(FAMILY, "name");
+
+  // the length of the names written, "name-" and 8 digits
+  private static final int NAME_LENGTH = 13;
+
+  private static final int REGIONS = Integer.getInteger("perf.regions", 2000);
+  private static final int ROWS = Integer.getInteger("perf.rows", 200_000);
+
+  @ClassRule
+  public static final TemporaryFolder TMP = new TemporaryFolder();
+
+  private static HBaseTestingUtility util;
+  private static Connection connection;
+  private static PerfResults perf;
+
+  @BeforeClass
+  public static void startCluster() throws Exception {
+    perf = PerfResults.load();
+    util = new HBaseTestingUtility();
+    // loaded on every region, as it would be on the table in production
+    util.getConfiguration().set(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY, ColumnAggregationEndpoint.class.getName());
+    util.startMiniCluster();
+    connection = util.getConnection();
+
+    byte[][] splits = intSplits(REGIONS);
+    perf.time("tableCreator.createTable", REGIONS, () -> {
+      TableCreator.createTable(connection, TABLE.getNameAsString(), FAMILY, splits, null,
+                               Compression.Algorithm.NONE, DataBlockEncoding.FAST_DIFF);
+      return null;
+    });
+    perf.time("batchWriter.load", ROWS, MiniClusterPerfTest::load);
+    // read from HFiles rather than the memstore, as a table that has been loaded for a while would be
+    util.flush(TABLE);
+  }
+
+  @AfterClass
+  public static void stopCluster() throws Exception {
+    try {
+      if (perf != null) {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("regions", REGIONS);
+        settings.put("rows", ROWS);
+        perf.write(Paths.get(System.getProperty("perf.results", "target/perf-results.json")), settings);
+      }
+    } finally {
+      if (util != null) {
+        util.shutdownMiniCluster();
+      }
+    }
+  }
+
+  @Test
+  public void testSplitCounter() throws Exception {
+    Path splitsFile = TMP.getRoot().toPath().resolve("counter_splits.txt");
+    int splits = perf.time("hbaseSplitCounter.writeSplits", REGIONS,
+                           () -> HBaseSplitCounter.writeSplits(connection, TABLE, splitsFile));
+    assertEquals(REGIONS - 1, splits);
+    // the file creates the same table again
+    assertArrayEquals(intSplits(REGIONS), SplitsFile.read(splitsFile.toString()));
+
+    Path indexFile = TMP.getRoot().toPath().resolve("counter_splits.idx");
+    splits = perf.time("hbaseSplitCounter.writeSplitIndex", REGIONS,
+                       () -> HBaseSplitCounter.writeSplitIndex(connection, TABLE, indexFile));
+    assertEquals(REGIONS - 1, splits);
+    assertArrayEquals(intSplits(REGIONS), SplitsFile.read(indexFile.toString()));
+  }
+
+  @Test
+  public void testSplitReader() throws Exception {
+    Path splitsFile = TMP.getRoot().toPath().resolve("reader_splits.txt");
+    int splits = perf.time("tableSplitReader.writeIntSplits", REGIONS,
+                           () -> TableSplitReader.writeIntSplits(connection, TABLE, splitsFile));
+    assertEquals(REGIONS - 1, splits);
+    assertEquals(REGIONS - 1, Files.readAllLines(splitsFile).size());
+
+    Path indexFile = TMP.getRoot().toPath().resolve("reader_splits.idx");
+    splits = perf.time("tableSplitReader.writeSplitIndex", REGIONS,
+                       () -> TableSplitReader.writeSplitIndex(connection, TABLE, indexFile));
+    assertEquals(REGIONS - 1, splits);
+    assertArrayEquals(intSplits(REGIONS), SplitsFile.read(indexFile.toString()));
+  }
+
+  @Test
+  public void testCloneAndCopy() throws Exception {
+    TableName clone = TableName.valueOf("perf_clone");
+    perf.time("tableCloneCreator.createPreSplit", REGIONS, () -> {
+      TableCloneCreator.createPreSplit(connection, TABLE, clone, null);
+      return null;
+    });
+    try {
+      try (RegionLocator locator = connection.getRegionLocator(clone)) {
+        assertEquals(REGIONS, locator.getAllRegionLocations().size());
+      }
+      perf.time("tableCopier.copy", ROWS, () -> {
+        TableCopier.builder(connection, TABLE, clone).threads(8).build().copy();
+        return null;
+      });
+      try (Table table = connection.getTable(clone);
+           ResultScanner scanner = table.getScanner(new Scan().setCaching(1000))) {
+        assertEquals(ROWS, count(scanner));
+      }
+    } finally {
+      util.deleteTable(clone);
+    }
+  }
+
+  @Test
+  public void testScans() throws Exception {
+    long rows = perf.time("scan.sequential", ROWS, () -> {
+      try (Table table = connection.getTable(TABLE);
+           ResultScanner scanner = table.getScanner(new Scan().setCaching(1000))) {
+        return count(scanner);
+      }
+    });
+    assertEquals(ROWS, rows);
+
+    rows = perf.time("parallelScanner.scan", ROWS, () -> {
+      try (ParallelScanner parallel = ParallelScanner.builder(connection, TABLE).build();
+           ResultScanner scanner = parallel.scan(new Scan().setCaching(1000))) {
+        return count(scanner);
+      }
+    });
+    assertEquals(ROWS, rows);
+
+    RowMapper<Totals> mapper = RowMapper.builder(Totals::new)
+      .mapLong(COUNT, (totals, value) -> totals.count += value)
+      .mapString(NAME, (totals, value) -> totals.nameLength += value.length())
+      .build();
+    Totals totals = perf.time("rowMapper.scan", ROWS, () -> {
+      Totals sums = new Totals();
+      try (Table table = connection.getTable(TABLE);
+           ResultScanner scanner = table.getScanner(new Scan().setCaching(1000))) {
+        for (Result row : scanner) {
+          mapper.map(row, sums);
+        }
+      }
+      return sums;
+    });
+    assertEquals(expectedSum(), totals.count);
+    assertEquals((long) NAME_LENGTH * ROWS, totals.nameLength);
+  }
+
+  @Test
+  public void testExport() throws Exception {
+    Path dir = TMP.newFolder("export").toPath();
+    TableExporter.Manifest manifest = perf.time("tableExporter.export", ROWS,
+      () -> TableExporter.builder(connection, TABLE, dir).threads(8).build().export());
+    assertEquals(2L * ROWS, manifest.getCells());
+  }
+
+  @Test
+  public void testAggregate() throws Exception {
+    ColumnAggregates aggregates = perf.time("columnAggregator.aggregate", ROWS, () -> {
+      try (Table table = connection.getTable(TABLE)) {
+        return ColumnAggregator.aggregate(table, COUNT, ColumnAggregates.Type.LONG, new Scan());
+      }
+    });
+    assertEquals(ROWS, aggregates.getCount());
+    assertEquals(0, aggregates.getInvalid());
+    assertEquals(expectedSum(), aggregates.getSum().longValue());
+  }
+
+  /**
+   * The sums of the mapped fields of all rows.
+   */
+  private static final class Totals {
+    private long count;
+    private long nameLength;
+  }
+
+  /**
+   * @return the int splits of a table of the given number of regions, evenly spread over the non-negative ints
+   */
+  private static byte[][] intSplits(int regions) {
+    byte[][] splits = new byte[regions - 1][];
+    for (int i = 1; i < regions; i++) {
+      splits[i - 1] = Bytes.toBytes((int) ((long) Integer.MAX_VALUE * i / regions));
+    }
+    return splits;
+  }
+
+  private static byte[] rowKey(int row) {
+    return Bytes.toBytes((int) ((long) Integer.MAX_VALUE * row / ROWS));
+  }
+
+  private static long countValue(int row) {
+    return row % 1000;
+  }
+
+  private static long expectedSum() {
+    long sum = 0;
+    for (int row = 0; row < ROWS; row++) {
+      sum += countValue(row);
+    }
+    return sum;
+  }
+
+  private static BatchWriter.Metrics load() throws IOException {
+    BatchWriter writer = BatchWriter.builder(connection, TABLE).build();
+    try {
+      for (int row = 0; row < ROWS; row++) {
+        Put put = new Put(rowKey(row));
+        put.addColumn(COUNT.getFamily(), COUNT.getQualifier(), Bytes.toBytes(countValue(row)));
+        put.addColumn(NAME.getFamily(), NAME.getQualifier(), Bytes.toBytes(String.format("name-%08d", row % 5000)));
+        writer.write(put);
+      }
+    } finally {
+      writer.close();
+    }
+    return writer.getMetrics();
+  }
+
+  private static long count(ResultScanner scanner) throws IOException {
+    long rows = 0;
+    while (scanner.next() != null) {
+      rows++;
+    }
+    return rows;
+  }
+}
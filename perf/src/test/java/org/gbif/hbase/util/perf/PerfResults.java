@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util.perf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.fail;
+
+/**
+ * The timings of a run of the suite. Each is checked against its threshold in {@code perf-thresholds.properties},
+ * multiplied by the {@code perf.slack} system property, and all are written as JSON for comparing runs.
+ */
+final class PerfResults {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PerfResults.class);
+  private static final String THRESHOLDS = "/perf-thresholds.properties";
+
+  /**
+   * The work being timed.
+   */
+  @FunctionalInterface
+  interface Timed<T> {
+    T call() throws Exception;
+  }
+
+  private final Properties thresholds;
+  private final double slack;
+  private final List<Map<String, Object>> timings = new ArrayList<>();
+
+  private PerfResults(Properties thresholds, double slack) {
+    this.thresholds = thresholds;
+    this.slack = slack;
+  }
+
+  static PerfResults load() throws IOException {
+    Properties thresholds = new Properties();
+    try (InputStream in = PerfResults.class.getResourceAsStream(THRESHOLDS)) {
+      if (in == null) {
+        throw new IOException("Missing " + THRESHOLDS);
+      }
+      thresholds.load(in);
+    }
+    return new PerfResults(thresholds, Double.parseDouble(System.getProperty("perf.slack", "1.0")));
+  }
+
+  /**
+   * Time the work, record the timing and fail if it took longer than its threshold.
+   *
+   * @param items the number of items (rows, regions) the work handles, to report a rate
+   */
+  <T> T time(String name, long items, Timed<T> work) throws Exception {
+    long start = System.nanoTime();
+    T result = work.call();
+    long millis = (System.nanoTime() - start) / 1_000_000;
+
+    String threshold = thresholds.getProperty(name);
+    long maxMillis = threshold == null ? -1 : (long) (Long.parseLong(threshold.trim()) * slack);
+    boolean passed = maxMillis < 0 || millis <= maxMillis;
+    Map<String, Object> timing = new LinkedHashMap<>();
+    timing.put("name", name);
+    timing.put("millis", millis);
+    timing.put("maxMillis", maxMillis);
+    timing.put("items", items);
+    timing.put("itemsPerSecond", millis == 0 ? items * 1000 : items * 1000 / millis);
+    timing.put("passed", passed);
+    synchronized (timings) {
+      timings.add(timing);
+    }
+    LOG.info("[{}] took [{}]ms for [{}] items, threshold [{}]ms", name, millis, items, maxMillis);
+
+    if (!passed) {
+      fail("[" + name + "] took " + millis + "ms, over its threshold of " + maxMillis + "ms");
+    }
+    return result;
+  }
+
+  /**
+   * Write the run: its settings and every timing.
+   */
+  void write(Path file, Map<String, Object> settings) throws IOException {
+    Map<String, Object> run = new LinkedHashMap<>(settings);
+    run.put("slack", slack);
+    synchronized (timings) {
+      run.put("timings", new ArrayList<>(timings));
+    }
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), run);
+    LOG.info("Wrote [{}] timings to [{}]", timings.size(), file);
+  }
+}
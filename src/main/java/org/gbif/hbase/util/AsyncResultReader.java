@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.AsyncTable;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Static utility methods for reading (Java) typed fields of single rows from an {@link AsyncTable}, the non-blocking
+ * counterpart of {@link ResultReader}. Each read fetches only the columns it decodes, and values are decoded with the
+ * same rules as {@link ResultReader}.
+ * <p>
+ * The returned futures are completed by the table: on the RPC threads of the connection for a table got without an
+ * executor, in which case callers must not block in their callbacks, or on the given executor otherwise.
+ */
+public final class AsyncResultReader {
+
+  /**
+   * Reads a typed field from a Result, in the form of the {@link ResultReader} methods.
+   */
+  @FunctionalInterface
+  public interface FieldReader<T> {
+    T read(Result row, Column column, T defaultValue);
+  }
+
+  /**
+   * Should never be constructed.
+   */
+  private AsyncResultReader() {
+  }
+
+  /**
+   * Fetch the latest version of the given columns of a row.
+   *
+   * @return a future completed with the row, or with an empty Result if it does not exist
+   */
+  public static CompletableFuture<Result> get(AsyncTable<?> table, byte[] row, Column... columns) {
+    Get get = new Get(row);
+    for (Column column : columns) {
+      get.addColumn(column.getFamily(), column.getQualifier());
+    }
+    return table.get(get);
+  }
+
+  /**
+   * Read the value of a column and decode it with the given function.
+   *
+   * @param reader       reads the value from the fetched row, e.g. {@code (r, c, d) -> ResultReader.getLong(r, c, d)}
+   * @param defaultValue passed to the reader, which returns it if the column doesn't exist
+   */
+  public static <T> CompletableFuture<T> getField(AsyncTable<?> table, byte[] row, Column column, T defaultValue,
+                                                  FieldReader<T> reader) {
+    return get(table, row, column).thenApply(result -> reader.read(result, column, defaultValue));
+  }
+
+  /**
+   * @return a future completed with the value as a String, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<String> getString(AsyncTable<?> table, byte[] row, Column column,
+                                                    String defaultValue) {
+    return getField(table, row, column, defaultValue, ResultReader::getString);
+  }
+
+  /**
+   * @return a future completed with the value as an Integer, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<Integer> getInteger(AsyncTable<?> table, byte[] row, Column column,
+                                                      Integer defaultValue) {
+    return getField(table, row, column, defaultValue, ResultReader::getInteger);
+  }
+
+  /**
+   * @return a future completed with the value as a Long, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<Long> getLong(AsyncTable<?> table, byte[] row, Column column, Long defaultValue) {
+    return getField(table, row, column, defaultValue, ResultReader::getLong);
+  }
+
+  /**
+   * @return a future completed with the value as a Float, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<Float> getFloat(AsyncTable<?> table, byte[] row, Column column,
+                                                  Float defaultValue) {
+    return getField(table, row, column, defaultValue, ResultReader::getFloat);
+  }
+
+  /**
+   * @return a future completed with the value as a Double, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<Double> getDouble(AsyncTable<?> table, byte[] row, Column column,
+                                                    Double defaultValue) {
+    return getField(table, row, column, defaultValue, ResultReader::getDouble);
+  }
+
+  /**
+   * @return a future completed with the value as a Boolean, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<Boolean> getBoolean(AsyncTable<?> table, byte[] row, Column column,
+                                                      Boolean defaultValue) {
+    return getField(table, row, column, defaultValue, (result, c, d) -> {
+      Cell cell = result.getColumnLatestCell(c.getFamily(), c.getQualifier());
+      return cell == null ? d : ResultReader.toBoolean(cell);
+    });
+  }
+
+  /**
+   * @return a future completed with a copy of the value, or defaultValue if it doesn't exist
+   */
+  public static CompletableFuture<byte[]> getBytes(AsyncTable<?> table, byte[] row, Column column,
+                                                   byte[] defaultValue) {
+    return getField(table, row, column, defaultValue, ResultReader::getBytes);
+  }
+
+  /**
+   * @return a future completed with the timestamp of the latest version of the column, or null if it doesn't exist
+   */
+  public static CompletableFuture<Long> getTimestamp(AsyncTable<?> table, byte[] row, Column column) {
+    return get(table, row, column).thenApply(result -> ResultReader.getTimestamp(result, column));
+  }
+
+  /**
+   * Fetch the columns declared by the mapper and map them onto a new target object.
+   *
+   * @return a future completed with the mapped row, or with null if the row has none of the declared columns
+   */
+  public static <T> CompletableFuture<T> map(AsyncTable<?> table, byte[] row, RowMapper<T> mapper) {
+    return table.get(mapperGet(row, mapper)).thenApply(mapRow(mapper));
+  }
+
+  /**
+   * Fetch the columns declared by the mapper for each of the rows in one batch, grouped by region server by the
+   * table, and map each onto a new target object.
+   *
+   * @return a future per row, in the order of the rows, each completed as by {@link #map(AsyncTable, byte[],
+   *         RowMapper)}
+   */
+  public static <T> List<CompletableFuture<T>> map(AsyncTable<?> table, List<byte[]> rows, RowMapper<T> mapper) {
+    List<Get> gets = new ArrayList<>(rows.size());
+    for (byte[] row : rows) {
+      gets.add(mapperGet(row, mapper));
+    }
+    List<CompletableFuture<Result>> results = table.get(gets);
+    List<CompletableFuture<T>> mapped = new ArrayList<>(results.size());
+    Function<Result, T> map = mapRow(mapper);
+    for (CompletableFuture<Result> result : results) {
+      mapped.add(result.thenApply(map));
+    }
+    return mapped;
+  }
+
+  private static Get mapperGet(byte[] row, RowMapper<?> mapper) {
+    Get get = new Get(row);
+    for (Column column : mapper.getColumns()) {
+      get.addColumn(column.getFamily(), column.getQualifier());
+    }
+    return get;
+  }
+
+  private static <T> Function<Result, T> mapRow(RowMapper<T> mapper) {
+    return result -> result.isEmpty() ? null : mapper.map(result);
+  }
+}
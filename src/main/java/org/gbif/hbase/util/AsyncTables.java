@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.AsyncAdmin;
+import org.apache.hadoop.hbase.client.AsyncConnection;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionReplicaUtil;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking counterparts of {@link TableSplitReader}, {@link TableCreator} and {@link TableCloneCreator} on an
+ * {@link AsyncConnection}. Every method returns at once with a future completed by the connection when the region
+ * lookups and admin calls it makes are done, so any number of tables may be handled concurrently without a thread
+ * per call; see {@link AsyncResultReader} to read rows the same way.
+ * <p>
+ * The futures are completed on the RPC threads of the connection, so callers must not block in their callbacks.
+ */
+public final class AsyncTables {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncTables.class);
+
+  /**
+   * Should never be constructed.
+   */
+  private AsyncTables() {
+  }
+
+  /**
+   * Read the region boundaries of a table.
+   *
+   * @return a future completed with the split keys of the table: the start keys of its regions but the first
+   */
+  public static CompletableFuture<byte[][]> splitKeys(AsyncConnection connection, TableName tableName) {
+    return connection.getRegionLocator(tableName).getAllRegionLocations().thenApply(AsyncTables::splitKeys);
+  }
+
+  /**
+   * Read the region boundaries of all the tables concurrently.
+   *
+   * @return a future completed with the split keys of each table, in the order given, or exceptionally if reading
+   *         any of them failed
+   */
+  public static CompletableFuture<Map<TableName, byte[][]>> splitKeys(AsyncConnection connection,
+                                                                      Collection<TableName> tableNames) {
+    Map<TableName, CompletableFuture<byte[][]>> futures = new LinkedHashMap<>();
+    for (TableName tableName : tableNames) {
+      futures.put(tableName, splitKeys(connection, tableName));
+    }
+    return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).thenApply(ignored -> {
+      Map<TableName, byte[][]> splits = new LinkedHashMap<>();
+      futures.forEach((tableName, future) -> splits.put(tableName, future.join()));
+      return splits;
+    });
+  }
+
+  /**
+   * @return the sorted start keys of the primary replicas of the regions but the first, which is empty
+   */
+  static byte[][] splitKeys(List<HRegionLocation> locations) {
+    List<byte[]> starts = new ArrayList<>(locations.size());
+    for (HRegionLocation location : locations) {
+      RegionInfo region = location.getRegion();
+      if (RegionReplicaUtil.isDefaultReplica(region) && region.getStartKey().length > 0) {
+        starts.add(region.getStartKey());
+      }
+    }
+    starts.sort(Bytes.BYTES_COMPARATOR);
+    return starts.toArray(new byte[0][]);
+  }
+
+  /**
+   * Create a table, pre-split at the given keys.
+   *
+   * @param splits the split keys, or null or empty for a table of a single region
+   */
+  public static CompletableFuture<Void> createPreSplit(AsyncConnection connection, TableDescriptor descriptor,
+                                                       byte[][] splits) {
+    AsyncAdmin admin = connection.getAdmin();
+    LOG.info("Creating table [{}] with [{}] splits", descriptor.getTableName(), splits == null ? 0 : splits.length);
+    return timed(descriptor.getTableName(), splits == null || splits.length == 0
+      ? admin.createTable(descriptor)
+      : admin.createTable(descriptor, splits));
+  }
+
+  /**
+   * @return the future of an admin call, timed by the installed {@link ClientMetrics} if any
+   */
+  private static <T> CompletableFuture<T> timed(TableName tableName, CompletableFuture<T> call) {
+    ClientMetrics metrics = ClientMetrics.installed();
+    return metrics == null ? call : metrics.time(ClientMetrics.Operation.ADMIN, tableName, call);
+  }
+
+  /**
+   * Create a pre-split table with a single column family keeping one version, as {@link TableCreator} does.
+   *
+   * @param splits      the split keys, e.g. read with {@link SplitsFile#read(String)}, or null
+   * @param regionSize  max region file size in MB, or null for the default
+   * @param compression compression of the col family
+   * @param encoding    data block encoding of the col family
+   */
+  public static CompletableFuture<Void> createPreSplit(AsyncConnection connection, String tableName, String colFamily,
+                                                       byte[][] splits, Integer regionSize,
+                                                       Compression.Algorithm compression,
+                                                       DataBlockEncoding encoding) {
+    return createPreSplit(connection, TableCreator.descriptor(tableName, colFamily, regionSize, compression, encoding),
+                          splits);
+  }
+
+  /**
+   * Create a new table with the column families and max region file size of an existing one, as
+   * {@link TableCloneCreator} does. The descriptor and region boundaries of the existing table are read concurrently.
+   *
+   * @param splits the split keys of the new table, or null to use those of the existing table
+   */
+  public static CompletableFuture<Void> cloneLayout(AsyncConnection connection, TableName existingTable,
+                                                    TableName newTable, byte[][] splits) {
+    CompletableFuture<TableDescriptor> descriptor =
+      timed(existingTable, connection.getAdmin().getDescriptor(existingTable));
+    CompletableFuture<byte[][]> keys = splits == null
+      ? splitKeys(connection, existingTable)
+      : CompletableFuture.completedFuture(splits);
+    return descriptor.thenCombine(keys, (existing, newSplits) -> createPreSplit(
+        connection, TableCloneCreator.cloneDescriptor(existing, newTable), newSplits))
+      .thenCompose(created -> created);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Decodes a batch of Results, such as those returned by {@code ResultScanner.next(int)}, into primitive
+ * {@link ColumnVector}s: one array fill per column instead of a boxed value per row and field.
+ * <p>
+ * Each row is decoded with a single merge pass over its sorted cells, so scans should ideally be restricted to the
+ * decoded columns. Vectors are reused from batch to batch. Instances are not thread safe.
+ * <pre>
+ *   LongVector counts = new LongVector(Column.of("o", "count"), 1000);
+ *   DoubleVector lats = new DoubleVector(Column.of("o", "lat"), 1000);
+ *   BatchDecoder decoder = new BatchDecoder(counts, lats);
+ *   Result[] batch;
+ *   while ((batch = scanner.next(1000)).length &gt; 0) {
+ *     decoder.decode(batch);
+ *     // aggregate over counts.values() and lats.values() up to counts.size(), checking isNull(i)
+ *   }
+ * </pre>
+ */
+public class BatchDecoder {
+
+  private final ColumnVector[] vectors;
+
+  /**
+   * @param vectors the vectors to fill, each for a different column
+   */
+  public BatchDecoder(ColumnVector... vectors) {
+    Set<Column> columns = new HashSet<>();
+    for (ColumnVector vector : vectors) {
+      if (!columns.add(vector.getColumn())) {
+        throw new IllegalArgumentException("Column [" + vector.getColumn() + "] is decoded more than once");
+      }
+    }
+    this.vectors = Arrays.copyOf(vectors, vectors.length);
+    Arrays.sort(this.vectors, Comparator.comparing(ColumnVector::getColumn));
+  }
+
+  /**
+   * Decode all the given rows into the vectors, replacing the previous batch.
+   *
+   * @return the number of rows decoded
+   */
+  public int decode(Result[] rows) {
+    return decode(rows, 0, rows.length);
+  }
+
+  /**
+   * Decode {@code length} rows starting at {@code offset} into the vectors, replacing the previous batch. Row
+   * {@code offset} becomes index 0 of the vectors. A null row is decoded as one lacking every column.
+   *
+   * @return the number of rows decoded
+   */
+  public int decode(Result[] rows, int offset, int length) {
+    for (ColumnVector vector : vectors) {
+      vector.reset(length);
+    }
+    for (int r = 0; r < length; r++) {
+      Result row = rows[offset + r];
+      decodeRow(row == null ? null : row.rawCells(), r);
+    }
+    return length;
+  }
+
+  private void decodeRow(Cell[] cells, int index) {
+    int cellCount = cells == null ? 0 : cells.length;
+    int v = 0;
+    int i = 0;
+    while (v < vectors.length && i < cellCount) {
+      int cmp = vectors[v].getColumn().compareTo(cells[i]);
+      if (cmp < 0) {
+        absent(vectors[v++], index);
+      } else if (cmp > 0) {
+        i++;
+      } else {
+        // the first cell of a column is its latest version, older ones are skipped by moving to the next vector
+        vectors[v++].set(index, cells[i++]);
+      }
+    }
+    while (v < vectors.length) {
+      absent(vectors[v++], index);
+    }
+  }
+
+  private static void absent(ColumnVector vector, int index) {
+    vector.set(index, null);
+    vector.setNull(index);
+  }
+}
@@ -0,0 +1,533 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes mutations to a table at speed through a {@link BufferedMutator}, bounding the bytes written to each
+ * RegionServer but not yet flushed so that a slow server pushes back on its writers instead of exhausting the heap
+ * of the client.
+ * <p>
+ * Buffered mutations are flushed by a background thread once they reach {@code flushBytes} in total, every
+ * {@code flushIntervalMs}, and whenever a server reaches its {@code maxBytesPerServer} budget. {@link #write} blocks
+ * while the budget of the target server is exhausted; {@link #writeAsync} never blocks and returns a future that
+ * completes once the mutation has been flushed. Mutations that fail with an exception that can be retried are
+ * written again up to {@code maxRetries} times; other failures, and those that exhaust their retries, are passed to
+ * the {@link FailureListener}. If a flush fails as a whole (e.g. it is interrupted), every mutation it held that was
+ * not already failed or retried is passed to the listener.
+ * <p>
+ * Instances are thread safe, and must be closed to flush the last mutations.
+ */
+public class BatchWriter implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BatchWriter.class);
+
+  /**
+   * Receives the mutations that could not be written.
+   */
+  @FunctionalInterface
+  public interface FailureListener {
+    void onFailure(Mutation mutation, Throwable cause);
+  }
+
+  private final TableName tableName;
+  private final BufferedMutator mutator;
+  private final RegionLocator locator;
+  private final long flushBytes;
+  private final long maxBytesPerServer;
+  private final int maxRetries;
+  private final FailureListener failureListener;
+  private final ScheduledExecutorService flusher;
+  private final Metrics metrics = new Metrics();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition flushed = lock.newCondition();
+  // guarded by lock
+  private final Map<ServerName, Long> pendingPerServer = new HashMap<>();
+  private long pendingBytes;
+  private boolean flushRequested;
+  private CompletableFuture<Void> cycle = new CompletableFuture<>();
+  private List<Mutation> cycleMutations = new ArrayList<>();
+  private volatile boolean closed;
+
+  // only used by the flushing thread, and by the exception listener it calls
+  private Map<Mutation, Integer> attempts = new IdentityHashMap<>();
+  private final Map<Mutation, Integer> failedAttempts = new IdentityHashMap<>();
+  private final Set<Mutation> failedInFlush = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private BatchWriter(Builder builder) throws IOException {
+    this.tableName = Objects.requireNonNull(builder.tableName, "tableName can't be null");
+    this.flushBytes = builder.flushBytes;
+    this.maxBytesPerServer = builder.maxBytesPerServer;
+    this.maxRetries = builder.maxRetries;
+    this.failureListener = builder.failureListener != null
+      ? builder.failureListener
+      : (mutation, cause) -> LOG.error("Failed to write row [{}] to [{}]", mutation, tableName, cause);
+
+    // flushing is driven by this class, so the mutator must never flush on its own
+    BufferedMutatorParams params = new BufferedMutatorParams(tableName)
+      .writeBufferSize(Long.MAX_VALUE)
+      .listener(this::onException);
+    this.mutator = builder.connection.getBufferedMutator(params);
+    this.locator = builder.connection.getRegionLocator(tableName);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "batch-writer-" + tableName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, builder.flushIntervalMs, builder.flushIntervalMs,
+                                   TimeUnit.MILLISECONDS);
+  }
+
+  public static Builder builder(Connection connection, TableName tableName) {
+    return new Builder(connection, tableName);
+  }
+
+  /**
+   * Buffer the mutation, blocking while the RegionServer hosting its row has {@code maxBytesPerServer} or more
+   * unflushed.
+   */
+  public void write(Mutation mutation) throws IOException {
+    long size = mutation.heapSize();
+    ServerName server = locator.getRegionLocation(mutation.getRow()).getServerName();
+    lock.lock();
+    try {
+      while (overBudget(server, size)) {
+        requestFlush();
+        flushed.await();
+      }
+      buffer(mutation, server, size);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to write to [" + tableName + "]");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Buffer the mutation without blocking. If the RegionServer hosting its row has {@code maxBytesPerServer} or more
+   * unflushed the mutation is buffered once that has been flushed, so callers should bound the number of futures
+   * they leave outstanding.
+   *
+   * @return a future completed once the mutation has been flushed, whether it succeeded or was passed to the
+   *         {@link FailureListener}, or completed exceptionally if the flush as a whole failed
+   */
+  public CompletableFuture<Void> writeAsync(Mutation mutation) throws IOException {
+    ServerName server = locator.getRegionLocation(mutation.getRow()).getServerName();
+    return writeAsync(mutation, server, mutation.heapSize());
+  }
+
+  /**
+   * Buffer the mutation once its server has room. The server is located once, by the caller: a deferred mutation is
+   * buffered by the thread completing the cycle, which is the flusher and must not wait for a meta lookup.
+   */
+  private CompletableFuture<Void> writeAsync(Mutation mutation, ServerName server, long size) throws IOException {
+    lock.lock();
+    try {
+      if (overBudget(server, size)) {
+        requestFlush();
+        // buffered after the current cycle whatever its outcome, which is not that of this mutation
+        return cycle.handle((v, e) -> null).thenCompose(v -> {
+          try {
+            return writeAsync(mutation, server, size);
+          } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+          }
+        });
+      }
+      return buffer(mutation, server, size);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean overBudget(ServerName server, long size) {
+    long pending = pendingPerServer.getOrDefault(server, 0L);
+    // a mutation larger than the budget is let through once the server has nothing pending
+    return pending > 0 && pending + size > maxBytesPerServer;
+  }
+
+  private CompletableFuture<Void> buffer(Mutation mutation, ServerName server, long size) throws IOException {
+    if (closed) {
+      throw new IOException("Writer for [" + tableName + "] is closed");
+    }
+    mutator.mutate(mutation);
+    cycleMutations.add(mutation);
+    pendingPerServer.merge(server, size, Long::sum);
+    pendingBytes += size;
+    metrics.mutations.increment();
+    metrics.bytes.add(size);
+    if (pendingBytes >= flushBytes) {
+      requestFlush();
+    }
+    return cycle;
+  }
+
+  private void requestFlush() {
+    if (!flushRequested && !closed) {
+      flushRequested = true;
+      try {
+        flusher.execute(this::flush);
+      } catch (RejectedExecutionException e) {
+        // closing, which flushes until nothing is pending
+      }
+    }
+  }
+
+  /**
+   * Flush everything buffered, then release the budget of the mutations buffered before the flush started and
+   * rewrite those that failed and can be retried.
+   */
+  private void flush() {
+    Map<ServerName, Long> flushing;
+    long flushingBytes;
+    CompletableFuture<Void> flushingCycle;
+    List<Mutation> flushingMutations;
+    lock.lock();
+    try {
+      flushRequested = false;
+      if (pendingBytes == 0) {
+        return;
+      }
+      flushing = new HashMap<>(pendingPerServer);
+      flushingBytes = pendingBytes;
+      flushingCycle = cycle;
+      cycle = new CompletableFuture<>();
+      flushingMutations = cycleMutations;
+      cycleMutations = new ArrayList<>();
+    } finally {
+      lock.unlock();
+    }
+
+    long start = System.nanoTime();
+    IOException flushFailure = null;
+    try {
+      mutator.flush();
+    } catch (IOException e) {
+      LOG.error("Flush of [{}] failed", tableName, e);
+      flushFailure = e;
+    }
+    long flushNanos = System.nanoTime() - start;
+    metrics.flushed(flushNanos);
+    ClientMetrics clientMetrics = ClientMetrics.installed();
+    if (clientMetrics != null) {
+      clientMetrics.record(ClientMetrics.Operation.MUTATE, tableName, flushNanos);
+    }
+    List<Mutation> retries = retries();
+    if (flushFailure != null) {
+      // the exception listener has handled some mutations already; the outcome of all the others is unknown
+      Set<Mutation> handled = Collections.newSetFromMap(new IdentityHashMap<>());
+      handled.addAll(retries);
+      handled.addAll(failedInFlush);
+      for (Mutation mutation : flushingMutations) {
+        if (!handled.contains(mutation)) {
+          failed(mutation, flushFailure);
+        }
+      }
+    }
+    failedInFlush.clear();
+
+    lock.lock();
+    try {
+      for (Map.Entry<ServerName, Long> entry : flushing.entrySet()) {
+        long remaining = pendingPerServer.get(entry.getKey()) - entry.getValue();
+        if (remaining > 0) {
+          pendingPerServer.put(entry.getKey(), remaining);
+        } else {
+          pendingPerServer.remove(entry.getKey());
+        }
+      }
+      pendingBytes -= flushingBytes;
+      flushed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    if (flushFailure == null) {
+      flushingCycle.complete(null);
+    } else {
+      flushingCycle.completeExceptionally(flushFailure);
+    }
+
+    // retries bypass the budget, as waiting for it here would wait for this thread to flush
+    for (Mutation mutation : retries) {
+      ServerName server;
+      try {
+        // located before taking the lock, which a meta lookup would hold up every writer on
+        server = locator.getRegionLocation(mutation.getRow()).getServerName();
+      } catch (IOException e) {
+        failed(mutation, e);
+        continue;
+      }
+      lock.lock();
+      try {
+        buffer(mutation, server, mutation.heapSize());
+      } catch (IOException e) {
+        failed(mutation, e);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void onException(RetriesExhaustedWithDetailsException e, BufferedMutator mutator) {
+    for (int i = 0; i < e.getNumExceptions(); i++) {
+      Mutation mutation = (Mutation) e.getRow(i);
+      Throwable cause = e.getCause(i);
+      int attempt = attempts.getOrDefault(mutation, 0) + 1;
+      if (!(cause instanceof DoNotRetryIOException) && attempt <= maxRetries) {
+        failedAttempts.put(mutation, attempt);
+      } else {
+        failedInFlush.add(mutation);
+        failed(mutation, cause);
+      }
+    }
+  }
+
+  /**
+   * @return the mutations to retry after a flush; only they keep their count of attempts
+   */
+  private List<Mutation> retries() {
+    List<Mutation> retries = new ArrayList<>(failedAttempts.keySet());
+    metrics.retries.add(retries.size());
+    attempts = new IdentityHashMap<>(failedAttempts);
+    failedAttempts.clear();
+    return retries;
+  }
+
+  private void failed(Mutation mutation, Throwable cause) {
+    metrics.failures.increment();
+    try {
+      failureListener.onFailure(mutation, cause);
+    } catch (RuntimeException e) {
+      LOG.warn("Failure listener of [{}] failed", tableName, e);
+    }
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Flush everything buffered, including retries, and release the connection resources of the writer.
+   */
+  @Override
+  public void close() throws IOException {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(1, TimeUnit.MINUTES);
+      // retries are rewritten by each flush, so flush until none are left
+      do {
+        lock.lock();
+        try {
+          flushRequested = false;
+        } finally {
+          lock.unlock();
+        }
+        flush();
+      } while (pendingBytes() > 0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing writer for [" + tableName + "]");
+    } finally {
+      closed = true;
+      try {
+        mutator.close();
+      } finally {
+        locator.close();
+      }
+    }
+  }
+
+  private long pendingBytes() {
+    lock.lock();
+    try {
+      return pendingBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Counters of the work done by a writer since it was created.
+   */
+  public static final class Metrics {
+
+    private final long created = System.nanoTime();
+    private final LongAdder mutations = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private void flushed(long nanos) {
+      flushes.increment();
+      flushNanos.add(nanos);
+      maxFlushNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return the number of mutations buffered, counting each retry again
+     */
+    public long getMutations() {
+      return mutations.sum();
+    }
+
+    /**
+     * @return the estimated heap size of the mutations written
+     */
+    public long getBytes() {
+      return bytes.sum();
+    }
+
+    public long getFlushes() {
+      return flushes.sum();
+    }
+
+    public double getMeanFlushMillis() {
+      long count = flushes.sum();
+      return count == 0 ? 0 : flushNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxFlushMillis() {
+      return maxFlushNanos.get() / 1e6;
+    }
+
+    public long getRetries() {
+      return retries.sum();
+    }
+
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    public double getMutationsPerSecond() {
+      return mutations.sum() / Math.max(1e-9, (System.nanoTime() - created) / 1e9);
+    }
+
+    public double getBytesPerSecond() {
+      return bytes.sum() / Math.max(1e-9, (System.nanoTime() - created) / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("mutations=%d bytes=%d (%.0f/s, %.0f B/s) flushes=%d (mean %.1fms, max %.1fms) "
+                           + "retries=%d failures=%d", getMutations(), getBytes(), getMutationsPerSecond(),
+                           getBytesPerSecond(), getFlushes(), getMeanFlushMillis(), getMaxFlushMillis(),
+                           getRetries(), getFailures());
+    }
+  }
+
+  public static final class Builder {
+
+    private final Connection connection;
+    private final TableName tableName;
+    private long flushBytes = 8 * 1024 * 1024;
+    private long flushIntervalMs = 1000;
+    private long maxBytesPerServer = 16 * 1024 * 1024;
+    private int maxRetries = 3;
+    private FailureListener failureListener;
+
+    private Builder(Connection connection, TableName tableName) {
+      this.connection = Objects.requireNonNull(connection, "connection can't be null");
+      this.tableName = tableName;
+    }
+
+    /**
+     * The total size of buffered mutations that triggers a flush, 8MB by default.
+     */
+    public Builder flushBytes(long flushBytes) {
+      this.flushBytes = flushBytes;
+      return this;
+    }
+
+    /**
+     * The longest time mutations stay buffered, 1s by default.
+     */
+    public Builder flushIntervalMs(long flushIntervalMs) {
+      this.flushIntervalMs = flushIntervalMs;
+      return this;
+    }
+
+    /**
+     * The size of unflushed mutations for a single RegionServer above which writes to it are held back, 16MB by
+     * default.
+     */
+    public Builder maxBytesPerServer(long maxBytesPerServer) {
+      this.maxBytesPerServer = maxBytesPerServer;
+      return this;
+    }
+
+    /**
+     * How many times a mutation failing with an exception that can be retried is written again, 3 by default. This
+     * is on top of the retries made by the HBase client itself.
+     */
+    public Builder maxRetries(int maxRetries) {
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * Receives the mutations that could not be written. By default they are logged.
+     */
+    public Builder failureListener(FailureListener failureListener) {
+      this.failureListener = failureListener;
+      return this;
+    }
+
+    public BatchWriter build() throws IOException {
+      if (flushBytes < 1 || flushIntervalMs < 1 || maxBytesPerServer < 1 || maxRetries < 0) {
+        throw new IllegalArgumentException("flushBytes, flushIntervalMs and maxBytesPerServer must be positive and"
+                                           + " maxRetries not negative");
+      }
+      return new BatchWriter(this);
+    }
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in client side metrics of table access, to tell a slow cluster from a slow client. Records latency histograms
+ * (see {@link LatencyHistogram}) per operation and table, sums the HBase {@link ScanMetrics} of scans per table (RPC
+ * calls, bytes in results, regions scanned, remote RPC calls...) and counts the rows, cells and value bytes decoded.
+ * <p>
+ * Nothing is recorded until an instance is {@link #install(ClientMetrics) installed}. The utilities of this library
+ * then record into it: the {@link ParallelScanner} scans (collecting their ScanMetrics), the multi-gets of the
+ * {@link CoalescingGetter}, the flushes of the {@link BatchWriter}, the admin calls of {@link AsyncTables}, and the
+ * values decoded by {@link ResultReader} and {@link RowMapper}. Applications may record their own operations with
+ * {@link #time(Operation, TableName, Call)}. Recording is lock free and does not allocate once a table has been seen.
+ * <p>
+ * Metrics are read as {@link Snapshot}s, which may be pushed periodically to a {@link Reporter} (such as the
+ * {@link #logReporter() log}), read through JMX once {@link #registerMBean(String) registered}, or pulled over
+ * HTTP from {@link #serve(InetSocketAddress)}.
+ */
+public final class ClientMetrics {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClientMetrics.class);
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private static volatile ClientMetrics installed;
+
+  /**
+   * The kinds of table access timed.
+   */
+  public enum Operation {
+    GET, SCAN, MUTATE, ADMIN
+  }
+
+  /**
+   * A call to time.
+   */
+  @FunctionalInterface
+  public interface Call<T> {
+    T call() throws IOException;
+  }
+
+  /**
+   * Receives the snapshots taken periodically by {@link #report(Reporter, long, TimeUnit)}.
+   */
+  @FunctionalInterface
+  public interface Reporter {
+    void report(Snapshot snapshot);
+  }
+
+  private final Map<Operation, ConcurrentHashMap<TableName, LatencyHistogram>> latencies =
+    new EnumMap<>(Operation.class);
+  private final ConcurrentHashMap<TableName, ConcurrentHashMap<String, LongAdder>> scans = new ConcurrentHashMap<>();
+  private final LongAdder decodedRows = new LongAdder();
+  private final LongAdder decodedCells = new LongAdder();
+  private final LongAdder decodedBytes = new LongAdder();
+
+  public ClientMetrics() {
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Make the utilities of this library record into the given metrics.
+   *
+   * @param metrics the metrics to record into, or null to stop recording
+   */
+  public static void install(ClientMetrics metrics) {
+    installed = metrics;
+  }
+
+  /**
+   * @return the installed metrics, or null if none are
+   */
+  public static ClientMetrics installed() {
+    return installed;
+  }
+
+  /**
+   * Record the latency of an operation on a table.
+   */
+  public void record(Operation operation, TableName table, long nanos) {
+    ConcurrentHashMap<TableName, LatencyHistogram> byTable = latencies.get(operation);
+    LatencyHistogram histogram = byTable.get(table);
+    if (histogram == null) {
+      histogram = byTable.computeIfAbsent(table, t -> new LatencyHistogram());
+    }
+    histogram.record(nanos);
+  }
+
+  /**
+   * Make the call, recording its latency whether or not it succeeds.
+   */
+  public <T> T time(Operation operation, TableName table, Call<T> call) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return call.call();
+    } finally {
+      record(operation, table, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Record the latency of an asynchronous operation started now, when the future completes.
+   *
+   * @return the given future
+   */
+  public <T> CompletableFuture<T> time(Operation operation, TableName table, CompletableFuture<T> future) {
+    long start = System.nanoTime();
+    future.whenComplete((result, error) -> record(operation, table, System.nanoTime() - start));
+    return future;
+  }
+
+  /**
+   * Add the metrics of a scan of the table, from a scan that had {@link
+   * org.apache.hadoop.hbase.client.Scan#setScanMetricsEnabled(boolean)} set.
+   *
+   * @param scanMetrics the metrics of the scan, or null if it did not collect any
+   */
+  public void recordScan(TableName table, ScanMetrics scanMetrics) {
+    if (scanMetrics == null) {
+      return;
+    }
+    ConcurrentHashMap<String, LongAdder> counters = scans.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+    scanMetrics.getMetricsMap(false)
+      .forEach((name, value) -> counters.computeIfAbsent(name, n -> new LongAdder()).add(value));
+  }
+
+  /**
+   * Count decoded rows, cells and value bytes.
+   */
+  public void recordDecoded(long rows, long cells, long bytes) {
+    if (rows > 0) {
+      decodedRows.add(rows);
+    }
+    decodedCells.add(cells);
+    decodedBytes.add(bytes);
+  }
+
+  /**
+   * @return the metrics recorded so far
+   */
+  public Snapshot snapshot() {
+    Map<Operation, Map<TableName, LatencyHistogram.Snapshot>> latencySnapshots = new EnumMap<>(Operation.class);
+    latencies.forEach((operation, byTable) -> {
+      Map<TableName, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+      byTable.forEach((table, histogram) -> snapshots.put(table, histogram.snapshot()));
+      latencySnapshots.put(operation, snapshots);
+    });
+    Map<TableName, Map<String, Long>> scanSnapshots = new TreeMap<>();
+    scans.forEach((table, counters) -> {
+      Map<String, Long> values = new TreeMap<>();
+      counters.forEach((name, counter) -> values.put(name, counter.sum()));
+      scanSnapshots.put(table, values);
+    });
+    return new Snapshot(System.currentTimeMillis(), latencySnapshots, scanSnapshots, decodedRows.sum(),
+                        decodedCells.sum(), decodedBytes.sum());
+  }
+
+  /**
+   * Pass a snapshot to the reporter at a fixed rate, on a daemon thread, until closed.
+   */
+  public Closeable report(Reporter reporter, long period, TimeUnit unit) {
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "client-metrics-reporter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleAtFixedRate(() -> {
+      try {
+        reporter.report(snapshot());
+      } catch (RuntimeException e) {
+        LOG.warn("Metrics reporter failed", e);
+      }
+    }, period, period, unit);
+    return timer::shutdown;
+  }
+
+  /**
+   * @return a reporter logging the latencies, scan metrics and decoding since the previous report at INFO level
+   */
+  public static Reporter logReporter() {
+    Snapshot[] previous = new Snapshot[1];
+    return snapshot -> {
+      Snapshot interval = previous[0] == null ? snapshot : snapshot.since(previous[0]);
+      previous[0] = snapshot;
+      interval.getLatencies().forEach((operation, byTable) -> byTable.forEach((table, latency) -> {
+        if (latency.getCount() > 0) {
+          LOG.info("[{}] on [{}]: [{}] calls, mean [{}]ms, p50 [{}]ms, p99 [{}]ms, max [{}]ms", operation, table,
+                   latency.getCount(), millis((long) latency.getMean()), millis(latency.getValueAtPercentile(50)),
+                   millis(latency.getValueAtPercentile(99)), millis(latency.getMax()));
+        }
+      }));
+      interval.getScanMetrics().forEach((table, values) -> LOG.info("Scans of [{}]: {}", table, values));
+      LOG.info("Decoded [{}] rows, [{}] cells, [{}] bytes", interval.getDecodedRows(), interval.getDecodedCells(),
+               interval.getDecodedBytes());
+    };
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+
+  /**
+   * Register an MBean exposing every value of {@link Snapshot#toMap()} as a read only attribute, read afresh on every
+   * access.
+   *
+   * @return the name the MBean was registered with, {@code org.gbif.hbase.util:type=ClientMetrics,name=<name>}
+   */
+  public ObjectName registerMBean(String name) throws JMException {
+    ObjectName objectName = new ObjectName("org.gbif.hbase.util:type=ClientMetrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+    return objectName;
+  }
+
+  /**
+   * Serve {@link Snapshot#printText(Appendable)} at {@code /metrics} over HTTP, for metrics collectors to pull, until
+   * closed.
+   */
+  public Closeable serve(InetSocketAddress address) throws IOException {
+    HttpServer server = HttpServer.create(address, 0);
+    server.createContext("/metrics", exchange -> {
+      StringBuilder text = new StringBuilder();
+      snapshot().printText(text);
+      byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    LOG.info("Serving client metrics on [{}]", server.getAddress());
+    return () -> server.stop(0);
+  }
+
+  /**
+   * Exposes the values of the latest snapshot as attributes.
+   */
+  private final class MetricsMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Long value = snapshot().toMap().get(attribute);
+      if (value == null) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException("Attribute [" + attribute.getName() + "] is read only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      Map<String, Long> values = snapshot().toMap();
+      AttributeList list = new AttributeList();
+      for (String attribute : attributes) {
+        Long value = values.get(attribute);
+        if (value != null) {
+          list.add(new Attribute(attribute, value));
+        }
+      }
+      return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+      throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      Map<String, Long> values = snapshot().toMap();
+      MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+      int i = 0;
+      for (String name : values.keySet()) {
+        attributes[i++] = new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+      }
+      return new MBeanInfo(ClientMetrics.class.getName(), "HBase client metrics", attributes, null, null, null);
+    }
+  }
+
+  /**
+   * The metrics recorded up to a point in time.
+   */
+  public static final class Snapshot {
+
+    private final long timestamp;
+    private final Map<Operation, Map<TableName, LatencyHistogram.Snapshot>> latencies;
+    private final Map<TableName, Map<String, Long>> scanMetrics;
+    private final long decodedRows;
+    private final long decodedCells;
+    private final long decodedBytes;
+
+    private Snapshot(long timestamp, Map<Operation, Map<TableName, LatencyHistogram.Snapshot>> latencies,
+                     Map<TableName, Map<String, Long>> scanMetrics, long decodedRows, long decodedCells,
+                     long decodedBytes) {
+      this.timestamp = timestamp;
+      this.latencies = latencies;
+      this.scanMetrics = scanMetrics;
+      this.decodedRows = decodedRows;
+      this.decodedCells = decodedCells;
+      this.decodedBytes = decodedBytes;
+    }
+
+    /**
+     * @return what was recorded between the earlier snapshot of the same metrics and this one
+     */
+    public Snapshot since(Snapshot earlier) {
+      Map<Operation, Map<TableName, LatencyHistogram.Snapshot>> latencyDeltas = new EnumMap<>(Operation.class);
+      latencies.forEach((operation, byTable) -> {
+        Map<TableName, LatencyHistogram.Snapshot> deltas = new TreeMap<>();
+        Map<TableName, LatencyHistogram.Snapshot> before = earlier.latencies.get(operation);
+        byTable.forEach((table, latency) -> {
+          LatencyHistogram.Snapshot previous = before == null ? null : before.get(table);
+          deltas.put(table, previous == null ? latency : latency.since(previous));
+        });
+        latencyDeltas.put(operation, deltas);
+      });
+      Map<TableName, Map<String, Long>> scanDeltas = new TreeMap<>();
+      scanMetrics.forEach((table, values) -> {
+        Map<String, Long> before = earlier.scanMetrics.getOrDefault(table, Collections.emptyMap());
+        Map<String, Long> deltas = new TreeMap<>();
+        values.forEach((name, value) -> deltas.put(name, value - before.getOrDefault(name, 0L)));
+        scanDeltas.put(table, deltas);
+      });
+      return new Snapshot(timestamp, latencyDeltas, scanDeltas, decodedRows - earlier.decodedRows,
+                          decodedCells - earlier.decodedCells, decodedBytes - earlier.decodedBytes);
+    }
+
+    /**
+     * @return the time the snapshot was taken, in ms since the epoch
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * @return the latencies in ns of each operation on each table, by operation and table name
+     */
+    public Map<Operation, Map<TableName, LatencyHistogram.Snapshot>> getLatencies() {
+      return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * @return the sums of the ScanMetrics of the scans of each table, by table and metric name
+     */
+    public Map<TableName, Map<String, Long>> getScanMetrics() {
+      return Collections.unmodifiableMap(scanMetrics);
+    }
+
+    /**
+     * @return the rows mapped by {@link RowMapper} and read by {@link ResultReader}, where consecutive reads of the
+     *         same Result by a thread count as one row
+     */
+    public long getDecodedRows() {
+      return decodedRows;
+    }
+
+    /**
+     * @return the cells decoded by {@link ResultReader} and mapped by {@link RowMapper}
+     */
+    public long getDecodedCells() {
+      return decodedCells;
+    }
+
+    /**
+     * @return the value bytes of the decoded cells
+     */
+    public long getDecodedBytes() {
+      return decodedBytes;
+    }
+
+    /**
+     * @return every value by a flat name: {@code latency.<operation>.<table>.<count|mean_us|p50_us|p90_us|p99_us|
+     *         p999_us|max_us>}, {@code scan.<table>.<ScanMetrics name>} and {@code decoded.<rows|cells|bytes>}
+     */
+    public Map<String, Long> toMap() {
+      Map<String, Long> values = new LinkedHashMap<>();
+      latencies.forEach((operation, byTable) -> byTable.forEach((table, latency) -> {
+        String prefix = "latency." + operation.name().toLowerCase(Locale.ROOT) + '.' + table.getNameAsString() + '.';
+        values.put(prefix + "count", latency.getCount());
+        values.put(prefix + "mean_us", TimeUnit.NANOSECONDS.toMicros((long) latency.getMean()));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+          values.put(prefix + PERCENTILE_NAMES[i] + "_us",
+                     TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(PERCENTILES[i])));
+        }
+        values.put(prefix + "max_us", TimeUnit.NANOSECONDS.toMicros(latency.getMax()));
+      }));
+      scanMetrics.forEach((table, metrics) -> metrics.forEach(
+        (name, value) -> values.put("scan." + table.getNameAsString() + '.' + name, value)));
+      values.put("decoded.rows", decodedRows);
+      values.put("decoded.cells", decodedCells);
+      values.put("decoded.bytes", decodedBytes);
+      return values;
+    }
+
+    /**
+     * Print every value of {@link #toMap()} on a line of its own, as its name, a space and the value.
+     */
+    public void printText(Appendable out) throws IOException {
+      for (Map.Entry<String, Long> value : toMap().entrySet()) {
+        out.append(value.getKey()).append(' ').append(String.valueOf(value.getValue())).append('\n');
+      }
+    }
+  }
+}
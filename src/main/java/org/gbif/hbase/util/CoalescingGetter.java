@@ -0,0 +1,319 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent single row lookups into multi-gets. Rows requested within a short window, or until a batch
+ * is full, are grouped by the RegionServer hosting them and fetched with one multi-get per server; each caller's
+ * future is then completed with its own row. A row requested while a lookup of it is already pending or in flight
+ * shares that lookup instead of issuing another.
+ * <p>
+ * Every lookup uses the Get built by the configured factory, so that lookups of the same row are interchangeable.
+ * Instances are thread safe, and must be closed to release their threads.
+ */
+public class CoalescingGetter implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CoalescingGetter.class);
+
+  private final Connection connection;
+  private final TableName tableName;
+  private final RegionLocator locator;
+  private final Function<byte[], Get> getFactory;
+  private final long windowMicros;
+  private final int maxBatchSize;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService timer;
+
+  private final ConcurrentHashMap<ByteBuffer, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+  private final Object batchLock = new Object();
+  // guarded by batchLock
+  private List<ByteBuffer> batch = new ArrayList<>();
+  private volatile boolean closed;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder multiGets = new LongAdder();
+
+  private CoalescingGetter(Builder builder) throws IOException {
+    this.connection = builder.connection;
+    this.tableName = Objects.requireNonNull(builder.tableName, "tableName can't be null");
+    this.getFactory = builder.getFactory;
+    this.windowMicros = builder.windowMicros;
+    this.maxBatchSize = builder.maxBatchSize;
+    this.locator = connection.getRegionLocator(tableName);
+    this.executor = Executors.newFixedThreadPool(builder.threads, daemonThreads("coalescing-getter-" + tableName));
+    this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("coalescing-getter-timer-" + tableName));
+  }
+
+  public static Builder builder(Connection connection, TableName tableName) {
+    return new Builder(connection, tableName);
+  }
+
+  /**
+   * Look up a row.
+   *
+   * @return a future of the caller's own, completed with the row or with an empty Result if it does not exist
+   */
+  public CompletableFuture<Result> get(byte[] row) {
+    requests.increment();
+    ByteBuffer key = ByteBuffer.wrap(Arrays.copyOf(row, row.length));
+    CompletableFuture<Result> created = new CompletableFuture<>();
+    CompletableFuture<Result> existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      coalesced.increment();
+      return existing.thenApply(Function.identity());
+    }
+    if (closed) {
+      inFlight.remove(key, created);
+      created.completeExceptionally(new IOException("Getter for [" + tableName + "] is closed"));
+      return created;
+    }
+
+    List<ByteBuffer> full = null;
+    boolean first;
+    synchronized (batchLock) {
+      batch.add(key);
+      first = batch.size() == 1;
+      if (batch.size() >= maxBatchSize) {
+        full = batch;
+        batch = new ArrayList<>();
+      }
+    }
+    if (full != null) {
+      dispatch(full);
+    } else if (closed) {
+      // close may have sent the pending lookups before this one joined them
+      sendPending();
+    } else if (first) {
+      try {
+        timer.schedule(this::sendPending, windowMicros, TimeUnit.MICROSECONDS);
+      } catch (RejectedExecutionException e) {
+        sendPending();
+      }
+    }
+    // callers get their own future, so that none can cancel or complete the lookup shared with others
+    return created.thenApply(Function.identity());
+  }
+
+  private void sendPending() {
+    List<ByteBuffer> pending;
+    synchronized (batchLock) {
+      if (batch.isEmpty()) {
+        return;
+      }
+      pending = batch;
+      batch = new ArrayList<>();
+    }
+    dispatch(pending);
+  }
+
+  /**
+   * Send the rows from the executor, so that neither the timer closing the windows of later batches nor the caller
+   * completing a batch waits for region lookups or multi-gets.
+   */
+  private void dispatch(List<ByteBuffer> rows) {
+    try {
+      executor.execute(() -> send(rows));
+    } catch (RejectedExecutionException e) {
+      send(rows);
+    }
+  }
+
+  /**
+   * Group the rows by RegionServer and fetch each group with one multi-get.
+   */
+  private void send(List<ByteBuffer> rows) {
+    Map<ServerName, List<ByteBuffer>> byServer = new HashMap<>();
+    for (ByteBuffer row : rows) {
+      try {
+        ServerName server = locator.getRegionLocation(row.array()).getServerName();
+        byServer.computeIfAbsent(server, s -> new ArrayList<>()).add(row);
+      } catch (IOException e) {
+        fail(row, e);
+      }
+    }
+    for (List<ByteBuffer> serverRows : byServer.values()) {
+      try {
+        executor.execute(() -> multiGet(serverRows));
+      } catch (RejectedExecutionException e) {
+        multiGet(serverRows);
+      }
+    }
+  }
+
+  private void multiGet(List<ByteBuffer> rows) {
+    List<Get> gets = new ArrayList<>(rows.size());
+    for (ByteBuffer row : rows) {
+      gets.add(getFactory.apply(row.array()));
+    }
+    multiGets.increment();
+    ClientMetrics metrics = ClientMetrics.installed();
+    try (Table table = connection.getTable(tableName)) {
+      Result[] results = metrics == null
+        ? table.get(gets)
+        : metrics.time(ClientMetrics.Operation.GET, tableName, () -> table.get(gets));
+      for (int i = 0; i < rows.size(); i++) {
+        CompletableFuture<Result> future = inFlight.remove(rows.get(i));
+        if (future != null) {
+          future.complete(results[i]);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Multi-get of [{}] rows from [{}] failed", rows.size(), tableName, e);
+      for (ByteBuffer row : rows) {
+        fail(row, e);
+      }
+    }
+  }
+
+  private void fail(ByteBuffer row, Exception e) {
+    CompletableFuture<Result> future = inFlight.remove(row);
+    if (future != null) {
+      future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * @return the number of rows requested
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return the number of requested rows that shared a lookup already pending or in flight
+   */
+  public long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  /**
+   * @return the number of multi-gets sent, at most one per RegionServer per batch
+   */
+  public long getMultiGets() {
+    return multiGets.sum();
+  }
+
+  /**
+   * Send the pending lookups and wait for them to complete.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    timer.shutdownNow();
+    sendPending();
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      locator.close();
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  public static final class Builder {
+
+    private final Connection connection;
+    private final TableName tableName;
+    private Function<byte[], Get> getFactory = Get::new;
+    private long windowMicros = 1000;
+    private int maxBatchSize = 100;
+    private int threads = 8;
+
+    private Builder(Connection connection, TableName tableName) {
+      this.connection = Objects.requireNonNull(connection, "connection can't be null");
+      this.tableName = tableName;
+    }
+
+    /**
+     * Builds the Get of a row, for example to restrict it to some columns. By default the whole row is read.
+     */
+    public Builder getFactory(Function<byte[], Get> getFactory) {
+      this.getFactory = Objects.requireNonNull(getFactory, "getFactory can't be null");
+      return this;
+    }
+
+    /**
+     * How long the first lookup of a batch waits for others to join it, 1ms by default.
+     */
+    public Builder window(long window, TimeUnit unit) {
+      this.windowMicros = unit.toMicros(window);
+      return this;
+    }
+
+    /**
+     * The number of lookups that are sent as soon as they are collected, 100 by default.
+     */
+    public Builder maxBatchSize(int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * The number of threads sending multi-gets, 8 by default.
+     */
+    public Builder threads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    public CoalescingGetter build() throws IOException {
+      if (windowMicros < 0 || maxBatchSize < 1 || threads < 1) {
+        throw new IllegalArgumentException("window must not be negative, maxBatchSize and threads must be positive");
+      }
+      return new CoalescingGetter(this);
+    }
+  }
+}
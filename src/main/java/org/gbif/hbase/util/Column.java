@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * An immutable handle on a column (family and qualifier) whose names are encoded to bytes once, at construction.
+ * Create these once (e.g. as constants) and pass them to the {@link ResultReader} overloads so that reading a field
+ * does not re-encode the column names on every call.
+ * <p>
+ * The arrays returned by {@link #getFamily()} and {@link #getQualifier()} are shared and must not be modified.
+ */
+public final class Column implements Comparable<Column> {
+
+  private final byte[] family;
+  private final byte[] qualifier;
+  private final int hash;
+
+  private Column(byte[] family, byte[] qualifier) {
+    this.family = family;
+    this.qualifier = qualifier;
+    this.hash = 31 * Bytes.hashCode(family) + Bytes.hashCode(qualifier);
+  }
+
+  /**
+   * @param family    column family that holds the column
+   * @param qualifier column or "qualifier"
+   *
+   * @return the column handle, with both names UTF-8 encoded
+   */
+  public static Column of(String family, String qualifier) {
+    Objects.requireNonNull(family, "family can't be null");
+    Objects.requireNonNull(qualifier, "qualifier can't be null");
+    return new Column(Bytes.toBytes(family), Bytes.toBytes(qualifier));
+  }
+
+  /**
+   * @param family    column family that holds the column
+   * @param qualifier column or "qualifier"
+   *
+   * @return the column handle, holding copies of the given arrays
+   */
+  public static Column of(byte[] family, byte[] qualifier) {
+    Objects.requireNonNull(family, "family can't be null");
+    Objects.requireNonNull(qualifier, "qualifier can't be null");
+    return new Column(Arrays.copyOf(family, family.length), Arrays.copyOf(qualifier, qualifier.length));
+  }
+
+  /**
+   * @return the encoded column family, which must not be modified
+   */
+  public byte[] getFamily() {
+    return family;
+  }
+
+  /**
+   * @return the encoded qualifier, which must not be modified
+   */
+  public byte[] getQualifier() {
+    return qualifier;
+  }
+
+  /**
+   * Orders columns the way HBase orders cells within a row: by family, then by qualifier.
+   */
+  @Override
+  public int compareTo(Column other) {
+    int c = Bytes.compareTo(family, other.family);
+    return c != 0 ? c : Bytes.compareTo(qualifier, other.qualifier);
+  }
+
+  /**
+   * Orders this column relative to the column of a cell, the same way as {@link #compareTo(Column)}.
+   */
+  public int compareTo(Cell cell) {
+    int c = Bytes.compareTo(family, 0, family.length,
+                            cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+    if (c != 0) {
+      return c;
+    }
+    return Bytes.compareTo(qualifier, 0, qualifier.length,
+                           cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Column)) {
+      return false;
+    }
+    Column other = (Column) o;
+    return hash == other.hash && Bytes.equals(family, other.family) && Bytes.equals(qualifier, other.qualifier);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return Bytes.toStringBinary(family) + ':' + Bytes.toStringBinary(qualifier);
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.AggregationResponse;
+
+import com.google.protobuf.ByteString;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The count, sum, minimum, maximum and approximate number of distinct values of a column, accumulated one cell at a
+ * time within a region by {@link ColumnAggregationEndpoint} and merged across regions by {@link ColumnAggregator}.
+ * <p>
+ * Values are decoded as the String based getters of {@link ResultReader} decode them: from their leading bytes, so a
+ * value longer than its {@link Type} is decoded from its first bytes, as {@code ResultReader.getLong(row, family,
+ * qualifier, 0L)} would read it. Values shorter than their type and NaN floating point values are counted as invalid
+ * and otherwise ignored; distinct values are counted on the bytes decoded. Sums of
+ * integral values are exact and fail with an ArithmeticException rather than overflow. Instances are not thread safe.
+ */
+public final class ColumnAggregates {
+
+  /**
+   * How the values of the column are decoded.
+   */
+  public enum Type {
+    SHORT(Bytes.SIZEOF_SHORT),
+    INT(Bytes.SIZEOF_INT),
+    LONG(Bytes.SIZEOF_LONG),
+    FLOAT(Bytes.SIZEOF_FLOAT),
+    DOUBLE(Bytes.SIZEOF_DOUBLE),
+    /**
+     * Values are not decoded, only counted and counted distinct.
+     */
+    BYTES(0);
+
+    // the number of leading bytes decoded, 0 for the whole value
+    private final int size;
+
+    Type(int size) {
+      this.size = size;
+    }
+
+    boolean isIntegral() {
+      return this == SHORT || this == INT || this == LONG;
+    }
+
+    boolean isFloatingPoint() {
+      return this == FLOAT || this == DOUBLE;
+    }
+  }
+
+  private final Type type;
+  private final HyperLogLog distinct;
+  private long count;
+  private long invalid;
+  private long longSum;
+  private long longMin = Long.MAX_VALUE;
+  private long longMax = Long.MIN_VALUE;
+  private double doubleSum;
+  private double doubleMin = Double.POSITIVE_INFINITY;
+  private double doubleMax = Double.NEGATIVE_INFINITY;
+
+  /**
+   * @param precision the precision of the {@link HyperLogLog} counting distinct values, 0 to not count them
+   */
+  public ColumnAggregates(Type type, int precision) {
+    this.type = type;
+    this.distinct = precision == 0 ? null : new HyperLogLog(precision);
+  }
+
+  private ColumnAggregates(Type type, HyperLogLog distinct) {
+    this.type = type;
+    this.distinct = distinct;
+  }
+
+  /**
+   * Add the value of the cell.
+   */
+  public void add(Cell cell) {
+    try {
+      switch (type) {
+        case SHORT:
+          addLong(ResultReader.leadingShort(cell));
+          break;
+        case INT:
+          addLong(ResultReader.leadingInt(cell));
+          break;
+        case LONG:
+          addLong(ResultReader.leadingLong(cell));
+          break;
+        case FLOAT:
+          addDouble(ResultReader.leadingFloat(cell));
+          break;
+        case DOUBLE:
+          addDouble(ResultReader.leadingDouble(cell));
+          break;
+        default:
+          count++;
+      }
+    } catch (IllegalArgumentException e) {
+      invalid++;
+      return;
+    }
+    if (distinct != null) {
+      distinct.add(cell.getValueArray(), cell.getValueOffset(), type.size == 0 ? cell.getValueLength() : type.size);
+    }
+  }
+
+  private void addLong(long value) {
+    longSum = Math.addExact(longSum, value);
+    longMin = Math.min(longMin, value);
+    longMax = Math.max(longMax, value);
+    count++;
+  }
+
+  private void addDouble(double value) {
+    if (Double.isNaN(value)) {
+      throw new IllegalArgumentException("NaN");
+    }
+    doubleSum += value;
+    doubleMin = Math.min(doubleMin, value);
+    doubleMax = Math.max(doubleMax, value);
+    count++;
+  }
+
+  /**
+   * Add the aggregates of another part of the column, of the same type and distinct count precision.
+   */
+  public void merge(ColumnAggregates other) {
+    if (other.type != type) {
+      throw new IllegalArgumentException("Can't merge aggregates of type [" + other.type + "] into [" + type + "]");
+    }
+    count += other.count;
+    invalid += other.invalid;
+    longSum = Math.addExact(longSum, other.longSum);
+    longMin = Math.min(longMin, other.longMin);
+    longMax = Math.max(longMax, other.longMax);
+    doubleSum += other.doubleSum;
+    doubleMin = Math.min(doubleMin, other.doubleMin);
+    doubleMax = Math.max(doubleMax, other.doubleMax);
+    if (distinct != null && other.distinct != null) {
+      distinct.merge(other.distinct);
+    }
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the number of valid values
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the number of values that could not be decoded as the type of the column
+   */
+  public long getInvalid() {
+    return invalid;
+  }
+
+  /**
+   * @return the sum of the values, a Long for integral types and a Double for floating point types, null for
+   *         {@link Type#BYTES}
+   */
+  public Number getSum() {
+    if (type.isIntegral()) {
+      return longSum;
+    }
+    return type.isFloatingPoint() ? doubleSum : null;
+  }
+
+  /**
+   * @return the smallest value, as for {@link #getSum()}, or null if there are no valid values
+   */
+  public Number getMin() {
+    if (count == 0) {
+      return null;
+    }
+    if (type.isIntegral()) {
+      return longMin;
+    }
+    return type.isFloatingPoint() ? doubleMin : null;
+  }
+
+  /**
+   * @return the largest value, as for {@link #getSum()}, or null if there are no valid values
+   */
+  public Number getMax() {
+    if (count == 0) {
+      return null;
+    }
+    if (type.isIntegral()) {
+      return longMax;
+    }
+    return type.isFloatingPoint() ? doubleMax : null;
+  }
+
+  /**
+   * @return the mean of the values, or NaN if there are none or the type is {@link Type#BYTES}
+   */
+  public double getMean() {
+    Number sum = getSum();
+    return count == 0 || sum == null ? Double.NaN : sum.doubleValue() / count;
+  }
+
+  /**
+   * @return the estimated number of distinct values, or -1 if they were not counted
+   */
+  public long getDistinct() {
+    return distinct == null ? -1 : distinct.estimate();
+  }
+
+  /**
+   * @return the aggregates as the response of the endpoint
+   */
+  AggregationResponse toResponse() {
+    AggregationResponse.Builder response = AggregationResponse.newBuilder().setCount(count).setInvalid(invalid);
+    if (type.isIntegral()) {
+      response.setLongSum(longSum).setLongMin(longMin).setLongMax(longMax);
+    } else if (type.isFloatingPoint()) {
+      response.setDoubleSum(doubleSum).setDoubleMin(doubleMin).setDoubleMax(doubleMax);
+    }
+    if (distinct != null) {
+      response.setDistinct(ByteString.copyFrom(distinct.toBytes()));
+    }
+    return response.build();
+  }
+
+  /**
+   * @return the aggregates of a response of the endpoint
+   */
+  static ColumnAggregates fromResponse(Type type, AggregationResponse response) {
+    HyperLogLog distinct = response.hasDistinct() ? HyperLogLog.fromBytes(response.getDistinct().toByteArray()) : null;
+    ColumnAggregates aggregates = new ColumnAggregates(type, distinct);
+    aggregates.count = response.getCount();
+    aggregates.invalid = response.getInvalid();
+    if (response.hasLongSum()) {
+      aggregates.longSum = response.getLongSum();
+      aggregates.longMin = response.getLongMin();
+      aggregates.longMax = response.getLongMax();
+    }
+    if (response.hasDoubleSum()) {
+      aggregates.doubleSum = response.getDoubleSum();
+      aggregates.doubleMin = response.getDoubleMin();
+      aggregates.doubleMax = response.getDoubleMax();
+    }
+    return aggregates;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count + ", invalid=" + invalid + ", sum=" + getSum() + ", min=" + getMin() + ", max=" + getMax()
+           + ", distinct=" + getDistinct();
+  }
+}
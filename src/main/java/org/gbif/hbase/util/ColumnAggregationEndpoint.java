@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.AggregationRequest;
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.AggregationResponse;
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.ColumnAggregationService;
+
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+import com.google.protobuf.Service;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorException;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A coprocessor endpoint aggregating one column of the region it is loaded on, so that {@link ColumnAggregator} can
+ * count, sum and count distinct the values of a column by shipping a few KB per region instead of every row.
+ * <p>
+ * The latest version of the column in each row of the requested scan is added to a {@link ColumnAggregates}, which
+ * is returned as the partial aggregates of the region. Load it on a table with the jar of this library, e.g.:
+ * <pre>
+ *   alter 'occurrence', METHOD => 'table_att', 'coprocessor' =>
+ *     'hdfs:///hbase/lib/hbase-utils.jar|org.gbif.hbase.util.ColumnAggregationEndpoint|1001|'
+ * </pre>
+ */
+public class ColumnAggregationEndpoint extends ColumnAggregationService implements RegionCoprocessor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnAggregationEndpoint.class);
+
+  private RegionCoprocessorEnvironment env;
+
+  @Override
+  public void start(CoprocessorEnvironment env) throws IOException {
+    if (!(env instanceof RegionCoprocessorEnvironment)) {
+      throw new CoprocessorException("ColumnAggregationEndpoint must be loaded on a table region");
+    }
+    this.env = (RegionCoprocessorEnvironment) env;
+  }
+
+  @Override
+  public void stop(CoprocessorEnvironment env) {
+    // nothing to release
+  }
+
+  @Override
+  public Iterable<Service> getServices() {
+    return Collections.singleton(this);
+  }
+
+  @Override
+  public void aggregate(RpcController controller, AggregationRequest request,
+                        RpcCallback<AggregationResponse> done) {
+    AggregationResponse response = null;
+    try {
+      response = aggregateRegion(request).toResponse();
+    } catch (IOException e) {
+      CoprocessorRpcUtils.setControllerException(controller, e);
+    } catch (IllegalArgumentException | ArithmeticException e) {
+      // a bad request or a sum out of range, which no retry will fix
+      CoprocessorRpcUtils.setControllerException(controller, new DoNotRetryIOException(e));
+    }
+    done.run(response);
+  }
+
+  private ColumnAggregates aggregateRegion(AggregationRequest request) throws IOException {
+    Column column = Column.of(request.getFamily().toByteArray(), request.getQualifier().toByteArray());
+    ColumnAggregates.Type type = ColumnAggregates.Type.valueOf(request.getType());
+    ColumnAggregates aggregates = new ColumnAggregates(type, request.getPrecision());
+    Scan scan = request.hasScan() ? ProtobufUtil.toScan(ClientProtos.Scan.parseFrom(request.getScan())) : new Scan();
+    scan.addColumn(column.getFamily(), column.getQualifier());
+
+    long rows = 0;
+    try (RegionScanner scanner = env.getRegion().getScanner(scan)) {
+      List<Cell> cells = new ArrayList<>();
+      boolean more;
+      do {
+        more = scanner.next(cells);
+        // cells of a column are sorted newest first, so the first of the column is its latest version
+        for (Cell cell : cells) {
+          if (column.compareTo(cell) == 0) {
+            aggregates.add(cell);
+            rows++;
+            break;
+          }
+        }
+        cells.clear();
+      } while (more);
+    }
+    LOG.debug("Aggregated [{}] rows of [{}] in region [{}]", rows, column,
+              env.getRegion().getRegionInfo().getRegionNameAsString());
+    return aggregates;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.AggregationRequest;
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.AggregationResponse;
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.ColumnAggregationService;
+
+import com.google.protobuf.ByteString;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcUtils;
+import org.apache.hadoop.hbase.ipc.ServerRpcController;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates a column of a table inside its regions through the {@link ColumnAggregationEndpoint}, which must be
+ * loaded on the table. Each region scans its part of the column and returns its partial {@link ColumnAggregates};
+ * the regions are called in parallel (on the pool of the connection) and their partials merged here, so only a few
+ * KB per region cross the network whatever the size of the table.
+ * <p>
+ * Values are decoded from their leading bytes, as {@code ResultReader.getLong(row, family, qualifier, 0L)} and the
+ * other String based getters read them, so the aggregates match those computed by reading the rows; see
+ * {@link ColumnAggregates}.
+ * <p>
+ * For example, to sum a long column over a key range:
+ * <pre>
+ *   ColumnAggregates total = ColumnAggregator.aggregate(table, Column.of("o", "count"),
+ *     ColumnAggregates.Type.LONG, new Scan().withStartRow(from).withStopRow(to));
+ *   long sum = total.getSum().longValue();
+ * </pre>
+ */
+public final class ColumnAggregator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnAggregator.class);
+
+  private ColumnAggregator() {
+  }
+
+  /**
+   * Aggregate the column, counting distinct values at the {@link HyperLogLog#DEFAULT_PRECISION}.
+   */
+  public static ColumnAggregates aggregate(Table table, Column column, ColumnAggregates.Type type, Scan scan)
+    throws IOException {
+    return aggregate(table, column, type, scan, HyperLogLog.DEFAULT_PRECISION);
+  }
+
+  /**
+   * Aggregate the latest version of the column in the rows of the scan.
+   *
+   * @param scan      the row range, time range and filter of the rows to aggregate, which must not be reversed; its
+   *                  columns are replaced by the aggregated column
+   * @param precision the precision of the distinct count, 0 to not count distinct values
+   *
+   * @throws IOException if the endpoint is not loaded on the table or any region fails
+   */
+  public static ColumnAggregates aggregate(Table table, Column column, ColumnAggregates.Type type, Scan scan,
+                                           int precision) throws IOException {
+    AggregationRequest request = request(column, type, scan, precision);
+    Batch.Call<ColumnAggregationService, AggregationResponse> call = service -> {
+      ServerRpcController controller = new ServerRpcController();
+      CoprocessorRpcUtils.BlockingRpcCallback<AggregationResponse> callback =
+        new CoprocessorRpcUtils.BlockingRpcCallback<>();
+      service.aggregate(controller, request, callback);
+      AggregationResponse response = callback.get();
+      if (controller.failedOnException()) {
+        throw controller.getFailedOn();
+      }
+      return response;
+    };
+
+    ClientMetrics metrics = ClientMetrics.installed();
+    long start = System.nanoTime();
+    Map<byte[], AggregationResponse> partials;
+    try {
+      partials = table.coprocessorService(ColumnAggregationService.class, scan.getStartRow(), scan.getStopRow(), call);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IOException("Failed to aggregate [" + column + "] of [" + table.getName() + "]", t);
+    } finally {
+      if (metrics != null) {
+        metrics.record(ClientMetrics.Operation.SCAN, table.getName(), System.nanoTime() - start);
+      }
+    }
+    ColumnAggregates total = merge(type, precision, partials.values());
+    LOG.debug("Aggregated [{}] of [{}] over [{}] regions: {}", column, table.getName(), partials.size(), total);
+    return total;
+  }
+
+  /**
+   * @return the request for the endpoint, whose scan reads only the latest version of the column
+   */
+  static AggregationRequest request(Column column, ColumnAggregates.Type type, Scan scan, int precision)
+    throws IOException {
+    if (scan.isReversed()) {
+      throw new IllegalArgumentException("Reversed scans can't be aggregated");
+    }
+    if (precision != 0) {
+      // fail here rather than in every region
+      new HyperLogLog(precision);
+    }
+    Scan narrowed = new Scan(scan);
+    narrowed.setFamilyMap(new TreeMap<>(Bytes.BYTES_COMPARATOR));
+    narrowed.addColumn(column.getFamily(), column.getQualifier());
+    narrowed.readVersions(1);
+    return AggregationRequest.newBuilder()
+      .setFamily(ByteString.copyFrom(column.getFamily()))
+      .setQualifier(ByteString.copyFrom(column.getQualifier()))
+      .setType(type.name())
+      .setScan(ProtobufUtil.toScan(narrowed).toByteString())
+      .setPrecision(precision)
+      .build();
+  }
+
+  /**
+   * @return the aggregates of all the partial aggregates of the regions
+   */
+  static ColumnAggregates merge(ColumnAggregates.Type type, int precision, Collection<AggregationResponse> partials) {
+    ColumnAggregates total = new ColumnAggregates(type, precision);
+    for (AggregationResponse partial : partials) {
+      total.merge(ColumnAggregates.fromResponse(type, partial));
+    }
+    return total;
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<String> positional = new ArrayList<>();
+    int precision = HyperLogLog.DEFAULT_PRECISION;
+    Scan scan = new Scan();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--start":
+            scan.withStartRow(Bytes.toBytesBinary(args[++i]));
+            break;
+          case "--stop":
+            scan.withStopRow(Bytes.toBytesBinary(args[++i]));
+            break;
+          case "--precision":
+            precision = Integer.parseInt(args[++i]);
+            break;
+          default:
+            positional.add(args[i]);
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      positional.clear();
+    }
+
+    String[] column = positional.size() == 3 ? positional.get(1).split(":", 2) : new String[0];
+    if (column.length != 2) {
+      LOG.error("Usage: org.gbif.hbase.util.ColumnAggregator <table> <family:qualifier> "
+                + "<short|int|long|float|double|bytes> [--start <row>] [--stop <row>] [--precision <0, 4-18>]");
+      System.exit(1);
+    }
+
+    TableName tableName = TableName.valueOf(positional.get(0));
+    ColumnAggregates.Type type = ColumnAggregates.Type.valueOf(positional.get(2).toUpperCase());
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create());
+         Table table = connection.getTable(tableName)) {
+      ColumnAggregates total = aggregate(table, Column.of(column[0], column[1]), type, scan, precision);
+      LOG.info("Aggregates of [{}] in [{}]: {}", positional.get(1), tableName, total);
+    }
+  }
+}
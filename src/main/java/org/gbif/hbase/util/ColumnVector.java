@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.hadoop.hbase.Cell;
+
+/**
+ * A reusable, growable vector holding the values of one column for a batch of rows, with a bitmap marking the rows
+ * in which the column was absent. Filled by a {@link BatchDecoder}; the backing arrays are only reallocated when a
+ * batch is larger than any seen before, so decoding successive batches creates no garbage.
+ */
+public abstract class ColumnVector {
+
+  private final Column column;
+  private long[] nulls;
+  private int size;
+
+  ColumnVector(Column column, int capacity) {
+    this.column = Objects.requireNonNull(column, "column can't be null");
+    this.nulls = new long[words(capacity)];
+  }
+
+  /**
+   * @return the column this vector holds values of
+   */
+  public Column getColumn() {
+    return column;
+  }
+
+  /**
+   * @return the number of rows in the current batch
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return true if the column was absent from the row at the given index of the current batch
+   */
+  public boolean isNull(int index) {
+    return (nulls[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * @return the null bitmap of the current batch: bit {@code i % 64} of word {@code i / 64} is set if row {@code i}
+   *         lacked the column. Shared with the vector and only valid until the next batch is decoded.
+   */
+  public long[] nulls() {
+    return nulls;
+  }
+
+  /**
+   * Clear the vector for a batch of the given size, growing it if needed.
+   */
+  void reset(int batchSize) {
+    int words = words(batchSize);
+    if (nulls.length < words) {
+      nulls = new long[words];
+    } else {
+      Arrays.fill(nulls, 0, words, 0L);
+    }
+    ensureCapacity(batchSize);
+    size = batchSize;
+  }
+
+  void setNull(int index) {
+    nulls[index >>> 6] |= 1L << index;
+  }
+
+  /**
+   * Grow the value array so it holds at least the given number of rows.
+   */
+  abstract void ensureCapacity(int capacity);
+
+  /**
+   * Decode the cell into the value at the given index.
+   */
+  abstract void set(int index, Cell cell);
+
+  private static int words(int capacity) {
+    return (capacity + 63) >>> 6;
+  }
+
+  static int grow(int current, int required) {
+    return Math.max(required, current + (current >> 1));
+  }
+}
@@ -0,0 +1,449 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CompressionTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recommends the compression, data block encoding and block size of a column family by trying each candidate on a
+ * sample of its cells. Each candidate writes the sample to an HFile on the local file system, which is then scanned
+ * in full and read at random keys with the block cache disabled, measuring:
+ * <ul>
+ *   <li>the size of the file</li>
+ *   <li>the rate the sample is written (encoding and compressing)</li>
+ *   <li>the rate it is scanned (decompressing and decoding)</li>
+ *   <li>the rate of random seeks, each decoding a block</li>
+ * </ul>
+ * Candidates are ranked for a {@link Goal}. The sample comes from a table, thinned on the server, or from local
+ * HFiles. Codecs whose native libraries are not available are skipped.
+ */
+public class CompressionAdvisor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CompressionAdvisor.class);
+
+  /**
+   * What to rank the candidates by. Each measure of a candidate is taken relative to the best of all candidates, so
+   * that a file twice the size of the smallest counts 2, and the score is the lower the better.
+   */
+  public enum Goal {
+    /** the smallest files */
+    SIZE,
+    /** the fastest random reads, then the smallest files */
+    SEEK,
+    /** the fastest scans, then the smallest files */
+    SCAN,
+    /** size, scan rate and seek rate weighted equally */
+    BALANCED
+  }
+
+  /**
+   * The settings tried.
+   */
+  public static final class Candidate {
+    private final Compression.Algorithm compression;
+    private final DataBlockEncoding encoding;
+    private final int blockSize;
+
+    public Candidate(Compression.Algorithm compression, DataBlockEncoding encoding, int blockSize) {
+      this.compression = compression;
+      this.encoding = encoding;
+      this.blockSize = blockSize;
+    }
+
+    public Compression.Algorithm getCompression() {
+      return compression;
+    }
+
+    public DataBlockEncoding getEncoding() {
+      return encoding;
+    }
+
+    public int getBlockSize() {
+      return blockSize;
+    }
+
+    @Override
+    public String toString() {
+      return compression + "/" + encoding + "/" + (blockSize / 1024) + "K";
+    }
+  }
+
+  /**
+   * The measures of a candidate.
+   */
+  public static final class Trial {
+    private final Candidate candidate;
+    private final long rawBytes;
+    private final long fileBytes;
+    private final long writeNanos;
+    private final long scanNanos;
+    private final int seeks;
+    private final long seekNanos;
+    private double score;
+
+    private Trial(Candidate candidate, long rawBytes, long fileBytes, long writeNanos, long scanNanos, int seeks,
+                  long seekNanos) {
+      this.candidate = candidate;
+      this.rawBytes = rawBytes;
+      this.fileBytes = fileBytes;
+      this.writeNanos = writeNanos;
+      this.scanNanos = scanNanos;
+      this.seeks = seeks;
+      this.seekNanos = seekNanos;
+    }
+
+    public Candidate getCandidate() {
+      return candidate;
+    }
+
+    public long getFileBytes() {
+      return fileBytes;
+    }
+
+    /**
+     * @return the size of the sample's cells over the size of the file
+     */
+    public double getRatio() {
+      return (double) rawBytes / fileBytes;
+    }
+
+    public double getWriteMBPerSecond() {
+      return rawBytes / 1048576d / (writeNanos / 1e9);
+    }
+
+    public double getScanMBPerSecond() {
+      return rawBytes / 1048576d / (scanNanos / 1e9);
+    }
+
+    public double getSeeksPerSecond() {
+      return seeks / (seekNanos / 1e9);
+    }
+
+    /**
+     * @return the score of the last ranking, lower being better
+     */
+    public double getScore() {
+      return score;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%-28s %12d bytes %6.2fx %9.1f MB/s write %9.1f MB/s scan %10.0f seeks/s",
+                           candidate, fileBytes, getRatio(), getWriteMBPerSecond(), getScanMBPerSecond(),
+                           getSeeksPerSecond());
+    }
+  }
+
+  private final Configuration conf;
+  private final FileSystem fs;
+  private final Path workDir;
+
+  /**
+   * @param workDir a local directory for the trial HFiles, each deleted once measured
+   */
+  public CompressionAdvisor(Configuration conf, java.nio.file.Path workDir) throws IOException {
+    this.conf = conf;
+    this.fs = FileSystem.getLocal(conf);
+    this.workDir = new Path(workDir.toAbsolutePath().toString());
+  }
+
+  /**
+   * Sample the cells of a column family of a table.
+   *
+   * @param chance  the probability with which each row is read, to thin large tables on the server
+   * @param maxRows the most rows sampled
+   */
+  public static List<Cell> sampleTable(Connection connection, TableName tableName, byte[] family, float chance,
+                                       int maxRows) throws IOException {
+    Scan scan = new Scan().addFamily(family).setCaching(1000).setCacheBlocks(false).setLimit(maxRows);
+    if (chance < 1) {
+      scan.setFilter(new RandomRowFilter(chance));
+    }
+    List<Cell> cells = new ArrayList<>();
+    try (Table table = connection.getTable(tableName);
+         ResultScanner scanner = table.getScanner(scan)) {
+      for (Result result : scanner) {
+        for (Cell cell : result.rawCells()) {
+          cells.add(cell);
+        }
+      }
+    }
+    LOG.info("Sampled [{}] cells from [{}]", cells.size(), tableName);
+    return cells;
+  }
+
+  /**
+   * Sample the cells of local HFiles, e.g. copied from the store of a column family.
+   *
+   * @param maxCells the most cells read from each file
+   */
+  public static List<Cell> sampleHFiles(Configuration conf, List<java.nio.file.Path> files, int maxCells)
+    throws IOException {
+    FileSystem fs = FileSystem.getLocal(conf);
+    List<Cell> cells = new ArrayList<>();
+    for (java.nio.file.Path file : files) {
+      try (HFile.Reader reader = HFile.createReader(fs, new Path(file.toAbsolutePath().toString()),
+                                                    CacheConfig.DISABLED, true, conf)) {
+        HFileScanner scanner = reader.getScanner(conf, false, false);
+        if (scanner.seekTo()) {
+          int read = 0;
+          do {
+            cells.add(KeyValueUtil.copyToNewKeyValue(scanner.getCell()));
+          } while (++read < maxCells && scanner.next());
+        }
+      }
+    }
+    LOG.info("Sampled [{}] cells from [{}] HFiles", cells.size(), files.size());
+    return cells;
+  }
+
+  /**
+   * @return every combination of the codecs that are available here, the encodings and the block sizes
+   */
+  public static List<Candidate> candidates(List<Compression.Algorithm> codecs, List<DataBlockEncoding> encodings,
+                                           int... blockSizes) {
+    List<Candidate> candidates = new ArrayList<>();
+    for (Compression.Algorithm codec : codecs) {
+      try {
+        CompressionTest.testCompression(codec);
+      } catch (IOException e) {
+        LOG.warn("Skipping [{}], which is not available: {}", codec, e.getMessage());
+        continue;
+      }
+      for (DataBlockEncoding encoding : encodings) {
+        for (int blockSize : blockSizes) {
+          candidates.add(new Candidate(codec, encoding, blockSize));
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * @return the default candidates: the common codecs and encodings at 16K, 64K (the HBase default) and 128K blocks
+   */
+  public static List<Candidate> defaultCandidates() {
+    return candidates(Arrays.asList(Compression.Algorithm.NONE, Compression.Algorithm.SNAPPY,
+                                    Compression.Algorithm.LZ4, Compression.Algorithm.ZSTD,
+                                    Compression.Algorithm.GZ),
+                      Arrays.asList(DataBlockEncoding.NONE, DataBlockEncoding.PREFIX, DataBlockEncoding.DIFF,
+                                    DataBlockEncoding.FAST_DIFF, DataBlockEncoding.ROW_INDEX_V1),
+                      16 * 1024, 64 * 1024, 128 * 1024);
+  }
+
+  /**
+   * Try each candidate on the sample.
+   *
+   * @param seeks the number of random reads of each candidate's file
+   */
+  public List<Trial> evaluate(List<Cell> sample, List<Candidate> candidates, int seeks) throws IOException {
+    List<KeyValue> cells = new ArrayList<>(sample.size());
+    long rawBytes = 0;
+    for (Cell cell : sample) {
+      KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
+      cells.add(kv);
+      rawBytes += kv.getLength();
+    }
+    cells.sort(CellComparator.getInstance());
+    if (cells.isEmpty()) {
+      throw new IllegalArgumentException("The sample is empty");
+    }
+
+    // the same keys are read from every candidate
+    Random random = new Random(42);
+    KeyValue[] seekKeys = new KeyValue[seeks];
+    for (int i = 0; i < seeks; i++) {
+      seekKeys[i] = cells.get(random.nextInt(cells.size()));
+    }
+
+    List<Trial> trials = new ArrayList<>(candidates.size());
+    for (Candidate candidate : candidates) {
+      Trial trial = evaluate(cells, rawBytes, seekKeys, candidate);
+      LOG.info("{}", trial);
+      trials.add(trial);
+    }
+    return trials;
+  }
+
+  private Trial evaluate(List<KeyValue> cells, long rawBytes, KeyValue[] seekKeys, Candidate candidate)
+    throws IOException {
+    Path file = new Path(workDir, "trial-" + candidate.compression + "-" + candidate.encoding + "-"
+                                  + candidate.blockSize);
+    HFileContext context = new HFileContextBuilder()
+      .withCompression(candidate.compression)
+      .withDataBlockEncoding(candidate.encoding)
+      .withBlockSize(candidate.blockSize)
+      .build();
+    try {
+      long start = System.nanoTime();
+      try (HFile.Writer writer = HFile.getWriterFactory(conf, CacheConfig.DISABLED)
+        .withPath(fs, file)
+        .withFileContext(context)
+        .create()) {
+        for (KeyValue kv : cells) {
+          writer.append(kv);
+        }
+      }
+      long writeNanos = System.nanoTime() - start;
+      long fileBytes = fs.getFileStatus(file).getLen();
+
+      long scanNanos;
+      long seekNanos;
+      try (HFile.Reader reader = HFile.createReader(fs, file, CacheConfig.DISABLED, true, conf)) {
+        start = System.nanoTime();
+        HFileScanner scanner = reader.getScanner(conf, false, false);
+        long checksum = 0;
+        if (scanner.seekTo()) {
+          do {
+            checksum += scanner.getCell().getValueLength();
+          } while (scanner.next());
+        }
+        scanNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        HFileScanner seeker = reader.getScanner(conf, false, true);
+        for (KeyValue key : seekKeys) {
+          seeker.seekTo(key);
+          checksum += seeker.getCell().getValueLength();
+        }
+        seekNanos = System.nanoTime() - start;
+        LOG.debug("Read [{}] value bytes from [{}]", checksum, file);
+      }
+      return new Trial(candidate, rawBytes, fileBytes, writeNanos, scanNanos, seekKeys.length, seekNanos);
+    } finally {
+      fs.delete(file, false);
+    }
+  }
+
+  /**
+   * Sort the trials best first for the goal, setting their scores.
+   */
+  public static List<Trial> rank(List<Trial> trials, Goal goal) {
+    long smallest = Long.MAX_VALUE;
+    double fastestScan = 0;
+    double fastestSeek = 0;
+    for (Trial trial : trials) {
+      smallest = Math.min(smallest, trial.fileBytes);
+      fastestScan = Math.max(fastestScan, trial.getScanMBPerSecond());
+      fastestSeek = Math.max(fastestSeek, trial.getSeeksPerSecond());
+    }
+    for (Trial trial : trials) {
+      double size = (double) trial.fileBytes / smallest;
+      double scan = fastestScan / trial.getScanMBPerSecond();
+      double seek = trial.seeks == 0 ? 1 : fastestSeek / trial.getSeeksPerSecond();
+      switch (goal) {
+        case SIZE:
+          trial.score = size;
+          break;
+        case SEEK:
+          // size only breaks near ties in speed, which is noisy
+          trial.score = seek * Math.pow(size, 0.1);
+          break;
+        case SCAN:
+          trial.score = scan * Math.pow(size, 0.1);
+          break;
+        default:
+          trial.score = Math.cbrt(size * scan * seek);
+      }
+    }
+    List<Trial> ranked = new ArrayList<>(trials);
+    ranked.sort(Comparator.comparingDouble(Trial::getScore));
+    return ranked;
+  }
+
+  /**
+   * Print the ranked trials, and how to apply the best with {@link TableCreator} or in a {@link TableSpec}.
+   */
+  public static void report(List<Trial> ranked, String family, PrintStream out) {
+    for (int i = 0; i < ranked.size(); i++) {
+      out.printf(Locale.ROOT, "%3d. %s  score %.3f%n", i + 1, ranked.get(i), ranked.get(i).getScore());
+    }
+    if (!ranked.isEmpty()) {
+      Candidate best = ranked.get(0).getCandidate();
+      out.printf("TableCreator arguments: <table_name> %s <splits_file> <region_file_size_mb> %s %s%n", family,
+                 best.compression, best.encoding);
+      out.printf("TableSpec family: {\"name\": \"%s\", \"compression\": \"%s\", \"encoding\": \"%s\", "
+                 + "\"blockSize\": %d}%n", family, best.compression, best.encoding, best.blockSize);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      LOG.error("Usage: CompressionAdvisor <table|hfiles> <table name|hfile,...> <family> [size|seek|scan|balanced] "
+                + "[rows or cells] [row chance] [seeks]");
+      System.exit(1);
+    }
+    Goal goal = args.length > 3 ? Goal.valueOf(args[3].toUpperCase(Locale.ROOT)) : Goal.BALANCED;
+    int rows = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+    float chance = args.length > 5 ? Float.parseFloat(args[5]) : 0.01f;
+    int seeks = args.length > 6 ? Integer.parseInt(args[6]) : 10_000;
+
+    Configuration conf = HBaseConfiguration.create();
+    List<Cell> sample;
+    if ("table".equals(args[0])) {
+      try (Connection connection = ConnectionFactory.createConnection(conf)) {
+        sample = sampleTable(connection, TableName.valueOf(args[1]), Bytes.toBytes(args[2]), chance, rows);
+      }
+    } else {
+      List<java.nio.file.Path> files = new ArrayList<>();
+      for (String file : args[1].split(",")) {
+        files.add(java.nio.file.Paths.get(file));
+      }
+      sample = sampleHFiles(conf, files, rows);
+    }
+
+    java.nio.file.Path workDir = java.nio.file.Files.createTempDirectory("compression-advisor-");
+    try {
+      CompressionAdvisor advisor = new CompressionAdvisor(conf, workDir);
+      report(rank(advisor.evaluate(sample, defaultCandidates(), seeks), goal), args[2], System.out);
+    } finally {
+      java.nio.file.Files.deleteIfExists(workDir);
+    }
+  }
+}
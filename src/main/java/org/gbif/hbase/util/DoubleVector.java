@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.Cell;
+
+/**
+ * A {@link ColumnVector} of double values, decoded as by {@link ResultReader#toDouble(Cell)}. Rows lacking the column
+ * hold 0.
+ */
+public final class DoubleVector extends ColumnVector {
+
+  private double[] values;
+
+  public DoubleVector(Column column, int capacity) {
+    super(column, capacity);
+    values = new double[capacity];
+  }
+
+  /**
+   * @return the values of the current batch, valid up to {@link #size()}. Shared with the vector and only valid
+   *         until the next batch is decoded.
+   */
+  public double[] values() {
+    return values;
+  }
+
+  public double get(int index) {
+    return values[index];
+  }
+
+  @Override
+  void ensureCapacity(int capacity) {
+    if (values.length < capacity) {
+      values = Arrays.copyOf(values, grow(values.length, capacity));
+    }
+  }
+
+  @Override
+  void set(int index, Cell cell) {
+    values[index] = cell == null ? 0 : ResultReader.toDouble(cell);
+  }
+}
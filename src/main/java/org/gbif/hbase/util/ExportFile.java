@@ -0,0 +1,481 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A compact, block compressed binary file of cells in key order, as written by the {@link TableExporter} for each
+ * range of a table, and its reader.
+ * <p>
+ * The format, all ints and longs big endian:
+ * <pre>
+ *   magic (4 bytes: 0x89 'E' 'X' 'P')
+ *   version (int)
+ *   blocks: for each, its deflated length (int), inflated length (int), number of cells (int) and CRC32 of the
+ *     inflated bytes (int), then the deflated bytes: for each cell, its length (int) and the cell in the KeyValue
+ *     format, without tags
+ *   block index: for each block, its offset in the file (long) and the length (int) and bytes of its first row
+ *   trailer: offset of the block index (long), number of blocks (int), number of cells (long), magic
+ * </pre>
+ * Both sides stream through a file channel and a direct buffer, and hold at most one block in memory besides the
+ * block index, so files of any size are written and read in bounded memory. The index lets a reader
+ * {@link Reader#seek(byte[]) seek} to a row reading a single block.
+ */
+public final class ExportFile {
+
+  static final byte[] MAGIC = {(byte) 0x89, 'E', 'X', 'P'};
+  private static final int VERSION = 1;
+  private static final int BLOCK_HEADER_BYTES = 4 * Bytes.SIZEOF_INT;
+  private static final int TRAILER_BYTES = 2 * Bytes.SIZEOF_LONG + Bytes.SIZEOF_INT + MAGIC.length;
+  private static final int IO_BUFFER_BYTES = 4 * 1024 * 1024;
+
+  // not to be instantiated
+  private ExportFile() {
+  }
+
+  /**
+   * @param blockSize        the inflated bytes of cells in a block, beyond which a new block is started
+   * @param compressionLevel the {@link Deflater} level, from 0 (none) to 9
+   */
+  public static Writer writer(Path file, int blockSize, int compressionLevel) throws IOException {
+    return new Writer(file, blockSize, compressionLevel);
+  }
+
+  public static Reader reader(Path file) throws IOException {
+    return new Reader(file);
+  }
+
+  /**
+   * Writes cells, which must be appended in key order, to a new file. Not thread safe.
+   */
+  public static final class Writer implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final int blockSize;
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+
+    private byte[] block;
+    private int blockLength;
+    private int blockCells;
+    private byte[] deflated = new byte[0];
+    private long position;
+    private int blocks;
+    private long cells;
+
+    private Writer(Path file, int blockSize, int compressionLevel) throws IOException {
+      if (blockSize < 1) {
+        throw new IllegalArgumentException("blockSize must be positive");
+      }
+      this.blockSize = blockSize;
+      this.block = new byte[blockSize];
+      this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                      StandardOpenOption.WRITE);
+      this.deflater = new Deflater(compressionLevel);
+      out.put(MAGIC).putInt(VERSION);
+      position = out.position();
+    }
+
+    /**
+     * Append a cell, which must not sort before the cell appended before it. Tags are not kept.
+     */
+    public void append(Cell cell) throws IOException {
+      int length = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + KeyValueUtil.keyLength(cell) + cell.getValueLength();
+      if (blockLength > 0 && blockLength + Bytes.SIZEOF_INT + length > blockSize) {
+        writeBlock();
+      }
+      if (blockLength == 0) {
+        index.writeLong(position);
+        index.writeInt(cell.getRowLength());
+        index.write(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+      }
+      if (Bytes.SIZEOF_INT + length > block.length - blockLength) {
+        // a cell larger than a block gets a block of its own
+        block = Arrays.copyOf(block, blockLength + Bytes.SIZEOF_INT + length);
+      }
+      blockLength = Bytes.putInt(block, blockLength, length);
+      blockLength = KeyValueUtil.appendToByteArray(cell, block, blockLength, false);
+      blockCells++;
+      cells++;
+    }
+
+    /**
+     * Append the cells of a row, which must sort after those appended before.
+     */
+    public void append(Result row) throws IOException {
+      for (Cell cell : row.rawCells()) {
+        append(cell);
+      }
+    }
+
+    private void writeBlock() throws IOException {
+      crc.reset();
+      crc.update(block, 0, blockLength);
+      deflater.reset();
+      deflater.setInput(block, 0, blockLength);
+      deflater.finish();
+      int deflatedLength = 0;
+      while (!deflater.finished()) {
+        if (deflatedLength == deflated.length) {
+          deflated = Arrays.copyOf(deflated, Math.max(1024, deflated.length * 2));
+        }
+        deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+      }
+
+      ensureSpace(BLOCK_HEADER_BYTES);
+      out.putInt(deflatedLength).putInt(blockLength).putInt(blockCells).putInt((int) crc.getValue());
+      put(deflated, deflatedLength);
+      position += BLOCK_HEADER_BYTES + deflatedLength;
+      blocks++;
+      blockLength = 0;
+      blockCells = 0;
+      if (block.length > blockSize) {
+        block = new byte[blockSize];
+      }
+    }
+
+    private void put(byte[] bytes, int length) throws IOException {
+      int offset = 0;
+      while (offset < length) {
+        ensureSpace(1);
+        int n = Math.min(out.remaining(), length - offset);
+        out.put(bytes, offset, n);
+        offset += n;
+      }
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+      if (out.remaining() < bytes) {
+        drain();
+      }
+    }
+
+    private void drain() throws IOException {
+      out.flip();
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+      out.clear();
+    }
+
+    /**
+     * @return the cells appended so far
+     */
+    public long getCells() {
+      return cells;
+    }
+
+    /**
+     * @return the bytes written to the file so far, in complete blocks
+     */
+    public long getBytes() {
+      return position;
+    }
+
+    /**
+     * Write the last block, the index and the trailer, and sync the file to disk. Closing again has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+      if (!channel.isOpen()) {
+        return;
+      }
+      try {
+        if (blockLength > 0) {
+          writeBlock();
+        }
+        long indexOffset = position;
+        index.flush();
+        put(indexBytes.toByteArray(), indexBytes.size());
+        ensureSpace(TRAILER_BYTES);
+        out.putLong(indexOffset).putInt(blocks).putLong(cells).put(MAGIC);
+        position += indexBytes.size() + TRAILER_BYTES;
+        drain();
+        channel.force(false);
+      } finally {
+        deflater.end();
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the cells of a file in key order. Cells returned stay valid after the reader has moved on or been closed.
+   * Not thread safe.
+   */
+  public static final class Reader implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final long[] offsets;
+    private final byte[][] firstRows;
+    private final long cells;
+
+    // the position in the file of the next byte read into the buffer
+    private long channelPosition;
+    private int nextBlock;
+    private byte[] deflated = new byte[0];
+    private byte[] block = new byte[0];
+    private int blockPosition;
+    private int blockEnd;
+    private Cell peeked;
+
+    private Reader(Path file) throws IOException {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+        long size = channel.size();
+        if (size < MAGIC.length + Bytes.SIZEOF_INT + TRAILER_BYTES) {
+          throw new IOException("[" + file + "] is too short to be an export file");
+        }
+        ByteBuffer trailer = readAt(size - TRAILER_BYTES, TRAILER_BYTES);
+        long indexOffset = trailer.getLong();
+        int blocks = trailer.getInt();
+        cells = trailer.getLong();
+        byte[] magic = new byte[MAGIC.length];
+        trailer.get(magic);
+        ByteBuffer header = readAt(0, MAGIC.length + Bytes.SIZEOF_INT);
+        byte[] headerMagic = new byte[MAGIC.length];
+        header.get(headerMagic);
+        if (!Arrays.equals(MAGIC, magic) || !Arrays.equals(MAGIC, headerMagic)) {
+          throw new IOException("[" + file + "] is not an export file, or was not completely written");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+          throw new IOException("Unsupported export file version [" + version + "]");
+        }
+        if (indexOffset < 0 || indexOffset > size - TRAILER_BYTES || blocks < 0) {
+          throw new IOException("Corrupt block index in [" + file + "]");
+        }
+
+        ByteBuffer index = readAt(indexOffset, (int) (size - TRAILER_BYTES - indexOffset));
+        offsets = new long[blocks];
+        firstRows = new byte[blocks][];
+        for (int i = 0; i < blocks; i++) {
+          offsets[i] = index.getLong();
+          firstRows[i] = new byte[index.getInt()];
+          index.get(firstRows[i]);
+        }
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e instanceof IOException ? (IOException) e : new IOException("Corrupt export file [" + file + "]", e);
+      }
+      seekBlock(0);
+    }
+
+    private ByteBuffer readAt(long offset, int length) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new EOFException("Export file ends before its trailer");
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+    /**
+     * @return the number of cells in the file
+     */
+    public long getCells() {
+      return cells;
+    }
+
+    /**
+     * @return the number of blocks in the file
+     */
+    public int getBlocks() {
+      return offsets.length;
+    }
+
+    /**
+     * Position the reader at the first cell of the first row at or after the given row.
+     */
+    public void seek(byte[] row) throws IOException {
+      // the last block starting before the row, as the row may start in the block before the first starting at it
+      int found = 0;
+      int low = 0;
+      int high = firstRows.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (Bytes.compareTo(firstRows[mid], row) < 0) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      seekBlock(found);
+      for (Cell cell = peek(); cell != null; cell = peek()) {
+        if (Bytes.compareTo(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(), row, 0, row.length) >= 0) {
+          return;
+        }
+        peeked = null;
+      }
+    }
+
+    private void seekBlock(int blockIndex) {
+      nextBlock = blockIndex;
+      channelPosition = blockIndex < offsets.length ? offsets[blockIndex] : 0;
+      in.clear().limit(0);
+      blockPosition = 0;
+      blockEnd = 0;
+      peeked = null;
+    }
+
+    /**
+     * @return the next cell, or null at the end of the file
+     */
+    public Cell next() throws IOException {
+      Cell cell = peek();
+      peeked = null;
+      return cell;
+    }
+
+    /**
+     * @return all the cells of the next row, or null at the end of the file
+     */
+    public Result nextRow() throws IOException {
+      Cell first = next();
+      if (first == null) {
+        return null;
+      }
+      List<Cell> row = new ArrayList<>();
+      row.add(first);
+      for (Cell cell = peek(); cell != null && CellUtil.matchingRows(first, cell); cell = peek()) {
+        row.add(cell);
+        peeked = null;
+      }
+      return Result.create(row);
+    }
+
+    private Cell peek() throws IOException {
+      if (peeked == null) {
+        if (blockPosition == blockEnd && !readBlock()) {
+          return null;
+        }
+        int length = Bytes.toInt(block, blockPosition);
+        if (length < 0 || length > blockEnd - blockPosition - Bytes.SIZEOF_INT) {
+          throw new IOException("Corrupt block [" + (nextBlock - 1) + "], cell runs past its end");
+        }
+        peeked = new KeyValue(block, blockPosition + Bytes.SIZEOF_INT, length);
+        blockPosition += Bytes.SIZEOF_INT + length;
+      }
+      return peeked;
+    }
+
+    /**
+     * Read and inflate the next block into a new array, so the cells of the previous block remain valid.
+     *
+     * @return false at the end of the file
+     */
+    private boolean readBlock() throws IOException {
+      if (nextBlock >= offsets.length) {
+        return false;
+      }
+      byte[] header = new byte[BLOCK_HEADER_BYTES];
+      read(header, BLOCK_HEADER_BYTES);
+      int deflatedLength = Bytes.toInt(header, 0);
+      int inflatedLength = Bytes.toInt(header, Bytes.SIZEOF_INT);
+      int checksum = Bytes.toInt(header, 3 * Bytes.SIZEOF_INT);
+      if (deflatedLength < 0 || inflatedLength < 0) {
+        throw new IOException("Corrupt header of block [" + nextBlock + "]");
+      }
+      if (deflated.length < deflatedLength) {
+        deflated = new byte[deflatedLength];
+      }
+      read(deflated, deflatedLength);
+
+      block = new byte[inflatedLength];
+      inflater.reset();
+      inflater.setInput(deflated, 0, deflatedLength);
+      try {
+        int inflated = 0;
+        while (inflated < inflatedLength && !inflater.finished()) {
+          int n = inflater.inflate(block, inflated, inflatedLength - inflated);
+          if (n == 0 && inflater.needsInput()) {
+            break;
+          }
+          inflated += n;
+        }
+        if (inflated != inflatedLength) {
+          throw new IOException("Block [" + nextBlock + "] inflated to [" + inflated + "] bytes, not ["
+                                + inflatedLength + "]");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt block [" + nextBlock + "]", e);
+      }
+      crc.reset();
+      crc.update(block, 0, inflatedLength);
+      if ((int) crc.getValue() != checksum) {
+        throw new IOException("Checksum mismatch in block [" + nextBlock + "]");
+      }
+      nextBlock++;
+      blockPosition = 0;
+      blockEnd = inflatedLength;
+      return true;
+    }
+
+    private void read(byte[] bytes, int length) throws IOException {
+      int offset = 0;
+      while (offset < length) {
+        if (!in.hasRemaining()) {
+          in.clear();
+          int n = channel.read(in, channelPosition);
+          if (n < 0) {
+            throw new EOFException("Export file ends within block [" + nextBlock + "]");
+          }
+          channelPosition += n;
+          in.flip();
+        }
+        int n = Math.min(in.remaining(), length - offset);
+        in.get(bytes, offset, n);
+        offset += n;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      inflater.end();
+      channel.close();
+    }
+  }
+}
@@ -13,16 +13,15 @@
  */
 package org.gbif.hbase.util;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.TableName;
@@ -33,55 +32,76 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Writes the splits of an existing table to a file, as ints one per line for {@link TableCreator}, or as a
+ * {@link SplitIndex} of keys of any format.
+ */
 public class HBaseSplitCounter {
 
   private static final Logger LOG = LoggerFactory.getLogger(HBaseSplitCounter.class);
 
-  private static File reCreate(String fileName) throws IOException {
-    File file = new File(fileName);
-    Files.deleteIfExists(file.toPath());
-    Files.createFile(file.toPath());
-    return file;
+  // not to be instantiated
+  private HBaseSplitCounter() {
   }
 
-  private static void generateSplitsFile(String tableName, String outFileName) throws IOException {
+  /**
+   * Writes the end keys of the regions of the table, which must be ints, one per line. The file is replaced if it
+   * exists, and written through a buffer flushed once at the end, so tables of tens of thousands of regions take no
+   * longer than reading their locations.
+   *
+   * @return the number of splits written
+   */
+  public static int writeSplits(Connection connection, TableName tableName, Path outFile) throws IOException {
     LOG.info("Finding splits for [{}]", tableName);
-
-    File outFile = reCreate(outFileName);
-
-    try (FileOutputStream fos = new FileOutputStream(outFile);
-         OutputStreamWriter writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
-      Configuration config = HBaseConfiguration.create();
-      TableName hTableName = TableName.valueOf(tableName);
-      try(Connection connection = ConnectionFactory.createConnection(config);
-          RegionLocator regionLocator = connection.getRegionLocator(hTableName)) {
-        List<HRegionLocation> regions = regionLocator.getAllRegionLocations();
-        int goodSplits = 0;
-        for (HRegionLocation region : regions) {
-          byte[] endKey = region.getRegion().getEndKey();
-          if (endKey.length > 0) {
-            int goodKey = Bytes.toInt(endKey);
-            goodSplits++;
-            writer.write(goodKey + "\n");
-            writer.flush();
-            LOG.info("Got endkey [{}]", goodKey);
-          }
+    try (RegionLocator regionLocator = connection.getRegionLocator(tableName);
+         BufferedWriter writer = Files.newBufferedWriter(outFile, StandardCharsets.UTF_8)) {
+      List<HRegionLocation> regions = regionLocator.getAllRegionLocations();
+      int goodSplits = 0;
+      for (HRegionLocation region : regions) {
+        byte[] endKey = region.getRegion().getEndKey();
+        if (endKey.length > 0) {
+          writer.write(Integer.toString(Bytes.toInt(endKey)));
+          writer.newLine();
+          goodSplits++;
         }
-        LOG.info("Finished getting [{}] endkey splits for [{}] regions in [{}]", goodSplits, regions.size(), tableName);
       }
-    } catch (FileNotFoundException e) {
-      LOG.error("Couldn't create file [{}] - aborting", outFileName, e);
-      System.exit(1);
-    } catch (IOException e) {
-      LOG.warn("IOException when writing to file", e);
+      LOG.info("Finished getting [{}] endkey splits for [{}] regions in [{}]", goodSplits, regions.size(), tableName);
+      return goodSplits;
     }
   }
 
-  public static void main(String[] args) throws IOException {
-    if (args.length != 2) {
-      LOG.error("Usage: HBaseSplitCounter <tableName> <outputFileName>");
+  /**
+   * Writes the end keys of the regions of the table as a {@link SplitIndex}, which holds keys of any format.
+   *
+   * @return the number of splits written
+   */
+  public static int writeSplitIndex(Connection connection, TableName tableName, Path outFile) throws IOException {
+    LOG.info("Finding splits for [{}]", tableName);
+    try (RegionLocator regionLocator = connection.getRegionLocator(tableName)) {
+      byte[][] startKeys = regionLocator.getStartKeys();
+      // the end keys of all regions but the last are the start keys of all but the first
+      SplitIndex index = SplitIndex.of(Arrays.copyOfRange(startKeys, 1, startKeys.length));
+      index.write(outFile);
+      LOG.info("Wrote index of [{}] splits for [{}] to [{}]", index.size(), tableName, outFile);
+      return index.size();
+    }
+  }
+
+  public static void main(String[] args) {
+    boolean index = args.length == 3 && "--index".equals(args[2]);
+    if (args.length != 2 && !index) {
+      LOG.error("Usage: HBaseSplitCounter <tableName> <outputFileName> [--index]");
+      System.exit(1);
+    }
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      if (index) {
+        writeSplitIndex(connection, TableName.valueOf(args[0]), Paths.get(args[1]));
+      } else {
+        writeSplits(connection, TableName.valueOf(args[0]), Paths.get(args[1]));
+      }
+    } catch (IOException e) {
+      LOG.error("Couldn't write the splits of [{}] to [{}] - aborting", args[0], args[1], e);
       System.exit(1);
     }
-    generateSplitsFile(args[0], args[1]);
   }
 }
@@ -0,0 +1,511 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
+import org.apache.hadoop.hbase.tool.BulkLoadHFiles;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes cells straight into HFiles, one per region and column family, and bulk loads them into a table, bypassing
+ * the memstores, the WAL and the compactions of the normal write path.
+ * <p>
+ * Cells are added in any order. They are buffered in memory up to a limit, then sorted and spilled to a run file on
+ * local disk, indexed by the region each cell belongs to. Once all cells are added, the runs of each region are
+ * merged and written to its HFiles, several regions at a time. The HFiles take the compression, data block encoding,
+ * block size and bloom filter of their column family from the table descriptor.
+ * <p>
+ * The region boundaries are those of the live table, or split keys given when the table does not exist yet (e.g. read
+ * with {@link SplitsFile#read(String)} from the same file given to {@link TableCreator}). If the regions have changed
+ * by the time the files are loaded, {@link BulkLoadHFiles} splits the files that cross the new boundaries, at the cost
+ * of rewriting them.
+ * <p>
+ * Of cells with the same row, column, timestamp and type, the one added last is kept. Cells without a timestamp take
+ * the time the loader was built. Instances are not thread safe.
+ */
+public class HFileBulkLoader implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HFileBulkLoader.class);
+  private static final CellComparator COMPARATOR = CellComparator.getInstance();
+
+  private final Configuration conf;
+  private final TableDescriptor descriptor;
+  // start keys of the regions, the first being empty
+  private final byte[][] startKeys;
+  private final java.nio.file.Path spillDir;
+  private final long maxMemoryBytes;
+  private final int threads;
+  private final long now = System.currentTimeMillis();
+
+  private final List<KeyValue> buffer = new ArrayList<>();
+  private long bufferBytes;
+  private final List<Run> runs = new ArrayList<>();
+  private long cells;
+
+  private HFileBulkLoader(Builder builder) throws IOException {
+    this.conf = builder.conf;
+    this.descriptor = builder.descriptor;
+    byte[][] splits = builder.splitKeys.clone();
+    Arrays.sort(splits, Bytes.BYTES_COMPARATOR);
+    this.startKeys = new byte[splits.length + 1][];
+    this.startKeys[0] = HConstants.EMPTY_START_ROW;
+    System.arraycopy(splits, 0, startKeys, 1, splits.length);
+    this.spillDir = Files.createTempDirectory(builder.spillDir, "hfile-bulk-loader-");
+    this.maxMemoryBytes = builder.maxMemoryBytes;
+    this.threads = builder.threads;
+  }
+
+  /**
+   * A loader for an existing table, partitioned by its current regions.
+   */
+  public static Builder forTable(Connection connection, TableName tableName) throws IOException {
+    try (Table table = connection.getTable(tableName);
+         RegionLocator locator = connection.getRegionLocator(tableName)) {
+      byte[][] startKeys = locator.getStartKeys();
+      return new Builder(connection.getConfiguration(), table.getDescriptor(),
+                         Arrays.copyOfRange(startKeys, 1, startKeys.length));
+    }
+  }
+
+  /**
+   * A loader for a table that is (or will be) created with the given descriptor and split keys.
+   */
+  public static Builder builder(Configuration conf, TableDescriptor descriptor, byte[][] splitKeys) {
+    return new Builder(conf, descriptor, splitKeys);
+  }
+
+  /**
+   * Add the cells of the put.
+   */
+  public void add(Put put) throws IOException {
+    for (List<Cell> familyCells : put.getFamilyCellMap().values()) {
+      for (Cell cell : familyCells) {
+        add(cell);
+      }
+    }
+  }
+
+  /**
+   * Add a cell, spilling the buffered cells to disk if they exceed the memory limit.
+   *
+   * @throws IllegalArgumentException if the table has no such column family
+   */
+  public void add(Cell cell) throws IOException {
+    if (!descriptor.hasColumnFamily(CellUtil.cloneFamily(cell))) {
+      throw new IllegalArgumentException("Table [" + descriptor.getTableName() + "] has no column family ["
+                                         + Bytes.toStringBinary(CellUtil.cloneFamily(cell)) + "]");
+    }
+    KeyValue kv = KeyValueUtil.copyToNewKeyValue(cell);
+    if (kv.getTimestamp() == HConstants.LATEST_TIMESTAMP) {
+      kv.setTimestamp(now);
+    }
+    buffer.add(kv);
+    bufferBytes += kv.heapSize();
+    cells++;
+    if (bufferBytes >= maxMemoryBytes) {
+      spill();
+    }
+  }
+
+  /**
+   * @return the index of the region holding the row
+   */
+  int region(byte[] row, int offset, int length) {
+    int low = 1;
+    int high = startKeys.length - 1;
+    // the last region whose start key is at or before the row
+    int found = 0;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (Bytes.compareTo(startKeys[mid], 0, startKeys[mid].length, row, offset, length) <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  private int region(Cell cell) {
+    return region(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+  }
+
+  /**
+   * Sort the buffer and write it to a new run, recording where the cells of each region start.
+   */
+  private void spill() throws IOException {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    // the sort is stable, so the last of equal cells is the one added last
+    buffer.sort(COMPARATOR);
+    java.nio.file.Path file = spillDir.resolve("run-" + runs.size());
+    long[] offsets = new long[startKeys.length + 1];
+    long position = 0;
+    int region = -1;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+                                                                              1024 * 1024))) {
+      for (int i = 0; i < buffer.size(); i++) {
+        KeyValue kv = buffer.get(i);
+        if (i + 1 < buffer.size() && COMPARATOR.compare(kv, buffer.get(i + 1)) == 0) {
+          continue;
+        }
+        int cellRegion = region(kv);
+        while (region < cellRegion) {
+          offsets[++region] = position;
+        }
+        out.writeInt(kv.getLength());
+        out.write(kv.getBuffer(), kv.getOffset(), kv.getLength());
+        position += Bytes.SIZEOF_INT + kv.getLength();
+      }
+    }
+    while (region < startKeys.length) {
+      offsets[++region] = position;
+    }
+    runs.add(new Run(file, offsets));
+    LOG.debug("Spilled [{}] cells to [{}]", buffer.size(), file);
+    buffer.clear();
+    bufferBytes = 0;
+  }
+
+  /**
+   * A sorted run of cells on local disk.
+   */
+  private static final class Run {
+    private final java.nio.file.Path file;
+    // offsets[r] is where the cells of region r start, offsets[r + 1] where they end
+    private final long[] offsets;
+
+    private Run(java.nio.file.Path file, long[] offsets) {
+      this.file = file;
+      this.offsets = offsets;
+    }
+  }
+
+  /**
+   * Reads the cells of one region from a run.
+   */
+  private static final class Segment implements Closeable {
+    private final int run;
+    private final DataInputStream in;
+    private long remaining;
+    private KeyValue current;
+
+    private Segment(int run, Run source, int region) throws IOException {
+      this.run = run;
+      FileChannel channel = FileChannel.open(source.file, StandardOpenOption.READ);
+      channel.position(source.offsets[region]);
+      this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+      this.remaining = source.offsets[region + 1] - source.offsets[region];
+    }
+
+    /**
+     * @return false once the segment is exhausted
+     */
+    private boolean advance() throws IOException {
+      if (remaining == 0) {
+        current = null;
+        return false;
+      }
+      int length = in.readInt();
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      remaining -= Bytes.SIZEOF_INT + length;
+      if (remaining < 0) {
+        throw new EOFException("Corrupt spill file, cell runs past the end of its region");
+      }
+      current = new KeyValue(bytes, 0, length);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Write the HFiles of every region holding cells, each column family in its own directory as bulk loading expects.
+   *
+   * @param outputDir a directory that does not exist yet, on the file system the table's HBase cluster reads from
+   *
+   * @return the number of HFiles written
+   */
+  public int writeHFiles(Path outputDir) throws IOException {
+    spill();
+    FileSystem fs = outputDir.getFileSystem(conf);
+    if (fs.exists(outputDir)) {
+      throw new IOException("Output directory [" + outputDir + "] already exists");
+    }
+    LOG.info("Writing [{}] cells from [{}] runs into the HFiles of [{}] regions", cells, runs.size(),
+             startKeys.length);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    int files = 0;
+    try {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (int region = 0; region < startKeys.length; region++) {
+        final int r = region;
+        if (hasCells(r)) {
+          futures.add(executor.submit(() -> writeRegion(fs, outputDir, r)));
+        }
+      }
+      for (Future<Integer> future : futures) {
+        files += future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing HFiles");
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to write HFiles", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    LOG.info("Wrote [{}] HFiles to [{}]", files, outputDir);
+    return files;
+  }
+
+  private boolean hasCells(int region) {
+    for (Run run : runs) {
+      if (run.offsets[region + 1] > run.offsets[region]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Merge the runs of the region into one HFile per column family. The HFiles are only finalized once the whole region
+   * is merged; if the merge fails those begun are deleted, so that no partial HFile is left to be bulk loaded.
+   */
+  private int writeRegion(FileSystem fs, Path outputDir, int region) throws IOException {
+    // on equal cells the later run goes first, so the cell added last is kept
+    PriorityQueue<Segment> queue = new PriorityQueue<>(
+      Comparator.<Segment, Cell>comparing(s -> s.current, COMPARATOR).thenComparingInt(s -> -s.run));
+    Map<String, StoreFileWriter> writers = new HashMap<>();
+    boolean written = false;
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        Segment segment = new Segment(i, runs.get(i), region);
+        if (segment.advance()) {
+          queue.add(segment);
+        } else {
+          segment.close();
+        }
+      }
+
+      KeyValue previous = null;
+      while (!queue.isEmpty()) {
+        Segment segment = queue.poll();
+        KeyValue kv = segment.current;
+        if (previous == null || COMPARATOR.compare(previous, kv) != 0) {
+          String family = Bytes.toString(kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength());
+          StoreFileWriter writer = writers.get(family);
+          if (writer == null) {
+            writer = createWriter(fs, new Path(outputDir, family), region, family);
+            writers.put(family, writer);
+          }
+          writer.append(kv);
+          previous = kv;
+        }
+        if (segment.advance()) {
+          queue.add(segment);
+        } else {
+          segment.close();
+        }
+      }
+
+      for (StoreFileWriter writer : writers.values()) {
+        writer.appendFileInfo(HStoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+        writer.appendFileInfo(HStoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(true));
+        writer.appendTrackedTimestampsToMetadata();
+        writer.close();
+      }
+      written = true;
+    } finally {
+      for (Segment segment : queue) {
+        segment.close();
+      }
+      if (!written) {
+        discard(fs, writers.values());
+      }
+    }
+    return writers.size();
+  }
+
+  /**
+   * Close and delete the HFiles of a region that failed to merge, leaving the original failure to be reported.
+   */
+  private static void discard(FileSystem fs, Collection<StoreFileWriter> writers) {
+    for (StoreFileWriter writer : writers) {
+      try {
+        writer.close();
+      } catch (IOException | RuntimeException e) {
+        LOG.debug("Failed to close partial HFile [{}]", writer.getPath(), e);
+      }
+      try {
+        fs.delete(writer.getPath(), false);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete partial HFile [{}]", writer.getPath(), e);
+      }
+    }
+  }
+
+  private StoreFileWriter createWriter(FileSystem fs, Path familyDir, int region, String family) throws IOException {
+    ColumnFamilyDescriptor cf = descriptor.getColumnFamily(Bytes.toBytes(family));
+    HFileContext context = new HFileContextBuilder()
+      .withCompression(cf.getCompressionType())
+      .withDataBlockEncoding(cf.getDataBlockEncoding())
+      .withBlockSize(cf.getBlocksize())
+      .withIncludesTags(true)
+      .withColumnFamily(cf.getName())
+      .withTableName(descriptor.getTableName().getName())
+      .build();
+    return new StoreFileWriter.Builder(conf, CacheConfig.DISABLED, fs)
+      .withFilePath(new Path(familyDir, String.format("region-%08d", region)))
+      .withBloomType(cf.getBloomFilterType())
+      .withFileContext(context)
+      .build();
+  }
+
+  /**
+   * Bulk load the HFiles written by {@link #writeHFiles(Path)} into the table, moving them into its regions.
+   *
+   * @return the number of HFiles loaded
+   */
+  public static int bulkLoad(Configuration conf, TableName tableName, Path outputDir) throws IOException {
+    Map<BulkLoadHFiles.LoadQueueItem, ?> loaded = BulkLoadHFiles.create(conf).bulkLoad(tableName, outputDir);
+    LOG.info("Bulk loaded [{}] HFiles from [{}] into [{}]", loaded.size(), outputDir, tableName);
+    return loaded.size();
+  }
+
+  /**
+   * Write the HFiles and bulk load them into the table.
+   */
+  public int load(Path outputDir) throws IOException {
+    writeHFiles(outputDir);
+    return bulkLoad(conf, descriptor.getTableName(), outputDir);
+  }
+
+  /**
+   * Delete the spill files.
+   */
+  @Override
+  public void close() throws IOException {
+    buffer.clear();
+    for (Run run : runs) {
+      Files.deleteIfExists(run.file);
+    }
+    runs.clear();
+    Files.deleteIfExists(spillDir);
+  }
+
+  public static final class Builder {
+    private final Configuration conf;
+    private final TableDescriptor descriptor;
+    private final byte[][] splitKeys;
+    private java.nio.file.Path spillDir = java.nio.file.Paths.get(System.getProperty("java.io.tmpdir"));
+    private long maxMemoryBytes = 256 * 1024 * 1024;
+    private int threads = 4;
+
+    private Builder(Configuration conf, TableDescriptor descriptor, byte[][] splitKeys) {
+      this.conf = Objects.requireNonNull(conf, "conf can't be null");
+      this.descriptor = Objects.requireNonNull(descriptor, "descriptor can't be null");
+      this.splitKeys = Objects.requireNonNull(splitKeys, "splitKeys can't be null");
+    }
+
+    /**
+     * The local directory sorted runs are spilled to, the temporary directory by default.
+     */
+    public Builder spillDir(java.nio.file.Path spillDir) {
+      this.spillDir = Objects.requireNonNull(spillDir, "spillDir can't be null");
+      return this;
+    }
+
+    /**
+     * The heap the buffered cells may take before they are spilled, 256MB by default.
+     */
+    public Builder maxMemoryBytes(long maxMemoryBytes) {
+      if (maxMemoryBytes < 1) {
+        throw new IllegalArgumentException("maxMemoryBytes must be positive");
+      }
+      this.maxMemoryBytes = maxMemoryBytes;
+      return this;
+    }
+
+    /**
+     * The number of regions whose HFiles are written at once, 4 by default.
+     */
+    public Builder threads(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("threads must be at least 1");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    public HFileBulkLoader build() throws IOException {
+      return new HFileBulkLoader(this);
+    }
+  }
+}
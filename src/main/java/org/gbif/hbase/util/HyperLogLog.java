@@ -0,0 +1,206 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch estimating the number of distinct values added to it in a fixed amount of memory: one byte per
+ * register, 2<sup>precision</sup> registers. The standard error of the estimate is about 1.04 / sqrt(2<sup>precision
+ * </sup>), 0.8% at the default precision of 14 (16KB).
+ * <p>
+ * Values are hashed with the 64 bit MurmurHash3, so sketches built in different JVMs over the same values are equal
+ * and may be merged. Instances are not thread safe.
+ */
+public final class HyperLogLog {
+
+  public static final int DEFAULT_PRECISION = 14;
+  public static final int MIN_PRECISION = 4;
+  public static final int MAX_PRECISION = 18;
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private final int precision;
+  private final byte[] registers;
+
+  /**
+   * @param precision the number of bits of the hash that select a register, from 4 to 18
+   */
+  public HyperLogLog(int precision) {
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Add the value in the slice of the array.
+   */
+  public void add(byte[] value, int offset, int length) {
+    addHash(hash(value, offset, length));
+  }
+
+  public void add(byte[] value) {
+    add(value, 0, value.length);
+  }
+
+  void addHash(long hash) {
+    int index = (int) (hash >>> (64 - precision));
+    // the position of the first set bit after the index bits, with a sentinel bit bounding it by 64 - precision + 1
+    int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    if (rank > registers[index]) {
+      registers[index] = (byte) rank;
+    }
+  }
+
+  /**
+   * Add the values of another sketch of the same precision to this one.
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("Can't merge a sketch of precision [" + other.precision + "] into one of ["
+                                         + precision + "]");
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct values added
+   */
+  public long estimate() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1d / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // linear counting is more accurate while many registers are still empty
+      estimate = m * Math.log((double) m / zeros);
+    }
+    // no correction is needed at the high end, 64 bit hashes don't collide at any cardinality of interest
+    return Math.round(estimate);
+  }
+
+  /**
+   * @return the registers of the sketch, for {@link #fromBytes(byte[])}
+   */
+  public byte[] toBytes() {
+    return Arrays.copyOf(registers, registers.length);
+  }
+
+  /**
+   * @return the sketch with the given registers, whose number gives its precision
+   */
+  public static HyperLogLog fromBytes(byte[] registers) {
+    int precision = Integer.numberOfTrailingZeros(registers.length);
+    if (registers.length != 1 << precision) {
+      throw new IllegalArgumentException("Invalid number of registers: " + registers.length);
+    }
+    HyperLogLog sketch = new HyperLogLog(precision);
+    System.arraycopy(registers, 0, sketch.registers, 0, registers.length);
+    return sketch;
+  }
+
+  /**
+   * @return the first 64 bits of the 128 bit MurmurHash3 (x64 variant, seed 0) of the slice of the array
+   */
+  static long hash(byte[] data, int offset, int length) {
+    long h1 = 0;
+    long h2 = 0;
+    int blocks = length / 16;
+    for (int i = 0; i < blocks; i++) {
+      int block = offset + i * 16;
+      long k1 = littleEndian(data, block);
+      long k2 = littleEndian(data, block + 8);
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = offset + blocks * 16;
+    int remaining = length & 15;
+    long k1 = 0;
+    long k2 = 0;
+    for (int i = remaining - 1; i >= 8; i--) {
+      k2 ^= (long) (data[tail + i] & 0xff) << ((i - 8) * 8);
+    }
+    for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+      k1 ^= (long) (data[tail + i] & 0xff) << (i * 8);
+    }
+    if (remaining > 8) {
+      h2 ^= mixK2(k2);
+    }
+    if (remaining > 0) {
+      h1 ^= mixK1(k1);
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    return h1 + h2;
+  }
+
+  private static long littleEndian(byte[] data, int offset) {
+    long value = 0;
+    for (int i = 7; i >= 0; i--) {
+      value = (value << 8) | (data[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds with a fixed relative precision, in the manner of HdrHistogram:
+ * values are counted in buckets that double in width every 16 buckets, so every recorded value is known to within
+ * 1/16 (6.25%) of itself, from 1ns up to {@link Long#MAX_VALUE}, in 960 counters.
+ * <p>
+ * Recording is lock free and allocation free, costing one atomic increment of the bucket, so a histogram may be left
+ * recording in production. Percentiles are read from {@link #snapshot()}s.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a latency. Negative values are recorded as 0.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(value));
+    sum.add(value);
+    if (value > max.get()) {
+      max.accumulateAndGet(value, Math::max);
+    }
+  }
+
+  /**
+   * @return the bucket counting the value: the value itself below 16, and above that the 4 bits after the leading
+   *         one bit, offset by 16 for each doubling
+   */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * @return the highest value counted in the bucket
+   */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1);
+  }
+
+  /**
+   * @return a copy of the current counts, which is not atomic with respect to concurrent recording
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      count += copy[i];
+    }
+    return new Snapshot(copy, count, sum.sum(), max.get());
+  }
+
+  /**
+   * The counts of a histogram at a point in time.
+   */
+  public static final class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    private Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * @return the values recorded since the earlier snapshot of the same histogram, with the max known to the
+     *         precision of the histogram only
+     */
+    public Snapshot since(Snapshot earlier) {
+      long[] delta = new long[BUCKETS];
+      long deltaCount = 0;
+      long deltaMax = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        delta[i] = counts[i] - earlier.counts[i];
+        deltaCount += delta[i];
+        if (delta[i] > 0) {
+          deltaMax = Math.min(max, highestValue(i));
+        }
+      }
+      return new Snapshot(delta, deltaCount, sum - earlier.sum, deltaMax);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return the mean value in ns, or 0 if none was recorded
+     */
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @return the largest value recorded in ns
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     *
+     * @return the value in ns that the given percentage of the recorded values are less than or equal to, to the
+     *         precision of the histogram, or 0 if none was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(max, highestValue(i));
+        }
+      }
+      return max;
+    }
+  }
+}
@@ -0,0 +1,441 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a table quickly by splitting a Scan along region boundaries and running the sub-scans in parallel, with a
+ * cap on the number of concurrent sub-scans against any one RegionServer.
+ * <p>
+ * Results are returned through a {@link ResultScanner}, either as they arrive ({@link #scan(Scan)}) or in row key
+ * order ({@link #scanOrdered(Scan)}). As the regions of a table cover disjoint, sorted key ranges, ordered results
+ * are produced by draining the sub-scans in key order while the ones after them keep fetching into bounded buffers.
+ * <p>
+ * Sub-scans copy the given Scan, so its caching, filters and columns apply to each of them; its limit applies per
+ * sub-scan. Reversed scans are not supported. Instances are thread safe; close them to release the executor they
+ * created.
+ */
+public class ParallelScanner implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ParallelScanner.class);
+  private static final long POLL_MS = 100;
+
+  private final Connection connection;
+  private final TableName tableName;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final int maxConcurrentScans;
+  private final int maxConcurrentScansPerServer;
+  private final int regionsPerScan;
+  private final int bufferSize;
+
+  private ParallelScanner(Builder builder) {
+    this.connection = Objects.requireNonNull(builder.connection, "connection can't be null");
+    this.tableName = Objects.requireNonNull(builder.tableName, "tableName can't be null");
+    this.maxConcurrentScans = builder.maxConcurrentScans;
+    this.maxConcurrentScansPerServer = builder.maxConcurrentScansPerServer;
+    this.regionsPerScan = builder.regionsPerScan;
+    this.bufferSize = builder.bufferSize;
+    if (builder.executor == null) {
+      AtomicInteger threads = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(maxConcurrentScans, r -> {
+        Thread thread = new Thread(r, "parallel-scanner-" + tableName + "-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.ownsExecutor = true;
+    } else {
+      this.executor = builder.executor;
+      this.ownsExecutor = false;
+    }
+  }
+
+  public static Builder builder(Connection connection, TableName tableName) {
+    return new Builder(connection, tableName);
+  }
+
+  /**
+   * Scan the table in parallel, returning results in no particular order.
+   */
+  public ResultScanner scan(Scan scan) throws IOException {
+    return new ParallelResultScanner(subScans(scan), false);
+  }
+
+  /**
+   * Scan the table in parallel, returning results in row key order.
+   */
+  public ResultScanner scanOrdered(Scan scan) throws IOException {
+    return new ParallelResultScanner(subScans(scan), true);
+  }
+
+  /**
+   * Scan the table in parallel, returning results in no particular order. The stream must be closed.
+   */
+  public Stream<Result> stream(Scan scan) throws IOException {
+    ResultScanner scanner = scan(scan);
+    return StreamSupport.stream(scanner.spliterator(), false).onClose(scanner::close);
+  }
+
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Split the scan into one sub-scan per group of up to regionsPerScan contiguous regions of the same server.
+   */
+  private List<SubScan> subScans(Scan scan) throws IOException {
+    if (scan.isReversed()) {
+      throw new IllegalArgumentException("Reversed scans are not supported");
+    }
+    List<HRegionLocation> regions;
+    try (RegionLocator locator = connection.getRegionLocator(tableName)) {
+      regions = locator.getAllRegionLocations();
+    }
+
+    List<SubScan> subScans = new ArrayList<>();
+    int i = 0;
+    while (i < regions.size()) {
+      HRegionLocation first = regions.get(i);
+      ServerName server = first.getServerName();
+      byte[] start = first.getRegion().getStartKey();
+      byte[] end = first.getRegion().getEndKey();
+      int grouped = 1;
+      i++;
+      while (i < regions.size() && grouped < regionsPerScan && Objects.equals(server, regions.get(i).getServerName())) {
+        end = regions.get(i).getRegion().getEndKey();
+        grouped++;
+        i++;
+      }
+      Scan subScan = restrict(scan, start, end);
+      if (subScan != null && ClientMetrics.installed() != null) {
+        subScan.setScanMetricsEnabled(true);
+      }
+      if (subScan != null) {
+        subScans.add(new SubScan(subScan, server));
+      }
+    }
+    LOG.debug("Split scan of [{}] over [{}] regions into [{}] sub-scans", tableName, regions.size(), subScans.size());
+    return subScans;
+  }
+
+  /**
+   * @return a copy of the scan restricted to [start, end), or null if the two don't overlap
+   */
+  static Scan restrict(Scan scan, byte[] start, byte[] end) throws IOException {
+    byte[] scanStart = scan.getStartRow();
+    byte[] scanStop = scan.getStopRow();
+    Scan restricted = new Scan(scan);
+    if (Bytes.compareTo(scanStart, start) < 0) {
+      restricted.withStartRow(start, true);
+      scanStart = start;
+    }
+    if (end.length > 0 && (scanStop.length == 0 || Bytes.compareTo(end, scanStop) <= 0)) {
+      restricted.withStopRow(end, false);
+      scanStop = end;
+    }
+    if (scanStop.length > 0 && Bytes.compareTo(scanStart, scanStop) >= 0
+        && !(Bytes.equals(scanStart, scanStop) && restricted.includeStartRow() && restricted.includeStopRow())) {
+      return null;
+    }
+    return restricted;
+  }
+
+  /**
+   * A sub-scan, and the state shared between the thread running it and the consumer.
+   */
+  private final class SubScan implements Runnable {
+
+    private final Scan scan;
+    private final ServerName server;
+    private volatile BlockingQueue<Object> queue;
+    private ParallelResultScanner owner;
+    private volatile Exception error;
+
+    private SubScan(Scan scan, ServerName server) {
+      this.scan = scan;
+      this.server = server;
+    }
+
+    @Override
+    public void run() {
+      ClientMetrics metrics = ClientMetrics.installed();
+      long start = System.nanoTime();
+      try (Table table = connection.getTable(tableName);
+           ResultScanner scanner = table.getScanner(scan)) {
+        Result result;
+        while (!owner.closed && (result = scanner.next()) != null) {
+          if (!owner.put(queue, result)) {
+            break;
+          }
+        }
+        if (metrics != null) {
+          metrics.recordScan(tableName, scanner.getScanMetrics());
+        }
+      } catch (Exception e) {
+        error = e;
+      } finally {
+        if (metrics != null) {
+          metrics.record(ClientMetrics.Operation.SCAN, tableName, System.nanoTime() - start);
+        }
+        owner.finished(this);
+        // this sub-scan is itself the marker telling the consumer that it has finished
+        owner.put(queue, this);
+      }
+    }
+  }
+
+  /**
+   * Dispatches sub-scans as capacity allows and hands their results to the consumer. Only the consumer thread
+   * dispatches, so the pending sub-scans need no locking; the running counts are shared with the scan threads.
+   */
+  private final class ParallelResultScanner implements ResultScanner {
+
+    private final List<SubScan> subScans;
+    private final boolean ordered;
+    private final BlockingQueue<Object> sharedQueue;
+    private final Map<ServerName, ArrayDeque<SubScan>> pending = new LinkedHashMap<>();
+    private final Map<ServerName, AtomicInteger> runningPerServer = new HashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private int nextOrdered;
+    private int current;
+    private int completed;
+    private volatile boolean closed;
+
+    private ParallelResultScanner(List<SubScan> subScans, boolean ordered) {
+      this.subScans = subScans;
+      this.ordered = ordered;
+      this.sharedQueue = ordered ? null : new ArrayBlockingQueue<>(bufferSize);
+      for (SubScan subScan : subScans) {
+        subScan.owner = this;
+        if (!ordered) {
+          pending.computeIfAbsent(subScan.server, s -> new ArrayDeque<>()).add(subScan);
+        }
+        runningPerServer.computeIfAbsent(subScan.server, s -> new AtomicInteger());
+      }
+      dispatch();
+    }
+
+    @Override
+    public Result next() throws IOException {
+      while (!closed && completed < subScans.size()) {
+        // in order, the current sub-scan is always dispatched as nothing after it can be running yet
+        if (ordered && current == nextOrdered) {
+          dispatch();
+        }
+        BlockingQueue<Object> queue = ordered ? subScans.get(current).queue : sharedQueue;
+        Object item = queue.poll();
+        if (item == null) {
+          dispatch();
+          try {
+            item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new InterruptedIOException("Interrupted while waiting for results of [" + tableName + "]");
+          }
+          if (item == null) {
+            continue;
+          }
+        }
+        if (item instanceof Result) {
+          return (Result) item;
+        }
+        SubScan done = (SubScan) item;
+        done.queue = null;
+        completed++;
+        current++;
+        if (done.error != null) {
+          close();
+          throw done.error instanceof IOException
+            ? (IOException) done.error
+            : new IOException("Sub-scan of [" + tableName + "] failed", done.error);
+        }
+        dispatch();
+      }
+      return null;
+    }
+
+    private void dispatch() {
+      if (ordered) {
+        // sub-scans that finished but are not yet consumed still hold their buffers, so count them as running
+        while (nextOrdered < subScans.size() && nextOrdered - current < maxConcurrentScans) {
+          SubScan subScan = subScans.get(nextOrdered);
+          if (runningPerServer.get(subScan.server).get() >= maxConcurrentScansPerServer) {
+            return;
+          }
+          submit(subScan);
+          nextOrdered++;
+        }
+      } else {
+        for (Map.Entry<ServerName, ArrayDeque<SubScan>> entry : pending.entrySet()) {
+          ArrayDeque<SubScan> queue = entry.getValue();
+          AtomicInteger serverRunning = runningPerServer.get(entry.getKey());
+          while (!queue.isEmpty() && serverRunning.get() < maxConcurrentScansPerServer) {
+            if (running.get() >= maxConcurrentScans) {
+              return;
+            }
+            submit(queue.poll());
+          }
+        }
+      }
+    }
+
+    private void submit(SubScan subScan) {
+      subScan.queue = ordered ? new ArrayBlockingQueue<>(bufferSize) : sharedQueue;
+      running.incrementAndGet();
+      runningPerServer.get(subScan.server).incrementAndGet();
+      executor.execute(subScan);
+    }
+
+    private void finished(SubScan subScan) {
+      runningPerServer.get(subScan.server).decrementAndGet();
+      running.decrementAndGet();
+    }
+
+    /**
+     * @return false if the scanner was closed before the item could be queued
+     */
+    private boolean put(BlockingQueue<Object> queue, Object item) {
+      try {
+        while (!closed) {
+          if (queue.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+            return true;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public boolean renewLease() {
+      return false;
+    }
+
+    @Override
+    public ScanMetrics getScanMetrics() {
+      return null;
+    }
+  }
+
+  public static final class Builder {
+
+    private final Connection connection;
+    private final TableName tableName;
+    private ExecutorService executor;
+    private int maxConcurrentScans = 8;
+    private int maxConcurrentScansPerServer = 2;
+    private int regionsPerScan = 1;
+    private int bufferSize = 1000;
+
+    private Builder(Connection connection, TableName tableName) {
+      this.connection = connection;
+      this.tableName = tableName;
+    }
+
+    /**
+     * The executor running the sub-scans, each of which occupies a thread for its duration. If none is given a
+     * fixed pool of maxConcurrentScans threads is created, and shut down when the scanner is closed.
+     */
+    public Builder executor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * The maximum number of sub-scans running at once, 8 by default.
+     */
+    public Builder maxConcurrentScans(int maxConcurrentScans) {
+      this.maxConcurrentScans = positive(maxConcurrentScans, "maxConcurrentScans");
+      return this;
+    }
+
+    /**
+     * The maximum number of sub-scans running at once against a single RegionServer, 2 by default.
+     */
+    public Builder maxConcurrentScansPerServer(int maxConcurrentScansPerServer) {
+      this.maxConcurrentScansPerServer = positive(maxConcurrentScansPerServer, "maxConcurrentScansPerServer");
+      return this;
+    }
+
+    /**
+     * The maximum number of contiguous regions of the same RegionServer read by one sub-scan, 1 by default.
+     */
+    public Builder regionsPerScan(int regionsPerScan) {
+      this.regionsPerScan = positive(regionsPerScan, "regionsPerScan");
+      return this;
+    }
+
+    /**
+     * The number of results buffered ahead of the consumer: in total for unordered scans, per sub-scan for ordered
+     * ones. 1000 by default.
+     */
+    public Builder bufferSize(int bufferSize) {
+      this.bufferSize = positive(bufferSize, "bufferSize");
+      return this;
+    }
+
+    public ParallelScanner build() {
+      return new ParallelScanner(this);
+    }
+
+    private static int positive(int value, String name) {
+      if (value < 1) {
+        throw new IllegalArgumentException(name + " must be positive but was " + value);
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps a ResultScanner to fetch batches of results in the background while the caller works through the current
+ * one, so that the RPCs of the scan overlap with the work done on its results.
+ * <p>
+ * Up to {@code bufferDepth} batches of {@code batchSize} results are fetched ahead, and fetching pauses while the
+ * estimated size of the buffered results exceeds {@code maxBufferedBytes} (by at most one batch). A failure of the
+ * wrapped scanner is thrown from {@link #next()} once the results fetched before it have been returned.
+ * <p>
+ * The batch size is best set to the caching of the Scan. Like other ResultScanners this is meant to be used by a
+ * single thread. The wrapped scanner is owned by the fetching thread, and closed by it once the scan is exhausted,
+ * fails or this scanner is closed.
+ */
+public class PrefetchingScanner implements ResultScanner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PrefetchingScanner.class);
+
+  private final ResultScanner delegate;
+  private final int batchSize;
+  private final int bufferDepth;
+  private final long maxBufferedBytes;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition notEmpty = lock.newCondition();
+  // guarded by lock
+  private final ArrayDeque<Batch> buffer = new ArrayDeque<>();
+  private long bufferedBytes;
+  private boolean exhausted;
+  private IOException failure;
+  private boolean closed;
+
+  // only used by the consumer
+  private Batch current;
+  private int position;
+
+  private static final class Batch {
+    private final Result[] results;
+    private final long bytes;
+
+    private Batch(Result[] results, long bytes) {
+      this.results = results;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Start prefetching from the given scanner on a new daemon thread.
+   */
+  public PrefetchingScanner(ResultScanner delegate, int batchSize, int bufferDepth, long maxBufferedBytes) {
+    this(delegate, batchSize, bufferDepth, maxBufferedBytes, runnable -> {
+      Thread thread = new Thread(runnable, "prefetching-scanner");
+      thread.setDaemon(true);
+      thread.start();
+    });
+  }
+
+  /**
+   * Start prefetching from the given scanner on the given executor, on which the fetching occupies a thread until
+   * the scan is exhausted or this scanner is closed.
+   *
+   * @param batchSize        the number of results fetched at a time
+   * @param bufferDepth      the number of batches buffered ahead of the consumer
+   * @param maxBufferedBytes the estimated size of buffered results above which fetching pauses
+   */
+  public PrefetchingScanner(ResultScanner delegate, int batchSize, int bufferDepth, long maxBufferedBytes,
+                            Executor executor) {
+    this.delegate = Objects.requireNonNull(delegate, "delegate can't be null");
+    if (batchSize < 1 || bufferDepth < 1 || maxBufferedBytes < 1) {
+      throw new IllegalArgumentException("batchSize, bufferDepth and maxBufferedBytes must be positive");
+    }
+    this.batchSize = batchSize;
+    this.bufferDepth = bufferDepth;
+    this.maxBufferedBytes = maxBufferedBytes;
+    executor.execute(this::fetch);
+  }
+
+  private void fetch() {
+    try {
+      while (awaitSpace()) {
+        Result[] results = delegate.next(batchSize);
+        long bytes = 0;
+        for (Result result : results) {
+          bytes += Result.getTotalSizeOfCells(result);
+        }
+        lock.lock();
+        try {
+          if (results.length == 0) {
+            exhausted = true;
+          } else {
+            buffer.add(new Batch(results, bytes));
+            bufferedBytes += bytes;
+          }
+          notEmpty.signal();
+        } finally {
+          lock.unlock();
+        }
+        if (results.length == 0) {
+          return;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      fail(e instanceof IOException ? (IOException) e : new IOException("Prefetching failed", e));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      fail(new InterruptedIOException("Prefetching was interrupted"));
+    } finally {
+      delegate.close();
+    }
+  }
+
+  /**
+   * @return false if the scanner was closed while waiting
+   */
+  private boolean awaitSpace() throws InterruptedException {
+    lock.lock();
+    try {
+      while (!closed && (buffer.size() >= bufferDepth || bufferedBytes >= maxBufferedBytes)) {
+        notFull.await();
+      }
+      return !closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void fail(IOException e) {
+    LOG.debug("Prefetching failed", e);
+    lock.lock();
+    try {
+      failure = e;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    if (current == null || position == current.results.length) {
+      if (!advance()) {
+        return null;
+      }
+    }
+    return current.results[position++];
+  }
+
+  /**
+   * Return the rest of the current batch, or the next batch if it has all been returned. Suits the
+   * {@link BatchDecoder}, which decodes whole arrays of results.
+   *
+   * @return the results, or an empty array if the scan is exhausted
+   */
+  public Result[] nextBatch() throws IOException {
+    if (current == null || position == current.results.length) {
+      if (!advance()) {
+        return new Result[0];
+      }
+    }
+    Result[] results = position == 0 ? current.results : Arrays.copyOfRange(current.results, position,
+                                                                            current.results.length);
+    position = current.results.length;
+    return results;
+  }
+
+  /**
+   * Release the current batch and move to the next, waiting for it if needed.
+   *
+   * @return false if there are no more results
+   */
+  private boolean advance() throws IOException {
+    lock.lock();
+    try {
+      if (current != null) {
+        bufferedBytes -= current.bytes;
+        current = null;
+        notFull.signal();
+      }
+      while (buffer.isEmpty() && !exhausted && failure == null && !closed) {
+        notEmpty.await();
+      }
+      if (!buffer.isEmpty()) {
+        current = buffer.poll();
+        position = 0;
+        return true;
+      }
+      if (failure != null && !closed) {
+        throw failure;
+      }
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for results");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      buffer.clear();
+      notFull.signal();
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Not supported, as the wrapped scanner is in use by the fetching thread.
+   *
+   * @return false
+   */
+  @Override
+  public boolean renewLease() {
+    return false;
+  }
+
+  @Override
+  public ScanMetrics getScanMetrics() {
+    return delegate.getScanMetrics();
+  }
+}
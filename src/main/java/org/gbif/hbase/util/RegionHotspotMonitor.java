@@ -0,0 +1,400 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds hot regions of a table by polling the request counters of its regions and turning them into rates over a
+ * rolling window of the most recent polls.
+ * <p>
+ * Each poll asks every RegionServer of the table once for the metrics of the regions it hosts (see
+ * {@link RegionLoad#collect(Admin, TableName, List)}), so the Master is not involved and the cost of a poll grows with
+ * the number of servers rather than regions. Region locations are read from hbase:meta only every few polls, or
+ * sooner when a server stops reporting a region because it moved, split or merged.
+ * <p>
+ * Each poll yields a {@link Report} holding the hottest regions, the rate of each server and a heat map of the key
+ * space, printable as text or as a line of JSON.
+ */
+public class RegionHotspotMonitor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RegionHotspotMonitor.class);
+  private static final int LOCATION_REFRESH_POLLS = 10;
+  private static final String HEAT_RAMP = " .:-=+*#%@";
+
+  private final int window;
+  private final Map<byte[], History> histories = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+
+  /**
+   * @param window the number of polls rates are computed over, at least 2
+   */
+  public RegionHotspotMonitor(int window) {
+    if (window < 2) {
+      throw new IllegalArgumentException("window must be at least 2");
+    }
+    this.window = window;
+  }
+
+  /**
+   * The request counters of one region over the last polls, in a ring.
+   */
+  private static final class History {
+    private final long[] times;
+    private final long[] reads;
+    private final long[] writes;
+    private int next;
+    private int count;
+
+    private History(int window) {
+      times = new long[window];
+      reads = new long[window];
+      writes = new long[window];
+    }
+
+    private void add(long time, long readCount, long writeCount) {
+      if (count > 0) {
+        int last = (next - 1 + times.length) % times.length;
+        // counters start again from zero when a region is reopened, so the older samples no longer apply
+        if (readCount < reads[last] || writeCount < writes[last]) {
+          count = 0;
+        }
+      }
+      times[next] = time;
+      reads[next] = readCount;
+      writes[next] = writeCount;
+      next = (next + 1) % times.length;
+      count = Math.min(count + 1, times.length);
+    }
+
+    private double rate(long[] counts) {
+      if (count < 2) {
+        return 0;
+      }
+      int first = (next - count + times.length) % times.length;
+      int last = (next - 1 + times.length) % times.length;
+      long millis = times[last] - times[first];
+      return millis <= 0 ? 0 : (counts[last] - counts[first]) * 1000d / millis;
+    }
+  }
+
+  /**
+   * Record a poll of the table and report on the window ending with it. Regions absent from the poll are forgotten.
+   *
+   * @param timeMs the time of the poll, in milliseconds
+   * @param loads  the loads of the regions of the table, in key order
+   */
+  public Report record(long timeMs, List<RegionLoad> loads) {
+    Map<byte[], History> seen = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    List<RegionRate> rates = new ArrayList<>(loads.size());
+    for (RegionLoad load : loads) {
+      byte[] name = load.getRegion().getRegionName();
+      History history = histories.get(name);
+      if (history == null) {
+        history = new History(window);
+      }
+      if (load.isReported()) {
+        history.add(timeMs, load.getReadRequests(), load.getWriteRequests());
+      }
+      seen.put(name, history);
+      rates.add(new RegionRate(load, history.rate(history.reads), history.rate(history.writes)));
+    }
+    histories.clear();
+    histories.putAll(seen);
+    return new Report(timeMs, rates);
+  }
+
+  /**
+   * Poll the table at a fixed interval, passing the report of each poll to the sink.
+   *
+   * @param polls the number of polls to make, or 0 to poll until interrupted
+   */
+  public void monitor(Connection connection, TableName tableName, long intervalMs, int polls, Consumer<Report> sink)
+    throws IOException {
+    try (Admin admin = connection.getAdmin();
+         RegionLocator locator = connection.getRegionLocator(tableName)) {
+      List<HRegionLocation> locations = null;
+      int sinceRefresh = 0;
+      for (int poll = 0; polls == 0 || poll < polls; poll++) {
+        if (poll > 0) {
+          sleep(intervalMs);
+        }
+        if (locations == null || sinceRefresh >= LOCATION_REFRESH_POLLS) {
+          locations = locator.getAllRegionLocations();
+          sinceRefresh = 0;
+        }
+        long time = System.currentTimeMillis();
+        List<RegionLoad> loads = RegionLoad.collect(admin, tableName, locations);
+        sinceRefresh++;
+        for (RegionLoad load : loads) {
+          if (!load.isReported()) {
+            LOG.debug("Region [{}] was not reported, refreshing locations", load.getRegion().getRegionNameAsString());
+            locations = null;
+            break;
+          }
+        }
+        sink.accept(record(time, loads));
+      }
+    }
+  }
+
+  private static void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted between polls");
+    }
+  }
+
+  /**
+   * The request rates of a region over the window.
+   */
+  public static final class RegionRate {
+    private final RegionLoad load;
+    private final double readRate;
+    private final double writeRate;
+
+    private RegionRate(RegionLoad load, double readRate, double writeRate) {
+      this.load = load;
+      this.readRate = readRate;
+      this.writeRate = writeRate;
+    }
+
+    public RegionLoad getLoad() {
+      return load;
+    }
+
+    /**
+     * @return read requests per second
+     */
+    public double getReadRate() {
+      return readRate;
+    }
+
+    /**
+     * @return write requests per second
+     */
+    public double getWriteRate() {
+      return writeRate;
+    }
+
+    public double getRate() {
+      return readRate + writeRate;
+    }
+  }
+
+  /**
+   * The rates of the regions of a table over the window ending with a poll.
+   */
+  public static final class Report {
+    private final long timeMs;
+    private final List<RegionRate> regions;
+
+    private Report(long timeMs, List<RegionRate> regions) {
+      this.timeMs = timeMs;
+      this.regions = Collections.unmodifiableList(regions);
+    }
+
+    public long getTimeMs() {
+      return timeMs;
+    }
+
+    /**
+     * @return the rates of all regions, in key order
+     */
+    public List<RegionRate> getRegions() {
+      return regions;
+    }
+
+    /**
+     * @return the k regions with the highest request rates, hottest first
+     */
+    public List<RegionRate> getTop(int k) {
+      List<RegionRate> sorted = new ArrayList<>(regions);
+      sorted.sort(Comparator.comparingDouble(RegionRate::getRate).reversed());
+      return sorted.subList(0, Math.min(k, sorted.size()));
+    }
+
+    /**
+     * @return the total request rate of the table's regions on each server, hottest first
+     */
+    public Map<ServerName, Double> getServerRates() {
+      Map<ServerName, Double> rates = new HashMap<>();
+      for (RegionRate region : regions) {
+        if (region.getLoad().getServer() != null) {
+          rates.merge(region.getLoad().getServer(), region.getRate(), Double::sum);
+        }
+      }
+      Map<ServerName, Double> sorted = new LinkedHashMap<>();
+      rates.entrySet().stream()
+        .sorted(Map.Entry.<ServerName, Double>comparingByValue().reversed())
+        .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+      return sorted;
+    }
+
+    /**
+     * @return the rate of the busiest server over the mean rate of all servers, 1 when perfectly balanced or idle
+     */
+    public double getServerImbalance() {
+      Map<ServerName, Double> rates = getServerRates();
+      double total = 0;
+      double max = 0;
+      for (double rate : rates.values()) {
+        total += rate;
+        max = Math.max(max, rate);
+      }
+      return total == 0 ? 1 : max / (total / rates.size());
+    }
+
+    /**
+     * Folds the regions, in key order, into the given number of cells and shades each by its share of the hottest
+     * cell's rate, from ' ' (idle) to '@' (hottest).
+     */
+    public String getHeatMap(int width) {
+      int cells = Math.min(width, regions.size());
+      double[] heat = new double[cells];
+      double max = 0;
+      for (int i = 0; i < regions.size(); i++) {
+        int cell = (int) ((long) i * cells / regions.size());
+        heat[cell] += regions.get(i).getRate();
+        max = Math.max(max, heat[cell]);
+      }
+      StringBuilder map = new StringBuilder(cells);
+      for (double h : heat) {
+        int shade = max == 0 ? 0 : (int) Math.round(h / max * (HEAT_RAMP.length() - 1));
+        map.append(HEAT_RAMP.charAt(shade));
+      }
+      return map.toString();
+    }
+
+    public void printText(PrintStream out, int topK, int heatWidth) {
+      out.printf("%tF %<tT  %d regions, server imbalance %.2f%n", timeMs, regions.size(), getServerImbalance());
+      out.println("  [" + getHeatMap(heatWidth) + "]");
+      for (RegionRate region : getTop(topK)) {
+        RegionLoad load = region.getLoad();
+        out.printf("  %10.1f r/s %10.1f w/s  [%s, %s)  %s%n", region.getReadRate(), region.getWriteRate(),
+                   Bytes.toStringBinary(load.getStartKey()), Bytes.toStringBinary(load.getEndKey()), load.getServer());
+      }
+      for (Map.Entry<ServerName, Double> server : getServerRates().entrySet()) {
+        out.printf("  %10.1f req/s  %s%n", server.getValue(), server.getKey());
+      }
+    }
+
+    public void printJson(PrintStream out, int topK) {
+      StringBuilder json = new StringBuilder();
+      json.append("{\"time\":").append(timeMs)
+        .append(",\"regions\":").append(regions.size())
+        .append(",\"imbalance\":").append(String.format(Locale.ROOT, "%.3f", getServerImbalance()))
+        .append(",\"top\":[");
+      String separator = "";
+      for (RegionRate region : getTop(topK)) {
+        RegionLoad load = region.getLoad();
+        json.append(separator)
+          .append("{\"start\":").append(quote(Bytes.toStringBinary(load.getStartKey())))
+          .append(",\"end\":").append(quote(Bytes.toStringBinary(load.getEndKey())))
+          .append(",\"server\":").append(quote(String.valueOf(load.getServer())))
+          .append(",\"readRate\":").append(String.format(Locale.ROOT, "%.1f", region.getReadRate()))
+          .append(",\"writeRate\":").append(String.format(Locale.ROOT, "%.1f", region.getWriteRate()))
+          .append(",\"bytes\":").append(load.getBytes())
+          .append('}');
+        separator = ",";
+      }
+      json.append("],\"servers\":{");
+      separator = "";
+      for (Map.Entry<ServerName, Double> server : getServerRates().entrySet()) {
+        json.append(separator).append(quote(server.getKey().toString())).append(':')
+          .append(String.format(Locale.ROOT, "%.1f", server.getValue()));
+        separator = ",";
+      }
+      out.println(json.append("}}"));
+    }
+
+    private static String quote(String value) {
+      // toStringBinary output is printable ASCII, so only quotes and backslashes need escaping
+      return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      LOG.error("Usage: RegionHotspotMonitor <table> [--interval <seconds>] [--window <polls>] [--top <k>] "
+                + "[--polls <n>] [--json]");
+      System.exit(1);
+    }
+    TableName tableName = TableName.valueOf(args[0]);
+    long intervalSeconds = 30;
+    int window = 10;
+    int topK = 10;
+    int polls = 0;
+    boolean json = false;
+    for (int i = 1; i < args.length; i++) {
+      switch (args[i]) {
+        case "--interval":
+          intervalSeconds = Long.parseLong(args[++i]);
+          break;
+        case "--window":
+          window = Integer.parseInt(args[++i]);
+          break;
+        case "--top":
+          topK = Integer.parseInt(args[++i]);
+          break;
+        case "--polls":
+          polls = Integer.parseInt(args[++i]);
+          break;
+        case "--json":
+          json = true;
+          break;
+        default:
+          LOG.error("Unknown argument [{}]", args[i]);
+          System.exit(1);
+      }
+    }
+
+    final int k = topK;
+    final boolean asJson = json;
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      new RegionHotspotMonitor(window).monitor(connection, tableName, intervalSeconds * 1000, polls, report -> {
+        if (asJson) {
+          report.printJson(System.out, k);
+        } else {
+          report.printText(System.out, k, 100);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionMetrics;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.Size;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The size and request counts of a region at one point in time, as reported by its RegionServer.
+ */
+public final class RegionLoad {
+
+  private final RegionInfo region;
+  private final ServerName server;
+  private final long storeFileBytes;
+  private final long memStoreBytes;
+  private final long readRequests;
+  private final long writeRequests;
+  private final boolean reported;
+
+  RegionLoad(RegionInfo region, ServerName server, long storeFileBytes, long memStoreBytes, long readRequests,
+             long writeRequests) {
+    this(region, server, storeFileBytes, memStoreBytes, readRequests, writeRequests, true);
+  }
+
+  private RegionLoad(RegionInfo region, ServerName server, long storeFileBytes, long memStoreBytes, long readRequests,
+                     long writeRequests, boolean reported) {
+    this.region = region;
+    this.server = server;
+    this.storeFileBytes = storeFileBytes;
+    this.memStoreBytes = memStoreBytes;
+    this.readRequests = readRequests;
+    this.writeRequests = writeRequests;
+    this.reported = reported;
+  }
+
+  /**
+   * Collect the load of every region of the table, asking each of its RegionServers once for the metrics of all the
+   * regions it hosts, rather than going through the Master.
+   *
+   * @return the loads in region (key) order; regions a server did not report have no size or requests
+   */
+  public static List<RegionLoad> collect(Admin admin, RegionLocator locator) throws IOException {
+    return collect(admin, locator.getName(), locator.getAllRegionLocations());
+  }
+
+  /**
+   * Collect the load of the regions at the given locations, which callers polling repeatedly may cache between calls
+   * to spare reading them from hbase:meta each time.
+   *
+   * @return the loads in the order of the locations; regions a server did not report (e.g. because they moved or
+   *         split since the locations were read) are not {@link #isReported() reported}
+   */
+  public static List<RegionLoad> collect(Admin admin, TableName tableName, List<HRegionLocation> locations)
+    throws IOException {
+    Set<ServerName> servers = new LinkedHashSet<>();
+    for (HRegionLocation location : locations) {
+      if (location.getServerName() != null) {
+        servers.add(location.getServerName());
+      }
+    }
+
+    Map<byte[], RegionMetrics> metrics = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    for (ServerName server : servers) {
+      for (RegionMetrics regionMetrics : admin.getRegionMetrics(server, tableName)) {
+        metrics.put(regionMetrics.getRegionName(), regionMetrics);
+      }
+    }
+
+    List<RegionLoad> loads = new ArrayList<>(locations.size());
+    for (HRegionLocation location : locations) {
+      RegionMetrics m = metrics.get(location.getRegion().getRegionName());
+      loads.add(m == null
+                ? new RegionLoad(location.getRegion(), location.getServerName(), 0, 0, 0, 0, false)
+                : new RegionLoad(location.getRegion(), location.getServerName(), bytes(m.getStoreFileSize()),
+                                 bytes(m.getMemStoreSize()), m.getReadRequestCount(), m.getWriteRequestCount()));
+    }
+    return loads;
+  }
+
+  private static long bytes(Size size) {
+    return (long) size.get(Size.Unit.BYTE);
+  }
+
+  public RegionInfo getRegion() {
+    return region;
+  }
+
+  public byte[] getStartKey() {
+    return region.getStartKey();
+  }
+
+  public byte[] getEndKey() {
+    return region.getEndKey();
+  }
+
+  public ServerName getServer() {
+    return server;
+  }
+
+  public long getStoreFileBytes() {
+    return storeFileBytes;
+  }
+
+  public long getMemStoreBytes() {
+    return memStoreBytes;
+  }
+
+  /**
+   * @return the size of the store files and the memstore
+   */
+  public long getBytes() {
+    return storeFileBytes + memStoreBytes;
+  }
+
+  /**
+   * @return the number of read requests since the region was opened
+   */
+  public long getReadRequests() {
+    return readRequests;
+  }
+
+  /**
+   * @return the number of write requests since the region was opened
+   */
+  public long getWriteRequests() {
+    return writeRequests;
+  }
+
+  public long getRequests() {
+    return readRequests + writeRequests;
+  }
+
+  /**
+   * @return false if the server the region was located on did not report it, in which case it has no size or
+   *         requests
+   */
+  public boolean isReported() {
+    return reported;
+  }
+
+  @Override
+  public String toString() {
+    return region.getRegionNameAsString() + " on " + server + ": " + getBytes() + " bytes, " + readRequests
+           + " reads, " + writeRequests + " writes";
+  }
+}
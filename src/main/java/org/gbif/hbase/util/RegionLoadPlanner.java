@@ -0,0 +1,342 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans new region boundaries for a table from the live size and request counts of its regions: regions carrying
+ * much more than their share of the load are split, and runs of adjacent regions carrying very little are merged.
+ * <p>
+ * The load of a region blends its share of the table's bytes with its share of the table's requests. The plan can be
+ * written as a splits file for {@link TableCreator} or {@link TableCloneCreator} to build a new table with, or
+ * applied to the live table with split and merge calls spaced out to limit their impact on the cluster.
+ */
+public class RegionLoadPlanner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RegionLoadPlanner.class);
+  private static final long OPERATION_TIMEOUT_MINUTES = 10;
+
+  /**
+   * Chooses the points at which a region is split.
+   */
+  @FunctionalInterface
+  public interface SplitChooser {
+    /**
+     * @return up to pieces - 1 sorted keys strictly inside the region
+     */
+    byte[][] choose(RegionLoad region, int pieces) throws IOException;
+  }
+
+  private final double sizeWeight;
+  private final double splitFactor;
+  private final double mergeFactor;
+  private final SplitChooser chooser;
+
+  /**
+   * @param sizeWeight  the weight of a region's share of bytes in its load, its share of requests weighing the rest
+   * @param splitFactor regions whose load exceeds this multiple of the target load are split
+   * @param mergeFactor adjacent regions are merged while their combined load is under this multiple of the target
+   * @param chooser     chooses the points at which regions are split
+   */
+  public RegionLoadPlanner(double sizeWeight, double splitFactor, double mergeFactor, SplitChooser chooser) {
+    if (sizeWeight < 0 || sizeWeight > 1 || splitFactor <= 1 || mergeFactor < 0 || mergeFactor >= 1) {
+      throw new IllegalArgumentException("sizeWeight must be in [0, 1], splitFactor above 1, mergeFactor in [0, 1)");
+    }
+    this.sizeWeight = sizeWeight;
+    this.splitFactor = splitFactor;
+    this.mergeFactor = mergeFactor;
+    this.chooser = chooser;
+  }
+
+  /**
+   * A chooser that samples the keys of the region, balancing the pieces by bytes.
+   */
+  public static SplitChooser sampling(Connection connection, TableName tableName, int sampleSize, float chance) {
+    return (region, pieces) -> {
+      SplitPlanner planner = new SplitPlanner(SplitPlanner.Balance.BYTES, sampleSize, System.nanoTime());
+      planner.offerRange(connection, tableName, region.getStartKey(), region.getEndKey(), chance);
+      List<byte[]> inside = new ArrayList<>();
+      for (byte[] key : planner.plan(pieces)) {
+        // the first key of the region can't split it
+        if (Bytes.compareTo(key, region.getStartKey()) > 0) {
+          inside.add(key);
+        }
+      }
+      return inside.toArray(new byte[0][]);
+    };
+  }
+
+  /**
+   * A plan of new region boundaries and the operations to reach them from the current ones.
+   */
+  public static final class Plan {
+    private final List<byte[]> splitKeys = new ArrayList<>();
+    private final List<RegionInfo> splitRegions = new ArrayList<>();
+    private final List<byte[][]> splitPoints = new ArrayList<>();
+    private final List<List<RegionInfo>> merges = new ArrayList<>();
+
+    /**
+     * @return the start keys of all planned regions but the first, sorted
+     */
+    public byte[][] getSplitKeys() {
+      return splitKeys.toArray(new byte[0][]);
+    }
+
+    /**
+     * @return the regions to split, matching {@link #getSplitPoints()}
+     */
+    public List<RegionInfo> getSplitRegions() {
+      return Collections.unmodifiableList(splitRegions);
+    }
+
+    /**
+     * @return the points at which each region of {@link #getSplitRegions()} is split
+     */
+    public List<byte[][]> getSplitPoints() {
+      return Collections.unmodifiableList(splitPoints);
+    }
+
+    /**
+     * @return the groups of adjacent regions to merge, each into one
+     */
+    public List<List<RegionInfo>> getMerges() {
+      return Collections.unmodifiableList(merges);
+    }
+
+    @Override
+    public String toString() {
+      int merged = 0;
+      for (List<RegionInfo> group : merges) {
+        merged += group.size();
+      }
+      return (splitKeys.size() + 1) + " regions, splitting " + splitRegions.size() + " and merging " + merged
+             + " into " + merges.size();
+    }
+  }
+
+  /**
+   * Plan new boundaries for the regions.
+   *
+   * @param loads         the loads of all the regions of a table, in key order
+   * @param targetRegions the number of regions the load is shared between when working out the target load of one
+   */
+  public Plan plan(List<RegionLoad> loads, int targetRegions) throws IOException {
+    double totalBytes = 0;
+    double totalRequests = 0;
+    for (RegionLoad load : loads) {
+      totalBytes += load.getBytes();
+      totalRequests += load.getRequests();
+    }
+    // an idle or empty table is planned from whichever of the two it has
+    double bytesWeight = totalBytes == 0 ? 0 : totalRequests == 0 ? 1 : sizeWeight;
+    double target = 1d / targetRegions;
+
+    Plan plan = new Plan();
+    List<RegionInfo> group = new ArrayList<>();
+    double groupLoad = 0;
+    for (RegionLoad region : loads) {
+      double load = (bytesWeight == 0 ? 0 : bytesWeight * region.getBytes() / totalBytes)
+                    + (bytesWeight == 1 ? 0 : (1 - bytesWeight) * region.getRequests() / totalRequests);
+
+      if (load > splitFactor * target) {
+        closeGroup(plan, group);
+        groupLoad = 0;
+        addBoundary(plan, region.getStartKey());
+        byte[][] points = chooser.choose(region, (int) Math.ceil(load / target));
+        if (points.length > 0) {
+          plan.splitRegions.add(region.getRegion());
+          plan.splitPoints.add(points);
+          Collections.addAll(plan.splitKeys, points);
+        }
+      } else if (!group.isEmpty() && groupLoad + load < mergeFactor * target) {
+        group.add(region.getRegion());
+        groupLoad += load;
+      } else {
+        closeGroup(plan, group);
+        addBoundary(plan, region.getStartKey());
+        group.add(region.getRegion());
+        groupLoad = load;
+      }
+    }
+    closeGroup(plan, group);
+    LOG.info("Planned {}", plan);
+    return plan;
+  }
+
+  private static void closeGroup(Plan plan, List<RegionInfo> group) {
+    if (group.size() > 1) {
+      plan.merges.add(new ArrayList<>(group));
+    }
+    group.clear();
+  }
+
+  private static void addBoundary(Plan plan, byte[] startKey) {
+    if (startKey.length > 0) {
+      plan.splitKeys.add(startKey);
+    }
+  }
+
+  /**
+   * Apply the plan to the live table, one split or merge at a time, pausing between them.
+   */
+  public static void apply(Admin admin, RegionLocator locator, Plan plan, long pauseMs) throws IOException {
+    for (List<RegionInfo> group : plan.getMerges()) {
+      byte[][] names = new byte[group.size()][];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = group.get(i).getRegionName();
+      }
+      LOG.info("Merging [{}] regions from [{}]", names.length, group.get(0).getRegionNameAsString());
+      await(admin.mergeRegionsAsync(names, false));
+      pause(pauseMs);
+    }
+    for (byte[][] points : plan.getSplitPoints()) {
+      for (byte[] point : points) {
+        // each split renames the region holding the remaining points, so it is looked up afresh
+        byte[] regionName = locator.getRegionLocation(point, true).getRegion().getRegionName();
+        LOG.info("Splitting [{}] at [{}]", Bytes.toStringBinary(regionName), Bytes.toStringBinary(point));
+        await(admin.splitRegionAsync(regionName, point));
+        pause(pauseMs);
+      }
+    }
+  }
+
+  private static void await(Future<Void> future) throws IOException {
+    try {
+      future.get(OPERATION_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a region operation");
+    } catch (ExecutionException | TimeoutException e) {
+      throw new IOException("Region operation failed", e);
+    }
+  }
+
+  private static void pause(long pauseMs) throws InterruptedIOException {
+    try {
+      Thread.sleep(pauseMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted between region operations");
+    }
+  }
+
+  /**
+   * The command line of {@link #main(String[])}: options may come anywhere, the positional arguments are the ones
+   * left once the options and their values are taken.
+   */
+  static final class Arguments {
+    private String table;
+    private String splitsFile;
+    private Integer targetRegions;
+    private double sizeWeight = 0.5;
+    private Long pauseMs;
+
+    /**
+     * @return the arguments, or null if they are not valid
+     */
+    static Arguments parse(String[] args) {
+      Arguments parsed = new Arguments();
+      List<String> positional = new ArrayList<>();
+      try {
+        for (int i = 0; i < args.length; i++) {
+          if ("--apply".equals(args[i])) {
+            parsed.pauseMs = Long.valueOf(args[++i]);
+          } else {
+            positional.add(args[i]);
+          }
+        }
+        if (positional.size() < 2 || positional.size() > 4) {
+          return null;
+        }
+        parsed.table = positional.get(0);
+        parsed.splitsFile = positional.get(1);
+        if (positional.size() > 2) {
+          parsed.targetRegions = Integer.valueOf(positional.get(2));
+        }
+        if (positional.size() > 3) {
+          parsed.sizeWeight = Double.parseDouble(positional.get(3));
+        }
+      } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+        return null;
+      }
+      return parsed;
+    }
+
+    String getTable() {
+      return table;
+    }
+
+    String getSplitsFile() {
+      return splitsFile;
+    }
+
+    Integer getTargetRegions() {
+      return targetRegions;
+    }
+
+    double getSizeWeight() {
+      return sizeWeight;
+    }
+
+    Long getPauseMs() {
+      return pauseMs;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Arguments arguments = Arguments.parse(args);
+    if (arguments == null) {
+      LOG.error("Usage: RegionLoadPlanner <table> <splits file> [<target regions>] [<size weight 0-1>] "
+                + "[--apply <pause ms>]");
+      System.exit(1);
+    }
+    TableName tableName = TableName.valueOf(arguments.getTable());
+    Integer targetRegions = arguments.getTargetRegions();
+    Long pauseMs = arguments.getPauseMs();
+
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create());
+         Admin admin = connection.getAdmin();
+         RegionLocator locator = connection.getRegionLocator(tableName)) {
+      List<RegionLoad> loads = RegionLoad.collect(admin, locator);
+      RegionLoadPlanner planner =
+        new RegionLoadPlanner(arguments.getSizeWeight(), 1.5, 0.25, sampling(connection, tableName, 10_000, 1f));
+      Plan plan = planner.plan(loads, targetRegions == null ? loads.size() : targetRegions);
+      SplitsFile.writeBinary(arguments.getSplitsFile(), plan.getSplitKeys());
+      LOG.info("Wrote [{}] splits to [{}]", plan.getSplitKeys().length, arguments.getSplitsFile());
+      if (pauseMs != null) {
+        apply(admin, locator, plan, pauseMs);
+      }
+    }
+  }
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+
+/**
+ * A read-through cache of rows, bounded by the estimated size in bytes of the Results it holds rather than by their
+ * number. Rows that don't exist are cached too, as empty Results with their own (usually shorter) time to live, so
+ * repeated lookups of missing rows don't reach the cluster either.
+ * <p>
+ * The cache is split into segments, each an LRU list under its own lock, so that concurrent lookups of different
+ * rows rarely contend. Cached Results are returned as is and can be read with {@link ResultReader}; they must not
+ * be modified. Lookups of the same row that miss at the same time each load it; put a {@link CoalescingGetter} behind
+ * the cache to share those loads. A row loaded while a row of its segment is invalidated is returned but not cached,
+ * as the load may have read the row before the write that the invalidation follows.
+ */
+public class ResultCache {
+
+  // the approximate heap cost of an entry beyond its cells: map node, key buffer, entry and Result objects
+  private static final long ENTRY_OVERHEAD = 160;
+
+  /**
+   * Loads a row on a cache miss.
+   */
+  @FunctionalInterface
+  public interface Loader {
+    /**
+     * @return the row, or an empty Result if it does not exist
+     */
+    Result load(byte[] row) throws IOException;
+  }
+
+  private final Loader loader;
+  private final Segment[] segments;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final LongSupplier ticker;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  private ResultCache(Builder builder) {
+    this.loader = builder.loader;
+    this.ttlNanos = builder.ttlNanos;
+    this.negativeTtlNanos = builder.negativeTtlNanos;
+    this.ticker = builder.ticker;
+    this.segments = new Segment[builder.segments];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(Math.max(1, builder.maxBytes / segments.length));
+    }
+  }
+
+  /**
+   * A cache loading rows from the table with a Get of the whole row.
+   */
+  public static Builder builder(Connection connection, TableName tableName) {
+    return builder(connection, tableName, Get::new);
+  }
+
+  /**
+   * A cache loading rows from the table with the Get built by the given factory.
+   */
+  public static Builder builder(Connection connection, TableName tableName, Function<byte[], Get> getFactory) {
+    Objects.requireNonNull(connection, "connection can't be null");
+    Objects.requireNonNull(tableName, "tableName can't be null");
+    return new Builder(row -> {
+      try (Table table = connection.getTable(tableName)) {
+        return table.get(getFactory.apply(row));
+      }
+    });
+  }
+
+  /**
+   * A cache loading rows with the given loader.
+   */
+  public static Builder builder(Loader loader) {
+    return new Builder(Objects.requireNonNull(loader, "loader can't be null"));
+  }
+
+  /**
+   * Return the row from the cache, or load and cache it.
+   *
+   * @return the row, or an empty Result if it does not exist
+   */
+  public Result get(byte[] row) throws IOException {
+    ByteBuffer key = ByteBuffer.wrap(row);
+    Segment segment = segmentFor(key);
+    long now = ticker.getAsLong();
+    Entry entry = segment.get(key, now);
+    if (entry != null) {
+      if (entry.result.isEmpty()) {
+        negativeHits.increment();
+      } else {
+        hits.increment();
+      }
+      return entry.result;
+    }
+
+    misses.increment();
+    long generation = segment.generation();
+    Result result = loader.load(row);
+    if (result == null) {
+      result = Result.EMPTY_RESULT;
+    }
+    Entry loaded = entry(row, result);
+    if (loaded != null) {
+      segment.putUnlessInvalidated(ByteBuffer.wrap(Arrays.copyOf(row, row.length)), loaded, generation);
+    }
+    return result;
+  }
+
+  /**
+   * Cache the given row, as a negative entry if the Result is empty.
+   */
+  public void put(byte[] row, Result result) {
+    Entry entry = entry(row, result);
+    if (entry != null) {
+      ByteBuffer key = ByteBuffer.wrap(Arrays.copyOf(row, row.length));
+      segmentFor(key).put(key, entry);
+    }
+  }
+
+  /**
+   * @return the entry caching the row, or null if rows like it are not cached
+   */
+  private Entry entry(byte[] row, Result result) {
+    long ttl = result.isEmpty() ? negativeTtlNanos : ttlNanos;
+    if (ttl <= 0) {
+      return null;
+    }
+    long size = ENTRY_OVERHEAD + row.length + (result.isEmpty() ? 0 : Result.getTotalSizeOfCells(result));
+    return new Entry(result, ticker.getAsLong() + ttl, size);
+  }
+
+  /**
+   * Remove a row from the cache, for example after writing it.
+   */
+  public void invalidate(byte[] row) {
+    ByteBuffer key = ByteBuffer.wrap(row);
+    segmentFor(key).remove(key);
+  }
+
+  public void invalidateAll() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  private Segment segmentFor(ByteBuffer key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return segments[(hash & Integer.MAX_VALUE) % segments.length];
+  }
+
+  /**
+   * @return the number of lookups answered with a cached row
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of lookups answered with a cached absence of the row
+   */
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  /**
+   * @return the number of lookups that loaded the row
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of entries removed to make room for others
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return the number of entries found to have outlived their time to live
+   */
+  public long getExpirations() {
+    return expirations.sum();
+  }
+
+  public long getEstimatedBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.bytes();
+    }
+    return bytes;
+  }
+
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("entries=%d bytes=%d hits=%d negativeHits=%d misses=%d evictions=%d expirations=%d",
+                         size(), getEstimatedBytes(), getHits(), getNegativeHits(), getMisses(), getEvictions(),
+                         getExpirations());
+  }
+
+  private static final class Entry {
+    private final Result result;
+    private final long expiresAt;
+    private final long size;
+
+    private Entry(Result result, long expiresAt, long size) {
+      this.result = result;
+      this.expiresAt = expiresAt;
+      this.size = size;
+    }
+  }
+
+  /**
+   * An LRU list of entries bounded by their total size.
+   */
+  private final class Segment {
+
+    private final long maxBytes;
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // incremented by every invalidation, so that loads overlapping one are not cached
+    private long generation;
+
+    private Segment(long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    private synchronized Entry get(ByteBuffer key, long now) {
+      Entry entry = entries.get(key);
+      if (entry != null && now - entry.expiresAt >= 0) {
+        entries.remove(key);
+        bytes -= entry.size;
+        expirations.increment();
+        return null;
+      }
+      return entry;
+    }
+
+    private synchronized void put(ByteBuffer key, Entry entry) {
+      Entry previous = entries.put(key, entry);
+      bytes += entry.size - (previous == null ? 0 : previous.size);
+      Iterator<Map.Entry<ByteBuffer, Entry>> eldest = entries.entrySet().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        Entry evicted = eldest.next().getValue();
+        eldest.remove();
+        bytes -= evicted.size;
+        evictions.increment();
+      }
+    }
+
+    private synchronized long generation() {
+      return generation;
+    }
+
+    /**
+     * Cache a loaded entry, unless a row of the segment was invalidated since the load started.
+     */
+    private synchronized void putUnlessInvalidated(ByteBuffer key, Entry entry, long loadGeneration) {
+      if (generation == loadGeneration) {
+        put(key, entry);
+      }
+    }
+
+    private synchronized void remove(ByteBuffer key) {
+      generation++;
+      Entry removed = entries.remove(key);
+      if (removed != null) {
+        bytes -= removed.size;
+      }
+    }
+
+    private synchronized void clear() {
+      generation++;
+      entries.clear();
+      bytes = 0;
+    }
+
+    private synchronized long bytes() {
+      return bytes;
+    }
+
+    private synchronized int size() {
+      return entries.size();
+    }
+  }
+
+  public static final class Builder {
+
+    private final Loader loader;
+    private long maxBytes = 64L * 1024 * 1024;
+    private int segments = 16;
+    private long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+    private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(30);
+    private LongSupplier ticker = System::nanoTime;
+
+    private Builder(Loader loader) {
+      this.loader = loader;
+    }
+
+    /**
+     * The estimated size of all cached Results above which the least recently used are evicted, 64MB by default.
+     */
+    public Builder maxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * The number of independently locked segments, 16 by default. Each holds up to maxBytes / segments.
+     */
+    public Builder segments(int segments) {
+      this.segments = segments;
+      return this;
+    }
+
+    /**
+     * How long a row is cached, 5 minutes by default.
+     */
+    public Builder ttl(long ttl, TimeUnit unit) {
+      this.ttlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    /**
+     * How long the absence of a row is cached, 30 seconds by default. 0 disables negative caching.
+     */
+    public Builder negativeTtl(long ttl, TimeUnit unit) {
+      this.negativeTtlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    Builder ticker(LongSupplier ticker) {
+      this.ticker = ticker;
+      return this;
+    }
+
+    public ResultCache build() {
+      if (maxBytes < 1 || segments < 1) {
+        throw new IllegalArgumentException("maxBytes and segments must be positive");
+      }
+      return new ResultCache(this);
+    }
+  }
+}
@@ -13,7 +13,10 @@
  */
 package org.gbif.hbase.util;
 
+import java.nio.ByteBuffer;
+
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 
@@ -22,6 +25,9 @@ import org.apache.hadoop.hbase.util.Bytes;
  */
 public class ResultReader {
 
+  // the Result each thread read last while metrics are installed, identified without holding on to it
+  private static final ThreadLocal<LastRead> LAST_READ = ThreadLocal.withInitial(LastRead::new);
+
   /**
    * Should never be constructed.
    */
@@ -39,8 +45,21 @@ public class ResultReader {
    * @return the value from the specified column, or defaultValue if it's null/doesn't exist
    */
   public static String getString(Result row, String columnFamily, String columnName, String defaultValue) {
-    byte[] raw = row.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
-    return  (raw == null) ? defaultValue : Bytes.toString(raw);
+    return getString(row, Column.of(columnFamily, columnName), defaultValue);
+  }
+
+  /**
+   * Read the value of this cell and interpret as String.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static String getString(Result row, Column column, String defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toString(cell);
   }
 
   /**
@@ -52,10 +71,29 @@ public class ResultReader {
    * @param defaultValue returned if value at columnName is null
    *
    * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as {@link Bytes#toInt(byte[])} does
    */
   public static Integer getInteger(Result row, String columnFamily, String columnName, Integer defaultValue) {
-    byte[] raw = row.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
-    return (raw == null) ? defaultValue : Integer.valueOf(Bytes.toInt(raw));
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : Integer.valueOf(leadingInt(cell));
+  }
+
+  /**
+   * Read the value of this cell and interpret as Integer.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is not exactly as long as the type, see {@link #toInt(Cell)}
+   */
+  public static Integer getInteger(Result row, Column column, Integer defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : Integer.valueOf(toInt(cell));
   }
 
   /**
@@ -67,10 +105,29 @@ public class ResultReader {
    * @param defaultValue returned if value at columnName is null
    *
    * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as {@link Bytes#toLong(byte[])} does
    */
   public static Long getLong(Result row, String columnFamily, String columnName, Long defaultValue) {
-    byte[] raw = row.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
-    return (raw == null) ? defaultValue : Long.valueOf(Bytes.toLong(raw));
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : Long.valueOf(leadingLong(cell));
+  }
+
+  /**
+   * Read the value of this cell and interpret as Long.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is not exactly as long as the type, see {@link #toLong(Cell)}
+   */
+  public static Long getLong(Result row, Column column, Long defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : Long.valueOf(toLong(cell));
   }
 
   /**
@@ -82,10 +139,29 @@ public class ResultReader {
    * @param defaultValue returned if value at columnName is null
    *
    * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as {@link Bytes#toFloat(byte[])} does
    */
   public static Float getFloat(Result row, String columnFamily, String columnName, Float defaultValue) {
-    byte[] raw = row.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
-    return (raw == null) ? defaultValue : Float.valueOf(Bytes.toFloat(raw));
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : Float.valueOf(leadingFloat(cell));
+  }
+
+  /**
+   * Read the value of this cell and interpret as Float.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is not exactly as long as the type, see {@link #toFloat(Cell)}
+   */
+  public static Float getFloat(Result row, Column column, Float defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : Float.valueOf(toFloat(cell));
   }
 
   /**
@@ -97,10 +173,29 @@ public class ResultReader {
    * @param defaultValue returned if value at columnName is null
    *
    * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as {@link Bytes#toDouble(byte[])} does
    */
   public static Double getDouble(Result row, String columnFamily, String columnName, Double defaultValue) {
-    byte[] raw = row.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
-    return (raw == null) ? defaultValue : Double.valueOf(Bytes.toDouble(raw));
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : Double.valueOf(leadingDouble(cell));
+  }
+
+  /**
+   * Read the value of this cell and interpret as Double.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is not exactly as long as the type, see {@link #toDouble(Cell)}
+   */
+  public static Double getDouble(Result row, Column column, Double defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : Double.valueOf(toDouble(cell));
   }
 
   /**
@@ -114,13 +209,387 @@ public class ResultReader {
    * @return the value from the specified column, or defaultValue if it's null/doesn't exist
    */
   public static byte[] getBytes(Result row, String columnFamily, String columnName, byte[] defaultValue) {
-    byte[] raw = row.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
-    return (raw == null) ? defaultValue : raw;
+    return getBytes(row, Column.of(columnFamily, columnName), defaultValue);
+  }
+
+  /**
+   * Read the value of this cell and return it uninterpreted as byte[].
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static byte[] getBytes(Result row, Column column, byte[] defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : CellUtil.cloneValue(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive short, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param columnFamily column family that holds the column
+   * @param columnName   column or "qualifier"
+   * @param defaultValue returned if value at columnName is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as the String based boxed getters do
+   */
+  public static short getShort(Result row, String columnFamily, String columnName, short defaultValue) {
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : leadingShort(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive short, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static short getShort(Result row, Column column, short defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toShort(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive int, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param columnFamily column family that holds the column
+   * @param columnName   column or "qualifier"
+   * @param defaultValue returned if value at columnName is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as the String based boxed getters do
+   */
+  public static int getInt(Result row, String columnFamily, String columnName, int defaultValue) {
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : leadingInt(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive int, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static int getInt(Result row, Column column, int defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toInt(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive long, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param columnFamily column family that holds the column
+   * @param columnName   column or "qualifier"
+   * @param defaultValue returned if value at columnName is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as the String based boxed getters do
+   */
+  public static long getLong(Result row, String columnFamily, String columnName, long defaultValue) {
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : leadingLong(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive long, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static long getLong(Result row, Column column, long defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toLong(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive float, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param columnFamily column family that holds the column
+   * @param columnName   column or "qualifier"
+   * @param defaultValue returned if value at columnName is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as the String based boxed getters do
+   */
+  public static float getFloat(Result row, String columnFamily, String columnName, float defaultValue) {
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : leadingFloat(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive float, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static float getFloat(Result row, Column column, float defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toFloat(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive double, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param columnFamily column family that holds the column
+   * @param columnName   column or "qualifier"
+   * @param defaultValue returned if value at columnName is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type; a longer value is decoded from its
+   *                                  leading bytes, as the String based boxed getters do
+   */
+  public static double getDouble(Result row, String columnFamily, String columnName, double defaultValue) {
+    Cell cell = latest(row, Column.of(columnFamily, columnName));
+    return (cell == null) ? defaultValue : leadingDouble(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive double, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static double getDouble(Result row, Column column, double defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toDouble(cell);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive boolean, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param columnFamily column family that holds the column
+   * @param columnName   column or "qualifier"
+   * @param defaultValue returned if value at columnName is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static boolean getBoolean(Result row, String columnFamily, String columnName, boolean defaultValue) {
+    return getBoolean(row, Column.of(columnFamily, columnName), defaultValue);
+  }
+
+  /**
+   * Read the value of this cell and interpret as a primitive boolean, without boxing or copying the value.
+   *
+   * @param row          the HBase Result from which to read
+   * @param column       the column to read
+   * @param defaultValue returned if value at column is null
+   *
+   * @return the value from the specified column, or defaultValue if it's null/doesn't exist
+   */
+  public static boolean getBoolean(Result row, Column column, boolean defaultValue) {
+    Cell cell = latest(row, column);
+    return (cell == null) ? defaultValue : toBoolean(cell);
+  }
+
+  /**
+   * Return a view of the value of this cell without copying it. The returned buffer is positioned at the start of the
+   * value and limited to its length. It shares its content with the Result, so it is read only: one reader can't change
+   * the value seen by others.
+   *
+   * @param row    the HBase Result from which to read
+   * @param column the column to read
+   *
+   * @return a read only view of the value in the specified column, or null if it doesn't exist
+   */
+  public static ByteBuffer getValueBuffer(Result row, Column column) {
+    Cell cell = latest(row, column);
+    if (cell == null) {
+      return null;
+    }
+    return ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength())
+      .slice()
+      .asReadOnlyBuffer();
+  }
+
+  /**
+   * Decode the leading bytes of the value of a cell, ignoring any that follow, as the String based getters always have.
+   *
+   * @throws IllegalArgumentException if the value is shorter than the type
+   */
+  static short leadingShort(Cell cell) {
+    checkAtLeast(cell, Bytes.SIZEOF_SHORT);
+    return Bytes.toShort(cell.getValueArray(), cell.getValueOffset(), Bytes.SIZEOF_SHORT);
+  }
+
+  static int leadingInt(Cell cell) {
+    checkAtLeast(cell, Bytes.SIZEOF_INT);
+    return Bytes.toInt(cell.getValueArray(), cell.getValueOffset(), Bytes.SIZEOF_INT);
+  }
+
+  static long leadingLong(Cell cell) {
+    checkAtLeast(cell, Bytes.SIZEOF_LONG);
+    return Bytes.toLong(cell.getValueArray(), cell.getValueOffset(), Bytes.SIZEOF_LONG);
+  }
+
+  static float leadingFloat(Cell cell) {
+    return Float.intBitsToFloat(leadingInt(cell));
+  }
+
+  static double leadingDouble(Cell cell) {
+    return Double.longBitsToDouble(leadingLong(cell));
+  }
+
+  private static void checkAtLeast(Cell cell, int length) {
+    if (cell.getValueLength() < length) {
+      throw new IllegalArgumentException("Wrong length: " + cell.getValueLength() + ", expected at least " + length);
+    }
+  }
+
+  /**
+   * Decode the value of a cell as a short.
+   *
+   * @throws IllegalArgumentException if the value is not exactly {@link Bytes#SIZEOF_SHORT} bytes long
+   */
+  public static short toShort(Cell cell) {
+    return Bytes.toShort(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+  }
+
+  /**
+   * Decode the value of a cell as an int.
+   *
+   * @throws IllegalArgumentException if the value is not exactly {@link Bytes#SIZEOF_INT} bytes long
+   */
+  public static int toInt(Cell cell) {
+    return Bytes.toInt(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+  }
+
+  /**
+   * Decode the value of a cell as a long.
+   *
+   * @throws IllegalArgumentException if the value is not exactly {@link Bytes#SIZEOF_LONG} bytes long
+   */
+  public static long toLong(Cell cell) {
+    return Bytes.toLong(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+  }
+
+  /**
+   * Decode the value of a cell as a float.
+   *
+   * @throws IllegalArgumentException if the value is not exactly {@link Bytes#SIZEOF_FLOAT} bytes long
+   */
+  public static float toFloat(Cell cell) {
+    return Float.intBitsToFloat(Bytes.toInt(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+  }
+
+  /**
+   * Decode the value of a cell as a double.
+   *
+   * @throws IllegalArgumentException if the value is not exactly {@link Bytes#SIZEOF_DOUBLE} bytes long
+   */
+  public static double toDouble(Cell cell) {
+    return Double.longBitsToDouble(Bytes.toLong(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+  }
+
+  /**
+   * Decode the value of a cell as a boolean, following {@link Bytes#toBoolean(byte[])}.
+   *
+   * @throws IllegalArgumentException if the value is not exactly one byte long
+   */
+  public static boolean toBoolean(Cell cell) {
+    if (cell.getValueLength() != 1) {
+      throw new IllegalArgumentException("Array has wrong size: " + cell.getValueLength());
+    }
+    return cell.getValueArray()[cell.getValueOffset()] != (byte) 0;
+  }
+
+  /**
+   * Decode the value of a cell as a UTF-8 String.
+   */
+  public static String toString(Cell cell) {
+    return Bytes.toString(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
   }
 
   // TODO: @nullable
   public static Long getTimestamp(Result row, String columnFamily, String columnName) {
-    Cell raw = row.getColumnLatestCell(Bytes.toBytes(columnFamily), Bytes.toBytes(columnName));
+    return getTimestamp(row, Column.of(columnFamily, columnName));
+  }
+
+  /**
+   * Read the timestamp of the latest version of this cell.
+   *
+   * @param row    the HBase Result from which to read
+   * @param column the column to read
+   *
+   * @return the timestamp of the specified column, or null if it doesn't exist
+   */
+  public static Long getTimestamp(Result row, Column column) {
+    Cell raw = row.getColumnLatestCell(column.getFamily(), column.getQualifier());
     return (raw == null) ? null : raw.getTimestamp();
   }
+
+  /**
+   * @return the latest cell of the column, counted as decoded by the installed {@link ClientMetrics}, or null
+   */
+  private static Cell latest(Result row, Column column) {
+    Cell cell = row.getColumnLatestCell(column.getFamily(), column.getQualifier());
+    ClientMetrics metrics = ClientMetrics.installed();
+    if (metrics != null) {
+      metrics.recordDecoded(firstRead(row) ? 1 : 0, cell == null ? 0 : 1, cell == null ? 0 : cell.getValueLength());
+    }
+    return cell;
+  }
+
+  /**
+   * @return true unless the row is the one this thread read last, so that a row read field by field counts once
+   */
+  private static boolean firstRead(Result row) {
+    return LAST_READ.get().update(System.identityHashCode(row), row.size());
+  }
+
+  /**
+   * Identifies the last Result read by its identity hash and number of cells, which unlike a reference to it doesn't
+   * keep it from being collected and, unlike a weak reference, needs no allocation per row. A different Result of the
+   * same identity hash and size read right after another is rare enough to be counted as the same row.
+   */
+  private static final class LastRead {
+    private boolean read;
+    private int identity;
+    private int size;
+
+    /**
+     * @return true if the row differs from the one read last, which it then replaces
+     */
+    private boolean update(int identity, int size) {
+      if (read && identity == this.identity && size == this.size) {
+        return false;
+      }
+      read = true;
+      this.identity = identity;
+      this.size = size;
+      return true;
+    }
+  }
 }
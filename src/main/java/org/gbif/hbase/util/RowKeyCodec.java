@@ -0,0 +1,505 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FuzzyRowFilter;
+import org.apache.hadoop.hbase.util.Order;
+import org.apache.hadoop.hbase.util.OrderedBytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.util.PositionedByteRange;
+import org.apache.hadoop.hbase.util.SimplePositionedByteRange;
+import org.apache.hadoop.hbase.util.SimplePositionedMutableByteRange;
+
+/**
+ * Encodes composite row keys of typed components with {@link OrderedBytes}, so that keys sort byte by byte in the
+ * order of their values: negative numbers before positive ones, and each component in ascending or descending order.
+ * Every component may be null, which sorts before all values of an ascending component and after all values of a
+ * descending one.
+ * <p>
+ * Components are self delimiting (ints take 5 bytes, longs, doubles and timestamps 9, strings their UTF-8 bytes plus
+ * 2, nulls 1), so the keys whose first components have given values share the encoding of those values as a prefix.
+ * The scan helpers use this to turn equality on leading components and a range on the next into the tightest start
+ * and stop rows, and {@link #fuzzyFilter(Object...)} matches fixed width components anywhere in the key, letting the
+ * RegionServers skip rather than return the rows that don't match.
+ * <p>
+ * Codecs are described by a spec such as {@code long,string:desc,timestamp} (see {@link #parse(String)}), which
+ * {@link SplitsFile} uses for split files of typed keys. Instances are immutable and may be shared between threads.
+ */
+public final class RowKeyCodec {
+
+  /**
+   * Marks a component that may hold any value in {@link #fuzzyFilter(Object...)}.
+   */
+  public static final Object ANY = new Object() {
+    @Override
+    public String toString() {
+      return "ANY";
+    }
+  };
+
+  /**
+   * The types of key components, and the Java types of their values.
+   */
+  public enum Type {
+    /** {@link Integer} values */
+    INT(5),
+    /** {@link Long} values, accepting Integers */
+    LONG(9),
+    /** {@link Double} values, accepting Floats */
+    DOUBLE(9),
+    /** {@link String} values, which may not hold the NUL character */
+    STRING(-1),
+    /** {@link Instant} values to the millisecond, accepting Dates and Longs of ms since the epoch */
+    TIMESTAMP(9);
+
+    private final int width;
+
+    Type(int width) {
+      this.width = width;
+    }
+
+    /**
+     * @return the encoded length of a non-null value, or -1 if it varies
+     */
+    public int getWidth() {
+      return width;
+    }
+  }
+
+  private final Type[] types;
+  private final Order[] orders;
+
+  private RowKeyCodec(List<Type> types, List<Order> orders) {
+    if (types.isEmpty()) {
+      throw new IllegalArgumentException("A row key needs at least one component");
+    }
+    this.types = types.toArray(new Type[0]);
+    this.orders = orders.toArray(new Order[0]);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Parse a spec of comma separated component types, each optionally followed by {@code :desc} for descending order,
+   * e.g. {@code long,string:desc,timestamp}.
+   */
+  public static RowKeyCodec parse(String spec) {
+    Builder builder = builder();
+    for (String component : spec.split(",")) {
+      String[] parts = component.trim().split(":", 2);
+      Type type = Type.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+      if (parts.length == 1 || "asc".equalsIgnoreCase(parts[1].trim())) {
+        builder.add(type);
+      } else if ("desc".equalsIgnoreCase(parts[1].trim())) {
+        builder.addDescending(type);
+      } else {
+        throw new IllegalArgumentException("Unknown order [" + parts[1] + "] in key spec [" + spec + "]");
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the number of components
+   */
+  public int size() {
+    return types.length;
+  }
+
+  public List<Type> getTypes() {
+    return Collections.unmodifiableList(Arrays.asList(types));
+  }
+
+  public Order getOrder(int component) {
+    return orders[component];
+  }
+
+  /**
+   * Encode a key, or the prefix of keys starting with the given leading components.
+   *
+   * @param values the values of the first components in order, each possibly null
+   */
+  public byte[] encode(Object... values) {
+    if (values.length > types.length) {
+      throw new IllegalArgumentException("Key has " + types.length + " components, not " + values.length);
+    }
+    int capacity = 0;
+    for (int i = 0; i < values.length; i++) {
+      capacity += maxLength(i, values[i]);
+    }
+    PositionedByteRange dst = new SimplePositionedMutableByteRange(capacity);
+    for (int i = 0; i < values.length; i++) {
+      encode(dst, i, values[i]);
+    }
+    return Arrays.copyOf(dst.getBytes(), dst.getPosition());
+  }
+
+  private int maxLength(int component, Object value) {
+    if (value == null) {
+      return 1;
+    }
+    if (types[component] == Type.STRING) {
+      // UTF-8 takes at most 3 bytes per char, as chars beyond the BMP take 2
+      return 2 + 3 * value.toString().length();
+    }
+    return types[component].width;
+  }
+
+  private void encode(PositionedByteRange dst, int component, Object value) {
+    Order order = orders[component];
+    if (value == null) {
+      OrderedBytes.encodeNull(dst, order);
+      return;
+    }
+    switch (types[component]) {
+      case INT:
+        OrderedBytes.encodeInt32(dst, (Integer) checked(component, value, Integer.class), order);
+        break;
+      case LONG:
+        OrderedBytes.encodeInt64(dst, checkedNumber(component, value, Long.class, Integer.class).longValue(), order);
+        break;
+      case DOUBLE:
+        OrderedBytes.encodeFloat64(dst, checkedNumber(component, value, Double.class, Float.class).doubleValue(),
+                                   order);
+        break;
+      case STRING:
+        OrderedBytes.encodeString(dst, (String) checked(component, value, String.class), order);
+        break;
+      case TIMESTAMP:
+        OrderedBytes.encodeInt64(dst, millis(component, value), order);
+        break;
+      default:
+        throw new IllegalStateException("Unknown type " + types[component]);
+    }
+  }
+
+  private Object checked(int component, Object value, Class<?> type) {
+    if (!type.isInstance(value)) {
+      throw new IllegalArgumentException("Component " + component + " is a " + types[component] + ", not a "
+                                         + value.getClass().getSimpleName());
+    }
+    return value;
+  }
+
+  private Number checkedNumber(int component, Object value, Class<?> type, Class<?> narrower) {
+    return (Number) checked(component, value, narrower.isInstance(value) ? narrower : type);
+  }
+
+  private long millis(int component, Object value) {
+    if (value instanceof Instant) {
+      return ((Instant) value).toEpochMilli();
+    }
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    return (Long) checked(component, value, Long.class);
+  }
+
+  /**
+   * Decode the components of a key, or of the prefix of a key such as a split key.
+   *
+   * @return the values of the components the key holds, which may be fewer than the components of the codec
+   *
+   * @throws IllegalArgumentException if the key is not of this encoding
+   */
+  public Object[] decode(byte[] key) {
+    PositionedByteRange src = new SimplePositionedByteRange(key);
+    List<Object> values = new ArrayList<>(types.length);
+    try {
+      for (int i = 0; i < types.length && src.getRemaining() > 0; i++) {
+        values.add(decode(src, i));
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Key is not encoded as [" + this + "]", e);
+    }
+    if (src.getRemaining() > 0) {
+      throw new IllegalArgumentException("Key has " + src.getRemaining() + " bytes after its last component");
+    }
+    return values.toArray();
+  }
+
+  private Object decode(PositionedByteRange src, int component) {
+    if (OrderedBytes.isNull(src)) {
+      src.get();
+      return null;
+    }
+    Type type = types[component];
+    boolean matches;
+    switch (type) {
+      case INT:
+        matches = OrderedBytes.isFixedInt32(src);
+        break;
+      case LONG:
+      case TIMESTAMP:
+        matches = OrderedBytes.isFixedInt64(src);
+        break;
+      case DOUBLE:
+        matches = OrderedBytes.isFixedFloat64(src);
+        break;
+      default:
+        matches = OrderedBytes.isText(src);
+    }
+    if (!matches || descending(src) != (orders[component] == Order.DESCENDING)) {
+      throw new IllegalArgumentException("Component " + component + " is not an encoded " + orders[component] + " "
+                                         + type);
+    }
+    switch (type) {
+      case INT:
+        return OrderedBytes.decodeInt32(src);
+      case LONG:
+        return OrderedBytes.decodeInt64(src);
+      case DOUBLE:
+        return OrderedBytes.decodeFloat64(src);
+      case TIMESTAMP:
+        return Instant.ofEpochMilli(OrderedBytes.decodeInt64(src));
+      default:
+        return OrderedBytes.decodeString(src);
+    }
+  }
+
+  /**
+   * @return true if the header byte at the position is inverted, as in descending values
+   */
+  private static boolean descending(PositionedByteRange src) {
+    return src.peek() < 0;
+  }
+
+  /**
+   * @return a scan of the keys whose first components have the given values, or of the whole table if none are given
+   */
+  public Scan prefixScan(Object... leading) {
+    byte[] prefix = encode(leading);
+    return new Scan().withStartRow(prefix).withStopRow(stopRow(prefix));
+  }
+
+  /**
+   * A scan of the keys whose first components have the given values and whose next component is within a range of
+   * values. The range is given in the order of the values whatever the order of the component. A null bound leaves
+   * the range open on that side, which then includes the nulls of the component if they sort on that side.
+   *
+   * @param leading the values of the components before the ranged one, may be empty
+   * @param from    the lowest value of the range, or null
+   * @param to      the highest value of the range, or null
+   */
+  public Scan rangeScan(Object[] leading, Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+    int component = leading.length;
+    if (component >= types.length) {
+      throw new IllegalArgumentException("Key has no component after the " + component + " leading ones");
+    }
+    byte[] prefix = encode(leading);
+    boolean descending = orders[component] == Order.DESCENDING;
+    Object low = descending ? to : from;
+    boolean lowInclusive = descending ? toInclusive : fromInclusive;
+    Object high = descending ? from : to;
+    boolean highInclusive = descending ? fromInclusive : toInclusive;
+
+    byte[] start = prefix;
+    if (low != null) {
+      byte[] lowKey = withComponent(leading, low);
+      start = lowInclusive ? lowKey : stopRow(lowKey);
+    }
+    byte[] stop = stopRow(prefix);
+    if (high != null) {
+      byte[] highKey = withComponent(leading, high);
+      stop = highInclusive ? stopRow(highKey) : highKey;
+    }
+    return new Scan().withStartRow(start).withStopRow(stop);
+  }
+
+  private byte[] withComponent(Object[] leading, Object value) {
+    Object[] values = Arrays.copyOf(leading, leading.length + 1);
+    values[leading.length] = value;
+    return encode(values);
+  }
+
+  /**
+   * @return the row after all the keys starting with the prefix, or the empty end row if there is none
+   */
+  static byte[] stopRow(byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      if (prefix[i] != (byte) 0xff) {
+        byte[] stop = Arrays.copyOf(prefix, i + 1);
+        stop[i]++;
+        return stop;
+      }
+    }
+    return HConstants.EMPTY_END_ROW;
+  }
+
+  /**
+   * A filter of the keys whose components have the given values, where {@link #ANY} matches any non-null value of a
+   * fixed width component, and components after the last given match anything.
+   *
+   * @param values the values of the first components in order, each possibly null or {@link #ANY}
+   */
+  public FuzzyRowFilter fuzzyFilter(Object... values) {
+    if (values.length > types.length) {
+      throw new IllegalArgumentException("Key has " + types.length + " components, not " + values.length);
+    }
+    Object[] fixed = values.clone();
+    List<int[]> wildcards = new ArrayList<>();
+    int position = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == ANY) {
+        if (types[i].width < 0) {
+          throw new IllegalArgumentException("Component " + i + " is a " + types[i]
+                                             + ", which has no fixed width to match any value of");
+        }
+        // any value of the type encodes to the same width, and its bytes are masked out below
+        fixed[i] = zero(types[i]);
+        wildcards.add(new int[] {position, types[i].width});
+      }
+      position += encodedLength(i, fixed[i]);
+    }
+    byte[] key = encode(fixed);
+    byte[] mask = new byte[key.length];
+    for (int[] wildcard : wildcards) {
+      // the header byte of the value is fixed by its type and order, only the value bytes after it vary
+      Arrays.fill(mask, wildcard[0] + 1, wildcard[0] + wildcard[1], (byte) 1);
+    }
+    return new FuzzyRowFilter(Collections.singletonList(new Pair<>(key, mask)));
+  }
+
+  private int encodedLength(int component, Object value) {
+    PositionedByteRange dst = new SimplePositionedMutableByteRange(maxLength(component, value));
+    encode(dst, component, value);
+    return dst.getPosition();
+  }
+
+  private static Object zero(Type type) {
+    switch (type) {
+      case INT:
+        return 0;
+      case LONG:
+        return 0L;
+      case DOUBLE:
+        return 0d;
+      default:
+        return Instant.EPOCH;
+    }
+  }
+
+  /**
+   * @return the text form of a component value used in split files: decimal numbers, ISO-8601 instants, strings as
+   *         they are, and {@code \N} for null
+   */
+  String format(int component, Object value) {
+    if (value == null) {
+      return "\\N";
+    }
+    String text = value.toString();
+    if (text.indexOf('\t') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0 || "\\N".equals(text)) {
+      throw new IllegalArgumentException("Component " + component + " value [" + text + "] can't be written as text");
+    }
+    return text;
+  }
+
+  /**
+   * @return the value of a component from its text form, see {@link #format(int, Object)}
+   */
+  Object parseValue(int component, String text) {
+    if ("\\N".equals(text)) {
+      return null;
+    }
+    switch (types[component]) {
+      case INT:
+        return Integer.parseInt(text.trim());
+      case LONG:
+        return Long.parseLong(text.trim());
+      case DOUBLE:
+        return Double.parseDouble(text.trim());
+      case TIMESTAMP:
+        return Instant.parse(text.trim());
+      default:
+        return text;
+    }
+  }
+
+  /**
+   * @return the spec of the codec, as read by {@link #parse(String)}
+   */
+  @Override
+  public String toString() {
+    StringBuilder spec = new StringBuilder();
+    for (int i = 0; i < types.length; i++) {
+      if (i > 0) {
+        spec.append(',');
+      }
+      spec.append(types[i].name().toLowerCase(Locale.ROOT));
+      if (orders[i] == Order.DESCENDING) {
+        spec.append(":desc");
+      }
+    }
+    return spec.toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RowKeyCodec)) {
+      return false;
+    }
+    RowKeyCodec other = (RowKeyCodec) o;
+    return Arrays.equals(types, other.types) && Arrays.equals(orders, other.orders);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(types) + Arrays.hashCode(orders);
+  }
+
+  /**
+   * Declares the components of the key in order.
+   */
+  public static final class Builder {
+    private final List<Type> types = new ArrayList<>();
+    private final List<Order> orders = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    public Builder add(Type type) {
+      return add(type, Order.ASCENDING);
+    }
+
+    public Builder addDescending(Type type) {
+      return add(type, Order.DESCENDING);
+    }
+
+    public Builder add(Type type, Order order) {
+      types.add(Objects.requireNonNull(type, "type can't be null"));
+      orders.add(Objects.requireNonNull(order, "order can't be null"));
+      return this;
+    }
+
+    public RowKeyCodec build() {
+      return new RowKeyCodec(types, orders);
+    }
+  }
+}
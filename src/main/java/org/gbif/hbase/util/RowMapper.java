@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Maps the cells of an HBase Result onto a target object in a single pass. The columns and their types are declared
+ * once through the {@link Builder}; mapping a row then walks the (sorted) cells of the Result and the (sorted)
+ * declared columns together, instead of doing a binary search over the cells for every field as repeated
+ * {@link ResultReader} calls would.
+ * <p>
+ * Only the latest version of each declared column is mapped. Values are decoded with the same rules as
+ * {@link ResultReader}. Instances are immutable and may be shared between threads.
+ * <p>
+ * Immutable objects, whose values must all be given to their constructor, are created by mapping the row onto a
+ * mutable staging object such as their builder or an array, which {@link #map(Result, Function)} then hands to the
+ * constructor:
+ * <pre>{@code
+ * RowMapper<Object[]> mapper = RowMapper.builder(() -> new Object[2])
+ *   .mapString(ID, (values, id) -> values[0] = id)
+ *   .mapInt(YEAR, (values, year) -> values[1] = year)
+ *   .build();
+ * Occurrence occurrence = mapper.map(row, values -> new Occurrence((String) values[0], (Integer) values[1]));
+ * }</pre>
+ *
+ * @param <T> the type of object that rows are mapped onto
+ */
+public final class RowMapper<T> {
+
+  /**
+   * Receives the latest cell of a declared column.
+   */
+  @FunctionalInterface
+  public interface CellSetter<T> {
+    void set(T target, Cell cell);
+  }
+
+  private final Supplier<T> factory;
+  private final Column[] columns;
+  private final CellSetter<T>[] setters;
+
+  @SuppressWarnings("unchecked")
+  private RowMapper(Supplier<T> factory, Map<Column, CellSetter<T>> mappings) {
+    this.factory = factory;
+    this.columns = mappings.keySet().toArray(new Column[0]);
+    this.setters = mappings.values().toArray(new CellSetter[0]);
+  }
+
+  /**
+   * @param factory creates the target objects for {@link #map(Result)}, may be null if only
+   *                {@link #map(Result, Object)} is used
+   */
+  public static <T> Builder<T> builder(Supplier<T> factory) {
+    return new Builder<>(factory);
+  }
+
+  /**
+   * @return the declared columns, in cell order
+   */
+  public List<Column> getColumns() {
+    return Collections.unmodifiableList(Arrays.asList(columns));
+  }
+
+  /**
+   * Map the row onto a new target object created by the factory given to the builder.
+   */
+  public T map(Result row) {
+    Objects.requireNonNull(factory, "No factory was given to the builder");
+    T target = factory.get();
+    map(row, target, null);
+    return target;
+  }
+
+  /**
+   * Map the row onto a new staging object created by the factory given to the builder, and create the result from
+   * it. Declared columns missing from the row leave the staging object as the factory created it.
+   *
+   * @param constructor creates the result from the staging object, for example by calling a constructor or build()
+   */
+  public <R> R map(Result row, Function<? super T, ? extends R> constructor) {
+    return constructor.apply(map(row));
+  }
+
+  /**
+   * Map the row onto the given target object. Fields of columns missing from the row are left untouched.
+   */
+  public void map(Result row, T target) {
+    map(row, target, null);
+  }
+
+  /**
+   * Map the row onto the given target object, recording the declared columns that were missing and the cells that
+   * were not declared in the given report.
+   *
+   * @param report cleared and then filled during the mapping, may be null
+   */
+  public void map(Result row, T target, Report report) {
+    if (report != null) {
+      report.clear();
+    }
+    Cell[] cells = row.rawCells();
+    int cellCount = cells == null ? 0 : cells.length;
+    int c = 0;
+    int i = 0;
+    int mapped = 0;
+    long bytes = 0;
+    while (i < cellCount && c < columns.length) {
+      Cell cell = cells[i];
+      int cmp = columns[c].compareTo(cell);
+      if (cmp < 0) {
+        if (report != null) {
+          report.missing.add(columns[c]);
+        }
+        c++;
+      } else if (cmp > 0) {
+        if (report != null) {
+          report.unexpected.add(cell);
+        }
+        i++;
+      } else {
+        setters[c].set(target, cell);
+        mapped++;
+        bytes += cell.getValueLength();
+        // cells of a column are sorted newest first, so skip any older versions
+        i++;
+        while (i < cellCount && columns[c].compareTo(cells[i]) == 0) {
+          i++;
+        }
+        c++;
+      }
+    }
+    ClientMetrics metrics = ClientMetrics.installed();
+    if (metrics != null) {
+      metrics.recordDecoded(1, mapped, bytes);
+    }
+    if (report != null) {
+      for (; c < columns.length; c++) {
+        report.missing.add(columns[c]);
+      }
+      for (; i < cellCount; i++) {
+        report.unexpected.add(cells[i]);
+      }
+    }
+  }
+
+  /**
+   * The outcome of mapping a row: the declared columns it lacked and the cells it held that were not declared. A
+   * report may be reused across rows to avoid allocating one per row.
+   */
+  public static final class Report {
+
+    private final List<Column> missing = new ArrayList<>();
+    private final List<Cell> unexpected = new ArrayList<>();
+
+    /**
+     * @return the declared columns that had no cell in the row, in cell order
+     */
+    public List<Column> getMissing() {
+      return Collections.unmodifiableList(missing);
+    }
+
+    /**
+     * @return the cells (all versions) of columns that were not declared, in cell order
+     */
+    public List<Cell> getUnexpected() {
+      return Collections.unmodifiableList(unexpected);
+    }
+
+    /**
+     * @return true if every declared column was present and there were no undeclared cells
+     */
+    public boolean isExact() {
+      return missing.isEmpty() && unexpected.isEmpty();
+    }
+
+    void clear() {
+      missing.clear();
+      unexpected.clear();
+    }
+  }
+
+  /**
+   * Declares the columns to map and how to set each one on the target.
+   */
+  public static final class Builder<T> {
+
+    private final Supplier<T> factory;
+    private final Map<Column, CellSetter<T>> mappings = new TreeMap<>();
+
+    private Builder(Supplier<T> factory) {
+      this.factory = factory;
+    }
+
+    public Builder<T> mapCell(Column column, CellSetter<T> setter) {
+      Objects.requireNonNull(column, "column can't be null");
+      Objects.requireNonNull(setter, "setter can't be null");
+      if (mappings.put(column, setter) != null) {
+        throw new IllegalArgumentException("Column [" + column + "] is mapped more than once");
+      }
+      return this;
+    }
+
+    public Builder<T> mapString(Column column, BiConsumer<T, String> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, ResultReader.toString(cell)));
+    }
+
+    public Builder<T> mapInt(Column column, ObjIntConsumer<T> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, ResultReader.toInt(cell)));
+    }
+
+    public Builder<T> mapLong(Column column, ObjLongConsumer<T> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, ResultReader.toLong(cell)));
+    }
+
+    public Builder<T> mapFloat(Column column, ObjDoubleConsumer<T> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, ResultReader.toFloat(cell)));
+    }
+
+    public Builder<T> mapDouble(Column column, ObjDoubleConsumer<T> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, ResultReader.toDouble(cell)));
+    }
+
+    public Builder<T> mapBoolean(Column column, BiConsumer<T, Boolean> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, ResultReader.toBoolean(cell)));
+    }
+
+    /**
+     * The setter receives a copy of the value.
+     */
+    public Builder<T> mapBytes(Column column, BiConsumer<T, byte[]> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, CellUtil.cloneValue(cell)));
+    }
+
+    /**
+     * The setter receives the timestamp of the latest version of the column.
+     */
+    public Builder<T> mapTimestamp(Column column, ObjLongConsumer<T> setter) {
+      return mapCell(column, (target, cell) -> setter.accept(target, cell.getTimestamp()));
+    }
+
+    public RowMapper<T> build() {
+      return new RowMapper<>(factory, mappings);
+    }
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Salts row keys with a one byte prefix, the bucket of the key, so that monotonically increasing keys (such as
+ * sequential ids) spread their writes over as many regions as there are buckets instead of all landing on the last.
+ * <p>
+ * The bucket of a key is derived from a hash of its bytes, and is the same in every JVM and version. Tables holding
+ * salted keys should be split at least at each bucket; {@link #splitKeys(byte[][])} gives those splits, optionally
+ * split further within each bucket, for {@link TableCreator} (through a {@link SplitsFile}) or a {@link TableSpec}.
+ * <p>
+ * Reading a range of logical (unsalted) keys means reading it in every bucket; {@link #scan(Table, Scan)} does so and
+ * merges the buckets back into logical key order. Instances are immutable and may be shared between threads.
+ */
+public final class SaltedKeys {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SaltedKeys.class);
+
+  private final int buckets;
+
+  /**
+   * @param buckets the number of buckets, from 1 to 256
+   */
+  public SaltedKeys(int buckets) {
+    if (buckets < 1 || buckets > 256) {
+      throw new IllegalArgumentException("buckets must be between 1 and 256");
+    }
+    this.buckets = buckets;
+  }
+
+  public int getBuckets() {
+    return buckets;
+  }
+
+  /**
+   * @return the bucket of the logical key
+   */
+  public int bucket(byte[] key) {
+    return bucket(key, 0, key.length);
+  }
+
+  /**
+   * @return the bucket of the logical key in the slice of the array
+   */
+  public int bucket(byte[] key, int offset, int length) {
+    // finalize the plain hash with the mix of MurmurHash3, so that keys differing in one byte spread over all buckets
+    int h = Bytes.hashCode(key, offset, length);
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return (h & Integer.MAX_VALUE) % buckets;
+  }
+
+  /**
+   * @return the salted key: the bucket of the key followed by the key
+   */
+  public byte[] salt(byte[] key) {
+    byte[] salted = new byte[key.length + 1];
+    salted[0] = (byte) bucket(key);
+    System.arraycopy(key, 0, salted, 1, key.length);
+    return salted;
+  }
+
+  /**
+   * @return the logical key of a salted key
+   */
+  public static byte[] unsalt(byte[] salted) {
+    return Arrays.copyOfRange(salted, 1, salted.length);
+  }
+
+  /**
+   * @return the bucket a salted key is in
+   */
+  public static int bucketOf(byte[] salted) {
+    return salted[0] & 0xff;
+  }
+
+  /**
+   * @param keysWithinBuckets logical keys at which to split every bucket further, may be empty
+   *
+   * @return the split keys of a table of salted keys, sorted: the start of each bucket but the first, and each of the
+   *         given keys within each bucket
+   */
+  public byte[][] splitKeys(byte[][] keysWithinBuckets) {
+    TreeSet<byte[]> splits = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      byte[] prefix = {(byte) bucket};
+      if (bucket > 0) {
+        splits.add(prefix);
+      }
+      for (byte[] key : keysWithinBuckets) {
+        splits.add(Bytes.add(prefix, key));
+      }
+    }
+    return splits.toArray(new byte[0][]);
+  }
+
+  /**
+   * @param regionsPerBucket the number of regions each bucket is split into, at evenly spaced values of the first
+   *                         byte of the logical key
+   *
+   * @return the split keys of a table of salted keys whose logical keys have an evenly distributed first byte
+   */
+  public byte[][] splitKeys(int regionsPerBucket) {
+    if (regionsPerBucket < 1 || regionsPerBucket > 256) {
+      throw new IllegalArgumentException("regionsPerBucket must be between 1 and 256");
+    }
+    byte[][] within = new byte[regionsPerBucket - 1][];
+    for (int i = 1; i < regionsPerBucket; i++) {
+      within[i - 1] = new byte[] {(byte) (i * 256 / regionsPerBucket)};
+    }
+    return splitKeys(within);
+  }
+
+  /**
+   * Scan a range of logical keys in every bucket, merging the rows of all buckets into logical key order. The rows
+   * returned keep their salted keys; see {@link #unsalt(byte[])}.
+   * <p>
+   * The scan must not be reversed, and its filters must not depend on row keys, which they see salted. Its limit
+   * applies to the merged rows: each bucket may hold all the first rows, so each is scanned up to the limit, and the
+   * merge stops once the limit is reached.
+   *
+   * @param logical a scan of logical keys
+   */
+  public ResultScanner scan(Table table, Scan logical) throws IOException {
+    if (logical.isReversed()) {
+      throw new IllegalArgumentException("Reversed scans of salted keys are not supported");
+    }
+    List<ResultScanner> scanners = new ArrayList<>(buckets);
+    try {
+      for (int bucket = 0; bucket < buckets; bucket++) {
+        scanners.add(table.getScanner(bucketScan(logical, bucket)));
+      }
+    } catch (IOException | RuntimeException e) {
+      for (ResultScanner scanner : scanners) {
+        scanner.close();
+      }
+      throw e;
+    }
+    LOG.debug("Scanning [{}] buckets of [{}]", buckets, table.getName());
+    return merge(scanners, logical.getLimit());
+  }
+
+  /**
+   * @return the scan of the logical range within the bucket
+   */
+  static Scan bucketScan(Scan logical, int bucket) throws IOException {
+    byte[] prefix = {(byte) bucket};
+    Scan scan = new Scan(logical);
+    scan.withStartRow(Bytes.add(prefix, logical.getStartRow()), logical.includeStartRow());
+    byte[] stop = logical.getStopRow();
+    if (stop.length > 0) {
+      scan.withStopRow(Bytes.add(prefix, stop), logical.includeStopRow());
+    } else {
+      // up to the start of the next bucket, or the end of the table after the last possible bucket
+      scan.withStopRow(bucket == 255 ? HConstants.EMPTY_END_ROW : new byte[] {(byte) (bucket + 1)}, false);
+    }
+    return scan;
+  }
+
+  /**
+   * @return a scanner of the rows of all the scanners, each in salted key order, in logical key order
+   */
+  static ResultScanner merge(List<ResultScanner> scanners) throws IOException {
+    return merge(scanners, -1);
+  }
+
+  /**
+   * @param limit the number of rows after which the merged scanner ends, unlimited if not positive
+   *
+   * @return a scanner of the rows of all the scanners, each in salted key order, in logical key order
+   */
+  static ResultScanner merge(List<ResultScanner> scanners, int limit) throws IOException {
+    return new MergingScanner(scanners, limit);
+  }
+
+  /**
+   * Merges the buckets by always returning the row with the lowest logical key at the head of any bucket.
+   */
+  private static final class MergingScanner implements ResultScanner {
+
+    private final List<ResultScanner> scanners;
+    private final PriorityQueue<Head> heads;
+    private int remaining;
+
+    private static final class Head {
+      private final ResultScanner scanner;
+      private Result result;
+
+      private Head(ResultScanner scanner, Result result) {
+        this.scanner = scanner;
+        this.result = result;
+      }
+    }
+
+    private MergingScanner(List<ResultScanner> scanners, int limit) throws IOException {
+      this.scanners = scanners;
+      this.remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+      // rows compare by their keys after the one byte salt
+      this.heads = new PriorityQueue<>(Math.max(1, scanners.size()), (a, b) -> {
+        byte[] x = a.result.getRow();
+        byte[] y = b.result.getRow();
+        return Bytes.compareTo(x, 1, x.length - 1, y, 1, y.length - 1);
+      });
+      try {
+        for (ResultScanner scanner : scanners) {
+          Result first = scanner.next();
+          if (first != null) {
+            heads.add(new Head(scanner, first));
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public Result next() throws IOException {
+      if (remaining == 0) {
+        return null;
+      }
+      Head head = heads.poll();
+      if (head == null) {
+        return null;
+      }
+      Result result = head.result;
+      if (--remaining == 0) {
+        // no more rows are needed from any bucket
+        heads.clear();
+        return result;
+      }
+      head.result = head.scanner.next();
+      if (head.result != null) {
+        heads.add(head);
+      }
+      return result;
+    }
+
+    @Override
+    public void close() {
+      for (ResultScanner scanner : scanners) {
+        scanner.close();
+      }
+      heads.clear();
+    }
+
+    @Override
+    public boolean renewLease() {
+      boolean renewed = true;
+      for (ResultScanner scanner : scanners) {
+        renewed &= scanner.renewLease();
+      }
+      return renewed;
+    }
+
+    /**
+     * @return the sum of the metrics of the scanners of all buckets, if the scan collects them
+     */
+    @Override
+    public ScanMetrics getScanMetrics() {
+      boolean any = false;
+      ScanMetrics sum = new ScanMetrics();
+      for (ResultScanner scanner : scanners) {
+        ScanMetrics bucket = scanner.getScanMetrics();
+        if (bucket != null) {
+          any = true;
+          bucket.getMetricsMap(false).forEach((name, value) -> sum.addToCounter(name, value));
+        }
+      }
+      return any ? sum : null;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      LOG.error("Usage: SaltedKeys <buckets> <splits file to write> [<regions per bucket> | <splits file within "
+                + "buckets>]");
+      System.exit(1);
+    }
+    SaltedKeys salted = new SaltedKeys(Integer.parseInt(args[0]));
+    byte[][] splits;
+    if (args.length < 3) {
+      splits = salted.splitKeys(new byte[0][]);
+    } else if (args[2].matches("\\d+")) {
+      splits = salted.splitKeys(Integer.parseInt(args[2]));
+    } else {
+      splits = salted.splitKeys(SplitsFile.read(args[2]));
+    }
+    SplitsFile.writeBinary(args[1], splits);
+    LOG.info("Wrote [{}] splits for [{}] buckets to [{}]", splits.length, salted.getBuckets(), args[1]);
+  }
+}
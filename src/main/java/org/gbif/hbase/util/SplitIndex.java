@@ -0,0 +1,243 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A compact binary index of the split keys of a table, routing row keys to the index of their region without
+ * allocating.
+ * <p>
+ * The format, all ints big endian:
+ * <pre>
+ *   magic (4 bytes: 0x89 'S' 'P' 'X')
+ *   version (int)
+ *   number of keys (int)
+ *   length of the keys section in bytes (int)
+ *   keys section: for each key in ascending order, its length (int) then its bytes
+ *   CRC32 of everything before it (int)
+ * </pre>
+ * Files are memory mapped when read, so opening one costs a checksum pass and a walk over the key lengths whatever
+ * its size, and the keys are compared in place. Instances are immutable and may be shared between threads.
+ */
+public final class SplitIndex {
+
+  static final byte[] MAGIC = {(byte) 0x89, 'S', 'P', 'X'};
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = MAGIC.length + 3 * Bytes.SIZEOF_INT;
+
+  private final ByteBuffer buffer;
+  // position in the buffer of the bytes of each key; its length is in the int before
+  private final int[] starts;
+
+  private SplitIndex(ByteBuffer buffer, int[] starts) {
+    this.buffer = buffer;
+    this.starts = starts;
+  }
+
+  /**
+   * @param splitKeys non-empty keys in strictly ascending order, as given to create a pre-split table
+   */
+  public static SplitIndex of(byte[][] splitKeys) {
+    int keysBytes = 0;
+    for (int i = 0; i < splitKeys.length; i++) {
+      if (splitKeys[i].length == 0) {
+        throw new IllegalArgumentException("Split key " + i + " is empty");
+      }
+      if (i > 0 && Bytes.compareTo(splitKeys[i - 1], splitKeys[i]) >= 0) {
+        throw new IllegalArgumentException("Split key " + i + " [" + Bytes.toStringBinary(splitKeys[i])
+                                           + "] is not after the one before it");
+      }
+      keysBytes += Bytes.SIZEOF_INT + splitKeys[i].length;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + keysBytes + Bytes.SIZEOF_INT);
+    buffer.put(MAGIC).putInt(VERSION).putInt(splitKeys.length).putInt(keysBytes);
+    for (byte[] key : splitKeys) {
+      buffer.putInt(key.length).put(key);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, buffer.position());
+    buffer.putInt((int) crc.getValue());
+    buffer.flip();
+    return wrap(buffer);
+  }
+
+  /**
+   * Read an index, memory mapping the file.
+   */
+  public static SplitIndex read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      try {
+        return wrap(mapped);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid split index [" + file + "]: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Use an index held in the buffer, e.g. the bytes of {@link #toByteArray()} broadcast to the tasks of a job.
+   *
+   * @throws IllegalArgumentException if the buffer does not hold a valid index
+   */
+  public static SplitIndex wrap(ByteBuffer buffer) {
+    ByteBuffer index = buffer.slice();
+    if (index.remaining() < HEADER_BYTES + Bytes.SIZEOF_INT || !isIndex(index)) {
+      throw new IllegalArgumentException("Not a split index");
+    }
+    int version = index.getInt(MAGIC.length);
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported split index version " + version);
+    }
+    int count = index.getInt(MAGIC.length + Bytes.SIZEOF_INT);
+    int keysBytes = index.getInt(MAGIC.length + 2 * Bytes.SIZEOF_INT);
+    if (count < 0 || keysBytes < 0 || (long) HEADER_BYTES + keysBytes + Bytes.SIZEOF_INT != index.remaining()) {
+      throw new IllegalArgumentException("Split index is truncated or has trailing bytes");
+    }
+    int end = HEADER_BYTES + keysBytes;
+    if (checksum(index, end) != index.getInt(end)) {
+      throw new IllegalArgumentException("Split index checksum does not match");
+    }
+
+    int[] starts = new int[count];
+    int position = HEADER_BYTES;
+    for (int i = 0; i < count; i++) {
+      int length = position + Bytes.SIZEOF_INT <= end ? index.getInt(position) : -1;
+      if (length < 0 || (long) position + Bytes.SIZEOF_INT + length > end) {
+        throw new IllegalArgumentException("Split key " + i + " runs past the end of the keys");
+      }
+      starts[i] = position + Bytes.SIZEOF_INT;
+      position = starts[i] + length;
+    }
+    return new SplitIndex(index, starts);
+  }
+
+  /**
+   * @return true if the buffer starts with the magic bytes of an index
+   */
+  static boolean isIndex(ByteBuffer buffer) {
+    if (buffer.remaining() < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int checksum(ByteBuffer buffer, int length) {
+    CRC32 crc = new CRC32();
+    if (buffer.hasArray()) {
+      crc.update(buffer.array(), buffer.arrayOffset(), length);
+    } else {
+      byte[] chunk = new byte[64 * 1024];
+      for (int position = 0; position < length; position += chunk.length) {
+        int n = Math.min(chunk.length, length - position);
+        ByteBufferUtils.copyFromBufferToArray(chunk, buffer, position, 0, n);
+        crc.update(chunk, 0, n);
+      }
+    }
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return the number of split keys
+   */
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * @return the number of regions, one more than the number of split keys
+   */
+  public int regions() {
+    return starts.length + 1;
+  }
+
+  /**
+   * @return a copy of the split key
+   */
+  public byte[] getSplitKey(int i) {
+    byte[] key = new byte[length(i)];
+    ByteBufferUtils.copyFromBufferToArray(key, buffer, starts[i], 0, key.length);
+    return key;
+  }
+
+  private int length(int i) {
+    return buffer.getInt(starts[i] - Bytes.SIZEOF_INT);
+  }
+
+  /**
+   * @return the index of the region holding the row, from 0 for the region before the first split key to
+   *         {@link #size()} for the region after the last
+   */
+  public int region(byte[] row) {
+    return region(row, 0, row.length);
+  }
+
+  /**
+   * @return the index of the region holding the row in the slice of the array
+   */
+  public int region(byte[] row, int offset, int length) {
+    // the number of split keys at or before the row
+    int low = 0;
+    int high = starts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ByteBufferUtils.compareTo(buffer, starts[mid], length(mid), row, offset, length) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the whole index in its binary format
+   */
+  public byte[] toByteArray() {
+    byte[] bytes = new byte[buffer.capacity()];
+    ByteBufferUtils.copyFromBufferToArray(bytes, buffer, 0, 0, bytes.length);
+    return bytes;
+  }
+
+  public void write(OutputStream out) throws IOException {
+    out.write(toByteArray());
+  }
+
+  /**
+   * Write the index to the file, replacing any existing file.
+   */
+  public void write(Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      write(out);
+    }
+  }
+}
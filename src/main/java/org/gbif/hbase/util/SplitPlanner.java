@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans the split points of a new table from a sample of row keys, so that its regions start out balanced by number
+ * of rows or by bytes instead of copying the (possibly skewed) splits of an existing table.
+ * <p>
+ * Keys are offered with a weight (1 per row, or the size of the row) and a uniform sample of them is kept in a
+ * reservoir of fixed size. The split points are the keys at which the cumulative weight of the sorted sample crosses
+ * each 1/n-th of its total. Keys can be any byte[]; the splits are written with {@link SplitsFile#writeBinary}, which
+ * {@link TableCreator} reads. Instances are not thread safe.
+ */
+public class SplitPlanner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SplitPlanner.class);
+
+  /**
+   * What the planned regions are balanced by.
+   */
+  public enum Balance {
+    ROWS, BYTES
+  }
+
+  private final Balance balance;
+  private final byte[][] keys;
+  private final long[] weights;
+  private final Random random;
+  private long offered;
+
+  /**
+   * @param balance    what the planned regions are balanced by
+   * @param sampleSize the number of keys kept in the reservoir
+   * @param seed       seeds the choice of sampled keys
+   */
+  public SplitPlanner(Balance balance, int sampleSize, long seed) {
+    if (sampleSize < 1) {
+      throw new IllegalArgumentException("sampleSize must be positive");
+    }
+    this.balance = balance;
+    this.keys = new byte[sampleSize][];
+    this.weights = new long[sampleSize];
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Offer a row to the sample.
+   *
+   * @param key   the row key, which is kept as is if sampled
+   * @param bytes the size of the row, ignored when balancing by rows
+   */
+  public void offer(byte[] key, long bytes) {
+    long weight = balance == Balance.ROWS ? 1 : Math.max(1, bytes);
+    if (offered < keys.length) {
+      keys[(int) offered] = key;
+      weights[(int) offered] = weight;
+    } else {
+      // reservoir sampling (algorithm R): the n-th key replaces a sampled one with probability size / n
+      long slot = (long) (random.nextDouble() * (offered + 1));
+      if (slot < keys.length) {
+        keys[(int) slot] = key;
+        weights[(int) slot] = weight;
+      }
+    }
+    offered++;
+  }
+
+  /**
+   * Offer all the keys of the iterator, each with weight 1 or its own length.
+   */
+  public void offerAll(Iterator<byte[]> keys) {
+    while (keys.hasNext()) {
+      byte[] key = keys.next();
+      offer(key, key.length);
+    }
+  }
+
+  /**
+   * Offer keys read from a file with one key per line, written with {@link Bytes#toStringBinary}, optionally
+   * followed by a tab and the size of the row in bytes (otherwise the size of the key is used).
+   */
+  public void offerFile(String fileName) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        int tab = line.indexOf('\t');
+        byte[] key = Bytes.toBytesBinary(tab < 0 ? line : line.substring(0, tab));
+        offer(key, tab < 0 ? key.length : Long.parseLong(line.substring(tab + 1).trim()));
+      }
+    }
+  }
+
+  /**
+   * Offer the rows of a table, reading only their keys and the lengths of their values.
+   *
+   * @param chance the probability with which each row is read, to thin large tables on the server; 1 reads all
+   */
+  public void offerTable(Connection connection, TableName tableName, float chance) throws IOException {
+    offerRange(connection, tableName, HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW, chance);
+  }
+
+  /**
+   * Offer the rows of a table in the range [start, stop), reading only their keys and the lengths of their values.
+   *
+   * @param chance the probability with which each row is read, to thin large tables on the server; 1 reads all
+   */
+  public void offerRange(Connection connection, TableName tableName, byte[] start, byte[] stop, float chance)
+    throws IOException {
+    FilterList filters = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+    if (chance < 1) {
+      filters.addFilter(new RandomRowFilter(chance));
+    }
+    // replaces each value by its length, so the size of the row is known without transferring it
+    filters.addFilter(new KeyOnlyFilter(true));
+    Scan scan = new Scan().withStartRow(start).withStopRow(stop).setFilter(filters).setCaching(1000)
+      .setCacheBlocks(false);
+
+    try (Table table = connection.getTable(tableName);
+         ResultScanner scanner = table.getScanner(scan)) {
+      for (Result result : scanner) {
+        long bytes = 0;
+        for (Cell cell : result.rawCells()) {
+          bytes += cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength()
+                   + Bytes.toInt(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+        }
+        offer(result.getRow(), bytes);
+      }
+    }
+  }
+
+  /**
+   * @return the number of keys offered so far
+   */
+  public long getOffered() {
+    return offered;
+  }
+
+  /**
+   * Compute the split points of a table of the given number of regions. Fewer are returned if the sample holds too
+   * few distinct keys.
+   *
+   * @return the sorted, distinct split keys; one fewer than the number of regions
+   */
+  public byte[][] plan(int regions) {
+    int sampled = (int) Math.min(offered, keys.length);
+    Integer[] order = new Integer[sampled];
+    long total = 0;
+    for (int i = 0; i < sampled; i++) {
+      order[i] = i;
+      total += weights[i];
+    }
+    Arrays.sort(order, (a, b) -> Bytes.compareTo(keys[a], keys[b]));
+
+    List<byte[]> splits = new ArrayList<>(Math.max(0, regions - 1));
+    long cumulative = 0;
+    int next = 1;
+    for (int i = 0; i < sampled && next < regions; i++) {
+      byte[] key = keys[order[i]];
+      // a split is the first key of a region, so it is taken once the keys before it reach the target weight
+      if (cumulative >= (double) total * next / regions) {
+        if (splits.isEmpty() || Bytes.compareTo(splits.get(splits.size() - 1), key) < 0) {
+          splits.add(key);
+        }
+        while (next < regions && cumulative >= (double) total * next / regions) {
+          next++;
+        }
+      }
+      cumulative += weights[order[i]];
+    }
+    LOG.info("Planned [{}] splits for [{}] regions from a sample of [{}] of [{}] keys", splits.size(), regions,
+             sampled, offered);
+    return splits.toArray(new byte[0][]);
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4) {
+      LOG.error("Usage: SplitPlanner <table|file> <table name|key file> <regions> <splits file> [rows|bytes] "
+                + "[sample size] [row chance]");
+      System.exit(1);
+    }
+    int regions = Integer.parseInt(args[2]);
+    Balance balance = args.length > 4 ? Balance.valueOf(args[4].toUpperCase()) : Balance.ROWS;
+    int sampleSize = args.length > 5 ? Integer.parseInt(args[5]) : 100_000;
+    float chance = args.length > 6 ? Float.parseFloat(args[6]) : 1f;
+
+    SplitPlanner planner = new SplitPlanner(balance, sampleSize, System.nanoTime());
+    if ("table".equals(args[0])) {
+      try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+        planner.offerTable(connection, TableName.valueOf(args[1]), chance);
+      }
+    } else {
+      planner.offerFile(args[1]);
+    }
+    SplitsFile.writeBinary(args[3], planner.plan(regions));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Reads and writes the text files of split keys used to pre-split tables, one key per line. Three formats exist:
+ * <ul>
+ *   <li>int: the original format, each line an int written in decimal that is encoded with {@link Bytes#toBytes(int)}
+ *   </li>
+ *   <li>binary: a first line of {@value #BINARY_HEADER}, then each key written with {@link Bytes#toStringBinary},
+ *   which holds any byte[]</li>
+ *   <li>key: a first line of {@value #KEY_HEADER} followed by a {@link RowKeyCodec} spec, then the values of the
+ *   leading components of each key separated by tabs, encoded with the codec. Unlike int splits, these sort in the
+ *   order of their values, negative numbers included</li>
+ * </ul>
+ * Blank lines are ignored in all formats. {@link #read(String)} also reads the binary files of {@link SplitIndex}.
+ */
+public final class SplitsFile {
+
+  public static final String BINARY_HEADER = "#binary";
+  public static final String KEY_HEADER = "#key";
+
+  private SplitsFile() {
+  }
+
+  /**
+   * Read a splits file in any of the three formats (int, binary or key), recognised by its header, or a
+   * {@link SplitIndex}.
+   *
+   * @return the split keys in the order they are in the file
+   */
+  public static byte[][] read(String fileName) throws IOException {
+    if (isIndex(Paths.get(fileName))) {
+      SplitIndex index = SplitIndex.read(Paths.get(fileName));
+      byte[][] splits = new byte[index.size()][];
+      for (int i = 0; i < splits.length; i++) {
+        splits[i] = index.getSplitKey(i);
+      }
+      return splits;
+    }
+
+    List<byte[]> splits = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      boolean binary = line != null && line.trim().equals(BINARY_HEADER);
+      RowKeyCodec codec = null;
+      if (line != null && line.startsWith(KEY_HEADER + ' ')) {
+        try {
+          codec = RowKeyCodec.parse(line.substring(KEY_HEADER.length() + 1));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid key spec [" + line + "] in [" + fileName + "]", e);
+        }
+      }
+      if (binary || codec != null) {
+        line = reader.readLine();
+      }
+      for (; line != null; line = reader.readLine()) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        try {
+          if (codec != null) {
+            splits.add(parseKey(codec, line));
+          } else {
+            splits.add(binary ? Bytes.toBytesBinary(line) : Bytes.toBytes(Integer.parseInt(line.trim())));
+          }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+          throw new IOException("Invalid split [" + line + "] in [" + fileName + "]", e);
+        }
+      }
+    }
+    return splits.toArray(new byte[0][]);
+  }
+
+  private static byte[] parseKey(RowKeyCodec codec, String line) {
+    String[] fields = line.split("\t", -1);
+    if (fields.length > codec.size()) {
+      throw new IllegalArgumentException("Split has more than the " + codec.size() + " components of the key");
+    }
+    Object[] values = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      values[i] = codec.parseValue(i, fields[i]);
+    }
+    return codec.encode(values);
+  }
+
+  private static boolean isIndex(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      byte[] magic = new byte[SplitIndex.MAGIC.length];
+      int read = in.read(magic);
+      return read == magic.length && SplitIndex.isIndex(ByteBuffer.wrap(magic));
+    }
+  }
+
+  /**
+   * Write the split keys in the binary format, replacing any existing file.
+   */
+  public static void writeBinary(String fileName, byte[][] splits) throws IOException {
+    Path path = Paths.get(fileName);
+    try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write(BINARY_HEADER);
+      writer.write('\n');
+      for (byte[] split : splits) {
+        writer.write(Bytes.toStringBinary(split));
+        writer.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Write the split keys in the key format of the given codec, replacing any existing file.
+   *
+   * @throws IOException if a split key is not of the encoding of the codec, such as the midpoint keys HBase picks
+   *                     when splitting regions itself; those can only be written in the binary format
+   */
+  public static void writeKeys(String fileName, RowKeyCodec codec, byte[][] splits) throws IOException {
+    Path path = Paths.get(fileName);
+    try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write(KEY_HEADER + ' ' + codec);
+      writer.write('\n');
+      for (byte[] split : splits) {
+        Object[] values;
+        try {
+          values = codec.decode(split);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Split [" + Bytes.toStringBinary(split) + "] is not a key of [" + codec + "]", e);
+        }
+        if (!Bytes.equals(split, codec.encode(values))) {
+          throw new IOException("Split [" + Bytes.toStringBinary(split) + "] is not a key of [" + codec + "]");
+        }
+        for (int i = 0; i < values.length; i++) {
+          if (i > 0) {
+            writer.write('\t');
+          }
+          writer.write(codec.format(i, values[i]));
+        }
+        writer.write('\n');
+      }
+    }
+  }
+}
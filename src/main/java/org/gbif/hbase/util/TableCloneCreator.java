@@ -14,21 +14,32 @@
 package org.gbif.hbase.util;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableDescriptor;
 import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.filter.ParseFilter;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Creates a new table in HBase using the splits from the existing table. Specify -Pprod or -Pdev when building to
- * point to the right cluster!
+ * Creates a new table in HBase using the splits from the existing table, or those of a splits file (see
+ * {@link SplitsFile}), and optionally copies the data of the existing table into it with a {@link TableCopier}.
+ * Specify -Pprod or -Pdev when building to point to the right cluster!
+ * <p>
+ * With {@code --copy} an existing new table is not recreated, so a copy that failed can be resumed by running the
+ * same command again with the same checkpoint file.
  */
 public class TableCloneCreator {
 
@@ -38,28 +49,123 @@ public class TableCloneCreator {
   private TableCloneCreator() {}
 
   public static void main(String[] args) throws IOException {
-    if (args.length != 2) {
-      LOG.error("Usage: org.gbif.hbase.util.TableCloneCreator <existing table> <new table to create>");
+    List<String> positional = new ArrayList<>();
+    boolean copy = false;
+    String checkpointFile = null;
+    int threads = 8;
+    long mbPerSecond = 0;
+    Scan scan = new Scan();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--copy":
+            copy = true;
+            break;
+          case "--checkpoint":
+            checkpointFile = args[++i];
+            break;
+          case "--threads":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          case "--mb-per-sec":
+            mbPerSecond = Long.parseLong(args[++i]);
+            break;
+          case "--columns":
+            for (String column : args[++i].split(",")) {
+              String[] parts = column.split(":", 2);
+              if (parts.length == 1) {
+                scan.addFamily(Bytes.toBytes(parts[0]));
+              } else {
+                scan.addColumn(Bytes.toBytes(parts[0]), Bytes.toBytes(parts[1]));
+              }
+            }
+            break;
+          case "--time-range":
+            scan.setTimeRange(Long.parseLong(args[++i]), Long.parseLong(args[++i]));
+            break;
+          case "--filter":
+            scan.setFilter(new ParseFilter().parseFilterString(args[++i]));
+            break;
+          default:
+            positional.add(args[i]);
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      positional.clear();
+    }
+
+    if (positional.size() < 2 || positional.size() > 3) {
+      LOG.error("Usage: org.gbif.hbase.util.TableCloneCreator <existing table> <new table to create> [<splits file>] "
+                + "[--copy [--checkpoint <file>] [--threads <n>] [--mb-per-sec <n>] "
+                + "[--columns <family[:qualifier]>,...] [--time-range <min> <max>] [--filter <filter expression>]]");
       System.exit(1);
     }
 
-    createPreSplitFromExisting(args[0], args[1]);
+    String existingTableName = positional.get(0);
+    String newTableName = positional.get(1);
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      if (!copy || !tableExists(connection, newTableName)) {
+        createPreSplitFromExisting(connection, existingTableName, newTableName,
+                                   positional.size() == 3 ? positional.get(2) : null);
+      }
+      if (copy) {
+        TableCopier.builder(connection, TableName.valueOf(existingTableName), TableName.valueOf(newTableName))
+          .scan(scan)
+          .threads(threads)
+          .bytesPerSecond(mbPerSecond * 1024 * 1024)
+          .checkpointFile(checkpointFile == null ? null : Paths.get(checkpointFile))
+          .build()
+          .copy();
+      }
+    }
+  }
+
+  private static boolean tableExists(Connection connection, String tableName) throws IOException {
+    try (Admin admin = connection.getAdmin()) {
+      boolean exists = admin.tableExists(TableName.valueOf(tableName));
+      if (exists) {
+        LOG.info("Table [{}] exists, copying into it", tableName);
+      }
+      return exists;
+    }
+  }
+
+  private static void createPreSplitFromExisting(Connection connection, String existingTableName, String newTable,
+                                                 String splitsFileName) throws IOException {
+    createPreSplit(connection, TableName.valueOf(existingTableName), TableName.valueOf(newTable),
+                   splitsFileName == null ? null : SplitsFile.read(splitsFileName));
   }
 
-  private static void createPreSplitFromExisting(String existingTableName, String newTable) throws IOException {
-    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create());
-         Table existingTable = connection.getTable(TableName.valueOf(existingTableName));
+  /**
+   * Create a new table with the column families and max region file size of the existing one.
+   *
+   * @param splits the split keys of the new table, or null to split it as the existing one
+   */
+  public static void createPreSplit(Connection connection, TableName existingTable, TableName newTable,
+                                    byte[][] splits) throws IOException {
+    try (Table existing = connection.getTable(existingTable);
          Admin admin = connection.getAdmin()) {
 
-      TableDescriptorBuilder tableDescriptor = TableDescriptorBuilder.newBuilder(TableName.valueOf(newTable))
-                                                .setMaxFileSize(existingTable.getDescriptor().getMaxFileSize());
-      tableDescriptor.setColumnFamilies(Arrays.asList(existingTable.getDescriptor().getColumnFamilies()));
+      TableDescriptor tableDescriptor = cloneDescriptor(existing.getDescriptor(), newTable);
 
-      byte[][] existingStartKeys = existingTable.getRegionLocator().getStartKeys();
-      // first key in getStartKeys will be empty
-      byte[][] splits = Arrays.copyOfRange(existingStartKeys, 1, existingStartKeys.length);
+      if (splits == null) {
+        byte[][] existingStartKeys = existing.getRegionLocator().getStartKeys();
+        // first key in getStartKeys will be empty
+        splits = Arrays.copyOfRange(existingStartKeys, 1, existingStartKeys.length);
+      }
 
-      admin.createTable(tableDescriptor.build(), splits);
+      admin.createTable(tableDescriptor, splits);
+      LOG.info("Created table [{}] with [{}] regions", newTable, splits.length + 1);
     }
   }
+
+  /**
+   * @return the descriptor of a new table with the column families and max region file size of the existing one
+   */
+  static TableDescriptor cloneDescriptor(TableDescriptor existing, TableName newTable) {
+    return TableDescriptorBuilder.newBuilder(newTable)
+      .setMaxFileSize(existing.getMaxFileSize())
+      .setColumnFamilies(Arrays.asList(existing.getColumnFamilies()))
+      .build();
+  }
 }
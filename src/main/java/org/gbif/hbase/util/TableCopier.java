@@ -0,0 +1,444 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies the cells of one table into another, scanning key ranges of the source in parallel and writing each range
+ * through its own buffered mutator.
+ * <p>
+ * The key space is cut at the region boundaries of both tables, so each range lies within a single source region and
+ * a single target region; when the two tables share their boundaries (e.g. the target was created by
+ * {@link TableCloneCreator}) each worker reads one region and writes one region. The cells to copy can be narrowed by
+ * a template {@link Scan} (columns, time range, filter), and the copy can be throttled to a number of bytes per
+ * second across all workers.
+ * <p>
+ * Each range is recorded in an optional checkpoint file once all its writes have been flushed. A copy restarted with
+ * the same checkpoint file skips the ranges it records, so a failed copy resumes rather than starting over. Cells
+ * keep their timestamps, so copying a range twice writes the same cells again.
+ */
+public class TableCopier {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TableCopier.class);
+
+  private final Connection connection;
+  private final TableName source;
+  private final TableName target;
+  private final Scan template;
+  private final int threads;
+  private final long writeBufferBytes;
+  private final Throttle throttle;
+  private final Path checkpointFile;
+
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  private TableCopier(Builder builder) {
+    this.connection = Objects.requireNonNull(builder.connection, "connection can't be null");
+    this.source = Objects.requireNonNull(builder.source, "source can't be null");
+    this.target = Objects.requireNonNull(builder.target, "target can't be null");
+    this.template = builder.template;
+    this.threads = builder.threads;
+    this.writeBufferBytes = builder.writeBufferBytes;
+    this.throttle = builder.bytesPerSecond > 0 ? new Throttle(builder.bytesPerSecond) : null;
+    this.checkpointFile = builder.checkpointFile;
+  }
+
+  public static Builder builder(Connection connection, TableName source, TableName target) {
+    return new Builder(connection, source, target);
+  }
+
+  /**
+   * Copy every range not already recorded in the checkpoint file.
+   *
+   * @throws IOException if any range failed to copy, once all the others have been attempted
+   */
+  public void copy() throws IOException {
+    byte[][] sourceStarts;
+    byte[][] targetStarts;
+    try (RegionLocator sourceLocator = connection.getRegionLocator(source);
+         RegionLocator targetLocator = connection.getRegionLocator(target)) {
+      sourceStarts = sourceLocator.getStartKeys();
+      targetStarts = targetLocator.getStartKeys();
+    }
+    if (!Arrays.deepEquals(sourceStarts, targetStarts)) {
+      LOG.info("[{}] and [{}] have different region boundaries, so ranges are cut at both", source, target);
+    }
+
+    Checkpoint checkpoint = new Checkpoint(checkpointFile);
+    List<byte[][]> pending = new ArrayList<>();
+    for (byte[][] range : ranges(sourceStarts, targetStarts)) {
+      if (!checkpoint.isComplete(range[0], range[1])) {
+        pending.add(range);
+      }
+    }
+    LOG.info("Copying [{}] to [{}] in [{}] ranges, [{}] already complete", source, target, pending.size(),
+             checkpoint.size());
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    AtomicInteger done = new AtomicInteger();
+    int failed = 0;
+    long start = System.nanoTime();
+    try {
+      List<Future<?>> futures = new ArrayList<>(pending.size());
+      for (byte[][] range : pending) {
+        futures.add(executor.submit(() -> {
+          copyRange(range[0], range[1]);
+          checkpoint.complete(range[0], range[1]);
+          LOG.info("Copied range [{}] of [{}], [{}] rows and [{}] MB so far", done.incrementAndGet(), pending.size(),
+                   rows.sum(), bytes.sum() / (1024 * 1024));
+          return null;
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          failed++;
+          LOG.error("Failed to copy range [{}, {})", Bytes.toStringBinary(pending.get(i)[0]),
+                    Bytes.toStringBinary(pending.get(i)[1]), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while copying [" + source + "]");
+    } finally {
+      executor.shutdownNow();
+      checkpoint.close();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    LOG.info("Copied [{}] rows and [{}] MB from [{}] to [{}] in [{}] s", rows.sum(), bytes.sum() / (1024 * 1024),
+             source, target, Math.round(seconds));
+    if (failed > 0) {
+      throw new IOException(failed + " of " + pending.size() + " ranges failed to copy; run again to resume");
+    }
+  }
+
+  /**
+   * Copy a range with a Table of its own, as Tables are not thread safe.
+   */
+  private void copyRange(byte[] start, byte[] end) throws IOException {
+    Scan scan = ParallelScanner.restrict(template, start, end);
+    if (scan == null) {
+      return;
+    }
+    BufferedMutatorParams params = new BufferedMutatorParams(target).writeBufferSize(writeBufferBytes);
+    try (Table table = connection.getTable(source);
+         ResultScanner scanner = table.getScanner(scan);
+         BufferedMutator mutator = connection.getBufferedMutator(params)) {
+      for (Result result = scanner.next(); result != null; result = scanner.next()) {
+        Put put = new Put(result.getRow());
+        for (Cell cell : result.rawCells()) {
+          put.add(cell);
+        }
+        mutator.mutate(put);
+        long size = Result.getTotalSizeOfCells(result);
+        rows.increment();
+        bytes.add(size);
+        if (throttle != null) {
+          throttle.acquire(size);
+        }
+      }
+      // the range is only complete once its writes have reached the RegionServers
+      mutator.flush();
+    }
+  }
+
+  /**
+   * Cuts the key space at the start keys of both tables.
+   *
+   * @return the ranges as [start, end) pairs in key order, the first starting and the last ending with the empty key
+   */
+  static List<byte[][]> ranges(byte[][] sourceStarts, byte[][] targetStarts) {
+    TreeSet<byte[]> cuts = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    cuts.addAll(Arrays.asList(sourceStarts));
+    cuts.addAll(Arrays.asList(targetStarts));
+    cuts.remove(HConstants.EMPTY_START_ROW);
+
+    List<byte[][]> ranges = new ArrayList<>(cuts.size() + 1);
+    byte[] start = HConstants.EMPTY_START_ROW;
+    for (byte[] cut : cuts) {
+      ranges.add(new byte[][] {start, cut});
+      start = cut;
+    }
+    ranges.add(new byte[][] {start, HConstants.EMPTY_END_ROW});
+    return ranges;
+  }
+
+  /**
+   * The ranges already copied, kept in a file of tab separated start and end keys written with
+   * {@link Bytes#toStringBinary(byte[])}, one range per line. Each line ends with a marker so that a line cut short by
+   * a copy being killed is not mistaken for a range ending with the table.
+   */
+  static final class Checkpoint {
+    private static final String DONE = "done";
+
+    // start to end of the complete ranges, merged where they touch
+    private final TreeMap<byte[], byte[]> complete = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    private final BufferedWriter writer;
+    private int size;
+
+    Checkpoint(Path file) throws IOException {
+      if (file == null) {
+        writer = null;
+        return;
+      }
+      boolean partial = false;
+      if (Files.exists(file)) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+          for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length == 3 && DONE.equals(fields[2])) {
+              add(Bytes.toBytesBinary(fields[0]), Bytes.toBytesBinary(fields[1]));
+            }
+          }
+        }
+        byte[] content = Files.readAllBytes(file);
+        partial = content.length > 0 && content[content.length - 1] != '\n';
+      }
+      writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                       StandardOpenOption.APPEND);
+      if (partial) {
+        writer.newLine();
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * @return true if the range lies within ranges already complete, which may have been cut differently
+     */
+    synchronized boolean isComplete(byte[] start, byte[] end) {
+      Map.Entry<byte[], byte[]> covering = complete.floorEntry(start);
+      return covering != null && (covering.getValue().length == 0
+                                  || end.length > 0 && Bytes.compareTo(end, covering.getValue()) <= 0);
+    }
+
+    /**
+     * @return the parts of the range not within ranges already complete, as [start, end) pairs in key order
+     */
+    synchronized List<byte[][]> uncovered(byte[] start, byte[] end) {
+      List<byte[][]> uncovered = new ArrayList<>();
+      byte[] cursor = start;
+      Map.Entry<byte[], byte[]> covering = complete.floorEntry(start);
+      if (covering != null && (covering.getValue().length == 0 || Bytes.compareTo(covering.getValue(), start) > 0)) {
+        if (covering.getValue().length == 0) {
+          return uncovered;
+        }
+        cursor = covering.getValue();
+      }
+      while (end.length == 0 || Bytes.compareTo(cursor, end) < 0) {
+        Map.Entry<byte[], byte[]> next = complete.ceilingEntry(cursor);
+        if (next == null || end.length > 0 && Bytes.compareTo(next.getKey(), end) >= 0) {
+          uncovered.add(new byte[][] {cursor, end});
+          break;
+        }
+        if (Bytes.compareTo(next.getKey(), cursor) > 0) {
+          uncovered.add(new byte[][] {cursor, next.getKey()});
+        }
+        if (next.getValue().length == 0) {
+          break;
+        }
+        cursor = next.getValue();
+      }
+      return uncovered;
+    }
+
+    synchronized void complete(byte[] start, byte[] end) throws IOException {
+      add(start, end);
+      if (writer != null) {
+        writer.write(Bytes.toStringBinary(start) + '\t' + Bytes.toStringBinary(end) + '\t' + DONE);
+        writer.newLine();
+        writer.flush();
+      }
+    }
+
+    private void add(byte[] start, byte[] end) {
+      size++;
+      // merge with a complete range ending at or after the start
+      Map.Entry<byte[], byte[]> before = complete.floorEntry(start);
+      if (before != null && (before.getValue().length == 0 || Bytes.compareTo(before.getValue(), start) >= 0)) {
+        start = before.getKey();
+        end = max(end, before.getValue());
+      }
+      // and with those starting within it
+      Map.Entry<byte[], byte[]> after = complete.ceilingEntry(start);
+      while (after != null && (end.length == 0 || Bytes.compareTo(after.getKey(), end) <= 0)) {
+        end = max(end, after.getValue());
+        complete.remove(after.getKey());
+        after = complete.higherEntry(start);
+      }
+      complete.put(start, end);
+    }
+
+    /**
+     * @return the later of two end keys, where the empty key is the end of the table
+     */
+    private static byte[] max(byte[] a, byte[] b) {
+      return a.length == 0 || b.length == 0 ? HConstants.EMPTY_END_ROW : Bytes.compareTo(a, b) >= 0 ? a : b;
+    }
+
+    synchronized void close() throws IOException {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Limits the rate bytes pass through it, shared by all workers.
+   */
+  private static final class Throttle {
+    private final double bytesPerNano;
+    private long nextFreeNanos = System.nanoTime();
+
+    private Throttle(long bytesPerSecond) {
+      this.bytesPerNano = bytesPerSecond / 1e9;
+    }
+
+    /**
+     * Take the bytes, sleeping until the rate allows them.
+     */
+    private void acquire(long bytes) throws InterruptedIOException {
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        // unused time is not saved up beyond the current moment, so an idle copy can't burst
+        nextFreeNanos = Math.max(nextFreeNanos, now) + (long) (bytes / bytesPerNano);
+        wait = nextFreeNanos - now;
+      }
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while throttled");
+        }
+      }
+    }
+  }
+
+  public static final class Builder {
+    private final Connection connection;
+    private final TableName source;
+    private final TableName target;
+    private Scan template = new Scan();
+    private int threads = 8;
+    private long writeBufferBytes = 8 * 1024 * 1024;
+    private long bytesPerSecond;
+    private Path checkpointFile;
+
+    private Builder(Connection connection, TableName source, TableName target) {
+      this.connection = connection;
+      this.source = source;
+      this.target = target;
+    }
+
+    /**
+     * The scan whose columns, time range, filter and row range narrow what is copied. Its caching and block caching
+     * are set for a full copy.
+     */
+    public Builder scan(Scan scan) {
+      this.template = Objects.requireNonNull(scan, "scan can't be null");
+      return this;
+    }
+
+    /**
+     * The number of ranges copied at once, 8 by default.
+     */
+    public Builder threads(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("threads must be at least 1");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * The bytes each worker buffers before writing, 8MB by default.
+     */
+    public Builder writeBufferBytes(long writeBufferBytes) {
+      if (writeBufferBytes < 1) {
+        throw new IllegalArgumentException("writeBufferBytes must be positive");
+      }
+      this.writeBufferBytes = writeBufferBytes;
+      return this;
+    }
+
+    /**
+     * The most bytes of cells copied per second across all workers, or 0 (the default) for no limit.
+     */
+    public Builder bytesPerSecond(long bytesPerSecond) {
+      if (bytesPerSecond < 0) {
+        throw new IllegalArgumentException("bytesPerSecond can't be negative");
+      }
+      this.bytesPerSecond = bytesPerSecond;
+      return this;
+    }
+
+    /**
+     * The file recording the ranges already copied, created if it does not exist; none by default.
+     */
+    public Builder checkpointFile(Path checkpointFile) {
+      this.checkpointFile = checkpointFile;
+      return this;
+    }
+
+    public TableCopier build() throws IOException {
+      // a full copy would only evict the working set of the source from the block cache
+      template = new Scan(template).setCaching(Math.max(template.getCaching(), 500)).setCacheBlocks(false);
+      return new TableCopier(this);
+    }
+  }
+}
@@ -13,16 +13,10 @@
  */
 package org.gbif.hbase.util;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.NoSuchFileException;
+import java.util.Locale;
 
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.TableName;
@@ -31,13 +25,19 @@ import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
 import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.TableDescriptor;
 import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Creates a pre-split table with a single column family keeping one version, using SNAPPY compression and FAST_DIFF
+ * encoding unless others are given (e.g. those recommended by the {@link CompressionAdvisor}). See
+ * {@link TableSpecApplier} to declare any number of tables and column families with all their settings, and
+ * {@link AsyncTables} to create tables without blocking.
+ */
 public class TableCreator {
 
   private static Logger log = LoggerFactory.getLogger(org.gbif.hbase.util.TableCreator.class);
@@ -48,64 +48,33 @@ public class TableCreator {
    *
    * @param tableName      table to create
    * @param colFamily      col family to create
-   * @param splitsFileName one split per line, interpreted as ints
+   * @param splitsFileName one split per line, interpreted as ints unless in the binary format of {@link SplitsFile}
    * @param regionSize     max region file size in MB
+   * @param compression    compression of the col family
+   * @param encoding       data block encoding of the col family
    */
-  private void createPreSplitTable(String tableName, String colFamily, String splitsFileName, Integer regionSize) {
+  private void createPreSplitTable(String tableName, String colFamily, String splitsFileName, Integer regionSize,
+                                   Compression.Algorithm compression, DataBlockEncoding encoding) {
     byte[][] byteSplits = null;
 
     if (splitsFileName != null) {
-      // assumes splits are written as strings but are to be interpreted as ints
+      // int splits by default, or any keys in the binary format written by the SplitPlanner
       log.info("Reading splits file [{}]", splitsFileName);
-      List<Integer> splits = new ArrayList<Integer>();
       try {
-        BufferedReader reader =
-          new BufferedReader(new InputStreamReader(new FileInputStream(new File(splitsFileName)), "UTF-8"));
-        while (reader.ready()) {
-          String line = reader.readLine();
-          splits.add(Integer.valueOf(line));
-        }
-      } catch (FileNotFoundException e) {
+        byteSplits = SplitsFile.read(splitsFileName);
+      } catch (NoSuchFileException e) {
         log.warn("Splits file not found - exiting", e);
         System.exit(1);
-      } catch (UnsupportedEncodingException e) {
-        log.error("Drastic jvm failure - exiting", e);
-        System.exit(1);
       } catch (IOException e) {
         log.warn("Failure reading splits file - exiting", e);
         System.exit(1);
       }
-      log.info("Loaded [{}] splits", splits.size());
-
-      byteSplits = new byte[splits.size()][];
-      for (int i = 0; i < splits.size(); i++) {
-        byteSplits[i] = Bytes.toBytes(splits.get(i));
-      }
+      log.info("Loaded [{}] splits", byteSplits.length);
     }
 
     log.info("Creating table");
-    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create());
-         Admin admin = connection.getAdmin()) {
-
-      ColumnFamilyDescriptor cf = ColumnFamilyDescriptorBuilder
-        .newBuilder(colFamily.getBytes(StandardCharsets.UTF_8))
-        .setCompressionType(Compression.Algorithm.SNAPPY)
-        .setDataBlockEncoding(DataBlockEncoding.FAST_DIFF)
-        .setMaxVersions(1)
-        .build();
-      TableDescriptorBuilder ror = TableDescriptorBuilder
-        .newBuilder(TableName.valueOf(tableName))
-        .setColumnFamily(cf);
-
-      if (regionSize != null && regionSize > 0) {
-        ror.setMaxFileSize(regionSize * 1048576); // 1 MB = 2^20 bytes
-      }
-
-      if (byteSplits == null) {
-        admin.createTable(ror.build());
-      } else {
-        admin.createTable(ror.build(), byteSplits);
-      }
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      createTable(connection, tableName, colFamily, byteSplits, regionSize, compression, encoding);
     } catch (IOException e) {
       log.info("HBase exception", e);
       System.exit(1);
@@ -113,18 +82,69 @@ public class TableCreator {
     log.info("Table created - exiting");
   }
 
+  /**
+   * Create an hbase table with given colfamily keeping one version, pre-split at the given splits.
+   *
+   * @param splits      the split keys, or null to create a table of one region
+   * @param regionSize  max region file size in MB, or null for the default of the cluster
+   * @param compression compression of the col family
+   * @param encoding    data block encoding of the col family
+   */
+  public static void createTable(Connection connection, String tableName, String colFamily, byte[][] splits,
+                                 Integer regionSize, Compression.Algorithm compression, DataBlockEncoding encoding)
+    throws IOException {
+    try (Admin admin = connection.getAdmin()) {
+      TableDescriptor ror = descriptor(tableName, colFamily, regionSize, compression, encoding);
+      if (splits == null) {
+        admin.createTable(ror);
+      } else {
+        admin.createTable(ror, splits);
+      }
+    }
+    log.info("Created table [{}] with [{}] regions", tableName, splits == null ? 1 : splits.length + 1);
+  }
+
+  /**
+   * @return the descriptor of a table with the given col family keeping one version, and the given max region file
+   *         size in MB if not null
+   */
+  static TableDescriptor descriptor(String tableName, String colFamily, Integer regionSize,
+                                    Compression.Algorithm compression, DataBlockEncoding encoding) {
+    ColumnFamilyDescriptor cf = ColumnFamilyDescriptorBuilder
+      .newBuilder(colFamily.getBytes(StandardCharsets.UTF_8))
+      .setCompressionType(compression)
+      .setDataBlockEncoding(encoding)
+      .setMaxVersions(1)
+      .build();
+    TableDescriptorBuilder ror = TableDescriptorBuilder
+      .newBuilder(TableName.valueOf(tableName))
+      .setColumnFamily(cf);
+
+    if (regionSize != null && regionSize > 0) {
+      ror.setMaxFileSize(regionSize * 1048576L); // 1 MB = 2^20 bytes
+    }
+    return ror.build();
+  }
+
   public static void main(String[] args) {
     if (args.length < 2) {
-      System.out.println("Usage: TableCreator <table_name> <column_family> [<splits_file>] [<region_file_size_mb>]");
+      System.out.println("Usage: TableCreator <table_name> <column_family> [<splits_file>] [<region_file_size_mb>] "
+                         + "[<compression>] [<encoding>]");
       System.exit(1);
     }
     String tableName = args[0];
     String colFam = args[1];
     String splitsFile = args.length > 2 ? args[2] : null;
-    Integer regionSize = args.length == 4 ? Integer.valueOf(args[3]) : null;
+    Integer regionSize = args.length > 3 ? Integer.valueOf(args[3]) : null;
+    Compression.Algorithm compression = args.length > 4
+      ? Compression.Algorithm.valueOf(args[4].toUpperCase(Locale.ROOT))
+      : Compression.Algorithm.SNAPPY;
+    DataBlockEncoding encoding = args.length > 5
+      ? DataBlockEncoding.valueOf(args[5].toUpperCase(Locale.ROOT))
+      : DataBlockEncoding.FAST_DIFF;
 
     TableCreator instance = new TableCreator();
     //    instance.createPreSplitTable("ror_120", "v", "/Users/oliver/SourceCode/ror_120_splits.txt", 256*3);
-    instance.createPreSplitTable(tableName, colFam, splitsFile, regionSize);
+    instance.createPreSplitTable(tableName, colFam, splitsFile, regionSize, compression, encoding);
   }
 }
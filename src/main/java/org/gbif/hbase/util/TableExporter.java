@@ -0,0 +1,478 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports the cells of a table to local {@link ExportFile}s, scanning its regions in parallel and streaming each
+ * region into a file of its own. The cells exported can be narrowed by a template {@link Scan} (columns, time range,
+ * filter, row range).
+ * <p>
+ * Each worker holds one block of cells, its compressed form and an I/O buffer at a time, so the memory used is bounded
+ * by the number of threads and the block size whatever the size of the table.
+ * <p>
+ * Each file is written under a temporary name, synced and renamed before it is recorded in the {@link Manifest} of
+ * the output directory. An export run again into the same directory skips the ranges the manifest records, so a
+ * failed export resumes rather than starting over, even if regions have split or merged since: only the parts of a
+ * range not already exported are exported, so no row is exported twice.
+ */
+public class TableExporter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TableExporter.class);
+
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final Connection connection;
+  private final TableName tableName;
+  private final Path outputDir;
+  private final Scan template;
+  private final int threads;
+  private final int blockSize;
+  private final int compressionLevel;
+
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  private TableExporter(Builder builder) {
+    this.connection = Objects.requireNonNull(builder.connection, "connection can't be null");
+    this.tableName = Objects.requireNonNull(builder.tableName, "tableName can't be null");
+    this.outputDir = Objects.requireNonNull(builder.outputDir, "outputDir can't be null");
+    this.template = builder.template;
+    this.threads = builder.threads;
+    this.blockSize = builder.blockSize;
+    this.compressionLevel = builder.compressionLevel;
+  }
+
+  public static Builder builder(Connection connection, TableName tableName, Path outputDir) {
+    return new Builder(connection, tableName, outputDir);
+  }
+
+  /**
+   * Export every region, or part of one, not already recorded in the manifest of the output directory.
+   *
+   * @return the manifest of all the files exported, in this run and before
+   *
+   * @throws IOException if any range failed to export, once all the others have been attempted
+   */
+  public Manifest export() throws IOException {
+    Files.createDirectories(outputDir);
+    try (DirectoryStream<Path> temporary = Files.newDirectoryStream(outputDir, "*" + TEMPORARY_SUFFIX)) {
+      for (Path file : temporary) {
+        LOG.info("Deleting [{}] left by an export that did not complete", file);
+        Files.delete(file);
+      }
+    }
+
+    byte[][] starts;
+    try (RegionLocator locator = connection.getRegionLocator(tableName)) {
+      starts = locator.getStartKeys();
+    }
+
+    Manifest manifest = Manifest.open(outputDir);
+    List<byte[][]> pending = new ArrayList<>();
+    for (byte[][] range : TableCopier.ranges(starts, starts)) {
+      // only the parts not exported yet, as a region may have merged with one exported before
+      pending.addAll(manifest.uncovered(range[0], range[1]));
+    }
+    LOG.info("Exporting [{}] to [{}] in [{}] ranges, [{}] files already complete", tableName, outputDir,
+             pending.size(), manifest.getEntries().size());
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    AtomicInteger done = new AtomicInteger();
+    int failed = 0;
+    long start = System.nanoTime();
+    try {
+      List<Future<?>> futures = new ArrayList<>(pending.size());
+      for (byte[][] range : pending) {
+        futures.add(executor.submit(() -> {
+          exportRange(range[0], range[1], manifest);
+          LOG.info("Exported range [{}] of [{}], [{}] rows and [{}] MB so far", done.incrementAndGet(),
+                   pending.size(), rows.sum(), bytes.sum() / (1024 * 1024));
+          return null;
+        }));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          failed++;
+          LOG.error("Failed to export range [{}, {})", Bytes.toStringBinary(pending.get(i)[0]),
+                    Bytes.toStringBinary(pending.get(i)[1]), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while exporting [" + tableName + "]");
+    } finally {
+      executor.shutdownNow();
+      manifest.close();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    LOG.info("Exported [{}] rows to [{}] MB of files from [{}] in [{}] s", rows.sum(), bytes.sum() / (1024 * 1024),
+             tableName, Math.round(seconds));
+    if (failed > 0) {
+      throw new IOException(failed + " of " + pending.size() + " ranges failed to export; run again to resume");
+    }
+    return Manifest.read(outputDir);
+  }
+
+  /**
+   * Export a range with a Table of its own, as Tables are not thread safe.
+   */
+  private void exportRange(byte[] start, byte[] end, Manifest manifest) throws IOException {
+    Scan scan = ParallelScanner.restrict(template, start, end);
+    if (scan == null) {
+      return;
+    }
+    String name = manifest.nextFileName();
+    Path temporary = outputDir.resolve(name + TEMPORARY_SUFFIX);
+    long cells;
+    long fileBytes;
+    try (Table table = connection.getTable(tableName);
+         ResultScanner scanner = table.getScanner(scan);
+         ExportFile.Writer writer = ExportFile.writer(temporary, blockSize, compressionLevel)) {
+      for (Result result = scanner.next(); result != null; result = scanner.next()) {
+        writer.append(result);
+        rows.increment();
+      }
+      writer.close();
+      cells = writer.getCells();
+      fileBytes = writer.getBytes();
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+    Files.move(temporary, outputDir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    bytes.add(fileBytes);
+    manifest.add(new Manifest.Entry(name, start, end, cells, fileBytes));
+  }
+
+  /**
+   * The files of an export, kept in a file named {@code manifest.tsv} in the output directory of tab separated file
+   * names, start and end keys written with {@link Bytes#toStringBinary(byte[])}, cell counts and file sizes, one
+   * file per line. As with the checkpoint of the {@link TableCopier}, each line ends with a marker so that a line cut
+   * short is ignored.
+   */
+  public static final class Manifest {
+
+    static final String FILE_NAME = "manifest.tsv";
+    private static final String DONE = "done";
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final TableCopier.Checkpoint complete = new TableCopier.Checkpoint(null);
+    private final BufferedWriter writer;
+    private int nextFile;
+
+    private Manifest(Path dir, boolean append) throws IOException {
+      Path file = dir.resolve(FILE_NAME);
+      boolean partial = false;
+      if (Files.exists(file)) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+          for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length == 6 && DONE.equals(fields[5])) {
+              Entry entry = new Entry(fields[0], Bytes.toBytesBinary(fields[1]), Bytes.toBytesBinary(fields[2]),
+                                      Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+              entries.add(entry);
+              complete.complete(entry.startRow, entry.endRow);
+              nextFile = Math.max(nextFile, fileNumber(entry.file) + 1);
+            }
+          }
+        }
+        byte[] content = Files.readAllBytes(file);
+        partial = content.length > 0 && content[content.length - 1] != '\n';
+      }
+      if (append) {
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                         StandardOpenOption.APPEND);
+        if (partial) {
+          writer.newLine();
+        }
+      } else {
+        writer = null;
+      }
+      sort();
+    }
+
+    /**
+     * @return the manifest of the export in the directory, empty if there is none
+     */
+    public static Manifest read(Path dir) throws IOException {
+      return new Manifest(dir, false);
+    }
+
+    static Manifest open(Path dir) throws IOException {
+      return new Manifest(dir, true);
+    }
+
+    private static int fileNumber(String file) {
+      try {
+        return Integer.parseInt(file.substring(file.indexOf('-') + 1, file.lastIndexOf('.')));
+      } catch (RuntimeException e) {
+        return -1;
+      }
+    }
+
+    private void sort() {
+      entries.sort((a, b) -> Bytes.compareTo(a.startRow, b.startRow));
+    }
+
+    /**
+     * @return the files, in key order
+     */
+    public synchronized List<Entry> getEntries() {
+      return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * @return the total number of cells in the files
+     */
+    public synchronized long getCells() {
+      long cells = 0;
+      for (Entry entry : entries) {
+        cells += entry.cells;
+      }
+      return cells;
+    }
+
+    synchronized boolean isComplete(byte[] start, byte[] end) {
+      return complete.isComplete(start, end);
+    }
+
+    synchronized List<byte[][]> uncovered(byte[] start, byte[] end) {
+      return complete.uncovered(start, end);
+    }
+
+    synchronized String nextFileName() {
+      return String.format("part-%05d.exp", nextFile++);
+    }
+
+    synchronized void add(Entry entry) throws IOException {
+      entries.add(entry);
+      sort();
+      complete.complete(entry.startRow, entry.endRow);
+      writer.write(entry.file + '\t' + Bytes.toStringBinary(entry.startRow) + '\t' + Bytes.toStringBinary(entry.endRow)
+                   + '\t' + entry.cells + '\t' + entry.bytes + '\t' + DONE);
+      writer.newLine();
+      writer.flush();
+    }
+
+    synchronized void close() throws IOException {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+
+    /**
+     * A file of the export and the range of keys it holds.
+     */
+    public static final class Entry {
+      private final String file;
+      private final byte[] startRow;
+      private final byte[] endRow;
+      private final long cells;
+      private final long bytes;
+
+      Entry(String file, byte[] startRow, byte[] endRow, long cells, long bytes) {
+        this.file = file;
+        this.startRow = startRow;
+        this.endRow = endRow;
+        this.cells = cells;
+        this.bytes = bytes;
+      }
+
+      /**
+       * @return the name of the file, within the output directory
+       */
+      public String getFile() {
+        return file;
+      }
+
+      /**
+       * @return the first row the file may hold, inclusive, or empty for the start of the table
+       */
+      public byte[] getStartRow() {
+        return startRow;
+      }
+
+      /**
+       * @return the row after the last the file may hold, or empty for the end of the table
+       */
+      public byte[] getEndRow() {
+        return endRow;
+      }
+
+      public long getCells() {
+        return cells;
+      }
+
+      public long getBytes() {
+        return bytes;
+      }
+    }
+  }
+
+  public static final class Builder {
+    private final Connection connection;
+    private final TableName tableName;
+    private final Path outputDir;
+    private Scan template = new Scan();
+    private int threads = 8;
+    private int blockSize = 1024 * 1024;
+    private int compressionLevel = 1;
+
+    private Builder(Connection connection, TableName tableName, Path outputDir) {
+      this.connection = connection;
+      this.tableName = tableName;
+      this.outputDir = outputDir;
+    }
+
+    /**
+     * The scan whose columns, time range, filter and row range narrow what is exported. Its caching and block caching
+     * are set for a full export.
+     */
+    public Builder scan(Scan scan) {
+      this.template = Objects.requireNonNull(scan, "scan can't be null");
+      return this;
+    }
+
+    /**
+     * The number of regions exported at once, 8 by default.
+     */
+    public Builder threads(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("threads must be at least 1");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * The uncompressed bytes of cells in each block of the files, 1MB by default.
+     */
+    public Builder blockSize(int blockSize) {
+      if (blockSize < 1) {
+        throw new IllegalArgumentException("blockSize must be positive");
+      }
+      this.blockSize = blockSize;
+      return this;
+    }
+
+    /**
+     * The deflate level of the blocks, from 0 (stored) to 9 (smallest); 1 (fastest) by default.
+     */
+    public Builder compressionLevel(int compressionLevel) {
+      if (compressionLevel < 0 || compressionLevel > 9) {
+        throw new IllegalArgumentException("compressionLevel must be between 0 and 9");
+      }
+      this.compressionLevel = compressionLevel;
+      return this;
+    }
+
+    public TableExporter build() throws IOException {
+      // a full export would only evict the working set of the table from the block cache
+      template = new Scan(template).setCaching(Math.max(template.getCaching(), 500)).setCacheBlocks(false);
+      return new TableExporter(this);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<String> positional = new ArrayList<>();
+    int threads = 8;
+    int blockKb = 1024;
+    int level = 1;
+    Scan scan = new Scan();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--threads":
+            threads = Integer.parseInt(args[++i]);
+            break;
+          case "--block-kb":
+            blockKb = Integer.parseInt(args[++i]);
+            break;
+          case "--level":
+            level = Integer.parseInt(args[++i]);
+            break;
+          case "--columns":
+            for (String column : args[++i].split(",")) {
+              String[] parts = column.split(":", 2);
+              if (parts.length == 1) {
+                scan.addFamily(Bytes.toBytes(parts[0]));
+              } else {
+                scan.addColumn(Bytes.toBytes(parts[0]), Bytes.toBytes(parts[1]));
+              }
+            }
+            break;
+          default:
+            positional.add(args[i]);
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+      positional.clear();
+    }
+
+    if (positional.size() != 2) {
+      LOG.error("Usage: org.gbif.hbase.util.TableExporter <table> <output directory> [--threads <n>] "
+                + "[--block-kb <n>] [--level <0-9>] [--columns <family[:qualifier]>,...]");
+      System.exit(1);
+    }
+
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      Manifest manifest = builder(connection, TableName.valueOf(positional.get(0)), Paths.get(positional.get(1)))
+        .scan(scan)
+        .threads(threads)
+        .blockSize(blockKb * 1024)
+        .compressionLevel(level)
+        .build()
+        .export();
+      LOG.info("Export holds [{}] cells in [{}] files", manifest.getCells(), manifest.getEntries().size());
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The declared settings of a table and its column families, read from a JSON or YAML spec file such as:
+ * <pre>
+ * {
+ *   "tables": [{
+ *     "name": "occurrence",
+ *     "regionSizeMB": 10240,
+ *     "splits": {"file": "occurrence_splits.txt"},
+ *     "saltBuckets": 16,
+ *     "families": [{
+ *       "name": "o",
+ *       "compression": "SNAPPY",
+ *       "encoding": "FAST_DIFF",
+ *       "bloomFilter": "ROW",
+ *       "blockSize": 65536,
+ *       "blockCache": true,
+ *       "inMemory": false,
+ *       "ttlSeconds": 31536000,
+ *       "maxVersions": 1
+ *     }]
+ *   }]
+ * }
+ * </pre>
+ * Every setting but the names is optional; one left out keeps the current value of an existing table, or the HBase
+ * default for a new one. Splits are read from a splits {@code file} (any format {@link SplitsFile} reads), copied from
+ * an existing {@code table}, or listed as {@code keys} written with {@link Bytes#toStringBinary(byte[])}. With
+ * {@code saltBuckets} the keys of the table are salted with {@link SaltedKeys}, and the table is split at the start
+ * of each bucket and at every split key within each bucket.
+ * Splits only apply when a table is created. See {@link TableSpecApplier} to create or alter tables from a spec.
+ */
+public final class TableSpec {
+
+  private String name;
+  private Long regionSizeMB;
+  private Splits splits;
+  private Integer saltBuckets;
+  private List<FamilySpec> families = Collections.emptyList();
+
+  /**
+   * Where the split keys of a new table come from; at most one should be given.
+   */
+  public static final class Splits {
+    private String file;
+    private String table;
+    private List<String> keys;
+
+    public String getFile() {
+      return file;
+    }
+
+    public String getTable() {
+      return table;
+    }
+
+    public List<String> getKeys() {
+      return keys;
+    }
+  }
+
+  /**
+   * The declared settings of a column family.
+   */
+  public static final class FamilySpec {
+    private String name;
+    private String compression;
+    private String encoding;
+    private String bloomFilter;
+    private Integer blockSize;
+    private Boolean blockCache;
+    private Boolean inMemory;
+    private Integer ttlSeconds;
+    private Integer maxVersions;
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Apply the declared settings over those of the builder.
+     */
+    void applyTo(ColumnFamilyDescriptorBuilder builder) {
+      if (compression != null) {
+        builder.setCompressionType(Compression.Algorithm.valueOf(compression.toUpperCase(Locale.ROOT)));
+      }
+      if (encoding != null) {
+        builder.setDataBlockEncoding(DataBlockEncoding.valueOf(encoding.toUpperCase(Locale.ROOT)));
+      }
+      if (bloomFilter != null) {
+        builder.setBloomFilterType(BloomType.valueOf(bloomFilter.toUpperCase(Locale.ROOT)));
+      }
+      if (blockSize != null) {
+        builder.setBlocksize(blockSize);
+      }
+      if (blockCache != null) {
+        builder.setBlockCacheEnabled(blockCache);
+      }
+      if (inMemory != null) {
+        builder.setInMemory(inMemory);
+      }
+      if (ttlSeconds != null) {
+        builder.setTimeToLive(ttlSeconds);
+      }
+      if (maxVersions != null) {
+        builder.setMaxVersions(maxVersions);
+      }
+    }
+  }
+
+  /**
+   * Read the table specs of a file, as YAML if its name ends with .yml or .yaml and as JSON otherwise.
+   *
+   * @throws IOException if the file can't be read or holds an invalid spec, such as an unknown setting
+   */
+  public static List<TableSpec> read(Path file) throws IOException {
+    String fileName = file.getFileName().toString();
+    ObjectMapper mapper = fileName.endsWith(".yml") || fileName.endsWith(".yaml")
+      ? new ObjectMapper(new YAMLFactory())
+      : new ObjectMapper();
+    mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    Specs specs = mapper.readValue(file.toFile(), Specs.class);
+    for (TableSpec spec : specs.tables) {
+      spec.validate();
+    }
+    return specs.tables;
+  }
+
+  /**
+   * The root of a spec file.
+   */
+  private static final class Specs {
+    private List<TableSpec> tables = Collections.emptyList();
+  }
+
+  private void validate() throws IOException {
+    if (name == null) {
+      throw new IOException("A table has no name");
+    }
+    if (families.isEmpty()) {
+      throw new IOException("Table [" + name + "] has no column families");
+    }
+    for (FamilySpec family : families) {
+      if (family.name == null) {
+        throw new IOException("A column family of table [" + name + "] has no name");
+      }
+      try {
+        family.applyTo(ColumnFamilyDescriptorBuilder.newBuilder(Bytes.toBytes(family.name)));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid setting for family [" + family.name + "] of table [" + name + "]", e);
+      }
+    }
+    if (splits != null && (splits.file != null ? 1 : 0) + (splits.table != null ? 1 : 0)
+                          + (splits.keys != null ? 1 : 0) > 1) {
+      throw new IOException("Table [" + name + "] has more than one source of splits");
+    }
+    if (saltBuckets != null && (saltBuckets < 1 || saltBuckets > 256)) {
+      throw new IOException("Table [" + name + "] must have between 1 and 256 salt buckets");
+    }
+  }
+
+  public TableName getTableName() {
+    return TableName.valueOf(name);
+  }
+
+  public Long getRegionSizeMB() {
+    return regionSizeMB;
+  }
+
+  public Splits getSplits() {
+    return splits;
+  }
+
+  public Integer getSaltBuckets() {
+    return saltBuckets;
+  }
+
+  public List<FamilySpec> getFamilies() {
+    return Collections.unmodifiableList(families);
+  }
+
+  /**
+   * Build the descriptor the spec declares.
+   *
+   * @param existing the descriptor of the table as it is, whose settings are kept where the spec declares none, or
+   *                 null for a new table
+   */
+  public TableDescriptor toDescriptor(TableDescriptor existing) {
+    TableDescriptorBuilder builder = existing == null
+      ? TableDescriptorBuilder.newBuilder(getTableName())
+      : TableDescriptorBuilder.newBuilder(existing);
+    if (regionSizeMB != null) {
+      builder.setMaxFileSize(regionSizeMB * 1024 * 1024);
+    }
+    for (FamilySpec family : families) {
+      byte[] familyName = Bytes.toBytes(family.name);
+      ColumnFamilyDescriptor current = existing == null ? null : existing.getColumnFamily(familyName);
+      ColumnFamilyDescriptorBuilder familyBuilder = current == null
+        ? ColumnFamilyDescriptorBuilder.newBuilder(familyName)
+        : ColumnFamilyDescriptorBuilder.newBuilder(current);
+      family.applyTo(familyBuilder);
+      if (current == null) {
+        builder.setColumnFamily(familyBuilder.build());
+      } else {
+        builder.modifyColumnFamily(familyBuilder.build());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the split keys of a new table, sorted, or an empty array to create it with a single region
+   */
+  public byte[][] splitKeys(Connection connection) throws IOException {
+    byte[][] keys = new byte[0][];
+    if (splits != null && splits.file != null) {
+      keys = SplitsFile.read(splits.file);
+    } else if (splits != null && splits.table != null) {
+      try (RegionLocator locator = connection.getRegionLocator(TableName.valueOf(splits.table))) {
+        byte[][] startKeys = locator.getStartKeys();
+        keys = Arrays.copyOfRange(startKeys, 1, startKeys.length);
+      }
+    } else if (splits != null && splits.keys != null) {
+      keys = new byte[splits.keys.size()][];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = Bytes.toBytesBinary(splits.keys.get(i));
+      }
+    }
+    if (saltBuckets != null) {
+      return getSaltedKeys().splitKeys(keys);
+    }
+    Arrays.sort(keys, Bytes.BYTES_COMPARATOR);
+    return keys;
+  }
+
+  /**
+   * @return the codec of the table's keys if it declares salt buckets, otherwise null
+   */
+  public SaltedKeys getSaltedKeys() {
+    return saltBuckets == null ? null : new SaltedKeys(saltBuckets);
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the tables of a {@link TableSpec} file that do not exist and alters those that differ from their spec,
+ * several tables at a time. A dry run only reports the differences.
+ * <p>
+ * Altering a table never removes its column families, even those missing from the spec, and never changes its
+ * regions.
+ */
+public class TableSpecApplier {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TableSpecApplier.class);
+
+  private final Connection connection;
+
+  public TableSpecApplier(Connection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * What applying the spec of a table would do to it.
+   */
+  public static final class Change {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+      CREATE, ALTER, NONE
+    }
+
+    private final TableSpec spec;
+    private final Type type;
+    private final TableDescriptor descriptor;
+    private final List<String> differences;
+
+    private Change(TableSpec spec, Type type, TableDescriptor descriptor, List<String> differences) {
+      this.spec = spec;
+      this.type = type;
+      this.descriptor = descriptor;
+      this.differences = Collections.unmodifiableList(differences);
+    }
+
+    public TableSpec getSpec() {
+      return spec;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    /**
+     * @return the descriptor the table is created or altered with
+     */
+    public TableDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    /**
+     * @return readable descriptions of each setting that differs from the table as it is
+     */
+    public List<String> getDifferences() {
+      return differences;
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + spec.getTableName() + (differences.isEmpty() ? "" : ": " + String.join(", ", differences));
+    }
+  }
+
+  /**
+   * Work out what applying the spec would change.
+   */
+  public Change diff(TableSpec spec) throws IOException {
+    try (Admin admin = connection.getAdmin()) {
+      if (!admin.tableExists(spec.getTableName())) {
+        return new Change(spec, Change.Type.CREATE, spec.toDescriptor(null), Collections.emptyList());
+      }
+      TableDescriptor existing = admin.getDescriptor(spec.getTableName());
+      TableDescriptor desired = spec.toDescriptor(existing);
+      List<String> differences = differences(existing, desired);
+      return new Change(spec, differences.isEmpty() ? Change.Type.NONE : Change.Type.ALTER, desired, differences);
+    }
+  }
+
+  static List<String> differences(TableDescriptor existing, TableDescriptor desired) {
+    List<String> differences = new ArrayList<>();
+    if (existing.getMaxFileSize() != desired.getMaxFileSize()) {
+      differences.add("region size " + existing.getMaxFileSize() + " -> " + desired.getMaxFileSize());
+    }
+    for (ColumnFamilyDescriptor family : desired.getColumnFamilies()) {
+      ColumnFamilyDescriptor current = existing.getColumnFamily(family.getName());
+      if (current == null) {
+        differences.add("add family " + family.getNameAsString());
+        continue;
+      }
+      String prefix = family.getNameAsString() + " ";
+      compare(differences, prefix + "compression", current, family, ColumnFamilyDescriptor::getCompressionType);
+      compare(differences, prefix + "encoding", current, family, ColumnFamilyDescriptor::getDataBlockEncoding);
+      compare(differences, prefix + "bloom filter", current, family, ColumnFamilyDescriptor::getBloomFilterType);
+      compare(differences, prefix + "block size", current, family, ColumnFamilyDescriptor::getBlocksize);
+      compare(differences, prefix + "block cache", current, family, ColumnFamilyDescriptor::isBlockCacheEnabled);
+      compare(differences, prefix + "in memory", current, family, ColumnFamilyDescriptor::isInMemory);
+      compare(differences, prefix + "ttl", current, family, ColumnFamilyDescriptor::getTimeToLive);
+      compare(differences, prefix + "max versions", current, family, ColumnFamilyDescriptor::getMaxVersions);
+    }
+    return differences;
+  }
+
+  private static void compare(List<String> differences, String setting, ColumnFamilyDescriptor current,
+                              ColumnFamilyDescriptor desired, Function<ColumnFamilyDescriptor, Object> getter) {
+    Object from = getter.apply(current);
+    Object to = getter.apply(desired);
+    if (!Objects.equals(from, to)) {
+      differences.add(setting + " " + from + " -> " + to);
+    }
+  }
+
+  /**
+   * Create or alter the tables, several at a time.
+   *
+   * @param threads the number of tables changed at once
+   * @param dryRun  only work out and log the changes
+   *
+   * @return the changes, in the order of the specs
+   * @throws IOException if any table failed to change, once all the others have been attempted
+   */
+  public List<Change> apply(List<TableSpec> specs, int threads, boolean dryRun) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Change> changes = new ArrayList<>(specs.size());
+    int failed = 0;
+    try {
+      List<Future<Change>> futures = new ArrayList<>(specs.size());
+      for (TableSpec spec : specs) {
+        futures.add(executor.submit(() -> apply(spec, dryRun)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          changes.add(futures.get(i).get());
+        } catch (ExecutionException e) {
+          failed++;
+          LOG.error("Failed to apply the spec of [{}]", specs.get(i).getTableName(), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while applying table specs");
+    } finally {
+      executor.shutdownNow();
+    }
+    if (failed > 0) {
+      throw new IOException(failed + " of " + specs.size() + " table specs failed to apply");
+    }
+    return changes;
+  }
+
+  private Change apply(TableSpec spec, boolean dryRun) throws IOException {
+    Change change = diff(spec);
+    LOG.info("{}{}", dryRun ? "Dry run: " : "", change);
+    if (dryRun || change.getType() == Change.Type.NONE) {
+      return change;
+    }
+    // admins are not thread safe, so each table gets its own
+    try (Admin admin = connection.getAdmin()) {
+      if (change.getType() == Change.Type.CREATE) {
+        byte[][] splits = spec.splitKeys(connection);
+        if (splits.length == 0) {
+          admin.createTable(change.getDescriptor());
+        } else {
+          admin.createTable(change.getDescriptor(), splits);
+        }
+        LOG.info("Created [{}] with [{}] regions", spec.getTableName(), splits.length + 1);
+      } else {
+        admin.modifyTable(change.getDescriptor());
+        LOG.info("Altered [{}]", spec.getTableName());
+      }
+    }
+    return change;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      LOG.error("Usage: org.gbif.hbase.util.TableSpecApplier <spec file> [--dry-run] [--threads <n>]");
+      System.exit(1);
+    }
+    boolean dryRun = false;
+    int threads = 4;
+    for (int i = 1; i < args.length; i++) {
+      if ("--dry-run".equals(args[i])) {
+        dryRun = true;
+      } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else {
+        LOG.error("Unknown argument [{}]", args[i]);
+        System.exit(1);
+      }
+    }
+
+    List<TableSpec> specs = TableSpec.read(Paths.get(args[0]));
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      new TableSpecApplier(connection).apply(specs, threads, dryRun);
+    }
+  }
+}
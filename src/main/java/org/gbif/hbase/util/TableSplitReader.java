@@ -13,52 +13,109 @@
  */
 package org.gbif.hbase.util;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
-import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Writes the splits of an existing table to a file named after it in the working directory: as ints one per line for
+ * {@link TableCreator} by default, as a {@link SplitIndex} with {@code --index}, or as keys encoded with a
+ * {@link RowKeyCodec} with {@code --key}.
+ */
 public class TableSplitReader {
 
-  private static final Logger LOG = LoggerFactory.getLogger(TableCloneCreator.class);
+  private static final Logger LOG = LoggerFactory.getLogger(TableSplitReader.class);
 
   // not to be instantiated
   private TableSplitReader() {
   }
 
   public static void main(String[] args) throws IOException {
-    if (args.length != 1) {
-      LOG.error("Usage: org.gbif.hbase.util.TableSplitReader <existing table>");
+    boolean index = args.length == 2 && "--index".equals(args[1]);
+    boolean key = args.length == 3 && "--key".equals(args[1]);
+    if (args.length != 1 && !index && !key) {
+      LOG.error("Usage: org.gbif.hbase.util.TableSplitReader <existing table> [--index | --key <key spec>]");
       System.exit(1);
     }
 
-    readIntSplits(args[0]);
+    TableName tableName = TableName.valueOf(args[0]);
+    try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create())) {
+      if (index) {
+        writeSplitIndex(connection, tableName, Paths.get(args[0] + "_splits.idx"));
+      } else if (key) {
+        writeKeySplits(connection, tableName, RowKeyCodec.parse(args[2]), splitsFile(args[0]));
+      } else {
+        writeIntSplits(connection, tableName, splitsFile(args[0]));
+      }
+    }
   }
 
-  private static File splitsFile(String tableName) {
-    String fileName = tableName + "_splits.txt";
-    return new File(fileName);
+  private static Path splitsFile(String tableName) {
+    return Paths.get(tableName + "_splits.txt");
   }
-  private static void readIntSplits(String existingTableName) throws IOException {
-    Configuration config = HBaseConfiguration.create();
-    File outFile = splitsFile(existingTableName);
-    try (FileWriter fileWriter = new FileWriter(outFile);
-         Connection connection = ConnectionFactory.createConnection(config);
-         Table existingTable = connection.getTable(TableName.valueOf(existingTableName))) {
-      LOG.info("Writing file [{}]", outFile.getName());
-      byte[][] existingStartKeys = existingTable.getRegionLocator().getStartKeys();
-      for (int i = 1; i < existingStartKeys.length; i++) {
-        fileWriter.write(Bytes.toInt(existingStartKeys[i]) + "\n");
+
+  /**
+   * Writes the splits of the table, which must be ints, one per line.
+   *
+   * @return the number of splits written
+   */
+  public static int writeIntSplits(Connection connection, TableName tableName, Path outFile) throws IOException {
+    byte[][] splits = splits(connection, tableName);
+    LOG.info("Writing [{}] splits to file [{}]", splits.length, outFile);
+    try (BufferedWriter writer = Files.newBufferedWriter(outFile, StandardCharsets.UTF_8)) {
+      for (byte[] split : splits) {
+        writer.write(Integer.toString(Bytes.toInt(split)));
+        writer.newLine();
       }
+    }
+    return splits.length;
   }
+
+  /**
+   * Writes the splits of the table as a {@link SplitIndex}.
+   *
+   * @return the number of splits written
+   */
+  public static int writeSplitIndex(Connection connection, TableName tableName, Path outFile) throws IOException {
+    byte[][] splits = splits(connection, tableName);
+    LOG.info("Writing [{}] splits to file [{}]", splits.length, outFile);
+    SplitIndex.of(splits).write(outFile);
+    return splits.length;
+  }
+
+  /**
+   * Writes the splits of the table, whose keys are encoded with the codec, in the key format of {@link SplitsFile}.
+   *
+   * @return the number of splits written
+   */
+  public static int writeKeySplits(Connection connection, TableName tableName, RowKeyCodec codec, Path outFile)
+    throws IOException {
+    byte[][] splits = splits(connection, tableName);
+    LOG.info("Writing [{}] splits to file [{}]", splits.length, outFile);
+    SplitsFile.writeKeys(outFile.toString(), codec, splits);
+    return splits.length;
+  }
+
+  /**
+   * @return the start keys of all the regions of the table but the first, which is empty
+   */
+  private static byte[][] splits(Connection connection, TableName tableName) throws IOException {
+    try (RegionLocator locator = connection.getRegionLocator(tableName)) {
+      byte[][] startKeys = locator.getStartKeys();
+      return Arrays.copyOfRange(startKeys, 1, startKeys.length);
+    }
   }
 }
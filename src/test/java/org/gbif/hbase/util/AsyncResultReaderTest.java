@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.client.AsyncTable;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AsyncResultReaderTest {
+
+  private static final Column NAME = Column.of("o", "name");
+  private static final Column COUNT = Column.of("o", "count");
+  private static final Column FLAG = Column.of("o", "flag");
+  private static final Column MISSING = Column.of("o", "missing");
+
+  private final List<Get> gets = new ArrayList<>();
+
+  private static Cell cell(byte[] row, Column column, byte[] value) {
+    return CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+      .setRow(row)
+      .setFamily(column.getFamily())
+      .setQualifier(column.getQualifier())
+      .setTimestamp(7L)
+      .setValue(value)
+      .setType(Cell.Type.Put)
+      .build();
+  }
+
+  /**
+   * A table holding the rows "a" and "b", answering gets with the requested columns at once and recording them.
+   */
+  @SuppressWarnings("unchecked")
+  private AsyncTable<?> table() {
+    return Fakes.fake(AsyncTable.class)
+      .on("get", args -> {
+        if (args[0] instanceof List) {
+          List<CompletableFuture<Result>> results = new ArrayList<>();
+          for (Get get : (List<Get>) args[0]) {
+            results.add(CompletableFuture.completedFuture(get(get)));
+          }
+          return results;
+        }
+        return CompletableFuture.completedFuture(get((Get) args[0]));
+      })
+      .build();
+  }
+
+  private Result get(Get get) {
+    gets.add(get);
+    byte[] row = get.getRow();
+    if (!Bytes.equals(row, Bytes.toBytes("a")) && !Bytes.equals(row, Bytes.toBytes("b"))) {
+      return Result.EMPTY_RESULT;
+    }
+    List<Cell> cells = new ArrayList<>();
+    for (Column column : Arrays.asList(COUNT, FLAG, NAME)) {
+      if (get.getFamilyMap().get(column.getFamily()).stream().anyMatch(q -> Bytes.equals(q, column.getQualifier()))) {
+        byte[] value = column == COUNT ? Bytes.toBytes(42L) : column == FLAG ? Bytes.toBytes(true) : row;
+        cells.add(cell(row, column, value));
+      }
+    }
+    return Result.create(cells);
+  }
+
+  private static final class Holder {
+    String name;
+    long count;
+  }
+
+  @Test
+  public void testFields() {
+    AsyncTable<?> table = table();
+    byte[] a = Bytes.toBytes("a");
+    assertEquals("a", AsyncResultReader.getString(table, a, NAME, null).join());
+    assertEquals(Long.valueOf(42), AsyncResultReader.getLong(table, a, COUNT, null).join());
+    assertEquals(Boolean.TRUE, AsyncResultReader.getBoolean(table, a, FLAG, null).join());
+    assertEquals(Boolean.FALSE, AsyncResultReader.getBoolean(table, a, MISSING, false).join());
+    assertArrayEquals(a, AsyncResultReader.getBytes(table, a, NAME, null).join());
+    assertEquals(Long.valueOf(7), AsyncResultReader.getTimestamp(table, a, NAME).join());
+    assertEquals("none", AsyncResultReader.getString(table, Bytes.toBytes("z"), NAME, "none").join());
+
+    // only the column read is fetched
+    assertEquals(1, gets.get(1).getFamilyMap().get(COUNT.getFamily()).size());
+    assertArrayEquals(COUNT.getQualifier(), gets.get(1).getFamilyMap().get(COUNT.getFamily()).first());
+  }
+
+  @Test
+  public void testMap() {
+    RowMapper<Holder> mapper = RowMapper.builder(Holder::new)
+      .mapString(NAME, (h, v) -> h.name = v)
+      .mapLong(COUNT, (h, v) -> h.count = v)
+      .build();
+    AsyncTable<?> table = table();
+
+    Holder a = AsyncResultReader.map(table, Bytes.toBytes("a"), mapper).join();
+    assertEquals("a", a.name);
+    assertEquals(42L, a.count);
+    assertEquals(2, gets.get(0).getFamilyMap().get(NAME.getFamily()).size());
+
+    List<CompletableFuture<Holder>> rows =
+      AsyncResultReader.map(table, Arrays.asList(Bytes.toBytes("b"), Bytes.toBytes("z"), Bytes.toBytes("a")), mapper);
+    assertEquals(3, rows.size());
+    assertEquals("b", rows.get(0).join().name);
+    assertNull(rows.get(1).join());
+    assertEquals("a", rows.get(2).join().name);
+    assertEquals(4, gets.size());
+  }
+}
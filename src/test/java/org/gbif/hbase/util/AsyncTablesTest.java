@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AsyncTablesTest {
+
+  private static final TableName TABLE = TableName.valueOf("occurrence");
+  private static final ServerName SERVER = ServerName.valueOf("rs1", 16020, 1L);
+
+  private static HRegionLocation location(String start, String end, int replica) {
+    RegionInfo region = RegionInfoBuilder.newBuilder(TABLE)
+      .setStartKey(Bytes.toBytes(start))
+      .setEndKey(Bytes.toBytes(end))
+      .setReplicaId(replica)
+      .build();
+    return new HRegionLocation(region, SERVER);
+  }
+
+  @Test
+  public void testSplitKeys() {
+    // out of order, and with a secondary replica that must not add a split
+    byte[][] splits = AsyncTables.splitKeys(Arrays.asList(location("m", "", 0),
+                                                          location("", "f", 0),
+                                                          location("f", "m", 1),
+                                                          location("f", "m", 0)));
+    assertArrayEquals(new byte[][] {Bytes.toBytes("f"), Bytes.toBytes("m")}, splits);
+    assertEquals(0, AsyncTables.splitKeys(Arrays.asList(location("", "", 0))).length);
+  }
+
+  @Test
+  public void testDescriptors() {
+    TableDescriptor existing = TableDescriptorBuilder.newBuilder(TABLE)
+      .setMaxFileSize(1024L * 1024 * 1024)
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.of("o"))
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.of("v"))
+      .build();
+    TableDescriptor clone = TableCloneCreator.cloneDescriptor(existing, TableName.valueOf("occurrence_copy"));
+    assertEquals("occurrence_copy", clone.getTableName().getNameAsString());
+    assertEquals(existing.getMaxFileSize(), clone.getMaxFileSize());
+    assertEquals(2, clone.getColumnFamilyCount());
+
+    TableDescriptor created = TableCreator.descriptor("occurrence", "o", 4096, Compression.Algorithm.GZ,
+                                                      DataBlockEncoding.PREFIX);
+    assertEquals(4096L * 1024 * 1024, created.getMaxFileSize());
+    assertEquals(Compression.Algorithm.GZ, created.getColumnFamily(Bytes.toBytes("o")).getCompressionType());
+    assertEquals(1, created.getColumnFamily(Bytes.toBytes("o")).getMaxVersions());
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchDecoderTest {
+
+  private static final Column COUNT = Column.of("o", "count");
+  private static final Column LAT = Column.of("o", "lat");
+  private static final Column YEAR = Column.of("o", "year");
+  private static final Column OTHER = Column.of("o", "other");
+
+  private static Cell newCell(int row, Column column, byte[] value) {
+    return CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+            .setRow(Bytes.toBytes(row))
+            .setFamily(column.getFamily())
+            .setQualifier(column.getQualifier())
+            .setValue(value)
+            .setType(Cell.Type.Put)
+            .build();
+  }
+
+  /**
+   * Row i has count i, lat i / 2 and, for even rows only, year 2000 + i.
+   */
+  private static Result[] batch(int size) {
+    Result[] rows = new Result[size];
+    for (int i = 0; i < size; i++) {
+      List<Cell> cells = new ArrayList<>();
+      cells.add(newCell(i, COUNT, Bytes.toBytes((long) i)));
+      cells.add(newCell(i, LAT, Bytes.toBytes(i / 2d)));
+      cells.add(newCell(i, OTHER, Bytes.toBytes("ignored")));
+      if (i % 2 == 0) {
+        cells.add(newCell(i, YEAR, Bytes.toBytes(2000 + i)));
+      }
+      rows[i] = Result.create(cells);
+    }
+    return rows;
+  }
+
+  @Test
+  public void testDecode() {
+    LongVector counts = new LongVector(COUNT, 4);
+    DoubleVector lats = new DoubleVector(LAT, 4);
+    IntVector years = new IntVector(YEAR, 4);
+    BatchDecoder decoder = new BatchDecoder(years, counts, lats);
+
+    assertEquals(100, decoder.decode(batch(100)));
+    assertEquals(100, counts.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, counts.get(i));
+      assertFalse(counts.isNull(i));
+      assertEquals(i / 2d, lats.get(i), 0.00001);
+      assertEquals(i % 2 != 0, years.isNull(i));
+      assertEquals(i % 2 == 0 ? 2000 + i : 0, years.get(i));
+    }
+
+    long[] values = counts.values();
+    decoder.decode(new Result[] {null, Result.EMPTY_RESULT});
+    assertSame(values, counts.values());
+    assertEquals(2, counts.size());
+    assertTrue(counts.isNull(0));
+    assertTrue(counts.isNull(1));
+    assertTrue(lats.isNull(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateColumn() {
+    new BatchDecoder(new LongVector(COUNT, 1), new IntVector(COUNT, 1));
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchWriterTest {
+
+  private static final TableName TABLE = TableName.valueOf("test");
+  private static final ServerName SERVER_A = ServerName.valueOf("host-a", 16020, 1L);
+  private static final ServerName SERVER_B = ServerName.valueOf("host-b", 16020, 1L);
+  private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+  // rows starting with "a" are on SERVER_A, all others on SERVER_B
+  private final List<Mutation> written = Collections.synchronizedList(new ArrayList<>());
+  private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+  private final List<Mutation> buffered = new ArrayList<>();
+  private final List<Mutation> failed = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> located = Collections.synchronizedList(new ArrayList<>());
+  private volatile IOException flushError;
+  private volatile CountDownLatch flushGate;
+  private volatile CountDownLatch locateGate;
+  private volatile String slowRow;
+  private BufferedMutator.ExceptionListener listener;
+  private BufferedMutator mutator;
+
+  private static Put put(String row) {
+    return new Put(Bytes.toBytes(row)).addColumn(Bytes.toBytes("o"), Bytes.toBytes("q"), Bytes.toBytes(row));
+  }
+
+  private BatchWriter.Builder builder() {
+    return BatchWriter.builder(connection(), TABLE)
+      .flushBytes(Long.MAX_VALUE)
+      .flushIntervalMs(NEVER)
+      .failureListener((mutation, cause) -> failed.add(mutation));
+  }
+
+  private Connection connection() {
+    return Fakes.fake(Connection.class)
+      .on("getBufferedMutator", args -> {
+        listener = ((BufferedMutatorParams) args[0]).getListener();
+        mutator = mutator();
+        return mutator;
+      })
+      .on("getRegionLocator", args -> locator())
+      .build();
+  }
+
+  private RegionLocator locator() {
+    return Fakes.fake(RegionLocator.class)
+      .on("getRegionLocation", args -> {
+        String row = Bytes.toString((byte[]) args[0]);
+        located.add(row);
+        if (row.equals(slowRow)) {
+          locateGate.await();
+        }
+        return new HRegionLocation(RegionInfoBuilder.newBuilder(TABLE).build(),
+                                   row.startsWith("a") ? SERVER_A : SERVER_B);
+      })
+      .on("close", Fakes.NOTHING)
+      .build();
+  }
+
+  /**
+   * A mutator that writes everything buffered when flushed, but the rows with a failure which it passes to the
+   * exception listener once each.
+   */
+  private BufferedMutator mutator() {
+    return Fakes.fake(BufferedMutator.class)
+      .on("mutate", args -> {
+        synchronized (buffered) {
+          buffered.add((Mutation) args[0]);
+        }
+        return null;
+      })
+      .on("flush", args -> {
+        flush();
+        return null;
+      })
+      .on("close", Fakes.NOTHING)
+      .build();
+  }
+
+  private void flush() throws IOException {
+    if (flushGate != null) {
+      try {
+        flushGate.await();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+    List<Mutation> flushing;
+    synchronized (buffered) {
+      flushing = new ArrayList<>(buffered);
+      buffered.clear();
+    }
+    if (flushError != null) {
+      throw flushError;
+    }
+    List<Throwable> causes = new ArrayList<>();
+    List<Row> rows = new ArrayList<>();
+    List<String> hosts = new ArrayList<>();
+    for (Mutation mutation : flushing) {
+      Throwable cause = failures.remove(Bytes.toString(mutation.getRow()));
+      if (cause == null) {
+        written.add(mutation);
+      } else {
+        causes.add(cause);
+        rows.add(mutation);
+        hosts.add("host:16020");
+      }
+    }
+    if (!causes.isEmpty()) {
+      listener.onException(new RetriesExhaustedWithDetailsException(causes, rows, hosts), mutator);
+    }
+  }
+
+  @Test
+  public void testFlushOnSize() throws Exception {
+    BatchWriter writer = builder().flushBytes(2 * put("a1").heapSize()).build();
+    CompletableFuture<Void> first = writer.writeAsync(put("a1"));
+    CompletableFuture<Void> second = writer.writeAsync(put("b1"));
+    second.get(5, TimeUnit.SECONDS);
+    assertTrue(first.isDone());
+    assertEquals(2, written.size());
+    CompletableFuture<Void> third = writer.writeAsync(put("a2"));
+    Thread.sleep(100);
+    assertFalse("Below the flush size", third.isDone());
+    writer.close();
+    assertTrue(third.isDone());
+    assertEquals(3, written.size());
+    assertEquals(3, writer.getMetrics().getMutations());
+  }
+
+  @Test
+  public void testFlushOnInterval() throws Exception {
+    BatchWriter writer = builder().flushIntervalMs(20).build();
+    writer.writeAsync(put("a1")).get(5, TimeUnit.SECONDS);
+    assertEquals(1, written.size());
+    writer.close();
+  }
+
+  @Test
+  public void testBlockingBackpressurePerServer() throws Exception {
+    flushGate = new CountDownLatch(1);
+    BatchWriter writer = builder().maxBytesPerServer(put("a1").heapSize()).build();
+    writer.write(put("a1"));
+
+    // the budget of SERVER_A is used up, so the next write to it waits for a flush, which is held up
+    CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+      try {
+        writer.write(put("a2"));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread.sleep(100);
+    assertFalse(blocked.isDone());
+    // other servers are not held back
+    writer.write(put("b1"));
+
+    flushGate.countDown();
+    blocked.get(5, TimeUnit.SECONDS);
+    writer.close();
+    assertEquals(3, written.size());
+  }
+
+  @Test
+  public void testAsyncBackpressure() throws Exception {
+    flushGate = new CountDownLatch(1);
+    BatchWriter writer = builder().maxBytesPerServer(put("a1").heapSize()).build();
+    CompletableFuture<Void> first = writer.writeAsync(put("a1"));
+    // returns at once, buffering the mutation only once the first has been flushed
+    CompletableFuture<Void> second = writer.writeAsync(put("a2"));
+    assertFalse(second.isDone());
+    synchronized (buffered) {
+      assertEquals(1, buffered.size());
+    }
+
+    flushGate.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    writer.close();
+    assertTrue(second.isDone());
+    assertEquals(2, written.size());
+    // the deferred mutation is buffered by the flusher, without locating its row again there
+    assertEquals(1, Collections.frequency(located, "a2"));
+  }
+
+  @Test
+  public void testRetry() throws Exception {
+    failures.put("a1", new IOException("region moved"));
+    BatchWriter writer = builder().build();
+    writer.write(put("a1"));
+    writer.write(put("b1"));
+    writer.close();
+    assertEquals(2, written.size());
+    assertTrue(failed.isEmpty());
+    assertEquals(1, writer.getMetrics().getRetries());
+    assertEquals(3, writer.getMetrics().getMutations());
+  }
+
+  @Test
+  public void testFailureListener() throws Exception {
+    BatchWriter writer = builder().maxRetries(1).build();
+    Put notRetried = put("a1");
+    Put exhausted = put("b1");
+    failures.put("a1", new DoNotRetryIOException("bad mutation"));
+    failures.put("b1", new IOException("region moved"));
+    writer.write(notRetried);
+    writer.write(exhausted);
+    writer.write(put("b2"));
+    // the first flush fails a1 for good and b1 once, so fail the retry of b1 too
+    CompletableFuture<Void> flushed = writer.writeAsync(put("b3"));
+    flushed.thenRun(() -> failures.put("b1", new IOException("region moved again")));
+    writer.close();
+
+    assertEquals(2, failed.size());
+    assertSame(notRetried, failed.get(0));
+    assertSame(exhausted, failed.get(1));
+    assertEquals(2, written.size());
+    assertEquals(2, writer.getMetrics().getFailures());
+  }
+
+  @Test
+  public void testFailedFlush() throws Exception {
+    flushError = new InterruptedIOException("interrupted");
+    BatchWriter writer = builder().build();
+    CompletableFuture<Void> first = writer.writeAsync(put("a1"));
+    CompletableFuture<Void> second = writer.writeAsync(put("b1"));
+    writer.close();
+
+    try {
+      first.get(5, TimeUnit.SECONDS);
+      fail("The flush failed");
+    } catch (ExecutionException e) {
+      assertSame(flushError, e.getCause());
+    }
+    assertTrue(second.isCompletedExceptionally());
+    assertEquals(2, failed.size());
+    assertTrue(written.isEmpty());
+  }
+
+  @Test
+  public void testRetryLocatedOutsideLock() throws Exception {
+    failures.put("a1", new IOException("region moved"));
+    locateGate = new CountDownLatch(1);
+    BatchWriter writer = builder().build();
+    CompletableFuture<Void> first = writer.writeAsync(put("a1"));
+    writer.writeAsync(put("b0"));
+    // the next lookup of a1 is that of its retry
+    slowRow = "a1";
+    CompletableFuture<Void> flushing = CompletableFuture.runAsync(() -> {
+      try {
+        // flushes a1, which fails, and b0, then locates a1 again to retry it, held up by the gate
+        writer.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    first.get(5, TimeUnit.SECONDS);
+
+    // a write while the retry is being located must not wait for the lookup
+    CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+      try {
+        writer.writeAsync(put("b1"));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    write.get(5, TimeUnit.SECONDS);
+    locateGate.countDown();
+    flushing.get(5, TimeUnit.SECONDS);
+    assertEquals(1, writer.getMetrics().getRetries());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientMetricsTest {
+
+  private static final TableName TABLE = TableName.valueOf("occurrence");
+  private static final Column COUNT = Column.of("o", "count");
+
+  @After
+  public void uninstall() {
+    ClientMetrics.install(null);
+  }
+
+  @Test
+  public void testLatenciesAndScans() throws IOException {
+    ClientMetrics metrics = new ClientMetrics();
+    assertEquals("x", metrics.time(ClientMetrics.Operation.GET, TABLE, () -> "x"));
+    metrics.record(ClientMetrics.Operation.GET, TABLE, 2_000_000);
+
+    ScanMetrics scan = new ScanMetrics();
+    scan.countOfRPCcalls.addAndGet(3);
+    scan.countOfRegions.addAndGet(2);
+    metrics.recordScan(TABLE, scan);
+    metrics.recordScan(TABLE, scan);
+    metrics.recordScan(TABLE, null);
+
+    ClientMetrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(2, snapshot.getLatencies().get(ClientMetrics.Operation.GET).get(TABLE).getCount());
+    assertTrue(snapshot.getLatencies().get(ClientMetrics.Operation.SCAN).isEmpty());
+    assertEquals(Long.valueOf(6), snapshot.getScanMetrics().get(TABLE).get(ScanMetrics.RPC_CALLS_METRIC_NAME));
+
+    Map<String, Long> values = snapshot.toMap();
+    assertEquals(Long.valueOf(2), values.get("latency.get.occurrence.count"));
+    assertEquals(Long.valueOf(2000), values.get("latency.get.occurrence.max_us"));
+    assertEquals(Long.valueOf(4), values.get("scan.occurrence." + ScanMetrics.REGIONS_SCANNED_METRIC_NAME));
+
+    metrics.recordScan(TABLE, scan);
+    ClientMetrics.Snapshot since = metrics.snapshot().since(snapshot);
+    assertEquals(0, since.getLatencies().get(ClientMetrics.Operation.GET).get(TABLE).getCount());
+    assertEquals(Long.valueOf(3), since.getScanMetrics().get(TABLE).get(ScanMetrics.RPC_CALLS_METRIC_NAME));
+
+    StringBuilder text = new StringBuilder();
+    since.printText(text);
+    assertTrue(text.toString().contains("scan.occurrence." + ScanMetrics.RPC_CALLS_METRIC_NAME + " 3\n"));
+  }
+
+  @Test
+  public void testDecoded() {
+    Cell cell = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+      .setRow(Bytes.toBytes("r"))
+      .setFamily(COUNT.getFamily())
+      .setQualifier(COUNT.getQualifier())
+      .setValue(Bytes.toBytes(42L))
+      .setType(Cell.Type.Put)
+      .build();
+    Result row = Result.create(Collections.singletonList(cell));
+    RowMapper<long[]> mapper = RowMapper.builder(() -> new long[1]).mapLong(COUNT, (t, v) -> t[0] = v).build();
+
+    // nothing is recorded until installed
+    ResultReader.getLong(row, COUNT, 0L);
+    ClientMetrics metrics = new ClientMetrics();
+    ClientMetrics.install(metrics);
+    assertEquals(42L, ResultReader.getLong(row, COUNT, 0L));
+    ResultReader.getLong(row, Column.of("o", "missing"), 0L);
+    assertEquals(42L, mapper.map(row)[0]);
+    // a row read field by field counts once per read of it
+    Result other = Result.create(Collections.singletonList(cell));
+    ResultReader.getLong(other, COUNT, 0L);
+    ResultReader.getLong(other, COUNT, 0L);
+
+    ClientMetrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(3, snapshot.getDecodedRows());
+    assertEquals(4, snapshot.getDecodedCells());
+    assertEquals(32, snapshot.getDecodedBytes());
+  }
+}
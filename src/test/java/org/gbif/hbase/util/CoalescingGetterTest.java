@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingGetterTest {
+
+  private static final TableName TABLE = TableName.valueOf("test");
+  private static final ServerName SERVER_A = ServerName.valueOf("host-a", 16020, 1L);
+  private static final ServerName SERVER_B = ServerName.valueOf("host-b", 16020, 1L);
+  private static final byte[] FAMILY = Bytes.toBytes("o");
+
+  // rows starting with "a" are on SERVER_A, all others on SERVER_B; rows starting with "x" fail their multi-get
+  private final List<List<String>> multiGets = Collections.synchronizedList(new ArrayList<>());
+  private volatile CountDownLatch locateGate;
+  private volatile String slowRow;
+
+  private CoalescingGetter.Builder builder() {
+    return CoalescingGetter.builder(connection(), TABLE).window(1, TimeUnit.HOURS);
+  }
+
+  private static CompletableFuture<Result> get(CoalescingGetter getter, String row) {
+    return getter.get(Bytes.toBytes(row));
+  }
+
+  private static String row(CompletableFuture<Result> future) throws Exception {
+    return Bytes.toString(future.get(10, TimeUnit.SECONDS).getRow());
+  }
+
+  private Connection connection() {
+    return Fakes.fake(Connection.class)
+      .on("getRegionLocator", args -> locator())
+      .on("getTable", args -> table())
+      .build();
+  }
+
+  private RegionLocator locator() {
+    return Fakes.fake(RegionLocator.class)
+      .on("getRegionLocation", args -> {
+        String row = Bytes.toString((byte[]) args[0]);
+        if (row.equals(slowRow)) {
+          locateGate.await();
+        }
+        return new HRegionLocation(RegionInfoBuilder.newBuilder(TABLE).build(),
+                                   row.startsWith("a") ? SERVER_A : SERVER_B);
+      })
+      .on("close", Fakes.NOTHING)
+      .build();
+  }
+
+  /**
+   * A table answering each multi-get with one cell per row holding the row key.
+   */
+  @SuppressWarnings("unchecked")
+  private Table table() {
+    return Fakes.fake(Table.class)
+      .on("get", args -> {
+        if (!(args[0] instanceof List)) {
+          throw new UnsupportedOperationException("single get");
+        }
+        return multiGet((List<Get>) args[0]);
+      })
+      .on("close", Fakes.NOTHING)
+      .build();
+  }
+
+  private Result[] multiGet(List<Get> gets) throws IOException {
+    List<String> rows = new ArrayList<>();
+    Result[] results = new Result[gets.size()];
+    for (int i = 0; i < gets.size(); i++) {
+      byte[] row = gets.get(i).getRow();
+      rows.add(Bytes.toString(row));
+      results[i] = Result.create(Collections.<Cell>singletonList(new KeyValue(row, FAMILY, FAMILY, row)));
+    }
+    multiGets.add(rows);
+    for (String row : rows) {
+      if (row.startsWith("x")) {
+        throw new IOException("Failed to read " + row);
+      }
+    }
+    return results;
+  }
+
+  @Test
+  public void testWindow() throws Exception {
+    try (CoalescingGetter getter = builder().window(50, TimeUnit.MILLISECONDS).build()) {
+      CompletableFuture<Result> a1 = get(getter, "a1");
+      CompletableFuture<Result> a2 = get(getter, "a2");
+      CompletableFuture<Result> b1 = get(getter, "b1");
+      assertFalse(a1.isDone());
+
+      // each caller is completed with its own row, after one multi-get per server
+      assertEquals("a1", row(a1));
+      assertEquals("a2", row(a2));
+      assertEquals("b1", row(b1));
+      assertEquals(2, getter.getMultiGets());
+      assertEquals(3, getter.getRequests());
+      assertTrue(multiGets.contains(Arrays.asList("a1", "a2")));
+      assertTrue(multiGets.contains(Collections.singletonList("b1")));
+    }
+  }
+
+  @Test
+  public void testBatchSize() throws Exception {
+    try (CoalescingGetter getter = builder().maxBatchSize(2).build()) {
+      CompletableFuture<Result> a1 = get(getter, "a1");
+      CompletableFuture<Result> a2 = get(getter, "a2");
+      // sent without waiting for the window
+      assertEquals("a1", row(a1));
+      assertEquals("a2", row(a2));
+      assertEquals(1, getter.getMultiGets());
+
+      CompletableFuture<Result> a3 = get(getter, "a3");
+      Thread.sleep(100);
+      assertFalse(a3.isDone());
+    }
+  }
+
+  @Test
+  public void testDeduplication() throws Exception {
+    CompletableFuture<Result> first;
+    CompletableFuture<Result> second;
+    CompletableFuture<Result> cancelled;
+    try (CoalescingGetter getter = builder().build()) {
+      cancelled = get(getter, "a1");
+      first = get(getter, "a1");
+      second = get(getter, "a1");
+      assertNotSame(first, second);
+      assertEquals(3, getter.getRequests());
+      assertEquals(2, getter.getCoalesced());
+      // the caller that started the lookup cancelling it does not cancel it for the others
+      assertTrue(cancelled.cancel(false));
+      assertFalse(first.isDone());
+    }
+    assertEquals("a1", row(first));
+    assertEquals("a1", row(second));
+    assertTrue(cancelled.isCancelled());
+    assertEquals(Collections.singletonList(Collections.singletonList("a1")), multiGets);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    CompletableFuture<Result> a1;
+    CompletableFuture<Result> b1;
+    CompletableFuture<Result> x1;
+    try (CoalescingGetter getter = builder().build()) {
+      a1 = get(getter, "a1");
+      b1 = get(getter, "b1");
+      x1 = get(getter, "x1");
+    }
+    // only the callers of the failed multi-get fail
+    assertEquals("a1", row(a1));
+    try {
+      b1.get();
+      fail("Expected the multi-get of SERVER_B to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertTrue(x1.isCompletedExceptionally());
+  }
+
+  @Test
+  public void testSlowLookupDoesNotDelayOtherWindows() throws Exception {
+    locateGate = new CountDownLatch(1);
+    slowRow = "b1";
+    try (CoalescingGetter getter = builder().window(10, TimeUnit.MILLISECONDS).build()) {
+      CompletableFuture<Result> slow = get(getter, "b1");
+      Thread.sleep(100);
+
+      // the window of the slow lookup has closed, a later window is still sent while it waits for its region
+      assertEquals("a1", row(get(getter, "a1")));
+      assertFalse(slow.isDone());
+
+      locateGate.countDown();
+      assertEquals("b1", row(slow));
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    CoalescingGetter getter = builder().build();
+    CompletableFuture<Result> a1 = get(getter, "a1");
+    getter.close();
+    // the pending lookups are sent on close, later ones fail
+    assertTrue(a1.isDone());
+    assertEquals("a1", row(a1));
+    assertTrue(get(getter, "a2").isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.Arrays;
+
+import org.gbif.hbase.util.generated.ColumnAggregationProtos.AggregationRequest;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnAggregatesTest {
+
+  private static final Column COLUMN = Column.of("o", "count");
+
+  @Test
+  public void testIntegral() {
+    ColumnAggregates aggregates = new ColumnAggregates(ColumnAggregates.Type.LONG, 10);
+    aggregates.add(cell(Bytes.toBytes(5L)));
+    aggregates.add(cell(Bytes.toBytes(-3L)));
+    aggregates.add(cell(Bytes.toBytes(5L)));
+    // too short for a long
+    aggregates.add(cell(Bytes.toBytes(7)));
+    // longer values are decoded from their leading bytes, as ResultReader.getLong(row, family, qualifier, 0L) does
+    aggregates.add(cell(Bytes.add(Bytes.toBytes(5L), Bytes.toBytes(7))));
+    assertEquals(4, aggregates.getCount());
+    assertEquals(1, aggregates.getInvalid());
+    assertEquals(12L, aggregates.getSum());
+    assertEquals(-3L, aggregates.getMin());
+    assertEquals(5L, aggregates.getMax());
+    assertEquals(3d, aggregates.getMean(), 0.0001);
+    assertEquals(2, aggregates.getDistinct());
+  }
+
+  @Test
+  public void testFloatingPoint() {
+    ColumnAggregates aggregates = new ColumnAggregates(ColumnAggregates.Type.FLOAT, 0);
+    aggregates.add(cell(Bytes.toBytes(1.5f)));
+    aggregates.add(cell(Bytes.toBytes(-0.5f)));
+    aggregates.add(cell(Bytes.toBytes(Float.NaN)));
+    assertEquals(2, aggregates.getCount());
+    assertEquals(1, aggregates.getInvalid());
+    assertEquals(1d, aggregates.getSum());
+    assertEquals(-0.5d, aggregates.getMin());
+    assertEquals(1.5d, aggregates.getMax());
+    assertEquals(-1, aggregates.getDistinct());
+  }
+
+  @Test
+  public void testEmptyAndBytes() {
+    ColumnAggregates empty = new ColumnAggregates(ColumnAggregates.Type.INT, 10);
+    assertEquals(0, empty.getCount());
+    assertEquals(0L, empty.getSum());
+    assertNull(empty.getMin());
+    assertNull(empty.getMax());
+    assertTrue(Double.isNaN(empty.getMean()));
+    assertEquals(0, empty.getDistinct());
+
+    ColumnAggregates bytes = new ColumnAggregates(ColumnAggregates.Type.BYTES, 10);
+    bytes.add(cell(Bytes.toBytes("a")));
+    bytes.add(cell(Bytes.toBytes("bc")));
+    bytes.add(cell(Bytes.toBytes("a")));
+    assertEquals(3, bytes.getCount());
+    assertNull(bytes.getSum());
+    assertNull(bytes.getMax());
+    assertEquals(2, bytes.getDistinct());
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void testOverflow() {
+    ColumnAggregates aggregates = new ColumnAggregates(ColumnAggregates.Type.LONG, 0);
+    aggregates.add(cell(Bytes.toBytes(Long.MAX_VALUE)));
+    aggregates.add(cell(Bytes.toBytes(1L)));
+  }
+
+  @Test
+  public void testMergeOfResponses() {
+    ColumnAggregates a = new ColumnAggregates(ColumnAggregates.Type.INT, 10);
+    ColumnAggregates b = new ColumnAggregates(ColumnAggregates.Type.INT, 10);
+    ColumnAggregates empty = new ColumnAggregates(ColumnAggregates.Type.INT, 10);
+    for (int i = 0; i < 100; i++) {
+      a.add(cell(Bytes.toBytes(i)));
+      b.add(cell(Bytes.toBytes(i + 50)));
+    }
+    b.add(cell(Bytes.toBytes("x")));
+
+    ColumnAggregates total = ColumnAggregator.merge(ColumnAggregates.Type.INT, 10,
+      Arrays.asList(a.toResponse(), b.toResponse(), empty.toResponse()));
+    assertEquals(200, total.getCount());
+    assertEquals(1, total.getInvalid());
+    assertEquals(4950L + 9950L, total.getSum());
+    assertEquals(0L, total.getMin());
+    assertEquals(149L, total.getMax());
+    // an estimate, of the distinct values of both regions
+    assertTrue(Math.abs(total.getDistinct() - 150) <= 3);
+  }
+
+  @Test
+  public void testRequest() throws Exception {
+    Scan scan = new Scan().withStartRow(Bytes.toBytes("a")).withStopRow(Bytes.toBytes("m"))
+      .addFamily(Bytes.toBytes("x")).readAllVersions();
+    AggregationRequest request = ColumnAggregator.request(COLUMN, ColumnAggregates.Type.LONG, scan, 12);
+    assertArrayEquals(COLUMN.getFamily(), request.getFamily().toByteArray());
+    assertArrayEquals(COLUMN.getQualifier(), request.getQualifier().toByteArray());
+    assertEquals("LONG", request.getType());
+    assertEquals(12, request.getPrecision());
+
+    // the scan keeps its range but reads only the latest version of the column
+    Scan sent = ProtobufUtil.toScan(ClientProtos.Scan.parseFrom(request.getScan()));
+    assertArrayEquals(Bytes.toBytes("a"), sent.getStartRow());
+    assertArrayEquals(Bytes.toBytes("m"), sent.getStopRow());
+    assertEquals(1, sent.getMaxVersions());
+    assertEquals(1, sent.getFamilyMap().size());
+    assertEquals(1, sent.getFamilyMap().get(COLUMN.getFamily()).size());
+    assertTrue(sent.getFamilyMap().get(COLUMN.getFamily()).contains(COLUMN.getQualifier()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReversedRequest() throws Exception {
+    ColumnAggregator.request(COLUMN, ColumnAggregates.Type.LONG, new Scan().setReversed(true), 12);
+  }
+
+  private static KeyValue cell(byte[] value) {
+    return new KeyValue(Bytes.toBytes("row"), COLUMN.getFamily(), COLUMN.getQualifier(), value);
+  }
+}
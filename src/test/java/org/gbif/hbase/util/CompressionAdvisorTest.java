@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionAdvisorTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("o");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Rows of repetitive, highly compressible values, given out of order.
+   */
+  private static List<Cell> sample() {
+    List<Cell> cells = new ArrayList<>();
+    for (int row = 999; row >= 0; row--) {
+      for (int column = 0; column < 5; column++) {
+        cells.add(new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes("column" + column), 1L,
+                               Bytes.toBytes("value of column " + column + " is " + (row % 10))));
+      }
+    }
+    return cells;
+  }
+
+  @Test
+  public void testEvaluateAndRank() throws IOException {
+    List<CompressionAdvisor.Candidate> candidates = CompressionAdvisor.candidates(
+      Arrays.asList(Compression.Algorithm.NONE, Compression.Algorithm.GZ),
+      Arrays.asList(DataBlockEncoding.NONE, DataBlockEncoding.FAST_DIFF), 64 * 1024);
+    assertEquals(4, candidates.size());
+
+    CompressionAdvisor advisor = new CompressionAdvisor(HBaseConfiguration.create(), folder.getRoot().toPath());
+    List<CompressionAdvisor.Trial> trials = advisor.evaluate(sample(), candidates, 100);
+    assertEquals(4, trials.size());
+    // the trial files are deleted once measured
+    assertEquals(0, folder.getRoot().list().length);
+
+    List<CompressionAdvisor.Trial> ranked = CompressionAdvisor.rank(trials, CompressionAdvisor.Goal.SIZE);
+    CompressionAdvisor.Candidate best = ranked.get(0).getCandidate();
+    assertEquals(Compression.Algorithm.GZ, best.getCompression());
+    assertEquals(1, ranked.get(0).getScore(), 0.0001);
+    CompressionAdvisor.Candidate worst = ranked.get(3).getCandidate();
+    assertEquals(Compression.Algorithm.NONE, worst.getCompression());
+    assertEquals(DataBlockEncoding.NONE, worst.getEncoding());
+    assertTrue(ranked.get(0).getRatio() > ranked.get(3).getRatio());
+
+    for (CompressionAdvisor.Goal goal : CompressionAdvisor.Goal.values()) {
+      ranked = CompressionAdvisor.rank(trials, goal);
+      assertTrue(ranked.get(0).getScore() <= ranked.get(3).getScore());
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportFileTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("o");
+  private static final byte[] NAME = Bytes.toBytes("name");
+  private static final byte[] COUNT = Bytes.toBytes("count");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  private static Cell cell(byte[] row, byte[] qualifier, byte[] value) {
+    return CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+      .setRow(row)
+      .setFamily(FAMILY)
+      .setQualifier(qualifier)
+      .setTimestamp(7L)
+      .setValue(value)
+      .setType(Cell.Type.Put)
+      .build();
+  }
+
+  /**
+   * Writes rows of two cells each, in blocks of about 1KB.
+   */
+  private Path write(int rows) throws IOException {
+    Path file = folder.newFile().toPath();
+    try (ExportFile.Writer writer = ExportFile.writer(file, 1024, 6)) {
+      for (int i = 0; i < rows; i++) {
+        writer.append(cell(row(i), COUNT, Bytes.toBytes((long) i)));
+        writer.append(cell(row(i), NAME, Bytes.toBytes("name of row " + i)));
+      }
+      assertEquals(2L * rows, writer.getCells());
+    }
+    return file;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Path file = write(1000);
+    try (ExportFile.Reader reader = ExportFile.reader(file)) {
+      assertEquals(2000, reader.getCells());
+      assertTrue(reader.getBlocks() > 10);
+      for (int i = 0; i < 1000; i++) {
+        Cell count = reader.next();
+        Cell name = reader.next();
+        assertArrayEquals(row(i), CellUtil.cloneRow(count));
+        assertEquals(i, Bytes.toLong(CellUtil.cloneValue(count)));
+        assertEquals(7L, count.getTimestamp());
+        assertEquals("name of row " + i, Bytes.toString(CellUtil.cloneValue(name)));
+      }
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void testSeekAndRows() throws IOException {
+    Path file = write(1000);
+    try (ExportFile.Reader reader = ExportFile.reader(file)) {
+      reader.seek(row(567));
+      Result result = reader.nextRow();
+      assertArrayEquals(row(567), result.getRow());
+      assertEquals(2, result.size());
+      assertArrayEquals(row(568), reader.nextRow().getRow());
+
+      // a row between two rows positions at the next
+      reader.seek(Bytes.add(row(10), new byte[] {0}));
+      assertArrayEquals(row(11), reader.nextRow().getRow());
+
+      reader.seek(Bytes.toBytes("a"));
+      assertArrayEquals(row(0), reader.nextRow().getRow());
+      reader.seek(Bytes.toBytes("z"));
+      assertNull(reader.nextRow());
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    Path file = write(0);
+    try (ExportFile.Reader reader = ExportFile.reader(file)) {
+      assertEquals(0, reader.getCells());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void testCorrupt() throws IOException {
+    Path file = write(100);
+    try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+      // the first deflated byte of the first block, after the file header and the block header
+      raw.seek(ExportFile.MAGIC.length + Bytes.SIZEOF_INT + 4 * Bytes.SIZEOF_INT);
+      int b = raw.read();
+      raw.seek(ExportFile.MAGIC.length + Bytes.SIZEOF_INT + 4 * Bytes.SIZEOF_INT);
+      raw.write(b ^ 0xff);
+    }
+    try (ExportFile.Reader reader = ExportFile.reader(file)) {
+      reader.next();
+      fail("Corrupt block was read");
+    } catch (IOException e) {
+      // expected
+    }
+
+    try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+      raw.setLength(raw.length() - 1);
+    }
+    try {
+      ExportFile.reader(file).close();
+      fail("Truncated file was opened");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fakes of HBase client interfaces for tests, answering the methods given handlers by name, whatever their overload,
+ * and failing on any other with an UnsupportedOperationException.
+ */
+final class Fakes {
+
+  /**
+   * Answers a call to a faked method.
+   */
+  @FunctionalInterface
+  interface Handler {
+    Object handle(Object[] args) throws Throwable;
+  }
+
+  /**
+   * Answers with null, for void methods such as close.
+   */
+  static final Handler NOTHING = args -> null;
+
+  private Fakes() {
+  }
+
+  static <T> T proxy(Class<T> type, Map<String, Handler> handlers) {
+    Map<String, Handler> copy = new HashMap<>(handlers);
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+      Handler handler = copy.get(method.getName());
+      if (handler == null) {
+        throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+      }
+      return handler.handle(args == null ? new Object[0] : args);
+    }));
+  }
+
+  static <T> Builder<T> fake(Class<T> type) {
+    return new Builder<>(type);
+  }
+
+  static final class Builder<T> {
+    private final Class<T> type;
+    private final Map<String, Handler> handlers = new HashMap<>();
+
+    private Builder(Class<T> type) {
+      this.type = type;
+    }
+
+    Builder<T> on(String method, Handler handler) {
+      handlers.put(method, handler);
+      return this;
+    }
+
+    T build() {
+      return proxy(type, handlers);
+    }
+  }
+}
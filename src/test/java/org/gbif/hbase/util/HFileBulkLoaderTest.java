@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HFileBulkLoaderTest {
+
+  private static final byte[] CF1 = Bytes.toBytes("a");
+  private static final byte[] CF2 = Bytes.toBytes("b");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final TableDescriptor TABLE = TableDescriptorBuilder.newBuilder(TableName.valueOf("test"))
+    .setColumnFamily(ColumnFamilyDescriptorBuilder.of(CF1))
+    .setColumnFamily(ColumnFamilyDescriptorBuilder.of(CF2))
+    .build();
+  // regions [, 100), [100, 200) and [200, )
+  private static final byte[][] SPLITS = {Bytes.toBytes(200), Bytes.toBytes(100)};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Configuration conf = HBaseConfiguration.create();
+
+  @Test
+  public void testRegion() throws IOException {
+    try (HFileBulkLoader loader = HFileBulkLoader.builder(conf, TABLE, SPLITS).spillDir(folder.getRoot().toPath())
+      .build()) {
+      assertEquals(0, region(loader, Bytes.toBytes(5)));
+      assertEquals(0, region(loader, new byte[0]));
+      assertEquals(1, region(loader, Bytes.toBytes(100)));
+      assertEquals(1, region(loader, Bytes.toBytes(199)));
+      assertEquals(2, region(loader, Bytes.toBytes(200)));
+      assertEquals(2, region(loader, Bytes.toBytes(Integer.MAX_VALUE)));
+    }
+  }
+
+  private static int region(HFileBulkLoader loader, byte[] row) {
+    return loader.region(row, 0, row.length);
+  }
+
+  @Test
+  public void testWriteHFiles() throws IOException {
+    Path output = new Path(folder.getRoot().getAbsolutePath(), "hfiles");
+    // a tiny memory limit spills every few cells, so the regions are merged from many runs
+    try (HFileBulkLoader loader = HFileBulkLoader.builder(conf, TABLE, SPLITS).spillDir(folder.getRoot().toPath())
+      .maxMemoryBytes(1024).threads(2).build()) {
+      for (int i = 149; i >= 0; i--) {
+        loader.add(new Put(Bytes.toBytes(i)).addColumn(CF1, QUALIFIER, 1L, Bytes.toBytes("old")));
+      }
+      for (int i = 0; i < 150; i++) {
+        loader.add(new Put(Bytes.toBytes(i)).addColumn(CF1, QUALIFIER, 1L, Bytes.toBytes("new"))
+                     .addColumn(CF2, QUALIFIER, 1L, Bytes.toBytes(i)));
+      }
+      // one file per family for each of the first two regions, the last holding no cells
+      assertEquals(4, loader.writeHFiles(output));
+    }
+
+    FileSystem fs = output.getFileSystem(conf);
+    List<Cell> region0 = read(fs, new Path(output, "a/region-00000000"));
+    assertEquals(100, region0.size());
+    for (int i = 0; i < region0.size(); i++) {
+      assertEquals(i, Bytes.toInt(CellUtil.cloneRow(region0.get(i))));
+      assertEquals("new", Bytes.toString(CellUtil.cloneValue(region0.get(i))));
+    }
+    assertEquals(50, read(fs, new Path(output, "a/region-00000001")).size());
+    assertEquals(50, read(fs, new Path(output, "b/region-00000001")).size());
+    assertFalse(fs.exists(new Path(output, "a/region-00000002")));
+    // the spill files are deleted on close
+    assertEquals(1, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testFailedRegion() throws IOException {
+    Path output = new Path(folder.getRoot().getAbsolutePath(), "hfiles");
+    try (HFileBulkLoader loader = HFileBulkLoader.builder(conf, TABLE, SPLITS).spillDir(folder.getRoot().toPath())
+      .maxMemoryBytes(1024).build()) {
+      for (int i = 149; i >= 0; i--) {
+        loader.add(new Put(Bytes.toBytes(i)).addColumn(CF1, QUALIFIER, Bytes.toBytes(i))
+                     .addColumn(CF2, QUALIFIER, Bytes.toBytes(i)));
+      }
+      // the first run only holds cells of the second region, cut its last one short
+      File[] spillDirs = folder.getRoot().listFiles((dir, name) -> name.startsWith("hfile-bulk-loader-"));
+      try (FileChannel run = FileChannel.open(new File(spillDirs[0], "run-0").toPath(), StandardOpenOption.WRITE)) {
+        run.truncate(run.size() - 4);
+      }
+
+      try {
+        loader.writeHFiles(output);
+        fail("Expected the merge of the second region to fail");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+
+    // the region merged completely, but none of the HFiles begun for the failed one
+    FileSystem fs = output.getFileSystem(conf);
+    assertTrue(fs.exists(new Path(output, "a/region-00000000")));
+    assertFalse(fs.exists(new Path(output, "a/region-00000001")));
+    assertFalse(fs.exists(new Path(output, "b/region-00000001")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownFamily() throws IOException {
+    try (HFileBulkLoader loader = HFileBulkLoader.builder(conf, TABLE, SPLITS).spillDir(folder.getRoot().toPath())
+      .build()) {
+      loader.add(new Put(Bytes.toBytes(1)).addColumn(Bytes.toBytes("c"), QUALIFIER, Bytes.toBytes(1)));
+    }
+  }
+
+  private List<Cell> read(FileSystem fs, Path file) throws IOException {
+    List<Cell> cells = new ArrayList<>();
+    try (HFile.Reader reader = HFile.createReader(fs, file, CacheConfig.DISABLED, true, conf)) {
+      HFileScanner scanner = reader.getScanner(conf, false, false);
+      if (scanner.seekTo()) {
+        do {
+          cells.add(KeyValueUtil.copyToNewKeyValue(scanner.getCell()));
+        } while (scanner.next());
+      }
+    }
+    return cells;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+  @Test
+  public void testHash() {
+    // the published vectors of the 128 bit MurmurHash3, x64 variant, seed 0
+    assertEquals(0, HyperLogLog.hash(new byte[0], 0, 0));
+    assertEquals(0x629942693e10f867L, hash("hell"));
+    assertEquals(0xcbd8a7b341bd9b02L, hash("hello"));
+    assertEquals(0xe34bbc7bbc071b6cL, hash("The quick brown fox jumps over the lazy dog"));
+    byte[] padded = Bytes.toBytes("xhellox");
+    assertEquals(hash("hello"), HyperLogLog.hash(padded, 1, 5));
+  }
+
+  @Test
+  public void testEstimate() {
+    for (int distinct : new int[] {0, 1, 100, 10_000, 200_000}) {
+      HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+      for (int i = 0; i < distinct; i++) {
+        // every value twice
+        sketch.add(Bytes.toBytes("value" + i));
+        sketch.add(Bytes.toBytes("value" + i));
+      }
+      assertClose(distinct, sketch.estimate());
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    HyperLogLog a = new HyperLogLog(12);
+    HyperLogLog b = new HyperLogLog(12);
+    for (int i = 0; i < 30_000; i++) {
+      a.add(Bytes.toBytes(i));
+      b.add(Bytes.toBytes(i + 10_000));
+    }
+    a.merge(b);
+    assertClose(40_000, a.estimate());
+
+    HyperLogLog copy = HyperLogLog.fromBytes(a.toBytes());
+    assertEquals(12, copy.getPrecision());
+    assertEquals(a.estimate(), copy.estimate());
+    assertArrayEquals(a.toBytes(), copy.toBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeOfOtherPrecision() {
+    new HyperLogLog(12).merge(new HyperLogLog(14));
+  }
+
+  private static long hash(String value) {
+    byte[] bytes = Bytes.toBytes(value);
+    return HyperLogLog.hash(bytes, 0, bytes.length);
+  }
+
+  private static void assertClose(long expected, long actual) {
+    assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 20);
+  }
+}
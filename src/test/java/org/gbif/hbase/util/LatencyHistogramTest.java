@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    // buckets are contiguous and ordered, and each value is within its bucket
+    long previousHighest = -1;
+    for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+      long highest = LatencyHistogram.highestValue(bucket);
+      assertTrue(highest > previousHighest);
+      assertEquals(bucket, LatencyHistogram.bucket(previousHighest + 1));
+      assertEquals(bucket, LatencyHistogram.bucket(highest));
+      previousHighest = highest;
+    }
+    assertEquals(Long.MAX_VALUE, previousHighest);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 1000; micros++) {
+      histogram.record(micros * 1000);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(500_500, snapshot.getMean(), 0.001);
+    assertEquals(1_000_000, snapshot.getMax());
+    assertPrecise(500_000, snapshot.getValueAtPercentile(50));
+    assertPrecise(990_000, snapshot.getValueAtPercentile(99));
+    assertEquals(1_000_000, snapshot.getValueAtPercentile(100));
+
+    histogram.record(5_000_000);
+    LatencyHistogram.Snapshot since = histogram.snapshot().since(snapshot);
+    assertEquals(1, since.getCount());
+    assertPrecise(5_000_000, since.getValueAtPercentile(50));
+    assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+  }
+
+  private static void assertPrecise(long expected, long actual) {
+    assertTrue("Expected about " + expected + " but was " + actual,
+               actual >= expected && actual <= expected + expected / 16);
+  }
+}
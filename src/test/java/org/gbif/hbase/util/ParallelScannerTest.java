@@ -0,0 +1,281 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelScannerTest {
+
+  private static final byte[] B = Bytes.toBytes("b");
+  private static final byte[] D = Bytes.toBytes("d");
+  private static final byte[] F = Bytes.toBytes("f");
+
+  private static final TableName TABLE = TableName.valueOf("test");
+  private static final ServerName SERVER_A = ServerName.valueOf("host-a", 16020, 1L);
+  private static final ServerName SERVER_B = ServerName.valueOf("host-b", 16020, 1L);
+  private static final byte[] FAMILY = Bytes.toBytes("o");
+  // regions [, b) and [b, c) on SERVER_A, [c, d) and [d, e) on SERVER_B, [e, f) and [f, ) on SERVER_A
+  private static final String[] STARTS = {"", "b", "c", "d", "e", "f"};
+  private static final ServerName[] SERVERS = {SERVER_A, SERVER_A, SERVER_B, SERVER_B, SERVER_A, SERVER_A};
+  private static final int ROWS_PER_REGION = 20;
+
+  private final TreeSet<String> rows = new TreeSet<>();
+  // the [start, stop) of each sub-scan run
+  private final List<String> scans = Collections.synchronizedList(new ArrayList<>());
+  private final Map<ServerName, AtomicInteger> running = new HashMap<>();
+  private final Map<ServerName, AtomicInteger> maxRunning = new HashMap<>();
+  private final AtomicInteger open = new AtomicInteger();
+  private volatile String failingRow;
+
+  {
+    for (String start : STARTS) {
+      for (int i = 0; i < ROWS_PER_REGION; i++) {
+        rows.add((start.isEmpty() ? "a" : start) + String.format("%02d", i));
+      }
+    }
+    for (ServerName server : new ServerName[] {SERVER_A, SERVER_B}) {
+      running.put(server, new AtomicInteger());
+      maxRunning.put(server, new AtomicInteger());
+    }
+  }
+
+  private static ServerName serverOf(String row) {
+    for (int i = STARTS.length - 1; i >= 0; i--) {
+      if (row.compareTo(STARTS[i]) >= 0) {
+        return SERVERS[i];
+      }
+    }
+    throw new IllegalStateException(row);
+  }
+
+  private Connection connection() {
+    return Fakes.fake(Connection.class)
+      .on("getRegionLocator", args -> locator())
+      .on("getTable", args -> table())
+      .build();
+  }
+
+  private RegionLocator locator() {
+    return Fakes.fake(RegionLocator.class)
+      .on("getAllRegionLocations", args -> {
+        List<HRegionLocation> locations = new ArrayList<>();
+        for (int i = 0; i < STARTS.length; i++) {
+          byte[] end = i + 1 < STARTS.length ? Bytes.toBytes(STARTS[i + 1]) : HConstants.EMPTY_END_ROW;
+          locations.add(new HRegionLocation(
+            RegionInfoBuilder.newBuilder(TABLE).setStartKey(Bytes.toBytes(STARTS[i])).setEndKey(end).build(),
+            SERVERS[i]));
+        }
+        return locations;
+      })
+      .on("close", Fakes.NOTHING)
+      .build();
+  }
+
+  private Table table() {
+    return Fakes.fake(Table.class)
+      .on("getScanner", args -> {
+        if (!(args[0] instanceof Scan)) {
+          throw new UnsupportedOperationException("getScanner without a Scan");
+        }
+        return scanner((Scan) args[0]);
+      })
+      .on("close", Fakes.NOTHING)
+      .build();
+  }
+
+  /**
+   * A scanner over the rows of the scan, which lie on a single server, recording how many run at once per server.
+   */
+  private ResultScanner scanner(Scan scan) {
+    String start = Bytes.toString(scan.getStartRow());
+    String stop = Bytes.toString(scan.getStopRow());
+    scans.add(start + "-" + stop);
+    List<String> scanned = new ArrayList<>(stop.isEmpty() ? rows.tailSet(start) : rows.subSet(start, stop));
+    ServerName server = serverOf(start);
+    int now = running.get(server).incrementAndGet();
+    maxRunning.get(server).accumulateAndGet(now, Math::max);
+    open.incrementAndGet();
+    Iterator<String> iterator = scanned.iterator();
+    AtomicInteger closed = new AtomicInteger();
+    return Fakes.fake(ResultScanner.class)
+      .on("next", args -> {
+        if (!iterator.hasNext()) {
+          return null;
+        }
+        String row = iterator.next();
+        if (row.equals(failingRow)) {
+          throw new IOException("Failed to read " + row);
+        }
+        // slow enough for sub-scans to overlap
+        Thread.sleep(1);
+        byte[] key = Bytes.toBytes(row);
+        return Result.create(Collections.<Cell>singletonList(new KeyValue(key, FAMILY, FAMILY, key)));
+      })
+      .on("close", args -> {
+        if (closed.getAndIncrement() == 0) {
+          running.get(server).decrementAndGet();
+          open.decrementAndGet();
+        }
+        return null;
+      })
+      .on("getScanMetrics", Fakes.NOTHING)
+      .build();
+  }
+
+  private static List<String> readAll(ResultScanner scanner) throws IOException {
+    List<String> read = new ArrayList<>();
+    for (Result result = scanner.next(); result != null; result = scanner.next()) {
+      read.add(Bytes.toString(result.getRow()));
+    }
+    return read;
+  }
+
+  private ParallelScanner.Builder builder() {
+    return ParallelScanner.builder(connection(), TABLE).bufferSize(5);
+  }
+
+  @Test
+  public void testRestrictFullScan() throws IOException {
+    Scan restricted = ParallelScanner.restrict(new Scan(), B, D);
+    assertArrayEquals(B, restricted.getStartRow());
+    assertTrue(restricted.includeStartRow());
+    assertArrayEquals(D, restricted.getStopRow());
+    assertFalse(restricted.includeStopRow());
+
+    restricted = ParallelScanner.restrict(new Scan(), HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    assertArrayEquals(HConstants.EMPTY_START_ROW, restricted.getStartRow());
+    assertArrayEquals(HConstants.EMPTY_END_ROW, restricted.getStopRow());
+  }
+
+  @Test
+  public void testRestrictPartialScan() throws IOException {
+    Scan scan = new Scan().withStartRow(Bytes.toBytes("c"), false).withStopRow(Bytes.toBytes("e"), true);
+
+    Scan restricted = ParallelScanner.restrict(scan, B, D);
+    assertArrayEquals(Bytes.toBytes("c"), restricted.getStartRow());
+    assertFalse(restricted.includeStartRow());
+    assertArrayEquals(D, restricted.getStopRow());
+
+    restricted = ParallelScanner.restrict(scan, D, F);
+    assertArrayEquals(D, restricted.getStartRow());
+    assertTrue(restricted.includeStartRow());
+    assertArrayEquals(Bytes.toBytes("e"), restricted.getStopRow());
+    assertTrue(restricted.includeStopRow());
+
+    assertNull(ParallelScanner.restrict(scan, F, HConstants.EMPTY_END_ROW));
+    assertNull(ParallelScanner.restrict(new Scan().withStopRow(B), B, D));
+  }
+
+  @Test
+  public void testDispatch() throws IOException {
+    try (ParallelScanner scanner = builder().regionsPerScan(2).build();
+         ResultScanner results = scanner.scan(new Scan().withStartRow(Bytes.toBytes("b05")))) {
+      assertEquals(rows.tailSet("b05").size(), readAll(results).size());
+    }
+    // contiguous regions of a server are grouped, and the scan's own start row is kept
+    Collections.sort(scans);
+    assertEquals(Arrays.asList("b05-c", "c-e", "e-"), scans);
+  }
+
+  @Test
+  public void testUnordered() throws IOException {
+    try (ParallelScanner scanner = builder().maxConcurrentScans(4).maxConcurrentScansPerServer(1).build();
+         ResultScanner results = scanner.scan(new Scan())) {
+      List<String> read = readAll(results);
+      assertEquals(rows.size(), read.size());
+      assertEquals(rows, new TreeSet<>(read));
+    }
+    assertEquals(STARTS.length, scans.size());
+    // never more than the cap per server, however many threads are free
+    assertEquals(1, maxRunning.get(SERVER_A).get());
+    assertEquals(1, maxRunning.get(SERVER_B).get());
+    assertEquals(0, open.get());
+  }
+
+  @Test
+  public void testOrdered() throws IOException {
+    try (ParallelScanner scanner = builder().maxConcurrentScans(4).maxConcurrentScansPerServer(2).build();
+         ResultScanner results = scanner.scanOrdered(new Scan())) {
+      assertEquals(new ArrayList<>(rows), readAll(results));
+    }
+    assertEquals(STARTS.length, scans.size());
+    assertTrue(maxRunning.get(SERVER_A).get() <= 2);
+    assertTrue(maxRunning.get(SERVER_B).get() <= 2);
+    assertEquals(0, open.get());
+  }
+
+  @Test
+  public void testError() throws IOException {
+    failingRow = "d10";
+    for (boolean ordered : new boolean[] {false, true}) {
+      try (ParallelScanner scanner = builder().build();
+           ResultScanner results = ordered ? scanner.scanOrdered(new Scan()) : scanner.scan(new Scan())) {
+        readAll(results);
+        fail("Expected the failed sub-scan to fail the scan");
+      } catch (IOException e) {
+        assertEquals("Failed to read d10", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    try (ParallelScanner scanner = builder().bufferSize(1).build()) {
+      ResultScanner results = scanner.scan(new Scan());
+      assertTrue(results.next() != null);
+      results.close();
+      assertNull(results.next());
+
+      // the sub-scans blocked on the full buffer stop and close their scanners
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (open.get() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, open.get());
+      assertTrue(scans.size() < STARTS.length);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrefetchingScannerTest {
+
+  private static final Column COUNT = Column.of("o", "count");
+
+  /**
+   * Returns rows 0 to size - 1, each with a count column holding the row number, failing instead of returning row
+   * failAt.
+   */
+  private static class FakeScanner implements ResultScanner {
+    private final int size;
+    private final int failAt;
+    private int next;
+    private volatile boolean closed;
+
+    private FakeScanner(int size, int failAt) {
+      this.size = size;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public Result next() throws IOException {
+      if (next == failAt) {
+        throw new IOException("Failing at " + next);
+      }
+      if (next == size) {
+        return null;
+      }
+      Cell cell = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+        .setRow(Bytes.toBytes(next))
+        .setFamily(COUNT.getFamily())
+        .setQualifier(COUNT.getQualifier())
+        .setValue(Bytes.toBytes((long) next++))
+        .setType(Cell.Type.Put)
+        .build();
+      return Result.create(Collections.singletonList(cell));
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public boolean renewLease() {
+      return false;
+    }
+
+    @Override
+    public ScanMetrics getScanMetrics() {
+      return null;
+    }
+  }
+
+  @Test
+  public void testAllResultsInOrder() throws IOException {
+    FakeScanner delegate = new FakeScanner(1000, -1);
+    try (PrefetchingScanner scanner = new PrefetchingScanner(delegate, 7, 2, 1024)) {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i, ResultReader.getLong(scanner.next(), COUNT, -1L));
+      }
+      assertNull(scanner.next());
+    }
+    assertTrue(delegate.closed);
+  }
+
+  @Test
+  public void testBatches() throws IOException {
+    try (PrefetchingScanner scanner = new PrefetchingScanner(new FakeScanner(10, -1), 4, 2, Long.MAX_VALUE)) {
+      scanner.next();
+      assertEquals(3, scanner.nextBatch().length);
+      assertEquals(4, scanner.nextBatch().length);
+      assertEquals(2, scanner.nextBatch().length);
+      assertEquals(0, scanner.nextBatch().length);
+    }
+  }
+
+  @Test
+  public void testFailure() {
+    int read = 0;
+    try (PrefetchingScanner scanner = new PrefetchingScanner(new FakeScanner(1000, 500), 10, 3, Long.MAX_VALUE)) {
+      while (scanner.next() != null) {
+        read++;
+      }
+      fail("Expected the failure of the wrapped scanner");
+    } catch (IOException e) {
+      assertEquals(500, read);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RegionHotspotMonitorTest {
+
+  private static final TableName TABLE = TableName.valueOf("test");
+  private static final ServerName SERVER_1 = ServerName.valueOf("host1", 16020, 1L);
+  private static final ServerName SERVER_2 = ServerName.valueOf("host2", 16020, 1L);
+  private static final RegionInfo[] REGIONS = {
+    region(HConstants.EMPTY_START_ROW, Bytes.toBytes(10)),
+    region(Bytes.toBytes(10), Bytes.toBytes(20)),
+    region(Bytes.toBytes(20), HConstants.EMPTY_END_ROW)
+  };
+
+  private static RegionInfo region(byte[] start, byte[] end) {
+    return RegionInfoBuilder.newBuilder(TABLE).setStartKey(start).setEndKey(end).build();
+  }
+
+  /**
+   * The first two regions on one server, the last on another, with the given read counts and no writes.
+   */
+  private static List<RegionLoad> poll(long... reads) {
+    List<RegionLoad> loads = new ArrayList<>();
+    for (int i = 0; i < REGIONS.length; i++) {
+      loads.add(new RegionLoad(REGIONS[i], i < 2 ? SERVER_1 : SERVER_2, 0, 0, reads[i], 0));
+    }
+    return loads;
+  }
+
+  @Test
+  public void testRates() {
+    RegionHotspotMonitor monitor = new RegionHotspotMonitor(3);
+    RegionHotspotMonitor.Report report = monitor.record(0, poll(0, 0, 0));
+    assertEquals(0, report.getRegions().get(0).getRate(), 0);
+
+    monitor.record(1000, poll(10, 0, 100));
+    report = monitor.record(2000, poll(20, 0, 300));
+    assertEquals(10, report.getRegions().get(0).getReadRate(), 0.001);
+    assertEquals(150, report.getRegions().get(2).getReadRate(), 0.001);
+    assertSame(REGIONS[2], report.getTop(1).get(0).getLoad().getRegion());
+
+    // the window slides past the first poll
+    report = monitor.record(3000, poll(30, 0, 400));
+    assertEquals(150, report.getRegions().get(2).getReadRate(), 0.001);
+
+    // servers at 10 and 150 req/s average 80
+    assertEquals(150 / 80d, report.getServerImbalance(), 0.001);
+    assertEquals(150, report.getServerRates().get(SERVER_2), 0.001);
+    assertEquals(". @", report.getHeatMap(3));
+    assertEquals("@", report.getHeatMap(1));
+  }
+
+  @Test
+  public void testReopenedRegion() {
+    RegionHotspotMonitor monitor = new RegionHotspotMonitor(3);
+    monitor.record(0, poll(0, 0, 1000));
+    monitor.record(1000, poll(0, 0, 2000));
+    // the counters of the last region start again from zero
+    RegionHotspotMonitor.Report report = monitor.record(2000, poll(0, 0, 50));
+    assertEquals(0, report.getRegions().get(2).getRate(), 0);
+    report = monitor.record(3000, poll(0, 0, 100));
+    assertEquals(50, report.getRegions().get(2).getRate(), 0.001);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionInfoBuilder;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RegionLoadPlannerTest {
+
+  private static final TableName TABLE = TableName.valueOf("test");
+  private static final ServerName SERVER = ServerName.valueOf("host", 16020, 1L);
+
+  /**
+   * Regions split at 10, 20, ... with the given sizes and no requests.
+   */
+  private static List<RegionLoad> regions(long... sizes) {
+    List<RegionLoad> loads = new ArrayList<>();
+    for (int i = 0; i < sizes.length; i++) {
+      byte[] start = i == 0 ? HConstants.EMPTY_START_ROW : Bytes.toBytes(i * 10);
+      byte[] end = i == sizes.length - 1 ? HConstants.EMPTY_END_ROW : Bytes.toBytes((i + 1) * 10);
+      loads.add(new RegionLoad(RegionInfoBuilder.newBuilder(TABLE).setStartKey(start).setEndKey(end).build(), SERVER,
+                               sizes[i], 0, 0, 0));
+    }
+    return loads;
+  }
+
+  /**
+   * Splits a region [n, n + 10) into even pieces.
+   */
+  private static byte[][] chooseEvenly(RegionLoad region, int pieces) {
+    int start = region.getStartKey().length == 0 ? 0 : Bytes.toInt(region.getStartKey());
+    byte[][] points = new byte[pieces - 1][];
+    for (int i = 1; i < pieces; i++) {
+      points[i - 1] = Bytes.toBytes(start + i * 10 / pieces);
+    }
+    return points;
+  }
+
+  @Test
+  public void testSplitAndMerge() throws IOException {
+    RegionLoadPlanner planner = new RegionLoadPlanner(1, 1.5, 0.25, RegionLoadPlannerTest::chooseEvenly);
+    // total 100 over 5 regions: a target of 20 each
+    RegionLoadPlanner.Plan plan = planner.plan(regions(20, 1, 1, 1, 77), 5);
+
+    assertEquals(1, plan.getMerges().size());
+    assertEquals(3, plan.getMerges().get(0).size());
+    assertEquals(1, plan.getSplitRegions().size());
+    assertArrayEquals(Bytes.toBytes(40), plan.getSplitRegions().get(0).getStartKey());
+
+    byte[][] splitKeys = plan.getSplitKeys();
+    assertEquals(5, splitKeys.length);
+    assertArrayEquals(Bytes.toBytes(10), splitKeys[0]);
+    assertArrayEquals(Bytes.toBytes(40), splitKeys[1]);
+    assertArrayEquals(Bytes.toBytes(42), splitKeys[2]);
+    assertArrayEquals(Bytes.toBytes(45), splitKeys[3]);
+    assertArrayEquals(Bytes.toBytes(47), splitKeys[4]);
+  }
+
+  @Test
+  public void testBalancedTableIsUnchanged() throws IOException {
+    RegionLoadPlanner planner = new RegionLoadPlanner(0.5, 1.5, 0.25, RegionLoadPlannerTest::chooseEvenly);
+    RegionLoadPlanner.Plan plan = planner.plan(regions(10, 12, 9, 11), 4);
+    assertEquals(0, plan.getMerges().size());
+    assertEquals(0, plan.getSplitRegions().size());
+    assertEquals(3, plan.getSplitKeys().length);
+  }
+
+  @Test
+  public void testArguments() {
+    // options may come before, between or after the positional arguments
+    RegionLoadPlanner.Arguments arguments =
+      RegionLoadPlanner.Arguments.parse(new String[] {"t", "splits.txt", "--apply", "1000"});
+    assertEquals("t", arguments.getTable());
+    assertEquals("splits.txt", arguments.getSplitsFile());
+    assertNull(arguments.getTargetRegions());
+    assertEquals(0.5, arguments.getSizeWeight(), 0);
+    assertEquals(Long.valueOf(1000), arguments.getPauseMs());
+
+    arguments = RegionLoadPlanner.Arguments.parse(new String[] {"t", "splits.txt", "20", "--apply", "5", "0.3"});
+    assertEquals(Integer.valueOf(20), arguments.getTargetRegions());
+    assertEquals(0.3, arguments.getSizeWeight(), 0);
+    assertEquals(Long.valueOf(5), arguments.getPauseMs());
+
+    arguments = RegionLoadPlanner.Arguments.parse(new String[] {"--apply", "5", "t", "splits.txt", "20"});
+    assertEquals("t", arguments.getTable());
+    assertEquals(Integer.valueOf(20), arguments.getTargetRegions());
+    assertNull(RegionLoadPlanner.Arguments.parse(new String[] {"t", "splits.txt"}).getPauseMs());
+
+    assertNull(RegionLoadPlanner.Arguments.parse(new String[] {"t"}));
+    assertNull(RegionLoadPlanner.Arguments.parse(new String[] {"t", "splits.txt", "--apply"}));
+    assertNull(RegionLoadPlanner.Arguments.parse(new String[] {"t", "splits.txt", "many"}));
+  }
+}
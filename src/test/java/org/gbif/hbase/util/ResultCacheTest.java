@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+  private static final Column VALUE = Column.of("o", "v");
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private final AtomicLong now = new AtomicLong();
+
+  /**
+   * Rows with even keys exist and hold their key; odd ones don't exist.
+   */
+  private Result load(byte[] row) {
+    loads.incrementAndGet();
+    int key = Bytes.toInt(row);
+    if (key % 2 != 0) {
+      return Result.EMPTY_RESULT;
+    }
+    Cell cell = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+      .setRow(row)
+      .setFamily(VALUE.getFamily())
+      .setQualifier(VALUE.getQualifier())
+      .setValue(Bytes.toBytes(key))
+      .setType(Cell.Type.Put)
+      .build();
+    return Result.create(Collections.singletonList(cell));
+  }
+
+  private ResultCache.Builder builder() {
+    return ResultCache.builder(this::load).ticker(now::get).segments(1);
+  }
+
+  @Before
+  public void setup() {
+    loads.set(0);
+    now.set(0);
+  }
+
+  @Test
+  public void testReadThrough() throws IOException {
+    ResultCache cache = builder().build();
+    assertEquals(2, ResultReader.getInt(cache.get(Bytes.toBytes(2)), VALUE, -1));
+    assertEquals(2, ResultReader.getInt(cache.get(Bytes.toBytes(2)), VALUE, -1));
+    assertTrue(cache.get(Bytes.toBytes(3)).isEmpty());
+    assertTrue(cache.get(Bytes.toBytes(3)).isEmpty());
+    assertEquals(2, loads.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getNegativeHits());
+    assertEquals(2, cache.getMisses());
+
+    cache.invalidate(Bytes.toBytes(2));
+    cache.get(Bytes.toBytes(2));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  public void testInvalidatedWhileLoading() throws IOException {
+    ResultCache[] cache = new ResultCache[1];
+    AtomicBoolean writing = new AtomicBoolean(true);
+    // a write and its invalidation land while the row is being read
+    cache[0] = ResultCache.builder(row -> {
+      Result result = load(row);
+      if (writing.get()) {
+        cache[0].invalidate(row);
+      }
+      return result;
+    }).ticker(now::get).segments(1).build();
+
+    assertEquals(2, ResultReader.getInt(cache[0].get(Bytes.toBytes(2)), VALUE, -1));
+    assertEquals(0, cache[0].size());
+
+    // loads that don't overlap an invalidation are cached
+    writing.set(false);
+    cache[0].get(Bytes.toBytes(2));
+    cache[0].get(Bytes.toBytes(2));
+    assertEquals(1, cache[0].size());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testTtl() throws IOException {
+    ResultCache cache = builder().ttl(10, TimeUnit.NANOSECONDS).negativeTtl(5, TimeUnit.NANOSECONDS).build();
+    cache.get(Bytes.toBytes(2));
+    cache.get(Bytes.toBytes(3));
+    now.set(6);
+    cache.get(Bytes.toBytes(2));
+    cache.get(Bytes.toBytes(3));
+    assertEquals(3, loads.get());
+    assertEquals(1, cache.getExpirations());
+
+    now.set(20);
+    cache.get(Bytes.toBytes(2));
+    assertEquals(4, loads.get());
+  }
+
+  @Test
+  public void testEvictionBySize() throws IOException {
+    ResultCache cache = builder().maxBytes(2000).build();
+    for (int i = 0; i < 100; i += 2) {
+      cache.get(Bytes.toBytes(i));
+    }
+    assertTrue(cache.getEstimatedBytes() <= 2000);
+    assertTrue(cache.getEvictions() > 0);
+    assertEquals(50, cache.size() + cache.getEvictions());
+
+    // the most recently used row is still cached, the first one is not
+    cache.get(Bytes.toBytes(98));
+    assertEquals(50, loads.get());
+    cache.get(Bytes.toBytes(0));
+    assertEquals(51, loads.get());
+  }
+}
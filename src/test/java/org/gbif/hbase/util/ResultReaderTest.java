@@ -13,6 +13,7 @@
  */
 package org.gbif.hbase.util;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -26,6 +27,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ResultReaderTest {
@@ -159,4 +161,79 @@ public class ResultReaderTest {
     test = ResultReader.getBytes(result, CF2_NAME, BYTES_COL_NAME, null);
     assertTrue(Arrays.equals(BYTES_VAL_2, test));
   }
+
+  @Test
+  public void testColumn() {
+    Column stringCol = Column.of(CF1_NAME, STRING_COL_NAME);
+    assertEquals(STRING_VAL_1, ResultReader.getString(result, stringCol, null));
+    assertEquals(Integer.valueOf(INT_VAL_2), ResultReader.getInteger(result, Column.of(CF2, INT_COL), null));
+    assertEquals(Long.valueOf(LONG_VAL_1), ResultReader.getLong(result, Column.of(CF1, LONG_COL), null));
+    assertEquals(DOUBLE_VAL_2, ResultReader.getDouble(result, Column.of(CF2, DOUBLE_COL), null), 0.00001);
+    assertTrue(Arrays.equals(BYTES_VAL_1, ResultReader.getBytes(result, Column.of(CF1, BYTES_COL), null)));
+    assertEquals("a default value", ResultReader.getString(result, Column.of(CF1_NAME, "fake col"), "a default value"));
+
+    assertEquals(stringCol, Column.of(CF1, STRING_COL));
+    assertEquals(stringCol.hashCode(), Column.of(CF1, STRING_COL).hashCode());
+    assertTrue(Column.of(CF1, INT_COL).compareTo(Column.of(CF2, BYTES_COL)) < 0);
+    assertTrue(Column.of(CF1, DOUBLE_COL).compareTo(Column.of(CF1, INT_COL)) > 0);
+  }
+
+  @Test
+  public void testPrimitives() {
+    assertEquals(INT_VAL_1, ResultReader.getInt(result, Column.of(CF1, INT_COL), -1));
+    assertEquals(-1, ResultReader.getInt(result, Column.of(CF1_NAME, "fake col"), -1));
+    assertEquals(LONG_VAL_2, ResultReader.getLong(result, CF2_NAME, LONG_COL_NAME, -1L));
+    assertEquals(-1L, ResultReader.getLong(result, CF2_NAME, "fake col", -1L));
+    assertEquals(DOUBLE_VAL_1, ResultReader.getDouble(result, Column.of(CF1, DOUBLE_COL), -1d), 0.00001);
+    assertEquals(-1d, ResultReader.getDouble(result, Column.of(CF1_NAME, "fake col"), -1d), 0.00001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPrimitiveWrongLength() {
+    ResultReader.getInt(result, Column.of(CF1, LONG_COL), -1);
+  }
+
+  @Test
+  public void testBoxedByNameDecodesLeadingBytes() {
+    // as Bytes.toInt(byte[]) and friends did before Column handles: a longer value is decoded from its leading bytes
+    byte[] longValue = Bytes.toBytes(LONG_VAL_1);
+    assertEquals(Integer.valueOf(Bytes.toInt(longValue)),
+                 ResultReader.getInteger(result, CF1_NAME, LONG_COL_NAME, null));
+    assertEquals(Float.valueOf(Bytes.toFloat(longValue)),
+                 ResultReader.getFloat(result, CF1_NAME, LONG_COL_NAME, (Float) null));
+  }
+
+  @Test
+  public void testPrimitiveByNameDecodesLeadingBytes() {
+    // a primitive default selects the primitive overloads, which decode by name as the boxed getters do
+    byte[] bytesValue = BYTES_VAL_1;
+    assertEquals(Bytes.toLong(bytesValue), ResultReader.getLong(result, CF1_NAME, BYTES_COL_NAME, 0L));
+    assertEquals(Bytes.toDouble(bytesValue), ResultReader.getDouble(result, CF1_NAME, BYTES_COL_NAME, 0d), 0);
+    byte[] longValue = Bytes.toBytes(LONG_VAL_1);
+    assertEquals(Bytes.toInt(longValue), ResultReader.getInt(result, CF1_NAME, LONG_COL_NAME, 0));
+    assertEquals(Bytes.toFloat(longValue), ResultReader.getFloat(result, CF1_NAME, LONG_COL_NAME, 0f), 0);
+    assertEquals(Bytes.toShort(longValue), ResultReader.getShort(result, CF1_NAME, LONG_COL_NAME, (short) 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBoxedByNameTooShort() {
+    ResultReader.getLong(result, CF1_NAME, INT_COL_NAME, (Long) null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBoxedByColumnWrongLength() {
+    ResultReader.getInteger(result, Column.of(CF1, LONG_COL), null);
+  }
+
+  @Test
+  public void testValueBuffer() {
+    ByteBuffer buffer = ResultReader.getValueBuffer(result, Column.of(CF2, BYTES_COL));
+    assertEquals(BYTES_VAL_2.length, buffer.remaining());
+    byte[] copy = new byte[buffer.remaining()];
+    buffer.get(copy);
+    assertTrue(Arrays.equals(BYTES_VAL_2, copy));
+    assertTrue(buffer.isReadOnly());
+
+    assertNull(ResultReader.getValueBuffer(result, Column.of(CF2_NAME, "fake col")));
+  }
 }
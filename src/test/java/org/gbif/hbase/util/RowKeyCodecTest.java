@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FuzzyRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Order;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RowKeyCodecTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("o");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static boolean inScan(Scan scan, byte[] key) {
+    return Bytes.compareTo(scan.getStartRow(), key) <= 0
+           && (scan.getStopRow().length == 0 || Bytes.compareTo(key, scan.getStopRow()) < 0);
+  }
+
+  private static boolean matches(Filter filter, byte[] key) throws IOException {
+    return filter.filterCell(new KeyValue(key, FAMILY, FAMILY, FAMILY)) == Filter.ReturnCode.INCLUDE;
+  }
+
+  /**
+   * Asserts that the values, given in ascending order, encode to keys in the same order.
+   */
+  private static void assertOrdered(RowKeyCodec codec, Object... values) {
+    for (int i = 1; i < values.length; i++) {
+      byte[] before = codec.encode(values[i - 1]);
+      byte[] after = codec.encode(values[i]);
+      assertTrue(values[i - 1] + " should sort before " + values[i], Bytes.compareTo(before, after) < 0);
+    }
+  }
+
+  @Test
+  public void testOrdering() {
+    assertOrdered(RowKeyCodec.parse("int"), null, Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE);
+    assertOrdered(RowKeyCodec.parse("long"), null, Long.MIN_VALUE, -42L, 0L, 42L, Long.MAX_VALUE);
+    assertOrdered(RowKeyCodec.parse("double"), null, Double.NEGATIVE_INFINITY, -1.5, -0.5, 0d, 0.5, 1e300);
+    assertOrdered(RowKeyCodec.parse("string"), null, "", "a", "ab", "b", "é");
+    assertOrdered(RowKeyCodec.parse("timestamp"), null, Instant.ofEpochMilli(-1), Instant.EPOCH, Instant.now());
+    // descending components sort the other way, with nulls last
+    assertOrdered(RowKeyCodec.parse("long:desc"), Long.MAX_VALUE, 1L, -1L, Long.MIN_VALUE, null);
+    assertOrdered(RowKeyCodec.parse("string:desc"), "b", "ab", "a", "", null);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    RowKeyCodec codec = RowKeyCodec.builder()
+      .add(RowKeyCodec.Type.INT)
+      .addDescending(RowKeyCodec.Type.STRING)
+      .add(RowKeyCodec.Type.DOUBLE)
+      .add(RowKeyCodec.Type.TIMESTAMP)
+      .add(RowKeyCodec.Type.LONG, Order.DESCENDING)
+      .build();
+    assertEquals("int,string:desc,double,timestamp,long:desc", codec.toString());
+    assertEquals(codec, RowKeyCodec.parse(codec.toString()));
+
+    Object[] values = {-7, "Puma concolor", -0.25, Instant.ofEpochMilli(1700000000123L), 99L};
+    byte[] key = codec.encode(values);
+    assertEquals(5 + 2 + 13 + 9 + 9 + 9, key.length);
+    assertArrayEquals(values, codec.decode(key));
+    assertArrayEquals(new Object[] {-7, null}, codec.decode(codec.encode(-7, null)));
+    // timestamps accept ms, and ints widen to longs
+    assertArrayEquals(key, codec.encode(-7, "Puma concolor", -0.25, 1700000000123L, 99));
+
+    try {
+      codec.encode("not an int");
+      fail("Wrong type encoded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      codec.decode(Bytes.toBytes(42));
+      fail("Raw int decoded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testScans() {
+    RowKeyCodec codec = RowKeyCodec.parse("string,long,int");
+    Scan prefix = codec.prefixScan("Aves");
+    assertTrue(inScan(prefix, codec.encode("Aves", Long.MIN_VALUE, 1)));
+    assertTrue(inScan(prefix, codec.encode("Aves", null)));
+    assertFalse(inScan(prefix, codec.encode("Avesa", 0L)));
+    assertFalse(inScan(prefix, codec.encode("Ave", 0L)));
+
+    Scan range = codec.rangeScan(new Object[] {"Aves"}, -10L, true, 20L, false);
+    assertTrue(inScan(range, codec.encode("Aves", -10L, Integer.MIN_VALUE)));
+    assertTrue(inScan(range, codec.encode("Aves", 19L, Integer.MAX_VALUE)));
+    assertFalse(inScan(range, codec.encode("Aves", -11L, Integer.MAX_VALUE)));
+    assertFalse(inScan(range, codec.encode("Aves", 20L, Integer.MIN_VALUE)));
+    assertFalse(inScan(range, codec.encode("Aves", null, 0)));
+
+    range = codec.rangeScan(new Object[] {"Aves"}, -10L, false, 20L, true);
+    assertFalse(inScan(range, codec.encode("Aves", -10L, Integer.MAX_VALUE)));
+    assertTrue(inScan(range, codec.encode("Aves", 20L, Integer.MAX_VALUE)));
+    assertFalse(inScan(range, codec.encode("Aves", 21L, Integer.MIN_VALUE)));
+
+    // open ranges on descending components
+    RowKeyCodec descending = RowKeyCodec.parse("long:desc");
+    range = descending.rangeScan(new Object[0], 5L, true, null, false);
+    assertTrue(inScan(range, descending.encode(5L)));
+    assertTrue(inScan(range, descending.encode(Long.MAX_VALUE)));
+    assertFalse(inScan(range, descending.encode(4L)));
+
+    assertArrayEquals(new byte[] {1, 3}, RowKeyCodec.stopRow(new byte[] {1, 2}));
+    assertArrayEquals(new byte[] {2}, RowKeyCodec.stopRow(new byte[] {1, (byte) 0xff}));
+    assertEquals(0, RowKeyCodec.stopRow(new byte[] {(byte) 0xff}).length);
+  }
+
+  @Test
+  public void testFuzzyFilter() throws IOException {
+    RowKeyCodec codec = RowKeyCodec.parse("int,long:desc,string");
+    FuzzyRowFilter filter = codec.fuzzyFilter(RowKeyCodec.ANY, 42L);
+    assertTrue(matches(filter, codec.encode(1, 42L, "a")));
+    assertTrue(matches(filter, codec.encode(-1000, 42L, "b")));
+    assertFalse(matches(filter, codec.encode(1, 43L, "a")));
+
+    try {
+      RowKeyCodec.parse("string,int").fuzzyFilter(RowKeyCodec.ANY, 1);
+      fail("Variable width wildcard accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSplitsFile() throws IOException {
+    RowKeyCodec codec = RowKeyCodec.parse("long,string:desc");
+    List<byte[]> splits = new ArrayList<>();
+    for (long id : new long[] {-100, -1, 0, 100}) {
+      splits.add(codec.encode(id));
+    }
+    splits.add(codec.encode(100L, "b"));
+    splits.add(codec.encode(100L, null));
+    String file = folder.newFile().getPath();
+    SplitsFile.writeKeys(file, codec, splits.toArray(new byte[0][]));
+
+    byte[][] read = SplitsFile.read(file);
+    assertEquals(splits.size(), read.length);
+    for (int i = 0; i < read.length; i++) {
+      assertArrayEquals(splits.get(i), read[i]);
+    }
+    // unlike int splits, they are in the order of the table
+    byte[][] sorted = read.clone();
+    Arrays.sort(sorted, Bytes.BYTES_COMPARATOR);
+    assertArrayEquals(read, sorted);
+
+    try {
+      SplitsFile.writeKeys(file, codec, new byte[][] {Bytes.toBytes("midpoint")});
+      fail("Split of another encoding written");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RowMapperTest {
+
+  private static final byte[] KEY = Bytes.toBytes("12345");
+  private static final byte[] CF1 = Bytes.toBytes("1");
+  private static final byte[] CF2 = Bytes.toBytes("2");
+
+  private static final Column INT_COL = Column.of(CF1, Bytes.toBytes("a"));
+  private static final Column LONG_COL = Column.of(CF1, Bytes.toBytes("c"));
+  private static final Column MISSING_COL = Column.of(CF1, Bytes.toBytes("cc"));
+  private static final Column STRING_COL = Column.of(CF2, Bytes.toBytes("d"));
+  private static final Column DOUBLE_COL = Column.of(CF2, Bytes.toBytes("f"));
+  private static final Column EXTRA_COL = Column.of(CF2, Bytes.toBytes("e"));
+
+  private static final RowMapper<Holder> MAPPER = RowMapper.builder(Holder::new)
+    .mapString(STRING_COL, (h, v) -> h.string = v)
+    .mapLong(LONG_COL, (h, v) -> h.longVal = v)
+    .mapInt(INT_COL, (h, v) -> h.intVal = v)
+    .mapDouble(DOUBLE_COL, (h, v) -> h.doubleVal = v)
+    .mapInt(MISSING_COL, (h, v) -> h.missing = v)
+    .build();
+
+  private Result result;
+
+  private static class Holder {
+    private int intVal;
+    private long longVal;
+    private double doubleVal;
+    private String string;
+    private int missing = -1;
+  }
+
+  private static Cell newCell(Column column, long timestamp, byte[] value) {
+    return CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+            .setRow(KEY)
+            .setFamily(column.getFamily())
+            .setQualifier(column.getQualifier())
+            .setTimestamp(timestamp)
+            .setValue(value)
+            .setType(Cell.Type.Put)
+            .build();
+  }
+
+  @Before
+  public void setup() {
+    // cells must be in HBase order: family, qualifier, then newest version first
+    List<Cell> cells = new ArrayList<>();
+    cells.add(newCell(INT_COL, 1, Bytes.toBytes(42)));
+    cells.add(newCell(LONG_COL, 2, Bytes.toBytes(43L)));
+    cells.add(newCell(LONG_COL, 1, Bytes.toBytes(7L)));
+    cells.add(newCell(STRING_COL, 1, Bytes.toBytes("forty-four")));
+    cells.add(newCell(EXTRA_COL, 1, Bytes.toBytes("unexpected")));
+    cells.add(newCell(DOUBLE_COL, 1, Bytes.toBytes(45.5d)));
+    result = Result.create(cells);
+  }
+
+  @Test
+  public void testMap() {
+    Holder holder = MAPPER.map(result);
+    assertEquals(42, holder.intVal);
+    assertEquals(43L, holder.longVal);
+    assertEquals("forty-four", holder.string);
+    assertEquals(45.5d, holder.doubleVal, 0.00001);
+    assertEquals(-1, holder.missing);
+  }
+
+  @Test
+  public void testMapImmutable() {
+    RowMapper<Object[]> mapper = RowMapper.builder(() -> new Object[2])
+      .mapString(STRING_COL, (values, v) -> values[0] = v)
+      .mapInt(MISSING_COL, (values, v) -> values[1] = v)
+      .build();
+    Immutable immutable = mapper.map(result, values -> new Immutable((String) values[0], (Integer) values[1]));
+    assertEquals("forty-four", immutable.string);
+    assertNull(immutable.missing);
+  }
+
+  private static final class Immutable {
+    private final String string;
+    private final Integer missing;
+
+    private Immutable(String string, Integer missing) {
+      this.string = string;
+      this.missing = missing;
+    }
+  }
+
+  @Test
+  public void testReport() {
+    RowMapper.Report report = new RowMapper.Report();
+    MAPPER.map(result, new Holder(), report);
+    assertFalse(report.isExact());
+    assertEquals(Arrays.asList(MISSING_COL), report.getMissing());
+    assertEquals(1, report.getUnexpected().size());
+    assertTrue(CellUtil.matchingColumn(report.getUnexpected().get(0), EXTRA_COL.getFamily(),
+                                       EXTRA_COL.getQualifier()));
+
+    MAPPER.map(Result.EMPTY_RESULT, new Holder(), report);
+    assertEquals(MAPPER.getColumns(), report.getMissing());
+    assertTrue(report.getUnexpected().isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateColumn() {
+    RowMapper.builder(Holder::new)
+      .mapInt(INT_COL, (h, v) -> h.intVal = v)
+      .mapInt(Column.of(CF1, Bytes.toBytes("a")), (h, v) -> h.missing = v);
+  }
+}
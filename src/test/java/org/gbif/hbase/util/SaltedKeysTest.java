@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellBuilderFactory;
+import org.apache.hadoop.hbase.CellBuilderType;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SaltedKeysTest {
+
+  private static final byte[] FAMILY = Bytes.toBytes("o");
+
+  /**
+   * Returns the given rows in order.
+   */
+  private static class ListScanner implements ResultScanner {
+    private final Iterator<byte[]> rows;
+    private boolean closed;
+
+    private ListScanner(List<byte[]> rows) {
+      this.rows = rows.iterator();
+    }
+
+    @Override
+    public Result next() {
+      if (!rows.hasNext()) {
+        return null;
+      }
+      Cell cell = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY)
+        .setRow(rows.next())
+        .setFamily(FAMILY)
+        .setQualifier(FAMILY)
+        .setValue(FAMILY)
+        .setType(Cell.Type.Put)
+        .build();
+      return Result.create(Collections.singletonList(cell));
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public boolean renewLease() {
+      return true;
+    }
+
+    @Override
+    public ScanMetrics getScanMetrics() {
+      return null;
+    }
+  }
+
+  @Test
+  public void testSalt() {
+    SaltedKeys salted = new SaltedKeys(16);
+    int[] counts = new int[16];
+    for (int id = 0; id < 16_000; id++) {
+      byte[] key = Bytes.toBytes(id);
+      byte[] salt = salted.salt(key);
+      assertEquals(salted.bucket(key), SaltedKeys.bucketOf(salt));
+      assertArrayEquals(key, SaltedKeys.unsalt(salt));
+      counts[SaltedKeys.bucketOf(salt)]++;
+    }
+    // sequential ids spread evenly over the buckets
+    for (int count : counts) {
+      assertTrue("Uneven bucket of " + count, count > 800 && count < 1200);
+    }
+    // the bucket of a key never changes, as data written with it depends on that
+    assertEquals(new SaltedKeys(16).bucket(Bytes.toBytes(42)), salted.bucket(Bytes.toBytes(42)));
+  }
+
+  @Test
+  public void testSplitKeys() {
+    SaltedKeys salted = new SaltedKeys(2);
+    assertArrayEquals(new byte[][] {{1}}, salted.splitKeys(new byte[0][]));
+    assertArrayEquals(new byte[][] {{0, 'm'}, {1}, {1, 'm'}}, salted.splitKeys(new byte[][] {Bytes.toBytes("m")}));
+    assertArrayEquals(new byte[][] {{0, (byte) 128}, {1}, {1, (byte) 128}}, salted.splitKeys(2));
+    assertEquals(255, new SaltedKeys(256).splitKeys(1).length);
+  }
+
+  @Test
+  public void testBucketScan() throws IOException {
+    Scan logical = new Scan().withStartRow(Bytes.toBytes("b")).withStopRow(Bytes.toBytes("d"));
+    Scan scan = SaltedKeys.bucketScan(logical, 3);
+    assertArrayEquals(new byte[] {3, 'b'}, scan.getStartRow());
+    assertArrayEquals(new byte[] {3, 'd'}, scan.getStopRow());
+
+    scan = SaltedKeys.bucketScan(new Scan(), 3);
+    assertArrayEquals(new byte[] {3}, scan.getStartRow());
+    assertArrayEquals(new byte[] {4}, scan.getStopRow());
+    assertEquals(0, SaltedKeys.bucketScan(new Scan(), 255).getStopRow().length);
+  }
+
+  /**
+   * @return one scanner per bucket, each holding the ids below 100 of its bucket
+   */
+  private static List<ResultScanner> bucketScanners(SaltedKeys salted, int buckets) {
+    List<List<byte[]>> rows = new ArrayList<>();
+    for (int i = 0; i < buckets; i++) {
+      rows.add(new ArrayList<>());
+    }
+    // ids added in order are in salted key order within each bucket
+    for (int id = 0; id < 100; id++) {
+      byte[] key = salted.salt(Bytes.toBytes(id));
+      rows.get(SaltedKeys.bucketOf(key)).add(key);
+    }
+    List<ResultScanner> scanners = new ArrayList<>();
+    for (List<byte[]> bucket : rows) {
+      scanners.add(new ListScanner(bucket));
+    }
+    return scanners;
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+    List<ResultScanner> scanners = bucketScanners(new SaltedKeys(4), 4);
+    try (ResultScanner merged = SaltedKeys.merge(scanners)) {
+      for (int id = 0; id < 100; id++) {
+        assertEquals(id, Bytes.toInt(SaltedKeys.unsalt(merged.next().getRow())));
+      }
+      assertNull(merged.next());
+      assertTrue(merged.renewLease());
+    }
+    assertTrue(((ListScanner) scanners.get(0)).closed);
+  }
+
+  @Test
+  public void testMergeLimit() throws IOException {
+    // each bucket is scanned up to the limit, but the merge returns no more than the limit in all
+    try (ResultScanner merged = SaltedKeys.merge(bucketScanners(new SaltedKeys(4), 4), 10)) {
+      for (int id = 0; id < 10; id++) {
+        assertEquals(id, Bytes.toInt(SaltedKeys.unsalt(merged.next().getRow())));
+      }
+      assertNull(merged.next());
+    }
+  }
+
+  @Test
+  public void testMergeFailure() {
+    List<ResultScanner> scanners = bucketScanners(new SaltedKeys(2), 2);
+    scanners.add(new ListScanner(Collections.emptyList()) {
+      @Override
+      public Result next() {
+        throw new IllegalStateException("Scanner failed");
+      }
+    });
+    try {
+      SaltedKeys.merge(scanners);
+      fail("Expected the merge to fail");
+    } catch (IOException | IllegalStateException e) {
+      // the scanners opened are closed
+      assertTrue(((ListScanner) scanners.get(0)).closed);
+      assertTrue(((ListScanner) scanners.get(2)).closed);
+    }
+  }
+}
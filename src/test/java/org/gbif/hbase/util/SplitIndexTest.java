@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SplitIndexTest {
+
+  private static final byte[][] SPLITS = {Bytes.toBytes("b"), Bytes.toBytes("bb"), Bytes.toBytes("d")};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRegion() {
+    SplitIndex index = SplitIndex.of(SPLITS);
+    assertEquals(3, index.size());
+    assertEquals(4, index.regions());
+    assertEquals(0, index.region(new byte[0]));
+    assertEquals(0, index.region(Bytes.toBytes("a")));
+    assertEquals(1, index.region(Bytes.toBytes("b")));
+    assertEquals(1, index.region(Bytes.toBytes("ba")));
+    assertEquals(2, index.region(Bytes.toBytes("bb")));
+    assertEquals(2, index.region(Bytes.toBytes("c")));
+    assertEquals(3, index.region(Bytes.toBytes("d")));
+    assertEquals(3, index.region(Bytes.toBytes("zzz")));
+
+    byte[] slice = Bytes.toBytes("xxbbxx");
+    assertEquals(2, index.region(slice, 2, 2));
+    assertEquals(0, SplitIndex.of(new byte[0][]).region(Bytes.toBytes("a")));
+  }
+
+  @Test
+  public void testReadWrite() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("splits.idx");
+    SplitIndex.of(SPLITS).write(file);
+
+    SplitIndex index = SplitIndex.read(file);
+    for (int i = 0; i < SPLITS.length; i++) {
+      assertArrayEquals(SPLITS[i], index.getSplitKey(i));
+    }
+    assertEquals(2, index.region(Bytes.toBytes("c")));
+    assertArrayEquals(SPLITS, SplitsFile.read(file.toString()));
+    assertArrayEquals(Files.readAllBytes(file), SplitIndex.wrap(ByteBuffer.wrap(index.toByteArray())).toByteArray());
+  }
+
+  @Test
+  public void testCorrupt() {
+    byte[] bytes = SplitIndex.of(SPLITS).toByteArray();
+    bytes[bytes.length - 6]++;
+    try {
+      SplitIndex.wrap(ByteBuffer.wrap(bytes));
+      fail("Expected the checksum to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      SplitIndex.wrap(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+      fail("Expected the truncated index to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsorted() {
+    SplitIndex.of(new byte[][] {Bytes.toBytes("b"), Bytes.toBytes("a")});
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SplitPlannerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testBalancedByRows() {
+    SplitPlanner planner = new SplitPlanner(SplitPlanner.Balance.ROWS, 1000, 1);
+    for (int i = 0; i < 1000; i++) {
+      planner.offer(Bytes.toBytes(i), 1);
+    }
+    byte[][] splits = planner.plan(4);
+    assertEquals(3, splits.length);
+    assertArrayEquals(Bytes.toBytes(250), splits[0]);
+    assertArrayEquals(Bytes.toBytes(500), splits[1]);
+    assertArrayEquals(Bytes.toBytes(750), splits[2]);
+  }
+
+  @Test
+  public void testBalancedByBytes() {
+    SplitPlanner planner = new SplitPlanner(SplitPlanner.Balance.BYTES, 1000, 1);
+    // the first 100 rows hold as many bytes as the other 900
+    for (int i = 0; i < 1000; i++) {
+      planner.offer(Bytes.toBytes(i), i < 100 ? 9 : 1);
+    }
+    byte[][] splits = planner.plan(2);
+    assertEquals(1, splits.length);
+    assertArrayEquals(Bytes.toBytes(100), splits[0]);
+  }
+
+  @Test
+  public void testSampledSplitsAreSortedAndDistinct() {
+    SplitPlanner planner = new SplitPlanner(SplitPlanner.Balance.ROWS, 500, 1);
+    for (int i = 0; i < 100_000; i++) {
+      planner.offer(Bytes.toBytes("key" + (i % 50)), 1);
+    }
+    byte[][] splits = planner.plan(100);
+    assertTrue(splits.length <= 50);
+    for (int i = 1; i < splits.length; i++) {
+      assertTrue(Bytes.compareTo(splits[i - 1], splits[i]) < 0);
+    }
+  }
+
+  @Test
+  public void testSplitsFile() throws IOException {
+    byte[][] splits = {Bytes.toBytes(-1), Bytes.toBytes("a\tb\\c"), new byte[] {0, (byte) 0xff, '\n'}};
+    File file = folder.newFile();
+    SplitsFile.writeBinary(file.getPath(), splits);
+    byte[][] read = SplitsFile.read(file.getPath());
+    assertEquals(splits.length, read.length);
+    for (int i = 0; i < splits.length; i++) {
+      assertArrayEquals(splits[i], read[i]);
+    }
+
+    Files.write(file.toPath(), Arrays.asList("10", "", "20"), StandardCharsets.UTF_8);
+    read = SplitsFile.read(file.getPath());
+    assertEquals(2, read.length);
+    assertArrayEquals(Bytes.toBytes(10), read[0]);
+    assertArrayEquals(Bytes.toBytes(20), read[1]);
+  }
+}
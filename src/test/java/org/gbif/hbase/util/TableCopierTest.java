@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TableCopierTest {
+
+  private static final byte[] EMPTY = HConstants.EMPTY_BYTE_ARRAY;
+  private static final byte[] A = Bytes.toBytes("a");
+  private static final byte[] B = Bytes.toBytes("b");
+  private static final byte[] C = Bytes.toBytes("c");
+  private static final byte[] D = Bytes.toBytes("d");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRanges() {
+    // shared boundaries give one range per region
+    List<byte[][]> ranges = TableCopier.ranges(new byte[][] {EMPTY, B}, new byte[][] {EMPTY, B});
+    assertEquals(2, ranges.size());
+    assertArrayEquals(new byte[][] {EMPTY, B}, ranges.get(0));
+    assertArrayEquals(new byte[][] {B, EMPTY}, ranges.get(1));
+
+    // different boundaries are cut at both
+    ranges = TableCopier.ranges(new byte[][] {EMPTY, B, D}, new byte[][] {EMPTY, C});
+    assertEquals(4, ranges.size());
+    assertArrayEquals(new byte[][] {B, C}, ranges.get(1));
+    assertArrayEquals(new byte[][] {C, D}, ranges.get(2));
+    assertArrayEquals(new byte[][] {D, EMPTY}, ranges.get(3));
+  }
+
+  @Test
+  public void testCheckpoint() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("checkpoint");
+    TableCopier.Checkpoint checkpoint = new TableCopier.Checkpoint(file);
+    checkpoint.complete(EMPTY, A);
+    checkpoint.complete(B, C);
+    checkpoint.close();
+
+    // a partial line left by a copy that was killed is ignored
+    Files.write(file, "c\t".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    checkpoint = new TableCopier.Checkpoint(file);
+    assertEquals(2, checkpoint.size());
+    assertTrue(checkpoint.isComplete(EMPTY, A));
+    assertTrue(checkpoint.isComplete(B, C));
+    assertFalse(checkpoint.isComplete(A, B));
+    assertFalse(checkpoint.isComplete(B, D));
+    assertFalse(checkpoint.isComplete(C, EMPTY));
+
+    // ranges recorded under other boundaries still cover the ranges within them
+    checkpoint.complete(A, B);
+    assertTrue(checkpoint.isComplete(EMPTY, C));
+    assertTrue(checkpoint.isComplete(A, Bytes.toBytes("bb")));
+    checkpoint.complete(C, EMPTY);
+    assertTrue(checkpoint.isComplete(EMPTY, EMPTY));
+    checkpoint.close();
+
+    // and the ranges recorded after the partial line are kept
+    checkpoint = new TableCopier.Checkpoint(file);
+    assertEquals(4, checkpoint.size());
+    assertTrue(checkpoint.isComplete(EMPTY, EMPTY));
+    checkpoint.close();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TableExporterTest {
+
+  private static final byte[] EMPTY = HConstants.EMPTY_BYTE_ARRAY;
+  private static final byte[] B = Bytes.toBytes("b");
+  private static final byte[] C = Bytes.toBytes("c");
+  private static final byte[] D = Bytes.toBytes("d");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testManifest() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    TableExporter.Manifest manifest = TableExporter.Manifest.open(dir);
+    assertEquals("part-00000.exp", manifest.nextFileName());
+    String second = manifest.nextFileName();
+    manifest.add(new TableExporter.Manifest.Entry(second, C, EMPTY, 20, 2000));
+    manifest.add(new TableExporter.Manifest.Entry("part-00000.exp", EMPTY, B, 10, 1000));
+    manifest.close();
+
+    // a line cut short by an export being killed is ignored
+    Files.write(dir.resolve(TableExporter.Manifest.FILE_NAME),
+                "part-00002.exp\tb\tc\t5".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    manifest = TableExporter.Manifest.open(dir);
+    assertEquals(2, manifest.getEntries().size());
+    assertArrayEquals(EMPTY, manifest.getEntries().get(0).getStartRow());
+    assertEquals("part-00001.exp", manifest.getEntries().get(1).getFile());
+    assertEquals(30, manifest.getCells());
+    assertTrue(manifest.isComplete(EMPTY, B));
+    assertTrue(manifest.isComplete(D, EMPTY));
+    assertFalse(manifest.isComplete(B, C));
+    // numbering continues after the files already exported
+    assertEquals("part-00002.exp", manifest.nextFileName());
+    manifest.add(new TableExporter.Manifest.Entry("part-00002.exp", B, C, 5, 500));
+    manifest.close();
+
+    manifest = TableExporter.Manifest.read(dir);
+    assertEquals(3, manifest.getEntries().size());
+    assertArrayEquals(B, manifest.getEntries().get(1).getStartRow());
+    assertTrue(manifest.isComplete(EMPTY, EMPTY));
+  }
+
+  @Test
+  public void testUncovered() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    TableExporter.Manifest manifest = TableExporter.Manifest.open(dir);
+    manifest.add(new TableExporter.Manifest.Entry(manifest.nextFileName(), EMPTY, B, 10, 1000));
+    manifest.add(new TableExporter.Manifest.Entry(manifest.nextFileName(), C, D, 10, 1000));
+
+    // a region merged since covering ranges already exported only exports the parts it adds
+    List<byte[][]> uncovered = manifest.uncovered(EMPTY, EMPTY);
+    assertEquals(2, uncovered.size());
+    assertArrayEquals(new byte[][] {B, C}, uncovered.get(0));
+    assertArrayEquals(new byte[][] {D, EMPTY}, uncovered.get(1));
+    uncovered = manifest.uncovered(Bytes.toBytes("a"), Bytes.toBytes("cc"));
+    assertEquals(1, uncovered.size());
+    assertArrayEquals(new byte[][] {B, C}, uncovered.get(0));
+    assertTrue(manifest.uncovered(C, D).isEmpty());
+    assertEquals(1, manifest.uncovered(B, C).size());
+
+    manifest.add(new TableExporter.Manifest.Entry(manifest.nextFileName(), D, EMPTY, 10, 1000));
+    assertTrue(manifest.uncovered(D, EMPTY).isEmpty());
+    uncovered = manifest.uncovered(EMPTY, EMPTY);
+    assertEquals(1, uncovered.size());
+    assertArrayEquals(new byte[][] {B, C}, uncovered.get(0));
+    manifest.close();
+  }
+}
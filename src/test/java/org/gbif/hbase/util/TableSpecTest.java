@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gbif.hbase.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TableSpecTest {
+
+  private static final String JSON = "{\"tables\": [{\n"
+                                     + "  \"name\": \"occurrence\",\n"
+                                     + "  \"regionSizeMB\": 4096,\n"
+                                     + "  \"splits\": {\"keys\": [\"b\", \"d\"]},\n"
+                                     + "  \"families\": [{\n"
+                                     + "    \"name\": \"o\",\n"
+                                     + "    \"compression\": \"snappy\",\n"
+                                     + "    \"encoding\": \"FAST_DIFF\",\n"
+                                     + "    \"bloomFilter\": \"ROWCOL\",\n"
+                                     + "    \"blockSize\": 16384,\n"
+                                     + "    \"maxVersions\": 1\n"
+                                     + "  }, {\n"
+                                     + "    \"name\": \"v\",\n"
+                                     + "    \"inMemory\": true\n"
+                                     + "  }]\n"
+                                     + "}]}";
+
+  private static final String YAML = "tables:\n"
+                                     + "  - name: verbatim\n"
+                                     + "    saltBuckets: 4\n"
+                                     + "    families:\n"
+                                     + "      - name: v\n"
+                                     + "        ttlSeconds: 86400\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path write(String fileName, String content) throws IOException {
+    Path file = folder.getRoot().toPath().resolve(fileName);
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  public void testNewTable() throws IOException {
+    List<TableSpec> specs = TableSpec.read(write("spec.json", JSON));
+    assertEquals(1, specs.size());
+    TableDescriptor descriptor = specs.get(0).toDescriptor(null);
+    assertEquals(TableName.valueOf("occurrence"), descriptor.getTableName());
+    assertEquals(4096L * 1024 * 1024, descriptor.getMaxFileSize());
+
+    ColumnFamilyDescriptor o = descriptor.getColumnFamily(Bytes.toBytes("o"));
+    assertEquals(Compression.Algorithm.SNAPPY, o.getCompressionType());
+    assertEquals(DataBlockEncoding.FAST_DIFF, o.getDataBlockEncoding());
+    assertEquals(BloomType.ROWCOL, o.getBloomFilterType());
+    assertEquals(16384, o.getBlocksize());
+    assertEquals(1, o.getMaxVersions());
+    assertTrue(descriptor.getColumnFamily(Bytes.toBytes("v")).isInMemory());
+
+    assertArrayEquals(new byte[][] {Bytes.toBytes("b"), Bytes.toBytes("d")}, specs.get(0).splitKeys(null));
+  }
+
+  @Test
+  public void testExistingTable() throws IOException {
+    TableDescriptor existing = TableDescriptorBuilder.newBuilder(TableName.valueOf("occurrence"))
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.newBuilder(Bytes.toBytes("o"))
+                         .setCompressionType(Compression.Algorithm.GZ)
+                         .setTimeToLive(3600)
+                         .build())
+      .setColumnFamily(ColumnFamilyDescriptorBuilder.of("x"))
+      .build();
+    TableDescriptor desired = TableSpec.read(write("spec.json", JSON)).get(0).toDescriptor(existing);
+
+    ColumnFamilyDescriptor o = desired.getColumnFamily(Bytes.toBytes("o"));
+    assertEquals(Compression.Algorithm.SNAPPY, o.getCompressionType());
+    // settings the spec leaves out are kept, as are families it leaves out
+    assertEquals(3600, o.getTimeToLive());
+    assertTrue(desired.hasColumnFamily(Bytes.toBytes("x")));
+
+    List<String> differences = TableSpecApplier.differences(existing, desired);
+    assertTrue(differences.contains("o compression GZ -> SNAPPY"));
+    assertTrue(differences.contains("add family v"));
+    assertFalse(differences.stream().anyMatch(d -> d.startsWith("o ttl")));
+    assertTrue(TableSpecApplier.differences(desired, desired).isEmpty());
+  }
+
+  @Test
+  public void testYamlAndSalting() throws IOException {
+    TableSpec spec = TableSpec.read(write("spec.yaml", YAML)).get(0);
+    assertEquals(86400, spec.toDescriptor(null).getColumnFamily(Bytes.toBytes("v")).getTimeToLive());
+
+    assertArrayEquals(new byte[][] {{1}, {2}, {3}}, spec.splitKeys(null));
+    assertEquals(4, spec.getSaltedKeys().getBuckets());
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownSetting() throws IOException {
+    TableSpec.read(write("spec.json", JSON.replace("blockSize", "blocksize")));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidCompression() throws IOException {
+    TableSpec.read(write("spec.json", JSON.replace("snappy", "zip")));
+  }
+}